@@ -0,0 +1,89 @@
+package hu.sztaki.phytree.bench;
+
+import java.util.Random;
+
+/**
+ * Trees and FASTA text for the benchmarks, generated the same way for the
+ * same parameters. Leaves are named like the FASTA headers (sp|L<i>|bench)
+ * so the sequences can be attached to them.
+ */
+public class BenchmarkData {
+
+  static final String PATTERN = "HD";
+  // residues without H, so the pattern only occurs where it is planted
+  private static final String RESIDUES = "ACDEFGIKLMNPQRSTVWY";
+  private static final int SEQUENCE_LENGTH = 120;
+
+  private BenchmarkData() {
+  }
+
+  static String leafName(int i) {
+    return "sp|L" + i + "|bench";
+  }
+
+  /** A tree of the shape "balanced" or "caterpillar", in Newick. */
+  static String newick(int leaves, String shape, long seed) {
+    Random rnd = new Random(seed);
+    StringBuilder sb = new StringBuilder(leaves * 24);
+    if (shape.equals("caterpillar")) {
+      for (int i = 0; i < leaves - 1; i++) {
+        sb.append('(').append(leafName(i)).append(':')
+            .append(length(rnd)).append(',');
+      }
+      sb.append(leafName(leaves - 1)).append(':').append(length(rnd));
+      for (int i = 0; i < leaves - 1; i++) {
+        sb.append("):").append(length(rnd));
+      }
+    } else if (shape.equals("balanced")) {
+      appendBalanced(sb, 0, leaves, rnd);
+    } else {
+      throw new IllegalArgumentException("Unknown tree shape: " + shape);
+    }
+    return sb.append(';').toString();
+  }
+
+  private static void appendBalanced(StringBuilder sb, int first, int end,
+      Random rnd) {
+    if (end - first == 1) {
+      sb.append(leafName(first));
+    } else {
+      int middle = (first + end) / 2;
+      sb.append('(');
+      appendBalanced(sb, first, middle, rnd);
+      sb.append(',');
+      appendBalanced(sb, middle, end, rnd);
+      sb.append(')');
+    }
+    sb.append(':').append(length(rnd));
+  }
+
+  private static String length(Random rnd) {
+    return String.valueOf(rnd.nextInt(1000) / 1000.0);
+  }
+
+  /**
+   * A FASTA record for every leaf; the pattern is planted in the given
+   * rate of the sequences.
+   */
+  static String fasta(int leaves, double patternFrequency, long seed) {
+    Random rnd = new Random(seed);
+    StringBuilder sb = new StringBuilder(leaves * (SEQUENCE_LENGTH + 40));
+    for (int i = 0; i < leaves; i++) {
+      sb.append('>').append(leafName(i)).append('\n');
+      char[] residues = new char[SEQUENCE_LENGTH];
+      for (int j = 0; j < residues.length; j++) {
+        residues[j] = RESIDUES.charAt(rnd.nextInt(RESIDUES.length()));
+      }
+      if (rnd.nextDouble() < patternFrequency) {
+        int at = rnd.nextInt(residues.length - PATTERN.length());
+        PATTERN.getChars(0, PATTERN.length(), residues, at);
+      }
+      for (int j = 0; j < residues.length; j += 60) {
+        sb.append(residues, j, Math.min(60, residues.length - j))
+            .append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+}
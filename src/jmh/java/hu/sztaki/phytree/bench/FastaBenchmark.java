@@ -0,0 +1,89 @@
+package hu.sztaki.phytree.bench;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.io.FastaReader;
+import hu.sztaki.phytree.io.FastaWriter;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * FastaReader.getNextFastaItem over a whole cluster, and
+ * FastaWriter.writeOrderedFastaList of it to a stream that drops the bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FastaBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  int leaves;
+
+  @Param({"0.1", "0.5", "0.9"})
+  double patternFrequency;
+
+  byte[] fasta;
+  List<FastaItem> items;
+  SequencePattern pattern;
+
+  @Setup
+  public void setUp() throws IOException {
+    fasta = BenchmarkData.fasta(leaves, patternFrequency, 2).getBytes("UTF-8");
+    items = readAll();
+    pattern = LiteralPattern.forLiteral(BenchmarkData.PATTERN);
+  }
+
+  private List<FastaItem> readAll() throws IOException {
+    FastaReader reader = new FastaReader(new ByteArrayInputStream(fasta));
+    List<FastaItem> ret = new ArrayList<FastaItem>();
+    FastaItem item = reader.getNextFastaItem();
+    while (item != null) {
+      ret.add(item);
+      item = reader.getNextFastaItem();
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public List<FastaItem> readFasta() throws IOException {
+    return readAll();
+  }
+
+  @Benchmark
+  public void writeOrderedFasta(final Blackhole bh) throws IOException {
+    new FastaWriter(new OutputStream() {
+      @Override
+      public void write(int b) {
+        bh.consume(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        bh.consume(len);
+      }
+    }).writeOrderedFastaList(items, pattern);
+  }
+
+}
@@ -0,0 +1,125 @@
+package hu.sztaki.phytree.bench;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.SubTreeSearch;
+import hu.sztaki.phytree.TreeParser;
+import hu.sztaki.phytree.io.FastaReader;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.tree.SeqsToTreeNodes;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The steps after parsing, on one tree with its sequences:
+ * SeqsToTreeNodes.appendSeqsToNodes, SubTreeSearch.findSubtrees and
+ * TreeNode.getNewickSubtree of the whole tree.
+ *
+ * The nodes cache their pattern counts, so findSubtrees gets a freshly
+ * parsed tree for every call; the caterpillars need a big thread stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  int leaves;
+
+  @Param({"balanced", "caterpillar"})
+  String shape;
+
+  @Param({"0.1", "0.5", "0.9"})
+  double patternFrequency;
+
+  String newick;
+  Tree tree;
+  List<FastaItem> items;
+  Configuration conf;
+
+  /** A tree with its sequences and no pattern counts yet. */
+  @State(Scope.Thread)
+  public static class FreshTree {
+    Tree tree;
+
+    @Setup(Level.Invocation)
+    public void setUp(SearchBenchmark data) {
+      tree = data.parse();
+      SeqsToTreeNodes sqtn = new SeqsToTreeNodes();
+      sqtn.setTree(tree);
+      sqtn.setFastaItems(data.items);
+      sqtn.appendSeqsToNodes();
+    }
+  }
+
+  Tree parse() {
+    return new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    newick = BenchmarkData.newick(leaves, shape, 1);
+    tree = parse();
+    FastaReader reader = new FastaReader(new ByteArrayInputStream(
+        BenchmarkData.fasta(leaves, patternFrequency, 2).getBytes("UTF-8")));
+    items = new ArrayList<FastaItem>();
+    FastaItem item = reader.getNextFastaItem();
+    while (item != null) {
+      items.add(item);
+      item = reader.getNextFastaItem();
+    }
+    appendSeqs();
+    conf = new PropertiesConfiguration();
+    conf.addProperty("seqPattern", BenchmarkData.PATTERN);
+    conf.addProperty("minLeafNum", 8);
+    conf.addProperty("minPatternPercent", 60);
+  }
+
+  @Benchmark
+  public Tree appendSeqs() {
+    SeqsToTreeNodes sqtn = new SeqsToTreeNodes();
+    sqtn.setTree(tree);
+    sqtn.setFastaItems(items);
+    return sqtn.appendSeqsToNodes();
+  }
+
+  @Benchmark
+  public List<TreeNode> findSubtrees(FreshTree fresh) {
+    SubTreeSearch ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    ts.setPattern(LiteralPattern.forLiteral(BenchmarkData.PATTERN));
+    return ts.findSubtrees(fresh.tree);
+  }
+
+  @Benchmark
+  public String newickSubtree() {
+    return tree.getRoot().getNewickSubtree(true);
+  }
+
+}
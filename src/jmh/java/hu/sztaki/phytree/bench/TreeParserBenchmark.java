@@ -0,0 +1,53 @@
+package hu.sztaki.phytree.bench;
+
+import hu.sztaki.phytree.TreeParser;
+import hu.sztaki.phytree.tree.Tree;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TreeParser.tokenize on an in-memory Newick string; the caterpillars need
+ * a big thread stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TreeParserBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  int leaves;
+
+  @Param({"balanced", "caterpillar"})
+  String shape;
+
+  String newick;
+
+  @Setup
+  public void setUp() {
+    newick = BenchmarkData.newick(leaves, shape, 1);
+  }
+
+  @Benchmark
+  public Tree tokenize() {
+    return new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+  }
+
+}
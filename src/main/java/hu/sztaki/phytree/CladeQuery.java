@@ -0,0 +1,82 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.tree.LcaIndex;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the smallest clade of a tree containing a set of accessions, for
+ * many sets at once. Accessions are the AC numbers of the FASTA items of the
+ * leaves (or full leaf names). Each query takes time linear in the size of
+ * its set, using the LCA index of the tree.
+ */
+public class CladeQuery {
+
+  private final Tree tree;
+  private final LcaIndex lcaIndex;
+  private final Map<String, TreeNode> leavesByAccession =
+      new HashMap<String, TreeNode>();
+
+  public CladeQuery(Tree tree) {
+    this.tree = tree;
+    this.lcaIndex = tree.getLcaIndex();
+    for (TreeNode node : tree.nodes) {
+      if (node.isLeaf() && node.getSequence() != null) {
+        leavesByAccession.put(node.getSequence().getAcNum(), node);
+      }
+    }
+  }
+
+  // by AC number first, then by leaf name
+  public TreeNode getLeaf(String accession) {
+    TreeNode leaf = leavesByAccession.get(accession);
+    if (leaf == null) {
+      leaf = tree.getNodeByName(accession);
+    }
+    return leaf;
+  }
+
+  public CladeStats findClade(Collection<String> accessions,
+      SequencePattern pattern) {
+    List<TreeNode> leaves = new ArrayList<TreeNode>(accessions.size());
+    List<String> missing = new ArrayList<String>();
+    for (String accession : accessions) {
+      TreeNode leaf = getLeaf(accession);
+      if (leaf != null) {
+        leaves.add(leaf);
+      } else {
+        missing.add(accession);
+      }
+    }
+    TreeNode clade = lcaIndex.lca(leaves);
+    int patternLeaves = 0;
+    if (clade != null && pattern != null) {
+      patternLeaves = clade.getLeafNumWithPattern(pattern);
+    }
+    return new CladeStats(clade, accessions.size(), leaves.size(), missing,
+        patternLeaves);
+  }
+
+  /**
+   * Returns the minimal clade of each set of accessions, with its leaf and
+   * pattern leaf counts (for the pattern prepared for this tree once). The
+   * pattern may be null.
+   */
+  public List<CladeStats> findClades(
+      List<? extends Collection<String>> accessionSets, SequencePattern pattern) {
+    SequencePattern treePattern = pattern == null ? null : pattern.prepare(tree);
+    List<CladeStats> ret = new ArrayList<CladeStats>(accessionSets.size());
+    for (Collection<String> accessions : accessionSets) {
+      ret.add(findClade(accessions, treePattern));
+    }
+    return ret;
+  }
+
+}
@@ -0,0 +1,65 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The answer to one clade query: the smallest clade containing the
+ * accessions found in the tree, and its composition.
+ */
+public class CladeStats {
+
+  private final TreeNode clade;
+  private final int requested;
+  private final int found;
+  private final List<String> missing;
+  private final int patternLeafNum;
+
+  public CladeStats(TreeNode clade, int requested, int found,
+      List<String> missing, int patternLeafNum) {
+    this.clade = clade;
+    this.requested = requested;
+    this.found = found;
+    this.missing = Collections.unmodifiableList(missing);
+    this.patternLeafNum = patternLeafNum;
+  }
+
+  // null if none of the accessions is in the tree
+  public TreeNode getClade() {
+    return clade;
+  }
+
+  public int getRequested() {
+    return requested;
+  }
+
+  public int getFound() {
+    return found;
+  }
+
+  public List<String> getMissing() {
+    return missing;
+  }
+
+  public int getLeafNum() {
+    return clade == null ? 0 : clade.getLeafNum();
+  }
+
+  public int getPatternLeafNum() {
+    return patternLeafNum;
+  }
+
+  public double getPatternPercent() {
+    int leaves = getLeafNum();
+    return leaves == 0 ? 0 : 100.0 * patternLeafNum / leaves;
+  }
+
+  @Override
+  public String toString() {
+    return "clade of " + found + "/" + requested + " accessions: "
+        + getLeafNum() + " leaves, " + patternLeafNum + " with pattern";
+  }
+
+}
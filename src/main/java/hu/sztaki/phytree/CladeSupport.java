@@ -0,0 +1,204 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.io.NewickEventParser;
+import hu.sztaki.phytree.io.NewickHandler;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bootstrap (or posterior) support of clades: in how many replicate trees
+ * of a NEXUS file the same set of leaves is a clade.
+ *
+ * A leaf set is hashed by XOR-ing a 64-bit hash of every leaf name, so the
+ * hash of a clade is the XOR of the hashes of its children and all clades
+ * of a replicate are hashed in one pass over its text, by a
+ * {@link NewickEventParser}, without building the tree. A clade of a
+ * replicate also counts for the complement of its leaf set, so the support
+ * does not depend on where the replicates are rooted. Replicates are
+ * divided among the threads; each is read once.
+ */
+public class CladeSupport {
+
+  // replicates a thread takes at a time
+  private static final int REPLICATES_PER_TASK = 16;
+
+  private final List<TreeNode> clades;
+  // ordinals of the clades by the hash of their leaf set
+  private final Map<Long, List<Integer>> ordinals =
+      new HashMap<Long, List<Integer>>();
+  private int[] counts;
+  private int replicates;
+
+  /** The clades to count, as subtrees of a reference tree. */
+  public CladeSupport(List<TreeNode> clades) {
+    this.clades = clades;
+    for (int i = 0; i < clades.size(); i++) {
+      long hash = hashLeaves(clades.get(i));
+      List<Integer> same = ordinals.get(hash);
+      if (same == null) {
+        same = new ArrayList<Integer>(1);
+        ordinals.put(hash, same);
+      }
+      same.add(i);
+    }
+    counts = new int[clades.size()];
+  }
+
+  /** 64-bit hash of a leaf name (FNV-1a, then mixed). */
+  public static long hashLeaf(String name) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      h ^= name.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  /** Hash of the leaf set of the subtree. */
+  public static long hashLeaves(TreeNode node) {
+    long hash = 0;
+    for (TreeNode n = node.leftmostLeaf; n != null; n = n.preorderNext) {
+      if (n.isLeaf()) {
+        hash ^= hashLeaf(n.getName());
+      }
+      if (n == node.rightmostLeaf) {
+        break;
+      }
+    }
+    return hash;
+  }
+
+  /** Counts the clades in the trees of the NEXUS file. */
+  public void countReplicates(File nexusFile, int threads)
+      throws IOException {
+    final NexusTreeReader reader = new NexusTreeReader(nexusFile, threads);
+    final List<NexusTreeReader.TreeStatement> statements =
+        reader.getTreeStatements();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      List<Future<int[]>> parts = new ArrayList<Future<int[]>>();
+      for (int first = 0; first < statements.size();
+          first += REPLICATES_PER_TASK) {
+        final int from = first;
+        final int to = Math.min(statements.size(),
+            first + REPLICATES_PER_TASK);
+        parts.add(pool.submit(new Callable<int[]>() {
+          @Override
+          public int[] call() throws IOException {
+            int[] found = new int[clades.size()];
+            for (int i = from; i < to; i++) {
+              countReplicate(reader.readNewick(statements.get(i)),
+                  reader.getTranslation(), found);
+            }
+            return found;
+          }
+        }));
+      }
+      for (Future<int[]> part : parts) {
+        int[] found = get(part);
+        for (int i = 0; i < found.length; i++) {
+          counts[i] += found[i];
+        }
+      }
+      replicates += statements.size();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // adds 1 to found for the clades in the replicate
+  void countReplicate(String newick, final Map<String, String> translation,
+      int[] found) throws IOException {
+    final List<Long> cladeHashes = new ArrayList<Long>();
+    // XOR of the leaves below each open clade
+    final List<Long> stack = new ArrayList<Long>();
+    stack.add(0L);
+    new NewickEventParser(new StringReader(newick)).parse(new NewickHandler() {
+      @Override
+      public void openClade(long offset) {
+        stack.add(0L);
+      }
+
+      @Override
+      public void leaf(String name, float length, long start, long end) {
+        String translated = translation.get(name);
+        long hash = hashLeaf(translated != null ? translated : name);
+        cladeHashes.add(hash);
+        xorIntoTop(hash);
+      }
+
+      @Override
+      public void closeClade(String name, float length, long end) {
+        long hash = stack.remove(stack.size() - 1);
+        cladeHashes.add(hash);
+        xorIntoTop(hash);
+      }
+
+      private void xorIntoTop(long hash) {
+        int top = stack.size() - 1;
+        stack.set(top, stack.get(top) ^ hash);
+      }
+    });
+    long all = stack.get(0);
+    BitSet seen = new BitSet(clades.size());
+    for (long hash : cladeHashes) {
+      mark(hash, seen);
+      mark(all ^ hash, seen);
+    }
+    for (int i = seen.nextSetBit(0); i >= 0; i = seen.nextSetBit(i + 1)) {
+      found[i]++;
+    }
+  }
+
+  private void mark(long hash, BitSet seen) {
+    List<Integer> same = ordinals.get(hash);
+    if (same != null) {
+      for (int i : same) {
+        seen.set(i);
+      }
+    }
+  }
+
+  public int getReplicateCount() {
+    return replicates;
+  }
+
+  /** Number of replicates the clade (by its position in the list) is in. */
+  public int getCount(int clade) {
+    return counts[clade];
+  }
+
+  /** The rate of replicates with the clade, 0 if there were none. */
+  public double getSupport(int clade) {
+    return replicates == 0 ? 0.0 : (double) counts[clade] / replicates;
+  }
+
+  private static int[] get(Future<int[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while counting clades", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not read a replicate tree", e.getCause());
+    }
+  }
+
+}
@@ -1,27 +1,50 @@
 package hu.sztaki.phytree;
 
 
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.memory.ObjectSizes;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.PatternScanner;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class FastaItem implements Comparable<FastaItem> {
 
+  private static final Logger LOG = Log.getLogger(FastaItem.class);
+
   private final String headerRow;
   private final String acNum; // access number, works as an ID
   private List<String> sequenceRows = new ArrayList<String>();
   private String fragId;
-  // contains as many numbers as total num of chars in sequendeRows
-  private StringBuilder seqBuilder = null;
+  // position of the item in its FASTA file, -1 if unknown
+  private int index = -1;
+  // concatenated sequenceRows as bytes, built on the first match; the only
+  // copy of the residues kept besides the rows
+  private ByteBuffer residueBuffer = null;
+
+  // when the residues were moved to a SequenceArena, the item is only a view
+  // of it: sequenceRows is null and the row structure is kept in rowLengths
+  private SequenceArena arena = null;
+  private long arenaHandle;
+  private int sequenceLength;
+  private int[] rowLengths;
 
   public FastaItem(String header, String ac, String fragment) {
     if (!header.contains(ac)) {
-      System.out.println("WARNING: fasta item header does not contain the given AC num (" + ac + ")\n" + header );
+      LOG.warn("fasta item header does not contain the given AC num (" + ac + ")\n" + header);
     }
     headerRow = header;
     acNum = ac;
     fragId = fragment;
   }
-  
+
   public String getFragId() {
     return fragId;
   }
@@ -30,6 +53,14 @@ public class FastaItem implements Comparable<FastaItem> {
     this.fragId = fragId;
   }
 
+  public int getIndex() {
+    return index;
+  }
+
+  public void setIndex(int index) {
+    this.index = index;
+  }
+
   public String getHeaderRow() {
     return headerRow;
   }
@@ -40,28 +71,203 @@ public class FastaItem implements Comparable<FastaItem> {
 
   public void setSequenceRows(List<String> sequenceRows) {
     this.sequenceRows = sequenceRows;
+    arena = null;
+    residueBuffer = null;
   }
 
   public void addSeqRow(String s) {
+    if (arena != null) {
+      sequenceRows = rebuildRows();
+      arena = null;
+    }
     sequenceRows.add(s);
+    residueBuffer = null;
   }
 
+  /**
+   * Moves the residues of this item into the arena. Afterwards the item keeps
+   * only the handle, the length and the lengths of the rows. Residues the
+   * arena can not store as they are stay on the heap, in the rows.
+   */
+  public void moveSequenceTo(SequenceArena target) {
+    if (arena != null) {
+      return;
+    }
+    for (String row : sequenceRows) {
+      if (!target.canStore(row)) {
+        return;
+      }
+    }
+    rowLengths = new int[sequenceRows.size()];
+    sequenceLength = 0;
+    target.beginSequence();
+    for (int i = 0; i < rowLengths.length; i++) {
+      String row = sequenceRows.get(i);
+      target.appendRow(row);
+      rowLengths[i] = row.length();
+      sequenceLength += row.length();
+    }
+    arenaHandle = target.endSequence();
+    arena = target;
+    sequenceRows = null;
+    residueBuffer = null;
+  }
+
+  public boolean isInArena() {
+    return arena != null;
+  }
+
+  public int getSequenceLength() {
+    if (arena != null) {
+      return sequenceLength;
+    }
+    int len = 0;
+    for (String s : sequenceRows) {
+      len += s.length();
+    }
+    return len;
+  }
+
+  /**
+   * Estimated heap bytes of this item: the header, the rows (or only their
+   * lengths if the residues are in the arena) and the cached residues.
+   */
+  public long getHeapBytes() {
+    long bytes = ObjectSizes.shallowSize(FastaItem.class)
+        + ObjectSizes.stringSize(headerRow) + ObjectSizes.stringSize(acNum)
+        + ObjectSizes.stringSize(fragId);
+    if (sequenceRows != null) {
+      bytes += ObjectSizes.arrayListSize(sequenceRows);
+      for (String row : sequenceRows) {
+        bytes += ObjectSizes.stringSize(row);
+      }
+    }
+    if (rowLengths != null) {
+      bytes += ObjectSizes.intArraySize(rowLengths.length);
+    }
+    if (residueBuffer != null) {
+      bytes += ObjectSizes.shallowSize(residueBuffer.getClass())
+          + ObjectSizes.byteArraySize(residueBuffer.capacity());
+    }
+    return bytes;
+  }
+
+  /** Bytes of the residues in the (off-heap) arena, 0 if not there. */
+  public long getArenaBytes() {
+    if (arena == null) {
+      return 0;
+    }
+    return arena.isPacked() ? (sequenceLength * 5L + 7) / 8 : sequenceLength;
+  }
+
+  // built on every call, not kept: the item already has the rows
   public String getSequenceString() {
-    seqBuilder = new StringBuilder();
+    if (arena != null) {
+      return arena.getString(arenaHandle, sequenceLength);
+    }
+    if (sequenceRows.size() == 1) {
+      return sequenceRows.get(0);
+    }
+    StringBuilder seqBuilder = new StringBuilder(getSequenceLength());
     for (String s : sequenceRows) {
       seqBuilder.append(s);
     }
     return seqBuilder.toString();
   }
-  
+
+  /**
+   * Checks whether the sequence contains the pattern. Arena backed items are
+   * scanned in place, without building the sequence string.
+   */
+  public boolean containsPattern(String pattern) {
+    return matches(LiteralPattern.forLiteral(pattern));
+  }
+
+  public boolean matches(SequencePattern pattern) {
+    if (arena != null) {
+      return arena.matches(arenaHandle, sequenceLength, pattern);
+    }
+    ByteBuffer residues = getResidueBuffer();
+    return pattern.matches(residues, 0, residues.capacity());
+  }
+
+  // residues of a list backed item as bytes, built on first use straight
+  // from the rows
+  private ByteBuffer getResidueBuffer() {
+    ByteBuffer residues = residueBuffer;
+    if (residues == null) {
+      byte[] bytes = new byte[getSequenceLength()];
+      int pos = 0;
+      try {
+        for (String row : sequenceRows) {
+          byte[] rowBytes = row.getBytes("ISO-8859-1");
+          System.arraycopy(rowBytes, 0, bytes, pos, rowBytes.length);
+          pos += rowBytes.length;
+        }
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+      residues = PatternScanner.wrap(bytes);
+      residueBuffer = residues;
+    }
+    return residues;
+  }
+
+  // arena backed items return a copy of their rows
   public List<String> getSequenceRows(){
+    if (arena != null) {
+      return rebuildRows();
+    }
     return sequenceRows;
   }
 
+  private List<String> rebuildRows() {
+    List<String> rows = new ArrayList<String>(rowLengths.length);
+    byte[] row = new byte[0];
+    int from = 0;
+    for (int len : rowLengths) {
+      if (row.length < len) {
+        row = new byte[len];
+      }
+      arena.copyResidues(arenaHandle, from, len, row, 0);
+      try {
+        rows.add(new String(row, 0, len, "ISO-8859-1"));
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+      from += len;
+    }
+    return rows;
+  }
+
+  /**
+   * Writes the sequence rows, each followed by a newline, to the stream.
+   * Arena backed items are copied from the arena through one row buffer.
+   */
+  public void writeSequenceRows(OutputStream os) throws IOException {
+    if (arena == null) {
+      for (String sequenceRow : sequenceRows) {
+        os.write(sequenceRow.getBytes("UTF-8"));
+        os.write('\n');
+      }
+      return;
+    }
+    byte[] row = new byte[0];
+    int from = 0;
+    for (int len : rowLengths) {
+      if (row.length < len + 1) {
+        row = new byte[len + 1];
+      }
+      arena.copyResidues(arenaHandle, from, len, row, 0);
+      row[len] = '\n';
+      os.write(row, 0, len + 1);
+      from += len;
+    }
+  }
+
   @Override
   public int compareTo(FastaItem other) {
-    return acNum.compareTo((other).acNum);      
+    return acNum.compareTo((other).acNum);
   }
 
 }
-
@@ -1,8 +1,23 @@
 package hu.sztaki.phytree;
 
 import hu.sztaki.fileops.FileNumber;
+import hu.sztaki.phytree.index.KmerIndex;
+import hu.sztaki.phytree.io.FastaAccessionIndex;
 import hu.sztaki.phytree.io.FastaReader;
-import hu.sztaki.phytree.io.FastaWriter;
+import hu.sztaki.phytree.io.InputFiles;
+import hu.sztaki.phytree.io.ResultDescriptor;
+import hu.sztaki.phytree.io.ResultWriter;
+import hu.sztaki.phytree.log.Level;
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.memory.FootprintAccounting;
+import hu.sztaki.phytree.memory.TreeTooLargeException;
+import hu.sztaki.phytree.metrics.Stage;
+import hu.sztaki.phytree.metrics.StageMetrics;
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.pattern.SequencePatterns;
+import hu.sztaki.phytree.stats.EnrichmentTest;
+import hu.sztaki.phytree.succinct.SuccinctTree;
 import hu.sztaki.phytree.tree.SeqsToTreeNodes;
 import hu.sztaki.phytree.tree.Tree;
 import hu.sztaki.phytree.tree.TreeNode;
@@ -13,12 +28,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -26,6 +45,8 @@ import org.apache.commons.configuration.PropertiesConfiguration;
 
 public class Main {
 
+  private static final Logger LOG = Log.getLogger(Main.class);
+
   Configuration config;
   boolean renameTreeSeqs = false;
   boolean treeColors = true;
@@ -33,6 +54,33 @@ public class Main {
   String pattern;
   String treeDir;
   String fastaDir;
+  ResultWriter resultWriter;
+  SequenceArena sequenceArena;
+  // seqPattern, compiled once for the run
+  SequencePattern seqPattern;
+  // k of the per cluster k-mer indexes, 0 if turned off
+  int kmerLength = 0;
+  boolean fmIndex = false;
+  String indexDir;
+  // trees are kept as balanced parentheses instead of TreeNode objects
+  boolean succinctTrees = false;
+  // trees are searched while they are read, never kept in memory
+  boolean streamingSearch = false;
+  // threads parsing one tree file
+  int parseThreads = 1;
+  // trees of NEXUS files are searched too; NEXUS files are read on
+  // nexusThreads threads
+  boolean nexusTrees = false;
+  int nexusThreads = 1;
+  // replicate trees of the clusters, for the support of result clades
+  Map<Integer, File> supportFiles;
+  List<String> supportLines = new ArrayList<String>();
+  // time and throughput of the stages, summed up at the end of the run
+  StageMetrics metrics = new StageMetrics();
+  // where the stages are reported as JSON, if set
+  String metricsReport;
+  // memory of the loaded trees, null if not accounted
+  FootprintAccounting footprint;
 
 
   private boolean checkRequiredConfigPropertiesExist() {
@@ -61,12 +109,222 @@ public class Main {
     return true;
   }
   
+  private ResultWriter createResultWriter() {
+    boolean asyncOutput = true;
+    if (config.containsKey("asyncOutput")) {
+      if (config.getString("asyncOutput").toLowerCase().equals("no")) {
+        asyncOutput = false;
+        System.out.println("Asynchronous output is turned OFF");
+      }
+    }
+    boolean fsync = false;
+    if (config.containsKey("outputFsync")) {
+      fsync = config.getString("outputFsync").toLowerCase().equals("yes");
+    }
+    ResultWriter writer = new ResultWriter(asyncOutput,
+        config.getInt("outputQueueSize", ResultWriter.DEFAULT_QUEUE_SIZE),
+        config.getInt("outputBatchSize", ResultWriter.DEFAULT_BATCH_SIZE),
+        fsync);
+    writer.setMetrics(metrics);
+    if (config.containsKey("compressOutput")) {
+      if (config.getString("compressOutput").toLowerCase().equals("yes")) {
+        int threads = config.getInt("compressThreads",
+            Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+          System.out.println("Please specify a positive \"compressThreads\"!");
+          System.exit(3);
+        }
+        writer.setCompression(threads);
+        System.out.println("Output compression is turned ON (" + threads
+            + " threads)");
+      }
+    }
+    return writer;
+  }
+
+  // residues of the whole run are kept off-heap unless turned off
+  private SequenceArena createSequenceArena() {
+    if (config.containsKey("sequenceArena")) {
+      if (config.getString("sequenceArena").toLowerCase().equals("no")) {
+        System.out.println("Sequence arena is turned OFF");
+        return null;
+      }
+    }
+    boolean packed = false;
+    if (config.containsKey("packedSequences")) {
+      packed = config.getString("packedSequences").toLowerCase().equals("yes");
+    }
+    return new SequenceArena(packed);
+  }
+
+  // sequence indexes are off unless kmerIndex = yes or fmIndex = yes
+  private void readIndexConfig() {
+    indexDir = config.getString("indexDir", null);
+    if (config.containsKey("fmIndex")) {
+      if (config.getString("fmIndex").toLowerCase().equals("yes")) {
+        fmIndex = true;
+        System.out.println("FM-index is turned ON");
+      }
+    }
+    if (config.containsKey("kmerIndex")) {
+      if (config.getString("kmerIndex").toLowerCase().equals("yes")) {
+        kmerLength = config.getInt("kmerLength", KmerIndex.DEFAULT_KMER_LENGTH);
+        if (kmerLength < 1 || kmerLength > KmerIndex.MAX_KMER_LENGTH) {
+          System.out.println("Please specify a \"kmerLength\" between 1 and "
+              + KmerIndex.MAX_KMER_LENGTH + "!");
+          System.exit(3);
+        }
+        if (fmIndex) {
+          System.out.println("Please turn on only one of \"kmerIndex\" and "
+              + "\"fmIndex\"!");
+          System.exit(3);
+        }
+        System.out.println("K-mer index is turned ON (k = " + kmerLength + ")");
+      }
+    }
+  }
+
+  // succinct trees and streaming support the plain search only
+  private void readTreeStorageConfig() {
+    if (config.containsKey("succinctTrees")) {
+      if (config.getString("succinctTrees").toLowerCase().equals("yes")) {
+        succinctTrees = true;
+        System.out.println("Succinct trees are turned ON");
+      }
+    }
+    if (succinctTrees && (config.containsKey("topK")
+        || config.containsKey("maxCladeDepth")
+        || config.containsKey("maxMeanCladeDepth")
+        || config.containsKey("maxCladeDiameter"))) {
+      System.out.println("Please turn off \"succinctTrees\" for \"topK\" "
+          + "searches and branch length limits!");
+      System.exit(3);
+    }
+    if (config.containsKey("streamingSearch")) {
+      if (config.getString("streamingSearch").toLowerCase().equals("yes")) {
+        streamingSearch = true;
+        System.out.println("Streaming search is turned ON");
+      }
+    }
+    if (streamingSearch && (succinctTrees || config.containsKey("topK")
+        || kmerLength > 0 || fmIndex
+        || config.containsKey("maxCladeDepth")
+        || config.containsKey("maxMeanCladeDepth")
+        || config.containsKey("maxCladeDiameter"))) {
+      System.out.println("Please turn off \"streamingSearch\" for succinct "
+          + "trees, \"topK\" searches, sequence indexes and branch length "
+          + "limits!");
+      System.exit(3);
+    }
+    if (config.containsKey("parallelParse")) {
+      if (config.getString("parallelParse").toLowerCase().equals("yes")) {
+        parseThreads = config.getInt("parseThreads",
+            Runtime.getRuntime().availableProcessors());
+        if (parseThreads < 1) {
+          System.out.println("Please specify a positive \"parseThreads\"!");
+          System.exit(3);
+        }
+        System.out.println("Parallel parsing is turned ON (" + parseThreads
+            + " threads)");
+      }
+    }
+    if (config.containsKey("nexusTrees")) {
+      if (config.getString("nexusTrees").toLowerCase().equals("yes")) {
+        nexusTrees = true;
+        nexusThreads = config.getInt("parseThreads",
+            Runtime.getRuntime().availableProcessors());
+        if (nexusThreads < 1) {
+          System.out.println("Please specify a positive \"parseThreads\"!");
+          System.exit(3);
+        }
+        System.out.println("NEXUS trees are turned ON (" + nexusThreads
+            + " threads)");
+      }
+    }
+    if (nexusTrees && (succinctTrees || streamingSearch
+        || config.containsKey("topK"))) {
+      System.out.println("Please turn off \"nexusTrees\" for succinct "
+          + "trees, streaming and \"topK\" searches!");
+      System.exit(3);
+    }
+    if (config.containsKey("supportTreesDir")) {
+      if (succinctTrees || streamingSearch || config.containsKey("topK")) {
+        System.out.println("Please remove \"supportTreesDir\" for succinct "
+            + "trees, streaming and \"topK\" searches!");
+        System.exit(3);
+      }
+      if (!new File(config.getString("supportTreesDir")).isDirectory()) {
+        System.out.println("Please specify an existing directory of NEXUS "
+            + "files with the \"supportTreesDir\" property!");
+        System.exit(3);
+      }
+      nexusThreads = config.getInt("parseThreads",
+          Runtime.getRuntime().availableProcessors());
+      System.out.println("Clade support is turned ON");
+    }
+  }
+
+  // the memory of every loaded tree is estimated if footprint is on or a
+  // limit is given; needs the tree storage settings read before
+  private void readFootprintConfig() {
+    boolean on = config.containsKey("footprint")
+        && config.getString("footprint").toLowerCase().equals("yes");
+    long maxTreeBytes = 0;
+    if (config.containsKey("maxTreeBytes")) {
+      try {
+        maxTreeBytes =
+            FootprintAccounting.parseBytes(config.getString("maxTreeBytes"));
+      } catch (IllegalArgumentException e) {
+        System.out.println("Please specify \"maxTreeBytes\" as a number of "
+            + "bytes, optionally with a k, m or g suffix!");
+        System.exit(3);
+      }
+      on = true;
+    }
+    if (!on) {
+      return;
+    }
+    if (succinctTrees || streamingSearch) {
+      System.out.println("Please remove \"footprint\" and \"maxTreeBytes\" "
+          + "for succinct trees and streaming searches!");
+      System.exit(3);
+    }
+    footprint = new FootprintAccounting(maxTreeBytes);
+    System.out.println("Footprint accounting is turned ON"
+        + (maxTreeBytes > 0 ? " (at most " + maxTreeBytes
+            + " bytes per tree)" : ""));
+  }
+
+  // info lines are written on a thread of their own unless turned off
+  private void readLogConfig() {
+    Level level = Level.INFO;
+    if (config.containsKey("logLevel")) {
+      try {
+        level = Level.fromName(config.getString("logLevel"));
+      } catch (IllegalArgumentException e) {
+        System.out.println("Invalid \"logLevel\", use debug, info, warn, "
+            + "error or off!");
+        System.exit(3);
+      }
+    }
+    boolean async = true;
+    if (config.containsKey("asyncLogging")) {
+      if (config.getString("asyncLogging").toLowerCase().equals("no")) {
+        async = false;
+        System.out.println("Asynchronous logging is turned OFF");
+      }
+    }
+    Log.configure(level, async);
+  }
+
   private void readConfig(String configFileName) {
     try {
       config = new PropertiesConfiguration(configFileName);
       if (!checkRequiredConfigPropertiesExist()) {
         System.exit(3);
       }
+      readLogConfig();
+      resultWriter = createResultWriter();
       if (!config.containsKey("seqPattern")) {
         System.out
             .println("Please specify a pattern to search for in sequences " +
@@ -80,30 +338,62 @@ public class Main {
         }
       }
       outDirPath = config.getString("outputTreeFilesDir");
+      try {
+        seqPattern = SequencePatterns.fromConfig(config);
+      } catch (IllegalArgumentException e) {
+        System.out.println("Invalid \"seqPattern\": " + e.getMessage());
+        System.exit(3);
+      }
+      if (config.containsKey("pValueTest")) {
+        try {
+          EnrichmentTest.fromName(config.getString("pValueTest"));
+        } catch (IllegalArgumentException e) {
+          System.out.println("Invalid \"pValueTest\", use hypergeometric or "
+              + "binomial!");
+          System.exit(3);
+        }
+      }
+      if (config.containsKey("topK")) {
+        if (config.getInt("topK") < 1) {
+          System.out.println("Please specify a positive \"topK\"!");
+          System.exit(3);
+        }
+        try {
+          new TopKSearch().setConfig(config);
+        } catch (IllegalArgumentException e) {
+          System.out.println("Invalid \"topKScore\", use percent, mixed or "
+              + "significance!");
+          System.exit(3);
+        }
+      }
+      if (config.containsKey("metricsReport")) {
+        metricsReport = config.getString("metricsReport");
+      }
+      sequenceArena = createSequenceArena();
+      readIndexConfig();
+      readTreeStorageConfig();
+      readFootprintConfig();
       
     } catch (ConfigurationException e) {
       e.printStackTrace();
     }
   }
 
-  private void outputResultSubTrees(TreeNode result, int number, int counter,
-    SubTreeSearch ts) throws UnsupportedEncodingException, IOException {
-  
-    File targetFile = new File(outDirPath); 
-    targetFile.mkdirs();
-    
-    String subtree = "(" + result.getNewickSubtree(treeColors) + ");";
-    String resultFileName = outDirPath + File.separator + "sub" + number + "tree" + counter;
-
-    OutputStream outputTree = new FileOutputStream(resultFileName + ".nwk");
-    outputTree.write(subtree.getBytes("UTF-8"));
-    outputTree.flush();
-    outputTree.close();
-    FastaWriter fastaWriter = new FastaWriter(new FileOutputStream(resultFileName + ".fasta"));
+  // the result is handed over to the output stage as an immutable
+  // descriptor, the search continues while it is being written
+  private void outputResultSubTrees(TreeNode result, String number,
+      int counter, SubTreeSearch ts) throws IOException {
+    outputResultSubTrees(result, number, counter, ts.getFastaResult(result),
+        ts.getTreePattern());
+  }
 
-    List<FastaItem> fastaResult = ts.getFastaResult(result);
-    fastaWriter.writeOrderedFastaList(fastaResult , config.getString("seqPattern"));      
-    System.out.println("Written: " + resultFileName + ".nwk and .fasta\n");
+  private void outputResultSubTrees(TreeNode result, String number,
+      int counter, List<FastaItem> fastaResult, SequencePattern pattern)
+      throws IOException {
+    String subtree = "(" + result.getNewickSubtree(treeColors) + ");";
+    String resultName = "sub" + number + "tree" + counter;
+    resultWriter.submit(new ResultDescriptor(outDirPath, resultName, subtree,
+        fastaResult, pattern));
   }
   
   private int[] doSearchSubtrees(Tree tree) {
@@ -112,18 +402,26 @@ public class Main {
     try {
       SubTreeSearch ts = new SubTreeSearch();
       ts.setConfig(config);
+      ts.setPattern(seqPattern);
+      ts.setMetrics(metrics);
       List<TreeNode> results = ts.findSubtrees(tree);
       if (results.size() > 0) {
-        int treeId = tree.getKey();
-        System.out.println("Number of result subtrees for input tree :" + 
+        // trees of a NEXUS file are told apart by their number in it
+        String treeId = tree.getNexusIndex() > 0
+            ? tree.getKey() + "_" + tree.getNexusIndex()
+            : String.valueOf(tree.getKey());
+        LOG.info("Number of result subtrees for input tree :" + 
               treeId + " is " + results.size());
         int counter = 0;
         for (TreeNode res : results) {
           outputResultSubTrees(res, treeId, counter, ts);
           counter++;
-          patternNodeCnt += res.getLeafNumWithPattern("HD");
+          patternNodeCnt += res.getLeafNumWithPattern(ts.getTreePattern());
           allNodeCnt += res.getLeafNum();
         }
+        if (supportFiles != null) {
+          countSupport(tree, treeId, results);
+        }
       }
     } catch (IOException e) {
       e.printStackTrace();
@@ -132,25 +430,293 @@ public class Main {
     return ret; 
   }
   
+  // support of the result clades in the replicate trees of the cluster
+  private void countSupport(Tree tree, String treeId, List<TreeNode> results)
+      throws IOException {
+    File replicateFile = supportFiles.get(tree.getKey());
+    if (replicateFile == null) {
+      LOG.info("No replicate trees for input tree :" + treeId);
+      return;
+    }
+    StageMetrics.StageTimer timer = metrics.start(Stage.SUPPORT,
+        tree.getKey());
+    CladeSupport support = new CladeSupport(results);
+    support.countReplicates(replicateFile, nexusThreads);
+    timer.end(replicateFile.length(), 0, 0, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      String resultName = "sub" + treeId + "tree" + i;
+      LOG.info("Support of " + resultName + ": "
+          + support.getCount(i) + " of " + support.getReplicateCount()
+          + " replicate trees");
+      supportLines.add(resultName + "\t" + results.get(i).getLeafNum() + "\t"
+          + support.getCount(i) + "\t" + support.getReplicateCount() + "\t"
+          + support.getSupport(i));
+    }
+  }
+
+  private void writeSupport() throws IOException {
+    File outDir = new File(outDirPath);
+    outDir.mkdirs();
+    PrintWriter out = new PrintWriter(new FileWriter(new File(outDir,
+        "support.tsv")));
+    try {
+      out.println("result\tleaves\treplicates_with_clade\treplicates\t"
+          + "support");
+      for (String line : supportLines) {
+        out.println(line);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private int[] doSearchSuccinctSubtrees(SuccinctTree tree) {
+    int allNodeCnt = 0;
+    int patternNodeCnt = 0;
+    SuccinctSubTreeSearch ts = new SuccinctSubTreeSearch();
+    ts.setConfig(config);
+    ts.setPattern(seqPattern);
+    StageMetrics.StageTimer timer = metrics.start(Stage.SEARCH,
+        tree.getKey());
+    List<Integer> results = ts.findSubtrees(tree);
+    timer.end(0, tree.getNodeCount(), tree.getLeafCount(), results.size());
+    if (results.size() > 0) {
+      int treeId = tree.getKey();
+      LOG.info("Number of result subtrees for input tree :" + 
+            treeId + " is " + results.size());
+      int counter = 0;
+      try {
+        for (int res : results) {
+          String subtree = "(" + tree.getNewick(res,
+              treeColors ? ts.getPatternLeaves() : null) + ");";
+          resultWriter.submit(new ResultDescriptor(outDirPath,
+              "sub" + treeId + "tree" + counter, subtree,
+              ts.getFastaResult(tree, res), ts.getTreePattern()));
+          counter++;
+          patternNodeCnt += ts.getLeafNumWithPattern(tree, res);
+          allNodeCnt += tree.getLeafNum(res);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    int[] ret = {allNodeCnt, patternNodeCnt};
+    return ret;
+  }
+
+  // results are copied from the tree file as they are, without colors
+  private int[] doStreamingSearch(File treeFile, File fastaFile) {
+    int allNodeCnt = 0;
+    int patternNodeCnt = 0;
+    StreamingSubTreeSearch ts = new StreamingSubTreeSearch();
+    ts.setConfig(config);
+    ts.setPattern(seqPattern);
+    FastaAccessionIndex sequences = null;
+    // results and sequences are read back from offsets of the files
+    if (InputFiles.isCompressed(treeFile)
+        || (fastaFile != null && InputFiles.isCompressed(fastaFile))) {
+      LOG.warn("Skipping " + treeFile.getName() + ": streaming "
+          + "search needs uncompressed files");
+      return new int[] {0, 0};
+    }
+    try {
+      if (fastaFile != null) {
+        sequences = FastaAccessionIndex.build(fastaFile);
+        ts.setSequences(sequences);
+      }
+      // reading the tree is a part of the streaming search
+      StageMetrics.StageTimer timer = metrics.start(Stage.SEARCH,
+          new FileNumber(treeFile.getPath()).getNumber());
+      List<StreamingSubTreeSearch.CladeRange> results =
+          ts.findSubtrees(treeFile);
+      timer.end(treeFile.length(), 0, 0, results.size());
+      if (results.size() > 0) {
+        int treeId = new FileNumber(treeFile.getPath()).getNumber();
+        LOG.info("Number of result subtrees for input tree :" + 
+              treeId + " is " + results.size());
+        int counter = 0;
+        for (StreamingSubTreeSearch.CladeRange res : results) {
+          resultWriter.submit(new ResultDescriptor(outDirPath,
+              "sub" + treeId + "tree" + counter, treeFile, res.getStart(),
+              res.getEnd(), ts.getFastaResult(treeFile, res),
+              ts.getPattern()));
+          counter++;
+          patternNodeCnt += res.getLeafNumWithPattern();
+          allNodeCnt += res.getLeafNum();
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (sequences != null) {
+        try {
+          sequences.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    int[] ret = {allNodeCnt, patternNodeCnt};
+    return ret;
+  }
+
+  // the best topK subtrees of all trees, written once all trees are searched
+  private int[] doSearchTopSubtrees(List<Tree> treeList) {
+    int allNodeCnt = 0;
+    int patternNodeCnt = 0;
+    TopKSearch ts = new TopKSearch();
+    ts.setConfig(config);
+    ts.setPattern(seqPattern);
+    ts.setCollector(new TopKCollector(config.getInt("topK")));
+    for (Tree tree : treeList) {
+      StageMetrics.StageTimer timer = metrics.start(Stage.SEARCH,
+          tree.getKey());
+      ts.findTopSubtrees(tree);
+      timer.end(0, tree.nodes.size(), tree.getLeafCount(), 0);
+    }
+    List<ScoredSubtree> results = ts.getCollector().getResults();
+    LOG.info("Number of top result subtrees: " + results.size()
+        + " (" + ts.getNodesScored() + " subtrees scored)");
+    Map<Integer, Integer> counters = new HashMap<Integer, Integer>();
+    try {
+      for (ScoredSubtree res : results) {
+        TopKSearch.markPatternLeaves(res);
+        int treeId = res.getTree().getKey();
+        Integer counter = counters.get(treeId);
+        counter = counter == null ? 0 : counter;
+        counters.put(treeId, counter + 1);
+        TreeNode node = res.getNode();
+        outputResultSubTrees(node, String.valueOf(treeId), counter,
+            node.addSubtreeFastaItemsToSet(new ArrayList<FastaItem>()),
+            res.getPattern());
+        patternNodeCnt += node.getLeafNumWithPattern(res.getPattern());
+        allNodeCnt += node.getLeafNum();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    int[] ret = {allNodeCnt, patternNodeCnt};
+    return ret;
+  }
+
   private void searchSubtrees() {
     TreeAndFastaFilesMatcher filesMatcher = new TreeAndFastaFilesMatcher(treeDir, fastaDir);
-    List<Tree> treeList = filesMatcher.getTreesWithSequences();
+    filesMatcher.setSequenceArena(sequenceArena);
+    filesMatcher.setKmerIndex(kmerLength, indexDir);
+    filesMatcher.setFmIndex(fmIndex, indexDir);
+    filesMatcher.setParseThreads(parseThreads);
+    filesMatcher.setMetrics(metrics);
+    filesMatcher.setFootprint(footprint);
+    if (config.containsKey("supportTreesDir")) {
+      supportFiles = filesMatcher.getNexusFilesByCluster(
+          config.getString("supportTreesDir"));
+    }
     int allNodes = 0;
     int patternNodes = 0;
-    for (Tree tree : treeList) {
-      int[] nums = doSearchSubtrees(tree);
-      allNodes += nums[0];
-      patternNodes += nums[1];
+    try {
+      if (streamingSearch) {
+        for (Map.Entry<File, File> files
+            : filesMatcher.getMatchedFiles().entrySet()) {
+          int[] nums = doStreamingSearch(files.getKey(), files.getValue());
+          allNodes += nums[0];
+          patternNodes += nums[1];
+        }
+      } else if (succinctTrees) {
+        for (SuccinctTree tree : filesMatcher.getSuccinctTreesWithSequences()) {
+          int[] nums = doSearchSuccinctSubtrees(tree);
+          allNodes += nums[0];
+          patternNodes += nums[1];
+        }
+      } else if (config.containsKey("topK")) {
+        List<Tree> treeList = filesMatcher.getTreesWithSequences();
+        int[] nums = doSearchTopSubtrees(treeList);
+        allNodes = nums[0];
+        patternNodes = nums[1];
+      } else {
+        for (Tree tree : filesMatcher.getTreesWithSequences()) {
+          int[] nums = doSearchSubtrees(tree);
+          allNodes += nums[0];
+          patternNodes += nums[1];
+        }
+        if (nexusTrees) {
+          final int[] totals = {0, 0};
+          filesMatcher.readNexusTreesWithSequences(nexusThreads,
+              new TreeAndFastaFilesMatcher.NexusTreeHandler() {
+                @Override
+                public void handle(Tree tree) {
+                  int[] nums = doSearchSubtrees(tree);
+                  totals[0] += nums[0];
+                  totals[1] += nums[1];
+                }
+              }, new ParseProgressListener() {
+                int lastTenth = 0;
+
+                @Override
+                public void progress(int done, int total) {
+                  int tenth = done * 10 / total;
+                  if (tenth > lastTenth || done == total) {
+                    LOG.info("NEXUS trees parsed: " + done + " of "
+                        + total);
+                    lastTenth = done == total ? 0 : tenth;
+                  }
+                }
+              });
+          allNodes += totals[0];
+          patternNodes += totals[1];
+        }
+      }
+    } finally {
+      // also if a tree is too large: the results found so far are written
+      finishOutput();
     }
+    // the result of the run, printed at any log level
+    Log.flush();
     System.out.println("All nodes found in all subtrees: " + allNodes + " of which " +
         patternNodes + " contain the required pattern");
   }
   
+  // drains the result writer, then logs and writes the reports of the run
+  private void finishOutput() {
+    try {
+      resultWriter.close();
+      if (supportFiles != null) {
+        writeSupport();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    LOG.info(resultWriter.getStatistics());
+    if (sequenceArena != null) {
+      LOG.info("Sequence arena: " + sequenceArena.getResidueCount()
+          + " residues in " + sequenceArena.getAllocatedBytes() + " bytes"
+          + (sequenceArena.isPacked() ? " (packed)" : ""));
+    }
+    if (footprint != null) {
+      LOG.info(footprint.getSummary());
+    }
+    LOG.info(metrics.getSummary());
+    if (metricsReport != null) {
+      try {
+        metrics.writeJsonReport(new File(metricsReport));
+        LOG.info("Stage report written to " + metricsReport);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   public static void main(String[] args) {
     if (args.length == 1) {
       Main m = new Main();
       m.readConfig(args[0]);
-      m.searchSubtrees();
+      try {
+        m.searchSubtrees();
+      } catch (TreeTooLargeException e) {
+        LOG.error(e.getMessage());
+        Log.close();
+        System.exit(4);
+      }
+      Log.close();
     } else {
       System.out.println("Expecting 1 arguments: propertiesFile");
       System.out.println("Found args: " + args.length);
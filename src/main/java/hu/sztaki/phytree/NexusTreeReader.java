@@ -0,0 +1,534 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.tree.Tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the trees of a NEXUS file without a GUI, several of them at once.
+ *
+ * A pre-scan over the words of the file finds the tree statements of the
+ * TREES blocks (and their TRANSLATE table, if any), skipping [...] comments
+ * and quoted words; the Newick text of the trees is only skipped over. The
+ * trees are then parsed by {@link TreeParser}s on a thread pool, a few ahead
+ * of the one asked for, and returned in the order of the file. Leaf names
+ * are translated in the text before parsing, so they can be found by name.
+ */
+public class NexusTreeReader {
+
+  // trees parsed ahead of the one being read, per thread
+  private static final int TREES_AHEAD_PER_THREAD = 2;
+  // characters a leaf name in Newick text ends at
+  private static final String LEAF_NAME_END = "(),:;\"";
+  // characters TreeParser only reads in a name between quotes
+  private static final String NAME_QUOTED = "(),:;[]";
+
+  /** A tree statement: its name, and its Newick text from start to end. */
+  public static class TreeStatement {
+    private final String name;
+    private final long start;
+    private final long end;
+
+    TreeStatement(String name, long start, long end) {
+      this.name = name;
+      this.start = start;
+      this.end = end;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    public long getEnd() {
+      return end;
+    }
+  }
+
+  private final File file;
+  private final List<TreeStatement> statements;
+  // numbers or short names of the TRANSLATE table to taxon names
+  private final Map<String, String> translation;
+  private final int threads;
+  // started by the first tree read
+  private ExecutorService pool;
+  private final LinkedList<Future<Tree>> parsing =
+      new LinkedList<Future<Tree>>();
+  private int submitted = 0;
+  private int read = 0;
+  private ParseProgressListener progressListener;
+
+  public NexusTreeReader(File nexusFile, int threads) throws IOException {
+    file = nexusFile;
+    Prescan prescan = new Prescan(nexusFile);
+    try {
+      prescan.scan();
+    } finally {
+      prescan.close();
+    }
+    statements = prescan.statements;
+    translation = prescan.translation;
+    this.threads = Math.max(1, threads);
+  }
+
+  public void setProgressListener(ParseProgressListener listener) {
+    progressListener = listener;
+  }
+
+  public int getTreeCount() {
+    return statements.size();
+  }
+
+  public List<TreeStatement> getTreeStatements() {
+    return Collections.unmodifiableList(statements);
+  }
+
+  /** The TRANSLATE table of the file, empty if there is none. */
+  public Map<String, String> getTranslation() {
+    return Collections.unmodifiableMap(translation);
+  }
+
+  /**
+   * The Newick text of the tree as it is in the file (with comments, and
+   * names not translated).
+   */
+  public String readNewick(TreeStatement statement) throws IOException {
+    return read(statement.start, statement.end);
+  }
+
+  /**
+   * The next tree of the file, null after the last one. Its nexus index is
+   * its number in the file (from 1), its name is the name of the statement.
+   */
+  public Tree getNextTree() throws IOException {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(threads);
+    }
+    int treesAhead = threads * TREES_AHEAD_PER_THREAD;
+    while (submitted < statements.size() && submitted - read < treesAhead) {
+      parsing.add(submit(submitted++));
+    }
+    if (read == statements.size()) {
+      return null;
+    }
+    Tree tree = get(parsing.removeFirst());
+    read++;
+    if (progressListener != null) {
+      progressListener.progress(read, statements.size());
+    }
+    return tree;
+  }
+
+  /** Stops the threads; trees parsed ahead are dropped. */
+  public void close() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+
+  private Future<Tree> submit(final int index) {
+    return pool.submit(new Callable<Tree>() {
+      @Override
+      public Tree call() throws IOException {
+        return parseTree(index);
+      }
+    });
+  }
+
+  // the text is streamed from the file to the parser, so a tree is never
+  // held as a String: it may be bigger than one can be
+  private Tree parseTree(int index) throws IOException {
+    TreeStatement statement = statements.get(index);
+    BufferedReader br = new BufferedReader(new NewickStatementReader(
+        openRegion(statement.start, statement.end), translation));
+    try {
+      Tree tree = new TreeParser(br).tokenize();
+      tree.setNexusIndex(index + 1);
+      tree.setFileName(statement.name);
+      return tree;
+    } finally {
+      br.close();
+    }
+  }
+
+  // the default charset, as read by TreeParser from a FileReader
+  private Reader openRegion(long start, long end) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      long skipped = 0;
+      while (skipped < start) {
+        long n = in.skip(start - skipped);
+        if (n <= 0) {
+          throw new IOException("Could not seek to " + start + " in " + file);
+        }
+        skipped += n;
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new BufferedReader(new InputStreamReader(
+        new RegionInputStream(in, end - start)));
+  }
+
+  private String read(long start, long end) throws IOException {
+    if (end - start > Integer.MAX_VALUE - 8) {
+      throw new IOException("Tree statement at " + start + " of " + file
+          + " is too long to be read as text");
+    }
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      byte[] text = new byte[(int) (end - start)];
+      in.seek(start);
+      in.readFully(text);
+      // the default charset, as read by TreeParser from a FileReader
+      return new String(text);
+    } finally {
+      in.close();
+    }
+  }
+
+  // the first bytes of a stream
+  static final class RegionInputStream extends FilterInputStream {
+    private long remaining;
+
+    RegionInputStream(InputStream in, long length) {
+      super(in);
+      remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+  }
+
+  /**
+   * The Newick text of a tree statement as TreeParser reads it: without
+   * [...] comments (like [&R]), ended by ';', and with the leaf names of
+   * the TRANSLATE table replaced (TreeParser would read the numbers used in
+   * such tables as branch lengths).
+   */
+  static final class NewickStatementReader extends Reader {
+    private final Reader in;
+    private final Map<String, String> translation;
+    private int commentDepth = 0;
+    private boolean quoted = false;
+    private boolean ended = false;
+    // the last character that was not whitespace, before translation
+    private char last = '(';
+    // read after a leaf name, not handled yet
+    private int pending = -2;
+    private final StringBuilder name = new StringBuilder();
+    private String out = "";
+    private int outPos = 0;
+
+    NewickStatementReader(Reader in, Map<String, String> translation) {
+      this.in = in;
+      this.translation = translation;
+    }
+
+    // the next character outside of comments, ';' at the end, then -1
+    private int nextChar() throws IOException {
+      while (true) {
+        int c = in.read();
+        if (c == -1) {
+          if (ended) {
+            return -1;
+          }
+          ended = true;
+          return ';';
+        }
+        if (commentDepth == 0 && c == '"') {
+          quoted = !quoted;
+        } else if (!quoted && c == '[') {
+          commentDepth++;
+          continue;
+        } else if (commentDepth > 0 && c == ']') {
+          commentDepth--;
+          continue;
+        }
+        if (commentDepth == 0) {
+          return c;
+        }
+      }
+    }
+
+    // the next piece of output, false at the end
+    private boolean fill() throws IOException {
+      int c = pending != -2 ? pending : nextChar();
+      pending = -2;
+      if (c == -1) {
+        return false;
+      }
+      char ch = (char) c;
+      if (!Character.isWhitespace(ch) && (last == '(' || last == ',')
+          && LEAF_NAME_END.indexOf(ch) < 0) {
+        name.setLength(0);
+        while (c != -1 && LEAF_NAME_END.indexOf((char) c) < 0
+            && !Character.isWhitespace((char) c)) {
+          name.append((char) c);
+          c = nextChar();
+        }
+        pending = c;
+        last = name.charAt(name.length() - 1);
+        String leaf = name.toString();
+        String translated = translation.get(leaf);
+        out = translated != null ? quote(translated) : leaf;
+      } else {
+        if (!Character.isWhitespace(ch)) {
+          last = ch;
+        }
+        out = String.valueOf(ch);
+      }
+      outPos = 0;
+      return true;
+    }
+
+    // TRANSLATE names are unquoted by the pre-scan, e.g. 'Homo sapiens'
+    private static String quote(String name) {
+      for (int i = 0; i < name.length(); i++) {
+        char c = name.charAt(i);
+        if (Character.isWhitespace(c) || NAME_QUOTED.indexOf(c) >= 0) {
+          return '"' + name + '"';
+        }
+      }
+      return name;
+    }
+
+    @Override
+    public int read(char[] buffer, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int n = 0;
+      while (n < len) {
+        if (outPos == out.length() && !fill()) {
+          break;
+        }
+        int k = Math.min(len - n, out.length() - outPos);
+        out.getChars(outPos, outPos + k, buffer, off + n);
+        outPos += k;
+        n += k;
+      }
+      return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static Tree get(Future<Tree> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not parse a tree", e.getCause());
+    }
+  }
+
+  // the words of the file, with the offset of the last byte read
+  private static final class Prescan {
+    final InputStream in;
+    final List<TreeStatement> statements = new ArrayList<TreeStatement>();
+    final Map<String, String> translation = new HashMap<String, String>();
+    long pos = -1;
+    int unread = -2;
+
+    Prescan(File file) throws IOException {
+      in = new BufferedInputStream(new FileInputStream(file));
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+
+    void scan() throws IOException {
+      boolean inTrees = false;
+      String token;
+      while ((token = nextToken()) != null) {
+        if (!inTrees) {
+          if (token.equalsIgnoreCase("begin")) {
+            String block = nextToken();
+            inTrees = block != null && block.equalsIgnoreCase("trees");
+          }
+        } else if (token.equalsIgnoreCase("end")
+            || token.equalsIgnoreCase("endblock")) {
+          inTrees = false;
+        } else if (token.equalsIgnoreCase("translate")) {
+          scanTranslation();
+        } else if (token.equalsIgnoreCase("tree")
+            || token.equalsIgnoreCase("utree")) {
+          String name = nextToken();
+          if ("*".equals(name)) {
+            name = nextToken();
+          }
+          if (!"=".equals(nextToken())) {
+            throw new IOException("Expected '=' after tree " + name
+                + " at offset " + pos);
+          }
+          long start = pos + 1;
+          long end = skipNewick();
+          statements.add(new TreeStatement(name, start, end));
+        }
+      }
+    }
+
+    // pairs of words separated by ',' up to ';'
+    private void scanTranslation() throws IOException {
+      while (true) {
+        String key = nextToken();
+        if (key == null || key.equals(";")) {
+          return;
+        }
+        String value = nextToken();
+        if (value == null || value.equals(";")) {
+          return;
+        }
+        translation.put(key, value);
+        String separator = nextToken();
+        if (separator == null || separator.equals(";")) {
+          return;
+        }
+      }
+    }
+
+    // offset of the ';' ending the tree (or the end of the file)
+    private long skipNewick() throws IOException {
+      int b;
+      while ((b = read()) != -1) {
+        if (b == '"' || b == '\'') {
+          skipQuoted(b);
+        } else if (b == '[') {
+          skipComment();
+        } else if (b == ';') {
+          return pos;
+        }
+      }
+      return pos;
+    }
+
+    // a word (without quotes) or one of ";=,", null at the end of the file
+    private String nextToken() throws IOException {
+      int b = read();
+      while (b != -1 && (Character.isWhitespace(b) || b == '[')) {
+        if (b == '[') {
+          skipComment();
+        }
+        b = read();
+      }
+      if (b == -1) {
+        return null;
+      }
+      if (b == ';' || b == '=' || b == ',') {
+        return String.valueOf((char) b);
+      }
+      StringBuilder sb = new StringBuilder();
+      if (b == '"' || b == '\'') {
+        int quote = b;
+        while ((b = read()) != -1) {
+          if (b == quote) {
+            // '' stands for a single quote
+            int next = read();
+            if (next != quote) {
+              unread(next);
+              break;
+            }
+          }
+          sb.append((char) b);
+        }
+        return sb.toString();
+      }
+      while (b != -1 && !Character.isWhitespace(b) && b != ';' && b != '='
+          && b != ',' && b != '[') {
+        sb.append((char) b);
+        b = read();
+      }
+      unread(b);
+      return sb.toString();
+    }
+
+    private void skipQuoted(int quote) throws IOException {
+      int b;
+      while ((b = read()) != -1 && b != quote) {
+      }
+    }
+
+    // comments may be nested
+    private void skipComment() throws IOException {
+      int depth = 1;
+      int b;
+      while (depth > 0 && (b = read()) != -1) {
+        if (b == '[') {
+          depth++;
+        } else if (b == ']') {
+          depth--;
+        }
+      }
+    }
+
+    private int read() throws IOException {
+      int b;
+      if (unread != -2) {
+        b = unread;
+        unread = -2;
+      } else {
+        b = in.read();
+      }
+      pos++;
+      return b;
+    }
+
+    private void unread(int b) {
+      unread = b;
+      pos--;
+    }
+  }
+
+}
@@ -0,0 +1,333 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses one big Newick file on several threads.
+ *
+ * A quick scan over the bytes finds the children of the root (and of the
+ * big clades among them) by tracking the parenthesis depth, skipping quoted
+ * names and [...] comments. Consecutive children are grouped into chunks of
+ * about the same size, every chunk is parsed by a {@link TreeParser} on its
+ * own, and the parsed subtrees are attached to the nodes split at. The
+ * result is post-processed as a whole, so it is the same tree (keys, leaf
+ * links, names) as the one read by a single TreeParser.
+ *
+ * Only two levels are split, so in a very unbalanced tree (a caterpillar)
+ * one chunk is almost the whole file. Such a file is parsed by a single
+ * TreeParser: it would not be parsed faster, and a chunk is read into one
+ * String, which cannot hold much more than MAX_CHUNK_SIZE.
+ */
+public class ParallelTreeParser {
+
+  // parsing small files in one piece is faster
+  public static final long DEFAULT_MIN_CHUNK_SIZE = 1 << 20;
+  private static final int CHUNKS_PER_THREAD = 4;
+  // the root is split into its children, the big ones among them once more
+  private static final int MAX_SPLIT_DEPTH = 2;
+  // the biggest chunk read into a String
+  static final long MAX_CHUNK_SIZE = 1L << 30;
+
+  private final int threads;
+  private final long minChunkSize;
+
+  public ParallelTreeParser(int threads) {
+    this(threads, DEFAULT_MIN_CHUNK_SIZE);
+  }
+
+  public ParallelTreeParser(int threads, long minChunkSize) {
+    this.threads = threads;
+    this.minChunkSize = minChunkSize;
+  }
+
+  // a clade split into its children: [start, end) of every child, and the
+  // clade of the child if it was scanned too
+  private static final class Clade {
+    long close = -1;
+    long end = -1;
+    long childStart;
+    Clade closedChild;
+    final List<long[]> children = new ArrayList<long[]>();
+    final List<Clade> childClades = new ArrayList<Clade>();
+
+    Clade(long open) {
+      childStart = open + 1;
+    }
+
+    void addChild(long end) {
+      children.add(new long[] {childStart, end});
+      childClades.add(closedChild);
+      closedChild = null;
+      childStart = end + 1;
+    }
+  }
+
+  // a node of the result with its children, in order: nodes split at and
+  // parsed chunks (whose root stands for the children parsed)
+  private static final class Split {
+    final TreeNode node;
+    // the name and branch length of the node in the file
+    final long labelStart;
+    final long labelEnd;
+    final List<Object> parts = new ArrayList<Object>();
+
+    Split(TreeNode node, long labelStart, long labelEnd) {
+      this.node = node;
+      this.labelStart = labelStart;
+      this.labelEnd = labelEnd;
+    }
+  }
+
+  public Tree parse(File newickFile) throws IOException {
+    long target = Math.max(minChunkSize,
+        newickFile.length() / (threads * CHUNKS_PER_THREAD));
+    Clade root = scan(newickFile);
+    if (threads < 2 || root == null || newickFile.length() <= target) {
+      return parseSequentially(newickFile);
+    }
+    Tree tree = new Tree();
+    Split top = new Split(new TreeNode(tree), root.close + 1, root.end);
+    planChildren(tree, root, top, target);
+    long largest = largestChunk(top);
+    if (largest > MAX_CHUNK_SIZE || largest > newickFile.length() / 2) {
+      return parseSequentially(newickFile);
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      submitChunks(newickFile, top, pool);
+      tree.setRootNode(top.node);
+      attachChildren(newickFile, top);
+      tree.postProcess();
+      return tree;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static Tree parseSequentially(File newickFile) throws IOException {
+    BufferedReader br = new BufferedReader(new FileReader(newickFile));
+    try {
+      return new TreeParser(br).tokenize();
+    } finally {
+      br.close();
+    }
+  }
+
+  // offsets of the root and the clades below it, null if it is a leaf
+  private Clade scan(File newickFile) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(newickFile));
+    try {
+      List<Clade> stack = new ArrayList<Clade>();
+      Clade root = null;
+      int depth = 0;
+      long pos = -1;
+      int b;
+      while ((b = in.read()) != -1) {
+        pos++;
+        if (b == '"') {
+          while ((b = in.read()) != -1 && b != '"') {
+            pos++;
+          }
+          pos++;
+        } else if (b == '[') {
+          while ((b = in.read()) != -1 && b != ']') {
+            pos++;
+          }
+          pos++;
+        } else if (b == '(') {
+          if (depth < MAX_SPLIT_DEPTH) {
+            Clade clade = new Clade(pos);
+            if (depth == 0) {
+              root = clade;
+            }
+            stack.add(clade);
+          }
+          depth++;
+        } else if (b == ',' || b == ')') {
+          if (depth >= 1 && depth <= MAX_SPLIT_DEPTH) {
+            Clade clade = stack.get(stack.size() - 1);
+            clade.addChild(pos);
+            if (b == ')') {
+              clade.close = pos;
+              stack.remove(stack.size() - 1);
+              if (!stack.isEmpty()) {
+                stack.get(stack.size() - 1).closedChild = clade;
+              }
+            }
+          }
+          if (b == ')') {
+            depth--;
+          }
+        } else if (b == ';' && depth == 0) {
+          break;
+        }
+      }
+      if (root == null || root.close < 0) {
+        return null;
+      }
+      // the label of the root ends at ';' or at the end of the file
+      root.end = b == ';' ? pos : pos + 1;
+      return root;
+    } finally {
+      in.close();
+    }
+  }
+
+  // groups the children of the clade into chunks ({start, end} parts of
+  // the split); big child clades are split too
+  private void planChildren(Tree tree, Clade clade, Split split,
+      long target) {
+    long groupStart = -1;
+    long groupEnd = -1;
+    for (int i = 0; i < clade.children.size(); i++) {
+      long[] child = clade.children.get(i);
+      Clade childClade = clade.childClades.get(i);
+      if (childClade != null && child[1] - child[0] > target) {
+        if (groupStart >= 0) {
+          split.parts.add(new long[] {groupStart, groupEnd});
+          groupStart = -1;
+        }
+        Split childSplit = new Split(new TreeNode(tree), childClade.close + 1,
+            child[1]);
+        planChildren(tree, childClade, childSplit, target);
+        split.parts.add(childSplit);
+        continue;
+      }
+      if (groupStart < 0) {
+        groupStart = child[0];
+      }
+      groupEnd = child[1];
+      if (groupEnd - groupStart >= target) {
+        split.parts.add(new long[] {groupStart, groupEnd});
+        groupStart = -1;
+      }
+    }
+    if (groupStart >= 0) {
+      split.parts.add(new long[] {groupStart, groupEnd});
+    }
+  }
+
+  private static long largestChunk(Split split) {
+    long largest = 0;
+    for (Object part : split.parts) {
+      long size = part instanceof Split ? largestChunk((Split) part)
+          : ((long[]) part)[1] - ((long[]) part)[0];
+      largest = Math.max(largest, size);
+    }
+    return largest;
+  }
+
+  // replaces the planned chunks by their parsing on the pool
+  private void submitChunks(File file, Split split, ExecutorService pool) {
+    for (int i = 0; i < split.parts.size(); i++) {
+      Object part = split.parts.get(i);
+      if (part instanceof Split) {
+        submitChunks(file, (Split) part, pool);
+      } else {
+        long[] chunk = (long[]) part;
+        split.parts.set(i, submitChunk(file, chunk[0], chunk[1], pool));
+      }
+    }
+  }
+
+  // the children from start to end (with the commas between them), parsed
+  // as the children of a root
+  private Future<Tree> submitChunk(final File file, final long start,
+      final long end, ExecutorService pool) {
+    return pool.submit(new Callable<Tree>() {
+      @Override
+      public Tree call() throws IOException {
+        return parseFragment("(" + read(file, start, end) + ");");
+      }
+    });
+  }
+
+  private static Tree parseFragment(String newick) {
+    return new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenizeNodes();
+  }
+
+  private static void setLabel(TreeNode node, String label) {
+    TreeNode parsed = parseFragment(label + ";").getRoot();
+    node.setName(parsed.getName());
+    node.setWeight(parsed.getWeight());
+  }
+
+  private static String read(File file, long start, long end)
+      throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      byte[] text = new byte[(int) (end - start)];
+      in.seek(start);
+      in.readFully(text);
+      // the default charset, as read by TreeParser from a FileReader
+      StringBuilder sb = new StringBuilder(text.length);
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+          new ByteArrayInputStream(text)));
+      char[] buffer = new char[8192];
+      int n;
+      while ((n = reader.read(buffer)) != -1) {
+        sb.append(buffer, 0, n);
+      }
+      return sb.toString();
+    } finally {
+      in.close();
+    }
+  }
+
+  // adds the parsed children to the split nodes, bottom up, and links them
+  // the way TreeParser does when a node is finished
+  private void attachChildren(File file, Split split) throws IOException {
+    TreeNode node = split.node;
+    setLabel(node, read(file, split.labelStart, split.labelEnd));
+    for (Object part : split.parts) {
+      if (part instanceof Split) {
+        Split childSplit = (Split) part;
+        attachChildren(file, childSplit);
+        node.addChild(childSplit.node);
+      } else {
+        Tree fragment = (Tree) get(part);
+        for (TreeNode child : fragment.getRoot().getChildren()) {
+          node.addChild(child);
+        }
+      }
+    }
+    node.setExtremeLeaves();
+    node.setNumberLeaves();
+    node.linkNodesInPreorder();
+    node.linkNodesInPostorder();
+  }
+
+  private static Object get(Object future) throws IOException {
+    try {
+      return ((Future<?>) future).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not parse a part of the tree",
+          e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,19 @@
+package hu.sztaki.phytree;
+
+/**
+ * Told how far the parsing of a file with many trees is, instead of a
+ * progress bar, so parsing works without a display.
+ */
+public interface ParseProgressListener {
+
+  /**
+   * Called after each tree parsed.
+   *
+   * @param done
+   *          Number of trees parsed so far.
+   * @param total
+   *          Number of trees in the file, -1 if not known.
+   */
+  void progress(int done, int total);
+
+}
@@ -0,0 +1,58 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+/**
+ * A result subtree of a top-k search with its score, and the pattern it was
+ * scored with (as prepared for its tree).
+ */
+public class ScoredSubtree implements Comparable<ScoredSubtree> {
+
+  private final Tree tree;
+  private final TreeNode node;
+  private final double score;
+  private final SequencePattern pattern;
+
+  public ScoredSubtree(Tree tree, TreeNode node, double score,
+      SequencePattern pattern) {
+    this.tree = tree;
+    this.node = node;
+    this.score = score;
+    this.pattern = pattern;
+  }
+
+  public Tree getTree() {
+    return tree;
+  }
+
+  public TreeNode getNode() {
+    return node;
+  }
+
+  public double getScore() {
+    return score;
+  }
+
+  public SequencePattern getPattern() {
+    return pattern;
+  }
+
+  // better first: higher score, then more leaves, then smaller tree and node
+  // keys, so the order does not depend on the order of the search
+  @Override
+  public int compareTo(ScoredSubtree other) {
+    if (score != other.score) {
+      return score > other.score ? -1 : 1;
+    }
+    if (node.getLeafNum() != other.node.getLeafNum()) {
+      return other.node.getLeafNum() - node.getLeafNum();
+    }
+    if (tree.getKey() != other.tree.getKey()) {
+      return tree.getKey() < other.tree.getKey() ? -1 : 1;
+    }
+    return node.getKey() - other.node.getKey();
+  }
+
+}
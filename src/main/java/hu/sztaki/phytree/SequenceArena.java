@@ -0,0 +1,284 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.pattern.PatternScanner;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the residues of all sequences of a run contiguously in off-heap
+ * (direct) buffers, so that a {@link FastaItem} only has to keep a handle and
+ * a length instead of its own list of strings.
+ *
+ * Residues are stored either as one (ASCII) byte each, or - in packed mode -
+ * as 5 bit codes (8 residues in 5 bytes). Packed mode accepts the upper
+ * case letters A-Z and the '*', '-' and '.' symbols; {@link FastaItem}s
+ * with other residues (soft-masked lower case ones, for example) keep them
+ * on the heap, see {@link #canStore(CharSequence)}.
+ *
+ * A sequence never spans two chunks: when a sequence outgrows the end of the
+ * current chunk it is moved to the beginning of a new one (which is made
+ * large enough if the sequence is longer than the default chunk size).
+ * Appending is single threaded; reading is safe from any number of threads.
+ */
+public class SequenceArena {
+
+  public static final int DEFAULT_CHUNK_RESIDUES = 4 * 1024 * 1024;
+
+  private static final byte[] PACK_CODES = new byte[128];
+  private static final byte[] UNPACK_CODES = new byte[32];
+  static {
+    String symbols = "ABCDEFGHIJKLMNOPQRSTUVWXYZ*-.";
+    for (int i = 0; i < symbols.length(); i++) {
+      char c = symbols.charAt(i);
+      PACK_CODES[c] = (byte) (i + 1);
+      UNPACK_CODES[i + 1] = (byte) c;
+    }
+  }
+
+  private final boolean packed;
+  private final int chunkResidues;
+  private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+  private ByteBuffer current;
+  private int currentIndex = -1;
+  private int currentCapacity;
+  private int currentFill;
+
+  // the sequence being appended
+  private int openStart = -1;
+
+  private long residueCount;
+
+  private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>();
+
+  public SequenceArena() {
+    this(false, DEFAULT_CHUNK_RESIDUES);
+  }
+
+  public SequenceArena(boolean packed) {
+    this(packed, DEFAULT_CHUNK_RESIDUES);
+  }
+
+  public SequenceArena(boolean packed, int chunkResidues) {
+    this.packed = packed;
+    // packed chunks are built from whole 8 residue / 5 byte groups
+    this.chunkResidues = Math.max((chunkResidues + 7) & ~7, 8);
+  }
+
+  public boolean isPacked() {
+    return packed;
+  }
+
+  /** Number of residues stored, over all sequences. */
+  public long getResidueCount() {
+    return residueCount;
+  }
+
+  /** Off-heap bytes allocated by the arena (including unused chunk tails). */
+  public long getAllocatedBytes() {
+    long bytes = 0;
+    for (ByteBuffer b : chunks) {
+      bytes += b.capacity();
+    }
+    return bytes;
+  }
+
+  private static int bytesFor(int residues, boolean packed) {
+    return packed ? ((residues + 7) / 8) * 5 : residues;
+  }
+
+  private void newChunk(int minResidues) {
+    int capacity = Math.max(chunkResidues, (minResidues + 7) & ~7);
+    current = ByteBuffer.allocateDirect(bytesFor(capacity, packed));
+    current.order(ByteOrder.LITTLE_ENDIAN);
+    chunks.add(current);
+    currentIndex = chunks.size() - 1;
+    currentCapacity = capacity;
+    currentFill = 0;
+  }
+
+  /**
+   * Whether the residues of the row can be stored as they are: always in
+   * byte mode, only the symbols listed above in packed mode.
+   */
+  public boolean canStore(CharSequence row) {
+    if (!packed) {
+      return true;
+    }
+    for (int i = 0; i < row.length(); i++) {
+      char c = row.charAt(i);
+      if (c >= 128 || PACK_CODES[c] == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Starts a new sequence; rows are added with {@link #appendRow(CharSequence)}. */
+  public void beginSequence() {
+    if (openStart != -1) {
+      throw new IllegalStateException("Previous sequence is not finished");
+    }
+    if (current == null) {
+      newChunk(0);
+    }
+    openStart = currentFill;
+  }
+
+  public void appendRow(CharSequence row) {
+    if (openStart == -1) {
+      throw new IllegalStateException("No sequence was started");
+    }
+    int len = row.length();
+    if (currentFill + len > currentCapacity) {
+      relocateOpenSequence(currentFill - openStart + len);
+    }
+    for (int i = 0; i < len; i++) {
+      put(current, currentFill + i, row.charAt(i));
+    }
+    currentFill += len;
+    residueCount += len;
+  }
+
+  /**
+   * Finishes the sequence started by {@link #beginSequence()}.
+   *
+   * @return handle of the sequence, to be used with the accessor methods
+   */
+  public long endSequence() {
+    if (openStart == -1) {
+      throw new IllegalStateException("No sequence was started");
+    }
+    long handle = ((long) currentIndex << 32) | openStart;
+    openStart = -1;
+    return handle;
+  }
+
+  // moves the residues of the open sequence to the start of a fresh chunk
+  private void relocateOpenSequence(int neededResidues) {
+    ByteBuffer old = current;
+    int from = openStart;
+    int openLength = currentFill - openStart;
+    newChunk(neededResidues);
+    for (int i = 0; i < openLength; i++) {
+      putCode(current, i, getCode(old, from + i));
+    }
+    openStart = 0;
+    currentFill = openLength;
+  }
+
+  private void put(ByteBuffer buf, int index, char c) {
+    if (!packed) {
+      buf.put(index, (byte) c);
+      return;
+    }
+    byte code = c < 128 ? PACK_CODES[c] : 0;
+    if (code == 0) {
+      throw new IllegalArgumentException("Residue '" + c
+          + "' can not be stored in a packed sequence arena");
+    }
+    putCode(buf, index, code);
+  }
+
+  // stores the raw code (byte or 5 bit) of a residue
+  private void putCode(ByteBuffer buf, int index, int code) {
+    if (!packed) {
+      buf.put(index, (byte) code);
+      return;
+    }
+    int bitPos = index * 5;
+    int byteIdx = bitPos >>> 3;
+    int shift = bitPos & 7;
+    int v = code << shift;
+    buf.put(byteIdx, (byte) (buf.get(byteIdx) | v));
+    if (shift > 3) {
+      buf.put(byteIdx + 1, (byte) (buf.get(byteIdx + 1) | (v >>> 8)));
+    }
+  }
+
+  private int getCode(ByteBuffer buf, int index) {
+    if (!packed) {
+      return buf.get(index);
+    }
+    int bitPos = index * 5;
+    int byteIdx = bitPos >>> 3;
+    int shift = bitPos & 7;
+    int v = buf.get(byteIdx) & 0xFF;
+    if (shift > 3) {
+      v |= (buf.get(byteIdx + 1) & 0xFF) << 8;
+    }
+    return (v >>> shift) & 31;
+  }
+
+  private ByteBuffer chunkOf(long handle) {
+    return chunks.get((int) (handle >>> 32));
+  }
+
+  private static int offsetOf(long handle) {
+    return (int) handle;
+  }
+
+  /** Returns residue i (as an ASCII byte) of the sequence with the handle. */
+  public byte residueAt(long handle, int i) {
+    int code = getCode(chunkOf(handle), offsetOf(handle) + i);
+    return packed ? UNPACK_CODES[code] : (byte) code;
+  }
+
+  /**
+   * Copies (and unpacks) residues [from, from + len) of a sequence into dst,
+   * starting at dstOffset.
+   */
+  public void copyResidues(long handle, int from, int len, byte[] dst, int dstOffset) {
+    ByteBuffer buf = chunkOf(handle);
+    int start = offsetOf(handle) + from;
+    if (!packed) {
+      for (int i = 0; i < len; i++) {
+        dst[dstOffset + i] = buf.get(start + i);
+      }
+      return;
+    }
+    for (int i = 0; i < len; i++) {
+      dst[dstOffset + i] = UNPACK_CODES[getCode(buf, start + i)];
+    }
+  }
+
+  public String getString(long handle, int length) {
+    byte[] residues = new byte[length];
+    copyResidues(handle, 0, length, residues, 0);
+    try {
+      return new String(residues, "ISO-8859-1");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Checks whether the sequence with the given handle and length matches the
+   * pattern. Byte arenas are scanned in place, packed sequences are unpacked
+   * into a per-thread buffer first.
+   */
+  public boolean matches(long handle, int length, SequencePattern pattern) {
+    if (!packed) {
+      int start = offsetOf(handle);
+      return pattern.matches(chunkOf(handle), start, start + length);
+    }
+    return pattern.matches(unpack(handle, length), 0, length);
+  }
+
+  // unpacks a sequence into the scratch buffer of the calling thread
+  private ByteBuffer unpack(long handle, int length) {
+    ByteBuffer buf = scratch.get();
+    if (buf == null || buf.capacity() < length) {
+      buf = PatternScanner.wrap(new byte[Math.max(Integer.highestOneBit(length) * 2, 64)]);
+      scratch.set(buf);
+    }
+    copyResidues(handle, 0, length, buf.array(), 0);
+    return buf;
+  }
+
+}
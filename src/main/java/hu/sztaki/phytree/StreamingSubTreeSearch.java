@@ -0,0 +1,281 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.io.FastaAccessionIndex;
+import hu.sztaki.phytree.io.NewickEventParser;
+import hu.sztaki.phytree.io.NewickHandler;
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.pattern.SequencePatterns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * {@link SubTreeSearch} on the events of a {@link NewickEventParser}, for
+ * trees that do not fit in memory in any form. The same maximal subtrees
+ * are found (minLeafNum, minHeightNum, minPatternPercent, maxPValue), as
+ * ranges of the Newick text, which are copied from the file as they are.
+ *
+ * Only the open clades are kept, each as a frame of aggregates: leaves,
+ * height, pattern leaves, the offset where it starts, and the maximal
+ * subtrees found inside it so far. When a clade closes it either is a
+ * result itself, replacing those, or hands them to its parent. Sequences
+ * are read through a {@link FastaAccessionIndex} when a leaf is reached.
+ *
+ * maxPValue needs the number of pattern leaves of the whole tree, so in that
+ * case the tree is read twice; the first pass remembers which leaves have
+ * the pattern.
+ */
+public class StreamingSubTreeSearch {
+
+  private static final ByteBuffer NO_RESIDUES = ByteBuffer.allocate(0);
+  // Newick files are read one byte per character, offsets are file offsets
+  private static final String CHARSET = "ISO-8859-1";
+
+  /** A result subtree: characters start to end (exclusive) of the file. */
+  public static class CladeRange {
+    private final long start;
+    private final long end;
+    private final int leafNum;
+    private final int patternLeafNum;
+
+    CladeRange(long start, long end, int leafNum, int patternLeafNum) {
+      this.start = start;
+      this.end = end;
+      this.leafNum = leafNum;
+      this.patternLeafNum = patternLeafNum;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    public long getEnd() {
+      return end;
+    }
+
+    public int getLeafNum() {
+      return leafNum;
+    }
+
+    public int getLeafNumWithPattern() {
+      return patternLeafNum;
+    }
+  }
+
+  Configuration conf;
+  SequencePattern pattern;
+  FastaAccessionIndex sequences;
+
+  public void setConfig(Configuration conf) {
+    this.conf = conf;
+  }
+
+  public void setPattern(SequencePattern pattern) {
+    this.pattern = pattern;
+  }
+
+  public SequencePattern getPattern() {
+    return pattern;
+  }
+
+  public void setSequences(FastaAccessionIndex sequences) {
+    this.sequences = sequences;
+  }
+
+  public List<CladeRange> findSubtrees(File newickFile) throws IOException {
+    if (!conf.containsKey("seqPattern")) {
+      return new ArrayList<CladeRange>();
+    }
+    if (pattern == null) {
+      pattern = SequencePatterns.fromConfig(conf);
+    }
+    BitSet patternLeaves = null;
+    int treeLeaves = 0;
+    if (conf.containsKey("maxPValue")) {
+      SearchHandler counter = new SearchHandler(null, 0, 0);
+      parse(newickFile, counter);
+      patternLeaves = counter.matches;
+      treeLeaves = counter.leafCount;
+    }
+    SearchHandler handler = new SearchHandler(patternLeaves, treeLeaves,
+        patternLeaves == null ? 0 : patternLeaves.cardinality());
+    parse(newickFile, handler);
+    return handler.results;
+  }
+
+  private void parse(File newickFile, NewickHandler handler)
+      throws IOException {
+    Reader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(newickFile), CHARSET));
+    try {
+      new NewickEventParser(reader).parse(handler);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Sequences of the leaves of the subtree, in the order of the leaves;
+   * null for leaves without one. The names are read from the range of the
+   * file, streamed: holding the names of the open clades during the search
+   * would hold every name of the tree.
+   */
+  public List<FastaItem> getFastaResult(File newickFile, CladeRange clade)
+      throws IOException {
+    final List<String> names = new ArrayList<String>(clade.getLeafNum());
+    Reader reader = openRange(newickFile, clade);
+    try {
+      new NewickEventParser(reader).parse(new NewickHandler() {
+        @Override
+        public void openClade(long offset) {
+        }
+
+        @Override
+        public void leaf(String name, float length, long start, long end) {
+          names.add(name);
+        }
+
+        @Override
+        public void closeClade(String name, float length, long end) {
+        }
+      });
+    } finally {
+      reader.close();
+    }
+    List<FastaItem> res = new ArrayList<FastaItem>();
+    for (String name : names) {
+      res.add(sequences == null ? null : sequences.read(name));
+    }
+    return res;
+  }
+
+  // the text of the subtree, streamed from the file
+  private static Reader openRange(File newickFile, CladeRange clade)
+      throws IOException {
+    FileInputStream in = new FileInputStream(newickFile);
+    try {
+      in.getChannel().position(clade.getStart());
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new BufferedReader(new InputStreamReader(
+        new NexusTreeReader.RegionInputStream(in,
+            clade.getEnd() - clade.getStart()), CHARSET));
+  }
+
+  private boolean leafMatches(String name) throws IOException {
+    FastaItem item = sequences == null ? null : sequences.read(name);
+    return item == null ? pattern.matches(NO_RESIDUES, 0, 0)
+        : pattern.matches(item);
+  }
+
+  // aggregates of an open clade
+  private static final class Frame {
+    final long start;
+    int leaves;
+    int height;
+    int patternLeaves;
+    // maximal results inside the clade, in preorder
+    List<CladeRange> found;
+
+    Frame(long start) {
+      this.start = start;
+    }
+  }
+
+  private final class SearchHandler implements NewickHandler {
+    // pattern leaves by leaf ordinal, from the first pass or recorded now
+    final BitSet matches;
+    final boolean recording;
+    final int treeLeaves;
+    final int treePatternLeaves;
+    final List<Frame> stack = new ArrayList<Frame>();
+    List<CladeRange> results = new ArrayList<CladeRange>();
+    int leafCount;
+
+    SearchHandler(BitSet matches, int treeLeaves, int treePatternLeaves) {
+      this.recording = matches == null;
+      this.matches = recording ? new BitSet() : matches;
+      this.treeLeaves = treeLeaves;
+      this.treePatternLeaves = treePatternLeaves;
+    }
+
+    @Override
+    public void openClade(long offset) {
+      stack.add(new Frame(offset));
+    }
+
+    @Override
+    public void leaf(String name, float length, long start, long end)
+        throws IOException {
+      int ordinal = leafCount++;
+      if (recording && leafMatches(name)) {
+        matches.set(ordinal);
+      }
+      int patternLeaves = matches.get(ordinal) ? 1 : 0;
+      close(start, end, 1, 1, patternLeaves, null);
+    }
+
+    @Override
+    public void closeClade(String name, float length, long end) {
+      Frame frame = stack.remove(stack.size() - 1);
+      close(frame.start, end, frame.leaves, frame.height + 1,
+          frame.patternLeaves, frame.found);
+    }
+
+    // a node is finished: adds it to its parent (or the results)
+    private void close(long start, long end, int leaves, int height,
+        int patternLeaves, List<CladeRange> found) {
+      if (check(leaves, height, patternLeaves)) {
+        found = new ArrayList<CladeRange>(1);
+        found.add(new CladeRange(start, end, leaves, patternLeaves));
+      }
+      if (stack.isEmpty()) {
+        if (found != null) {
+          results = found;
+        }
+        return;
+      }
+      Frame parent = stack.get(stack.size() - 1);
+      parent.leaves += leaves;
+      parent.height = Math.max(parent.height, height);
+      parent.patternLeaves += patternLeaves;
+      if (found != null) {
+        if (parent.found == null) {
+          parent.found = found;
+        } else {
+          parent.found.addAll(found);
+        }
+      }
+    }
+
+    private boolean check(int leaves, int height, int patternLeaves) {
+      // the first pass of a p-value search only counts
+      if (recording && conf.containsKey("maxPValue")) {
+        return false;
+      }
+      if (conf.containsKey("minLeafNum")
+          && conf.getInt("minLeafNum") > leaves) {
+        return false;
+      }
+      if (conf.containsKey("minHeightNum")
+          && conf.getInt("minHeightNum") > height) {
+        return false;
+      }
+      return SubTreeSearch.checkPatternLeaves(conf, patternLeaves, leaves,
+          treePatternLeaves, treeLeaves);
+    }
+  }
+
+}
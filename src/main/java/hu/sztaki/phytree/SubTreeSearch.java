@@ -4,35 +4,84 @@ package hu.sztaki.phytree;
 import java.util.ArrayList;
 import java.util.List;
 
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.metrics.Stage;
+import hu.sztaki.phytree.metrics.StageMetrics;
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.pattern.SequencePatterns;
+import hu.sztaki.phytree.stats.EnrichmentTest;
 import hu.sztaki.phytree.tree.Tree;
 import hu.sztaki.phytree.tree.TreeNode;
 
 import org.apache.commons.configuration.Configuration;
 
 public class SubTreeSearch {
+  private static final Logger LOG = Log.getLogger(SubTreeSearch.class);
   Configuration conf;
-  String pattern;
+  SequencePattern pattern;
+  // pattern answered by the sequence index of the tree being searched
+  SequencePattern treePattern;
+  // leaves and pattern leaves of the whole tree, the background of p-values
+  int treeLeaves;
+  int treePatternLeaves;
   static final int DEFAULT_MIN_PATTERN_PERCENT = 50;
+  // time of each search, not reported if not set
+  StageMetrics metrics;
   
   public void setConfig(Configuration conf) {
     this.conf = conf;
   }
 
+  // the pattern compiled once for the run, otherwise compiled from the config
+  public void setPattern(SequencePattern pattern) {
+    this.pattern = pattern;
+  }
+
+  public SequencePattern getPattern() {
+    return pattern;
+  }
+
+  // the pattern as prepared for the last tree searched
+  public SequencePattern getTreePattern() {
+    return treePattern != null ? treePattern : pattern;
+  }
+
+  public void setMetrics(StageMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   public List<TreeNode> findSubtrees(Tree tree) {
+    if (metrics == null) {
+      return search(tree);
+    }
+    StageMetrics.StageTimer timer = metrics.start(Stage.SEARCH,
+        tree.getKey());
+    List<TreeNode> ret = search(tree);
+    timer.end(0, tree.nodes.size(), tree.getLeafCount(), ret.size());
+    return ret;
+  }
+
+  private List<TreeNode> search(Tree tree) {
     ArrayList<TreeNode> ret = new ArrayList<TreeNode>();
     // simple case 1: not enough leaves
     if (!checkNumOfLeaves(tree.getRoot())) {
-      System.out.println("no results because not enough leaves");
+      LOG.info("no results because not enough leaves");
       return ret;
     }
     // simple case 2: not enough tree height
     if (!checkSubTreeHeight(tree.getRoot())) {
-      System.out.println("no results because of height");
+      LOG.info("no results because of height");
       return ret;
     }
     
     if (conf.containsKey("seqPattern")) {
-      this.pattern = conf.getString("seqPattern");
+      if (this.pattern == null) {
+        this.pattern = SequencePatterns.fromConfig(conf);
+      }
+      treePattern = pattern.prepare(tree);
+      treeLeaves = tree.getRoot().getLeafNum();
+      treePatternLeaves = tree.getRoot().getLeafNumWithPattern(treePattern);
       // check pattern percents in all possible subtrees (= nodes)
       // if a node is OK then its children don't have to be checked!
       // (we need the max possible subtrees)
@@ -61,7 +110,7 @@ public class SubTreeSearch {
   
   private boolean checkNode(TreeNode node, ArrayList<TreeNode> results) {
     if (checkNumOfLeaves(node) && checkSubTreeHeight(node) &&
-        checkNodeForPattern(node)) {
+        checkCladeDistances(node, conf) && checkNodeForPattern(node)) {
       setHasPatternForLeaves(node);
       results.add(node);
       return true;
@@ -70,8 +119,13 @@ public class SubTreeSearch {
   }
   
   private boolean checkNodeForPattern(TreeNode n) {
-    int okLeaves = n.getLeafNumWithPattern(pattern);
-    int allLeaves = n.getLeafNum();
+    return checkPatternLeaves(conf, n.getLeafNumWithPattern(treePattern),
+        n.getLeafNum(), treePatternLeaves, treeLeaves);
+  }
+
+  // minPatternPercent and maxPValue for okLeaves of allLeaves in a subtree
+  static boolean checkPatternLeaves(Configuration conf, int okLeaves,
+      int allLeaves, int treePatternLeaves, int treeLeaves) {
     double percent = 1.0 * okLeaves / allLeaves;
     int minPattPercent = DEFAULT_MIN_PATTERN_PERCENT;
     if (conf.containsKey("minPatternPercent")) {
@@ -79,19 +133,39 @@ public class SubTreeSearch {
       minPattPercent = Math.min(minPattPercent, 100);
       minPattPercent = Math.max(minPattPercent, 1);
     }
-    if (percent >= 1.0* minPattPercent / 100.0) {
-      return true;
+    if (percent < 1.0* minPattPercent / 100.0) {
+      return false;
     }
-    return false;
+    if (conf.containsKey("maxPValue")) {
+      double pValue = getEnrichmentTest(conf).pValue(okLeaves, allLeaves,
+          treePatternLeaves, treeLeaves);
+      if (pValue > conf.getDouble("maxPValue")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // pValueTest: hypergeometric (default) or binomial
+  static EnrichmentTest getEnrichmentTest(Configuration conf) {
+    if (conf.containsKey("pValueTest")) {
+      return EnrichmentTest.fromName(conf.getString("pValueTest"));
+    }
+    return EnrichmentTest.HYPERGEOMETRIC;
   }
   
   private void setHasPatternForLeaves(TreeNode n) {
-    if (n.isLeaf() &&  n.getSeqString().contains(pattern)) {
+    setHasPatternForLeaves(n, treePattern);
+  }
+
+  // marks the leaves to be colored in the output
+  static void setHasPatternForLeaves(TreeNode n, SequencePattern pattern) {
+    if (n.isLeaf() && n.seqMatches(pattern)) {
       n.setHasPattern(true);
     }
     if (! n.isLeaf()) {
       for (TreeNode child: n.getChildren()) {
-        setHasPatternForLeaves(child);
+        setHasPatternForLeaves(child, pattern);
       }
     }
   }
@@ -116,6 +190,24 @@ public class SubTreeSearch {
     return true;
   }
 
+  // branch length limits: maxCladeDepth, maxMeanCladeDepth, maxCladeDiameter
+  // (precomputed for every node when the tree was parsed)
+  static boolean checkCladeDistances(TreeNode treeNode, Configuration conf) {
+    if (conf.containsKey("maxCladeDepth")
+        && treeNode.getCladeDepth() > conf.getDouble("maxCladeDepth")) {
+      return false;
+    }
+    if (conf.containsKey("maxMeanCladeDepth")
+        && treeNode.getMeanCladeDepth() > conf.getDouble("maxMeanCladeDepth")) {
+      return false;
+    }
+    if (conf.containsKey("maxCladeDiameter")
+        && treeNode.getCladeDiameter() > conf.getDouble("maxCladeDiameter")) {
+      return false;
+    }
+    return true;
+  }
+
   public List<FastaItem> getFastaResult(TreeNode subtreeRoot) {
     List<FastaItem> res = new ArrayList<FastaItem>();
     return subtreeRoot.addSubtreeFastaItemsToSet(res);
@@ -0,0 +1,145 @@
+package hu.sztaki.phytree;
+
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.pattern.SequencePatterns;
+import hu.sztaki.phytree.succinct.RankSelectBitVector;
+import hu.sztaki.phytree.succinct.SuccinctTree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * {@link SubTreeSearch} on a {@link SuccinctTree}: the same maximal subtrees
+ * (minLeafNum, minHeightNum, minPatternPercent, maxPValue), found in the
+ * same order.
+ *
+ * The pattern is matched once per leaf into a bit vector by leaf rank, so
+ * the pattern leaves of a subtree are counted with two ranks. Nodes are
+ * visited in preorder by their number; a subtree that is a result is
+ * skipped by adding its size.
+ */
+public class SuccinctSubTreeSearch {
+
+  private static final Logger LOG =
+      Log.getLogger(SuccinctSubTreeSearch.class);
+
+  private static final ByteBuffer NO_RESIDUES = ByteBuffer.allocate(0);
+
+  Configuration conf;
+  SequencePattern pattern;
+  SequencePattern treePattern;
+  // leaf ranks of the leaves with the pattern in the last tree searched
+  BitSet patternLeaves;
+  RankSelectBitVector patternLeafRanks;
+
+  public void setConfig(Configuration conf) {
+    this.conf = conf;
+  }
+
+  public void setPattern(SequencePattern pattern) {
+    this.pattern = pattern;
+  }
+
+  public SequencePattern getPattern() {
+    return pattern;
+  }
+
+  // the pattern as prepared for the last tree searched
+  public SequencePattern getTreePattern() {
+    return treePattern != null ? treePattern : pattern;
+  }
+
+  // the leaves to be colored in the output of the last tree searched
+  public BitSet getPatternLeaves() {
+    return patternLeaves;
+  }
+
+  /** Roots of the maximal subtrees, as preorder node numbers. */
+  public List<Integer> findSubtrees(SuccinctTree tree) {
+    List<Integer> ret = new ArrayList<Integer>();
+    int root = tree.getRoot();
+    if (conf.getInt("minLeafNum", 0) > tree.getLeafNum(root)) {
+      LOG.info("no results because not enough leaves");
+      return ret;
+    }
+    if (conf.getInt("minHeightNum", 0) > tree.getSubTreeHeight(root)) {
+      LOG.info("no results because of height");
+      return ret;
+    }
+    if (!conf.containsKey("seqPattern")) {
+      return ret;
+    }
+    if (pattern == null) {
+      pattern = SequencePatterns.fromConfig(conf);
+    }
+    // an index answers for the items, whatever tree they are in
+    treePattern = tree.getSequenceIndex() != null
+        ? tree.getSequenceIndex().prepare(pattern) : pattern;
+    markPatternLeaves(tree);
+    int treeLeaves = tree.getLeafCount();
+    int treePatternLeaves = patternLeafRanks.ones();
+    int node = root;
+    while (node < tree.getNodeCount()) {
+      if (checkNode(tree, node, treeLeaves, treePatternLeaves)) {
+        ret.add(node);
+        node += tree.getSubtreeSize(node);
+      } else {
+        node++;
+      }
+    }
+    return ret;
+  }
+
+  private void markPatternLeaves(SuccinctTree tree) {
+    patternLeaves = new BitSet(tree.getLeafCount());
+    for (int r = 0; r < tree.getLeafCount(); r++) {
+      FastaItem item = tree.getLeafSequence(r);
+      if (item == null ? treePattern.matches(NO_RESIDUES, 0, 0)
+          : treePattern.matches(item)) {
+        patternLeaves.set(r);
+      }
+    }
+    patternLeafRanks = new RankSelectBitVector(patternLeaves.toLongArray(),
+        tree.getLeafCount());
+  }
+
+  private boolean checkNode(SuccinctTree tree, int node, int treeLeaves,
+      int treePatternLeaves) {
+    int allLeaves = tree.getLeafNum(node);
+    if (conf.containsKey("minLeafNum")
+        && conf.getInt("minLeafNum") > allLeaves) {
+      return false;
+    }
+    if (conf.containsKey("minHeightNum")
+        && conf.getInt("minHeightNum") > tree.getSubTreeHeight(node)) {
+      return false;
+    }
+    return SubTreeSearch.checkPatternLeaves(conf,
+        getLeafNumWithPattern(tree, node), allLeaves, treePatternLeaves,
+        treeLeaves);
+  }
+
+  public int getLeafNumWithPattern(SuccinctTree tree, int node) {
+    int first = tree.getLeafRank(node);
+    return patternLeafRanks.rank1(first + tree.getLeafNum(node))
+        - patternLeafRanks.rank1(first);
+  }
+
+  // sequences of the leaves of the subtree, null for leaves without one
+  public List<FastaItem> getFastaResult(SuccinctTree tree, int node) {
+    List<FastaItem> res = new ArrayList<FastaItem>();
+    int first = tree.getLeafRank(node);
+    int last = first + tree.getLeafNum(node);
+    for (int r = first; r < last; r++) {
+      res.add(tree.getLeafSequence(r));
+    }
+    return res;
+  }
+
+}
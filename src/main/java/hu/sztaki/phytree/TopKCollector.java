@@ -0,0 +1,66 @@
+package hu.sztaki.phytree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The best k subtrees found so far, shared by the searches of all trees of a
+ * run. The heap is bounded: its top is the worst of the k, which gives the
+ * score a subtree has to reach to get in.
+ */
+public class TopKCollector {
+
+  private final int k;
+  // worst first
+  private final PriorityQueue<ScoredSubtree> heap;
+
+  public TopKCollector(int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    this.k = k;
+    heap = new PriorityQueue<ScoredSubtree>(k + 1,
+        Collections.<ScoredSubtree>reverseOrder());
+  }
+
+  public int getK() {
+    return k;
+  }
+
+  public synchronized boolean isFull() {
+    return heap.size() >= k;
+  }
+
+  /**
+   * The score of the worst of the k subtrees, or negative infinity while
+   * there are less than k. Subtrees whose best possible score is below this
+   * can be skipped.
+   */
+  public synchronized double getThreshold() {
+    return heap.size() < k ? Double.NEGATIVE_INFINITY : heap.peek().getScore();
+  }
+
+  /** Adds the subtree if it is among the best k, returns whether it was. */
+  public synchronized boolean offer(ScoredSubtree subtree) {
+    if (heap.size() < k) {
+      heap.add(subtree);
+      return true;
+    }
+    if (subtree.compareTo(heap.peek()) < 0) {
+      heap.poll();
+      heap.add(subtree);
+      return true;
+    }
+    return false;
+  }
+
+  /** The collected subtrees, best first. */
+  public synchronized List<ScoredSubtree> getResults() {
+    List<ScoredSubtree> results = new ArrayList<ScoredSubtree>(heap);
+    Collections.sort(results);
+    return results;
+  }
+
+}
@@ -0,0 +1,234 @@
+package hu.sztaki.phytree;
+
+import java.util.PriorityQueue;
+
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.pattern.SequencePatterns;
+import hu.sztaki.phytree.stats.EnrichmentTest;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Finds the k best scoring subtrees instead of every maximal subtree above
+ * minPatternPercent. minLeafNum, minHeightNum and (if given)
+ * minPatternPercent, maxPValue and the clade branch length limits still have
+ * to be met.
+ *
+ * Nodes are visited best-first by an upper bound of the score of any subtree
+ * below them, so the search of a tree stops as soon as the best remaining
+ * bound can not beat the k-th best subtree found so far in the whole run
+ * (the collector is shared by all trees). A subtree is not reported if it
+ * does not score better than its parent, which contains it.
+ */
+public class TopKSearch {
+
+  public enum Score {
+    // share of the leaves having the pattern
+    PERCENT {
+      @Override
+      double score(int patternLeaves, int leaves, Background tree) {
+        return 1.0 * patternLeaves / leaves;
+      }
+
+      @Override
+      double bound(int patternLeaves, int leaves, int minLeaves,
+          Background tree) {
+        return Math.min(1.0, 1.0 * patternLeaves / minLeaves);
+      }
+    },
+    // share weighted with the log of the size, favours bigger subtrees
+    MIXED {
+      @Override
+      double score(int patternLeaves, int leaves, Background tree) {
+        return 1.0 * patternLeaves / leaves * Math.log(1 + leaves);
+      }
+
+      // p / l * log(1 + l) with p <= min(P, l) is largest at l = P, as
+      // log(1 + l) / l decreases
+      @Override
+      double bound(int patternLeaves, int leaves, int minLeaves,
+          Background tree) {
+        if (patternLeaves >= minLeaves) {
+          return Math.log(1 + patternLeaves);
+        }
+        return 1.0 * patternLeaves / minLeaves * Math.log(1 + minLeaves);
+      }
+    },
+    // -log10 of the enrichment p-value against the whole tree
+    SIGNIFICANCE {
+      @Override
+      double score(int patternLeaves, int leaves, Background tree) {
+        return tree.test.significance(patternLeaves, leaves,
+            tree.patternLeaves, tree.leaves);
+      }
+
+      // the p-value of P(X >= k) grows with the subtree size and (for k = n)
+      // falls with k, so the best subtree has only pattern leaves, as many
+      // as possible, or is the smallest one allowed
+      @Override
+      double bound(int patternLeaves, int leaves, int minLeaves,
+          Background tree) {
+        return tree.test.significance(patternLeaves,
+            Math.max(patternLeaves, minLeaves), tree.patternLeaves, tree.leaves);
+      }
+    };
+
+    abstract double score(int patternLeaves, int leaves, Background tree);
+
+    // upper bound of the score of the subtrees of a node with the given
+    // number of (pattern) leaves that have at least minLeaves leaves
+    abstract double bound(int patternLeaves, int leaves, int minLeaves,
+        Background tree);
+  }
+
+  // the whole tree a subtree is compared to
+  static final class Background {
+    final int leaves;
+    final int patternLeaves;
+    final EnrichmentTest test;
+
+    Background(int leaves, int patternLeaves, EnrichmentTest test) {
+      this.leaves = leaves;
+      this.patternLeaves = patternLeaves;
+      this.test = test;
+    }
+  }
+
+  Configuration conf;
+  SequencePattern pattern;
+  TopKCollector collector;
+  Score score = Score.PERCENT;
+  private int nodesScored = 0;
+
+  public void setConfig(Configuration conf) {
+    this.conf = conf;
+    if (conf.containsKey("topKScore")) {
+      score = Score.valueOf(conf.getString("topKScore").trim().toUpperCase());
+    }
+  }
+
+  public void setPattern(SequencePattern pattern) {
+    this.pattern = pattern;
+  }
+
+  public void setCollector(TopKCollector collector) {
+    this.collector = collector;
+  }
+
+  public TopKCollector getCollector() {
+    return collector;
+  }
+
+  // number of nodes scored by the searches so far
+  public int getNodesScored() {
+    return nodesScored;
+  }
+
+  /**
+   * Searches the tree and offers its best subtrees to the collector. Returns
+   * the number of subtrees the collector accepted (some of which may be
+   * pushed out later by better ones).
+   */
+  public int findTopSubtrees(Tree tree) {
+    if (pattern == null) {
+      if (!conf.containsKey("seqPattern")) {
+        return 0;
+      }
+      pattern = SequencePatterns.fromConfig(conf);
+    }
+    if (collector == null) {
+      collector = new TopKCollector(conf.getInt("topK"));
+    }
+    SequencePattern treePattern = pattern.prepare(tree);
+    int minLeaves = Math.max(1, conf.getInt("minLeafNum", 1));
+    int minHeight = conf.getInt("minHeightNum", 1);
+    Background background = new Background(tree.getRoot().getLeafNum(),
+        tree.getRoot().getLeafNumWithPattern(treePattern),
+        SubTreeSearch.getEnrichmentTest(conf));
+    double maxPValue = conf.containsKey("maxPValue")
+        ? conf.getDouble("maxPValue") : 1.0;
+    double minPercent = 0;
+    if (conf.containsKey("minPatternPercent")) {
+      int percent = Math.max(1, Math.min(100, conf.getInt("minPatternPercent")));
+      minPercent = percent / 100.0;
+    }
+
+    int accepted = 0;
+    PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+    offerCandidate(queue, tree.getRoot(), Double.NEGATIVE_INFINITY,
+        treePattern, minLeaves, minHeight, background);
+    while (!queue.isEmpty()) {
+      Candidate c = queue.poll();
+      if (c.bound < collector.getThreshold()) {
+        // nothing left in this tree can get in
+        break;
+      }
+      TreeNode node = c.node;
+      int leaves = node.getLeafNum();
+      int patternLeaves = node.getLeafNumWithPattern(treePattern);
+      double nodeScore = Double.NEGATIVE_INFINITY;
+      nodesScored++;
+      // clades too long may still have children short enough
+      if (1.0 * patternLeaves / leaves >= minPercent
+          && SubTreeSearch.checkCladeDistances(node, conf) && (maxPValue >= 1.0
+          || background.test.pValue(patternLeaves, leaves,
+              background.patternLeaves, background.leaves) <= maxPValue)) {
+        nodeScore = score.score(patternLeaves, leaves, background);
+        if (nodeScore > c.parentScore && collector.offer(
+            new ScoredSubtree(tree, node, nodeScore, treePattern))) {
+          accepted++;
+        }
+      }
+      for (TreeNode child : node.getChildren()) {
+        offerCandidate(queue, child, nodeScore, treePattern, minLeaves,
+            minHeight, background);
+      }
+    }
+    return accepted;
+  }
+
+  // subtrees too small or too low are skipped with all their descendants
+  private void offerCandidate(PriorityQueue<Candidate> queue, TreeNode node,
+      double parentScore, SequencePattern treePattern, int minLeaves,
+      int minHeight, Background background) {
+    int leaves = node.getLeafNum();
+    if (leaves < minLeaves || node.getSubTreeHeight() < minHeight) {
+      return;
+    }
+    double bound = score.bound(node.getLeafNumWithPattern(treePattern), leaves,
+        minLeaves, background);
+    if (bound >= collector.getThreshold()) {
+      queue.add(new Candidate(node, bound, parentScore));
+    }
+  }
+
+  private static final class Candidate implements Comparable<Candidate> {
+    final TreeNode node;
+    final double bound;
+    // score of the parent if it was a result candidate itself
+    final double parentScore;
+
+    Candidate(TreeNode node, double bound, double parentScore) {
+      this.node = node;
+      this.bound = bound;
+      this.parentScore = parentScore;
+    }
+
+    // highest bound first, bigger subtrees first on ties
+    @Override
+    public int compareTo(Candidate other) {
+      if (bound != other.bound) {
+        return bound > other.bound ? -1 : 1;
+      }
+      return other.node.getLeafNum() - node.getLeafNum();
+    }
+  }
+
+  /** Marks the pattern leaves of the result for the colored output. */
+  public static void markPatternLeaves(ScoredSubtree result) {
+    SubTreeSearch.setHasPatternForLeaves(result.getNode(), result.getPattern());
+  }
+
+}
@@ -2,21 +2,31 @@ package hu.sztaki.phytree;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import hu.sztaki.fileops.FileNumber;
+import hu.sztaki.phytree.index.FmIndex;
+import hu.sztaki.phytree.index.KmerIndex;
+import hu.sztaki.phytree.index.SequenceIndex;
 import hu.sztaki.phytree.io.FastaReader;
 import hu.sztaki.phytree.io.FastaWriter;
+import hu.sztaki.phytree.io.InputFiles;
+import hu.sztaki.phytree.memory.FootprintAccounting;
+import hu.sztaki.phytree.metrics.Stage;
+import hu.sztaki.phytree.metrics.StageMetrics;
+import hu.sztaki.phytree.succinct.SuccinctTree;
 import hu.sztaki.phytree.tree.SeqsToTreeNodes;
 import hu.sztaki.phytree.tree.Tree;
 import hu.sztaki.phytree.tree.TreeNode;
@@ -25,11 +35,56 @@ public class TreeAndFastaFilesMatcher {
   
   private String pathOfFastaDir;
   private String pathOfTreeDir;
+  // sequences of all clusters are stored here, if set
+  private SequenceArena sequenceArena;
+  // k of the k-mer index of each cluster, 0 if not indexed
+  private int kmerLength = 0;
+  // build an FM-index for each cluster
+  private boolean fmIndex = false;
+  // where the indexes are saved, null for the FASTA directory
+  private String indexDir;
+  // threads parsing one tree file, 1 for a single TreeParser
+  private int parseThreads = 1;
+  // time of reading, attaching and indexing each cluster
+  private StageMetrics metrics = new StageMetrics();
+  // memory of each tree with its sequences, null for none
+  private FootprintAccounting footprint;
+  
+  /** Gets the trees of NEXUS files one by one, as they are parsed. */
+  public interface NexusTreeHandler {
+    void handle(Tree tree);
+  }
   
   public TreeAndFastaFilesMatcher(String treeDir, String fastaDir) {
     pathOfTreeDir = treeDir;
     pathOfFastaDir = fastaDir;
   }
+
+  public void setSequenceArena(SequenceArena arena) {
+    sequenceArena = arena;
+  }
+
+  public void setKmerIndex(int kmerLength, String indexDir) {
+    this.kmerLength = kmerLength;
+    this.indexDir = indexDir;
+  }
+
+  public void setFmIndex(boolean fmIndex, String indexDir) {
+    this.fmIndex = fmIndex;
+    this.indexDir = indexDir;
+  }
+
+  public void setParseThreads(int parseThreads) {
+    this.parseThreads = parseThreads;
+  }
+
+  public void setMetrics(StageMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public void setFootprint(FootprintAccounting footprint) {
+    this.footprint = footprint;
+  }
   
   // by the last number of the filename
   // note: this will be slow for many files! O(n^2)
@@ -54,17 +109,33 @@ public class TreeAndFastaFilesMatcher {
       String path = newickFile.getPath();
       FileNumber fileNumParser = new FileNumber(path);
       int tNumber = fileNumParser.getNumber();
-      br = new BufferedReader(new FileReader(newickFile));
-      TreeParser treeParser = new TreeParser(br);
-      Tree tree = treeParser.tokenize();
+      StageMetrics.StageTimer timer = metrics.start(Stage.PARSE, tNumber);
+      Tree tree;
+      // compressed files can only be read from the start
+      if (parseThreads > 1 && !InputFiles.isCompressed(newickFile)) {
+        tree = new ParallelTreeParser(parseThreads).parse(newickFile);
+      } else {
+        br = new BufferedReader(new InputStreamReader(
+            InputFiles.open(newickFile)));
+        try {
+          TreeParser treeParser = new TreeParser(br);
+          tree = treeParser.tokenize();
+        } finally {
+          br.close();
+        }
+      }
       /*if (renameTreeSeqs) {
         System.out.println("Renaming leaves..."); 
         tree.getRoot().renameFromLongToSimple();
       }*/
       tree.setKey(tNumber);
+      timer.end(newickFile.length(), tree.nodes.size(), tree.getLeafCount(),
+          0);
       return tree;
     } catch (FileNotFoundException e) {
       e.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
     }
     return null;
   }
@@ -73,9 +144,11 @@ public class TreeAndFastaFilesMatcher {
     return dir.listFiles(new FilenameFilter() {
         @Override
         public boolean accept(File dir, String name) {
-            return (name.toLowerCase().endsWith(".fasta") || 
-                    name.toLowerCase().endsWith(".fas") ||
-                    name.toLowerCase().endsWith(".fa"));
+            // with or without .gz
+            String type = InputFiles.uncompressedName(name).toLowerCase();
+            return (type.endsWith(".fasta") || 
+                    type.endsWith(".fas") ||
+                    type.endsWith(".fa"));
         }
     });
   }
@@ -84,23 +157,43 @@ public class TreeAndFastaFilesMatcher {
     return dir.listFiles(new FilenameFilter() {
         @Override
         public boolean accept(File dir, String name) {
-            return (name.toLowerCase().endsWith(".newick") || 
-                    name.toLowerCase().endsWith(".nwk"));
+            // with or without .gz
+            String type = InputFiles.uncompressedName(name).toLowerCase();
+            return (type.endsWith(".newick") || 
+                    type.endsWith(".nwk"));
+        }
+    });
+  }
+  
+  private File[] getNexusFilesFromDir(File dir) {
+    return dir.listFiles(new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return (name.toLowerCase().endsWith(".nex") || 
+                    name.toLowerCase().endsWith(".nexus") ||
+                    name.toLowerCase().endsWith(".trees"));
         }
     });
   }
   
   private List<FastaItem> readFastaItems(File fastaFile) {
+    StageMetrics.StageTimer timer = metrics.start(Stage.FASTA_READ,
+        new FileNumber(fastaFile.getPath()).getNumber());
     try {
-      InputStream fastaIs = new FileInputStream(fastaFile);
-      FastaReader fastaReader = new FastaReader(fastaIs);
-      List<FastaItem> fastaItemList = new ArrayList<FastaItem>();
-      FastaItem fastaItem = fastaReader.getNextFastaItem();
-      while (fastaItem != null) {
-        fastaItemList.add(fastaItem);
-        fastaItem = fastaReader.getNextFastaItem();
+      InputStream fastaIs = InputFiles.open(fastaFile);
+      try {
+        FastaReader fastaReader = new FastaReader(fastaIs, sequenceArena);
+        List<FastaItem> fastaItemList = new ArrayList<FastaItem>();
+        FastaItem fastaItem = fastaReader.getNextFastaItem();
+        while (fastaItem != null) {
+          fastaItemList.add(fastaItem);
+          fastaItem = fastaReader.getNextFastaItem();
+        }
+        timer.end(fastaFile.length(), 0, fastaItemList.size(), 0);
+        return fastaItemList;
+      } finally {
+        fastaIs.close();
       }
-      return fastaItemList;
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -115,10 +208,146 @@ public class TreeAndFastaFilesMatcher {
       Tree tree = readTree(treeFile);
       File fastaFileForTree = matchFastaFileToTree(treeFile, fastaFiles);
       List<FastaItem> fastaItemList = readFastaItems(fastaFileForTree);
-      SeqsToTreeNodes sqtn = new SeqsToTreeNodes();
-      sqtn.setTree(tree);
-      sqtn.setFastaItems(fastaItemList);
-      tree = sqtn.appendSeqsToNodes();
+      tree = appendSeqs(tree, fastaItemList);
+      tree.setSequenceIndex(createSequenceIndex(fastaFileForTree,
+          fastaItemList));
+      if (footprint != null) {
+        footprint.account(tree);
+      }
+      ret.add(tree);
+    }
+    return ret;
+  }
+
+  /**
+   * Parses the trees of the NEXUS files on the given number of threads and
+   * hands them over with their sequences one by one, so only a few trees of
+   * a file are in memory at a time. The sequences (and the index) of a
+   * cluster are read once and shared by all of its trees.
+   */
+  public void readNexusTreesWithSequences(int threads,
+      NexusTreeHandler handler, ParseProgressListener progressListener) {
+    File[] fastaFiles = getFastaFilesFromDir(new File(pathOfFastaDir));
+    File[] treeFiles = getNexusFilesFromDir(new File(pathOfTreeDir));
+    for (File treeFile: treeFiles) {
+      int tNumber = new FileNumber(treeFile.getPath()).getNumber();
+      File fastaFileForTree = matchFastaFileToTree(treeFile, fastaFiles);
+      List<FastaItem> fastaItemList = readFastaItems(fastaFileForTree);
+      SequenceIndex index = createSequenceIndex(fastaFileForTree,
+          fastaItemList);
+      try {
+        NexusTreeReader reader = new NexusTreeReader(treeFile, threads);
+        reader.setProgressListener(progressListener);
+        try {
+          // the time the trees are waited for, they are parsed on the pool
+          StageMetrics.StageTimer parseTimer =
+              metrics.start(Stage.PARSE, tNumber);
+          Tree tree = reader.getNextTree();
+          while (tree != null) {
+            tree.setKey(tNumber);
+            parseTimer.end(0, tree.nodes.size(), tree.getLeafCount(), 0);
+            tree = appendSeqs(tree, fastaItemList);
+            tree.setSequenceIndex(index);
+            if (footprint != null) {
+              footprint.account(tree);
+            }
+            handler.handle(tree);
+            parseTimer = metrics.start(Stage.PARSE, tNumber);
+            tree = reader.getNextTree();
+          }
+        } finally {
+          reader.close();
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private Tree appendSeqs(Tree tree, List<FastaItem> fastaItemList) {
+    StageMetrics.StageTimer timer = metrics.start(Stage.ATTACH,
+        tree.getKey());
+    SeqsToTreeNodes sqtn = new SeqsToTreeNodes();
+    sqtn.setTree(tree);
+    sqtn.setFastaItems(fastaItemList);
+    Tree ret = sqtn.appendSeqsToNodes();
+    timer.end(0, tree.nodes.size(), tree.getLeafCount(), 0);
+    return ret;
+  }
+
+  // NEXUS files of the directory by their cluster number
+  public Map<Integer, File> getNexusFilesByCluster(String dir) {
+    Map<Integer, File> ret = new HashMap<Integer, File>();
+    for (File f: getNexusFilesFromDir(new File(dir))) {
+      ret.put(new FileNumber(f.getPath()).getNumber(), f);
+    }
+    return ret;
+  }
+
+  // the k-mer or FM-index of the cluster, null if turned off
+  private SequenceIndex createSequenceIndex(File fastaFile,
+      List<FastaItem> fastaItemList) {
+    File dir = indexDir != null ? new File(indexDir)
+        : fastaFile.getParentFile();
+    if (!fmIndex && kmerLength == 0) {
+      return null;
+    }
+    StageMetrics.StageTimer timer = metrics.start(Stage.INDEX,
+        new FileNumber(fastaFile.getPath()).getNumber());
+    SequenceIndex index = fmIndex
+        ? FmIndex.forFastaFile(fastaFile, fastaItemList, dir)
+        : KmerIndex.forFastaFile(fastaFile, fastaItemList, kmerLength, dir);
+    timer.end(0, 0, fastaItemList.size(), 0);
+    return index;
+  }
+
+  private SuccinctTree readSuccinctTree(File newickFile) {
+    try {
+      BufferedReader br = new BufferedReader(new InputStreamReader(
+          InputFiles.open(newickFile)));
+      try {
+        int tNumber = new FileNumber(newickFile.getPath()).getNumber();
+        StageMetrics.StageTimer timer = metrics.start(Stage.PARSE, tNumber);
+        SuccinctTree tree = SuccinctTree.read(br);
+        tree.setKey(tNumber);
+        timer.end(newickFile.length(), tree.getNodeCount(),
+            tree.getLeafCount(), 0);
+        return tree;
+      } finally {
+        br.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  // the tree files with their FASTA files, for searches reading them
+  // directly
+  public Map<File, File> getMatchedFiles() {
+    Map<File, File> ret = new LinkedHashMap<File, File>();
+    File[] fastaFiles = getFastaFilesFromDir(new File(pathOfFastaDir));
+    for (File treeFile: getNewickFilesFromDir(new File(pathOfTreeDir))) {
+      ret.put(treeFile, matchFastaFileToTree(treeFile, fastaFiles));
+    }
+    return ret;
+  }
+
+  // the same as getTreesWithSequences, without TreeNode objects
+  public List<SuccinctTree> getSuccinctTreesWithSequences() {
+    List<SuccinctTree> ret = new ArrayList<SuccinctTree>();
+    File[] fastaFiles = getFastaFilesFromDir(new File(pathOfFastaDir));
+    File[] treeFiles = getNewickFilesFromDir(new File(pathOfTreeDir));
+    for (File treeFile: treeFiles) {
+      SuccinctTree tree = readSuccinctTree(treeFile);
+      if (tree == null) {
+        continue;
+      }
+      File fastaFileForTree = matchFastaFileToTree(treeFile, fastaFiles);
+      List<FastaItem> fastaItemList = readFastaItems(fastaFileForTree);
+      tree.setSequences(fastaItemList);
+      tree.setSequenceIndex(createSequenceIndex(fastaFileForTree,
+          fastaItemList));
       ret.add(tree);
     }
     return ret;
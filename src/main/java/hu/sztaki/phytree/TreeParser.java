@@ -10,7 +10,6 @@ import java.util.ArrayList;
 import java.util.EmptyStackException;
 import java.util.Stack;
 import java.util.Vector;
-import javax.swing.JProgressBar;
 
 import hu.sztaki.phytree.tree.*;
 
@@ -165,7 +164,7 @@ public class TreeParser {
   /**
    * Initializes parsing of a tree by creating a tokenizer and setting default
    * properties (such as spacing, quoting characters).
-   * {@link #tokenize(long, String, JProgressBar)} is required to start the
+   * {@link #tokenize()} is required to start the
    * parsing.
    * 
    * @param b
@@ -257,6 +256,16 @@ public class TreeParser {
    * @return Tree parsed from the stream.
    */
   public Tree tokenize() {
+    Tree t = tokenizeNodes();
+    t.postProcess();
+    return t;
+  }
+
+  /**
+   * Parses the nodes of the tree without {@link Tree#postProcess()}, for
+   * fragments that become part of a bigger tree.
+   */
+  Tree tokenizeNodes() {
     final char openBracket = '(', closeBracket = ')', childSeparator = ',',
         treeTerminator = lineTerminator, 
         doubleQuote = '"', infoSeparator = ':';
@@ -353,7 +362,6 @@ public class TreeParser {
     if (!nodeStack.isEmpty())
       System.err
           .println("Node stack still has " + nodeStack.size() + " things");
-    t.postProcess();
     return t;
   }
 
@@ -364,9 +372,12 @@ public class TreeParser {
    * @param treeNumbers
    *          Vector of Integers for commandline-based input of nexus trees;
    *          assume this vector is in ascending order
+   * @param progressListener
+   *          Told about every tree parsed, may be null.
    * @return arraylist of trees parsed from the tree file.
    */
-  private ArrayList<Tree> nexusTreeTokenize(Vector<Integer> treeNumbers) {
+  private ArrayList<Tree> nexusTreeTokenize(Vector<Integer> treeNumbers,
+      ParseProgressListener progressListener) {
     ArrayList<Tree> treeArray = new ArrayList<Tree>();
     // newick tree subsection stuff (newick encoding)
 
@@ -378,8 +389,10 @@ public class TreeParser {
     int thisToken;
     int currTree = 0;
     String currTreeName = null;
+    int total = -1;
     if (treeNumbers != null && treeNumbers.size() > 0) {
       readAllTrees = false;
+      total = treeNumbers.size();
       nextNumber = ((Integer) treeNumbers.get(0)).intValue();
       treeNumbers.remove(0);
     }
@@ -405,6 +418,9 @@ public class TreeParser {
             if (treeNumbers == null || currTree == nextNumber) {
               Tree t = tokenize();
               treeArray.add(t);
+              if (progressListener != null) {
+                progressListener.progress(treeArray.size(), total);
+              }
               if (treeNumbers != null && !treeNumbers.isEmpty()) {
                 nextNumber = ((Integer) treeNumbers.get(0)).intValue();
                 treeNumbers.remove(0);
@@ -440,9 +456,13 @@ public class TreeParser {
    * @param treeNumbers
    *          Vector of Integers for commandline-based input of nexus trees;
    *          assume this vector is in ascending order.
+   * @param progressListener
+   *          Told about every tree parsed, may be null.
    * @return arraylist of trees parsed from the nexus file.
+   * @see NexusTreeReader
    */
-  public ArrayList<Tree> nexusTokenize(Vector<Integer> treeNumbers, JProgressBar progressBar) {
+  public ArrayList<Tree> nexusTokenize(Vector<Integer> treeNumbers,
+      ParseProgressListener progressListener) {
     System.out.println("Nexus tokenize: " + treeNumbers.toString());
     ArrayList<Tree> treeArray = null;
 
@@ -459,7 +479,7 @@ public class TreeParser {
             debugOutput("beginning new section: " + tokenizer.sval);
             thisToken = tokenizer.nextToken();
             if (tokenizer.sval.equalsIgnoreCase(treeSectionTag))
-              treeArray = nexusTreeTokenize(treeNumbers);
+              treeArray = nexusTreeTokenize(treeNumbers, progressListener);
           } else
             debugOutput("Word: " + tokenizer.sval);
           break;
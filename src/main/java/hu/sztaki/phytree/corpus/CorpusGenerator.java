@@ -0,0 +1,371 @@
+package hu.sztaki.phytree.corpus;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+/**
+ * Writes a synthetic corpus for scale tests: for every cluster a Newick
+ * tree and a FASTA file with a sequence for each leaf, named like the
+ * example files (tree_corpus_cluster_N.fasta.nwk and corpus_cluster_N.fasta),
+ * so Main matches them by their number.
+ *
+ * Leaves are named AC|start-end|tag and the FASTA headers are the same
+ * names. Trees are written while they are generated and each leaf's record
+ * is written when the leaf is, so nothing of the size of the tree is kept
+ * in memory and trees of 10^8 leaves can be made. The motif is planted in
+ * the given rate of the sequences; the other residues never start the
+ * motif, so it is found in exactly those.
+ */
+public class CorpusGenerator {
+
+  public enum Shape {
+    // the size of the left subtree is uniform on 1..n-1
+    YULE,
+    // every internal node has a leaf child
+    CATERPILLAR,
+    // every leaf is a child of the root
+    STAR
+  }
+
+  public enum BranchLengths {
+    NONE, EXPONENTIAL, UNIFORM, LOGNORMAL
+  }
+
+  private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWY";
+  private static final String TAGS = "abc";
+  private static final int FASTA_LINE_LENGTH = 60;
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  // stack entries besides leaf counts
+  private static final int COMMA = 0;
+  private static final int CLOSE = -1;
+
+  private Shape shape = Shape.YULE;
+  private BranchLengths branchLengths = BranchLengths.EXPONENTIAL;
+  private double meanBranchLength = 0.1;
+  private String motif = "FF";
+  private double motifRate = 0.2;
+  private int minSeqLength = 50;
+  private int maxSeqLength = 300;
+  private long seed = 1;
+  private char[] background;
+
+  // of the cluster being written
+  private Random topologyRandom;
+  private Random leafRandom;
+  private int leafIndex;
+  private int acWidth;
+  private long planted;
+
+  public void setShape(Shape shape) {
+    this.shape = shape;
+  }
+
+  public void setBranchLengths(BranchLengths branchLengths, double mean) {
+    this.branchLengths = branchLengths;
+    this.meanBranchLength = mean;
+  }
+
+  public void setMotif(String motif, double rate) {
+    if (motif.isEmpty()) {
+      throw new IllegalArgumentException("the motif is empty");
+    }
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException("the motif rate is not in [0, 1]");
+    }
+    this.motif = motif.toUpperCase();
+    this.motifRate = rate;
+  }
+
+  public void setSeqLength(int min, int max) {
+    if (min < 1 || max < min) {
+      throw new IllegalArgumentException("bad sequence length range");
+    }
+    this.minSeqLength = min;
+    this.maxSeqLength = max;
+  }
+
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /** Number of sequences with the motif planted, over all clusters. */
+  public long getPlantedCount() {
+    return planted;
+  }
+
+  public static String treeFileName(int cluster) {
+    return "tree_corpus_cluster_" + cluster + ".fasta.nwk";
+  }
+
+  public static String fastaFileName(int cluster) {
+    return "corpus_cluster_" + cluster + ".fasta";
+  }
+
+  /**
+   * Writes the tree and FASTA files of a cluster into treeDir and fastaDir.
+   * The same seed and settings give the same files.
+   */
+  public void writeCluster(int cluster, int leaves, File treeDir,
+      File fastaDir) throws IOException {
+    if (leaves < 1) {
+      throw new IllegalArgumentException("a tree needs a leaf");
+    }
+    if (motif.length() > minSeqLength) {
+      throw new IllegalArgumentException("the motif is longer than a sequence");
+    }
+    background = backgroundResidues();
+    topologyRandom = new Random(seed * 31 + cluster);
+    leafRandom = new Random(seed * 17 + cluster * 7919L);
+    leafIndex = 0;
+    acWidth = String.valueOf(leaves - 1).length();
+    Writer tree = open(new File(treeDir, treeFileName(cluster)));
+    try {
+      Writer fasta = open(new File(fastaDir, fastaFileName(cluster)));
+      try {
+        writeTree(leaves, tree, fasta);
+      } finally {
+        fasta.close();
+      }
+    } finally {
+      tree.close();
+    }
+  }
+
+  private static Writer open(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), "US-ASCII"), BUFFER_SIZE);
+  }
+
+  private char[] backgroundResidues() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < RESIDUES.length(); i++) {
+      if (RESIDUES.charAt(i) != motif.charAt(0)) {
+        sb.append(RESIDUES.charAt(i));
+      }
+    }
+    return sb.toString().toCharArray();
+  }
+
+  private void writeTree(int leaves, Writer tree, Writer fasta)
+      throws IOException {
+    if (leaves == 1) {
+      writeLeaf(tree, fasta);
+    } else if (shape == Shape.STAR) {
+      tree.write('(');
+      for (int i = 0; i < leaves; i++) {
+        if (i > 0) {
+          tree.write(',');
+        }
+        writeLeaf(tree, fasta);
+      }
+      tree.write(')');
+    } else if (shape == Shape.CATERPILLAR) {
+      for (int i = 0; i < leaves - 1; i++) {
+        tree.write('(');
+        writeLeaf(tree, fasta);
+        tree.write(',');
+      }
+      writeLeaf(tree, fasta);
+      for (int i = 0; i < leaves - 2; i++) {
+        tree.write(')');
+        writeLength(tree);
+      }
+      tree.write(')');
+    } else {
+      writeYule(leaves, tree, fasta);
+    }
+    tree.write(";\n");
+  }
+
+  // with a stack of its own, the depth of a Yule tree is not bounded
+  private void writeYule(int leaves, Writer tree, Writer fasta)
+      throws IOException {
+    int[] stack = new int[64];
+    int top = 0;
+    stack[top++] = leaves;
+    while (top > 0) {
+      int entry = stack[--top];
+      if (entry == COMMA) {
+        tree.write(',');
+      } else if (entry == CLOSE) {
+        tree.write(')');
+        if (top > 0) {
+          writeLength(tree);
+        }
+      } else if (entry == 1) {
+        writeLeaf(tree, fasta);
+      } else {
+        if (top + 4 > stack.length) {
+          int[] bigger = new int[stack.length * 2];
+          System.arraycopy(stack, 0, bigger, 0, top);
+          stack = bigger;
+        }
+        int left = 1 + topologyRandom.nextInt(entry - 1);
+        stack[top++] = CLOSE;
+        stack[top++] = entry - left;
+        stack[top++] = COMMA;
+        stack[top++] = left;
+        tree.write('(');
+      }
+    }
+  }
+
+  private void writeLeaf(Writer tree, Writer fasta) throws IOException {
+    int length = minSeqLength
+        + leafRandom.nextInt(maxSeqLength - minSeqLength + 1);
+    int start = 1 + leafRandom.nextInt(200);
+    StringBuilder name = new StringBuilder(acWidth + 16);
+    String number = String.valueOf(leafIndex++);
+    name.append('C');
+    for (int i = number.length(); i < acWidth; i++) {
+      name.append('0');
+    }
+    name.append(number).append('|').append(start).append('-')
+        .append(start + length - 1).append('|')
+        .append(TAGS.charAt(leafRandom.nextInt(TAGS.length())));
+    tree.write(name.toString());
+    writeLength(tree);
+
+    char[] residues = new char[length];
+    for (int i = 0; i < length; i++) {
+      residues[i] = background[leafRandom.nextInt(background.length)];
+    }
+    if (leafRandom.nextDouble() < motifRate) {
+      int at = leafRandom.nextInt(length - motif.length() + 1);
+      motif.getChars(0, motif.length(), residues, at);
+      planted++;
+    }
+    fasta.write("> ");
+    fasta.write(name.toString());
+    fasta.write('\n');
+    for (int i = 0; i < length; i += FASTA_LINE_LENGTH) {
+      fasta.write(residues, i, Math.min(FASTA_LINE_LENGTH, length - i));
+      fasta.write('\n');
+    }
+  }
+
+  private void writeLength(Writer tree) throws IOException {
+    if (branchLengths == BranchLengths.NONE) {
+      return;
+    }
+    double length;
+    double u = topologyRandom.nextDouble();
+    switch (branchLengths) {
+    case UNIFORM:
+      length = 2 * meanBranchLength * u;
+      break;
+    case LOGNORMAL:
+      // sigma 1, so the mean is exp(mu + 1/2)
+      length = Math.exp(Math.log(meanBranchLength) - 0.5
+          + topologyRandom.nextGaussian());
+      break;
+    default:
+      length = -meanBranchLength * Math.log(1 - u);
+    }
+    tree.write(':');
+    tree.write(formatLength(length));
+  }
+
+  // fixed point with 6 decimals, the parser does not read exponents
+  static String formatLength(double length) {
+    long micros = Math.round(length * 1e6);
+    String fraction = String.valueOf(micros % 1000000);
+    StringBuilder sb = new StringBuilder(16);
+    sb.append(micros / 1000000).append('.');
+    for (int i = fraction.length(); i < 6; i++) {
+      sb.append('0');
+    }
+    return sb.append(fraction).toString();
+  }
+
+  private static int[] parseLeafCounts(String[] values) {
+    int[] ret = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      // 1e8 and 100000000 both
+      ret[i] = (int) Double.parseDouble(values[i].trim());
+    }
+    return ret;
+  }
+
+  /**
+   * Reads the settings from a properties file (see the README) and writes
+   * the corpus.
+   */
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.out.println("Expecting 1 arguments: propertiesFile");
+      System.out.println("Found args: " + args.length);
+      return;
+    }
+    Configuration config;
+    try {
+      config = new PropertiesConfiguration(args[0]);
+    } catch (ConfigurationException e) {
+      System.out.println("Could not read the properties file: "
+          + e.getMessage());
+      System.exit(3);
+      return;
+    }
+    if (!config.containsKey("corpusDir")) {
+      System.out.println("Please specify where to write the corpus "
+          + "with the \"corpusDir\" property!");
+      System.exit(3);
+    }
+    CorpusGenerator generator = new CorpusGenerator();
+    int clusters = config.getInt("clusters", 10);
+    int[] leafCounts;
+    try {
+      leafCounts = parseLeafCounts(config.containsKey("leaves")
+          ? config.getStringArray("leaves") : new String[] {"1000"});
+      generator.setShape(Shape.valueOf(
+          config.getString("treeShape", "yule").toUpperCase()));
+      generator.setBranchLengths(BranchLengths.valueOf(
+          config.getString("branchLengths", "exponential").toUpperCase()),
+          config.getDouble("meanBranchLength", 0.1));
+      generator.setMotif(config.getString("motif", "FF"),
+          config.getDouble("motifRate", 0.2));
+      generator.setSeqLength(config.getInt("minSeqLength", 50),
+          config.getInt("maxSeqLength", 300));
+      generator.setSeed(config.getLong("seed", 1));
+    } catch (IllegalArgumentException e) {
+      System.out.println("Please check the corpus settings: "
+          + e.getMessage());
+      System.exit(3);
+      return;
+    }
+    File dir = new File(config.getString("corpusDir"));
+    File treeDir = new File(dir, "trees");
+    File fastaDir = new File(dir, "fasta");
+    treeDir.mkdirs();
+    fastaDir.mkdirs();
+    long leaves = 0;
+    long start = System.currentTimeMillis();
+    try {
+      for (int cluster = 1; cluster <= clusters; cluster++) {
+        int count = leafCounts[(cluster - 1) % leafCounts.length];
+        generator.writeCluster(cluster, count, treeDir, fastaDir);
+        leaves += count;
+        System.out.println("Cluster " + cluster + ": " + count + " leaves");
+      }
+    } catch (IOException e) {
+      System.out.println("Could not write the corpus: " + e.getMessage());
+      System.exit(1);
+    }
+    System.out.println("Wrote " + clusters + " clusters, " + leaves
+        + " leaves, motif in " + generator.getPlantedCount()
+        + " sequences, in " + (System.currentTimeMillis() - start) + " ms");
+    System.out.println("treeFilesDir = " + treeDir.getPath());
+    System.out.println("fastaFilesDir = " + fastaDir.getPath());
+  }
+
+}
@@ -0,0 +1,521 @@
+package hu.sztaki.phytree.index;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * FM-index (Burrows-Wheeler transform with occurrence checkpoints and a
+ * sampled suffix array) over the concatenated sequences of one cluster.
+ *
+ * The text is seq0 # seq1 # ... seqN-1 $, where # separates the sequences
+ * and $ is a unique terminator, both smaller than every residue. A pattern
+ * never contains them, so its occurrences never span two sequences. Finding
+ * the occurrences takes |P| backward search steps, locating each of them at
+ * most SA_SAMPLE - 1 more steps, and the sequence of an occurrence is found
+ * in the map of sequence start positions.
+ *
+ * Memory: 1 byte per residue for the BWT, sigma ints per OCC_SAMPLE residues
+ * for the checkpoints and one int per SA_SAMPLE residues for the suffix
+ * array samples, about 1.5 bytes per residue for protein sequences.
+ * Building it takes about 6 bytes per residue for a while (see
+ * {@link #build}).
+ */
+public class FmIndex implements SequenceIndex {
+
+  private static final Logger LOG = Log.getLogger(FmIndex.class);
+
+  static final int OCC_SAMPLE = 256;
+  static final int SA_SAMPLE = 32;
+
+  private static final int MAGIC = 0x5054464d; // PTFM
+  private static final int VERSION = 1;
+
+  private static final int TERMINATOR = 0;
+  private static final int SEPARATOR = 1;
+
+  private final List<FastaItem> items;
+  // residue byte -> code (2 ..), -1 if the residue does not occur
+  private final int[] codes;
+  private final int sigma;
+  private final byte[] bwt;
+  // first text position of each sequence
+  private final int[] starts;
+  // suffix array values divisible by SA_SAMPLE, in BWT order, and the BWT
+  // positions they belong to
+  private final int[] saSamples;
+  private final long[] sampled;
+
+  // derived from the above
+  private final int[] counts;
+  private final int[] occ;
+  private final int[] sampledRank;
+
+  private FmIndex(List<FastaItem> items, int[] codes, int sigma, byte[] bwt,
+      int[] starts, int[] saSamples, long[] sampled) {
+    this.items = items;
+    this.codes = codes;
+    this.sigma = sigma;
+    this.bwt = bwt;
+    this.starts = starts;
+    this.saSamples = saSamples;
+    this.sampled = sampled;
+
+    int n = bwt.length;
+    counts = new int[sigma + 1];
+    int blocks = n / OCC_SAMPLE + 1;
+    occ = new int[blocks * sigma];
+    int[] running = new int[sigma];
+    for (int i = 0; i < n; i++) {
+      if (i % OCC_SAMPLE == 0) {
+        System.arraycopy(running, 0, occ, (i / OCC_SAMPLE) * sigma, sigma);
+      }
+      running[bwt[i] & 0xFF]++;
+    }
+    if (n % OCC_SAMPLE == 0) {
+      System.arraycopy(running, 0, occ, (n / OCC_SAMPLE) * sigma, sigma);
+    }
+    for (int c = 0; c < sigma; c++) {
+      counts[c + 1] = counts[c] + running[c];
+    }
+    sampledRank = new int[sampled.length];
+    int rank = 0;
+    for (int w = 0; w < sampled.length; w++) {
+      sampledRank[w] = rank;
+      rank += Long.bitCount(sampled[w]);
+    }
+  }
+
+  /**
+   * Builds the index of the items, which must be indexed by their position
+   * in the list (see {@link FastaItem#getIndex()}).
+   *
+   * Building takes about 6 bytes per residue at its peak: the text (1 byte
+   * per residue), its suffix array (4), the BWT (1) and the type bits of
+   * the suffix array construction.
+   */
+  public static FmIndex build(List<FastaItem> items) {
+    long length = 1;
+    for (int i = 0; i < items.size(); i++) {
+      length += items.get(i).getSequenceLength()
+          + (i + 1 < items.size() ? 1 : 0);
+    }
+    if (length > Integer.MAX_VALUE - 1) {
+      throw new IllegalArgumentException("Too many residues for an FM-index: "
+          + length);
+    }
+    int n = (int) length;
+    // the residues are copied as they are, then recoded in place
+    byte[] text = new byte[n];
+    int[] starts = new int[items.size()];
+    boolean[] seen = new boolean[256];
+    int pos = 0;
+    for (int i = 0; i < items.size(); i++) {
+      if (i > 0) {
+        pos++;
+      }
+      starts[i] = pos;
+      byte[] sequence = toBytes(items.get(i).getSequenceString());
+      System.arraycopy(sequence, 0, text, pos, sequence.length);
+      for (byte b : sequence) {
+        seen[b & 0xFF] = true;
+      }
+      pos += sequence.length;
+    }
+    int[] codes = new int[256];
+    Arrays.fill(codes, -1);
+    int sigma = 2;
+    for (int b = 0; b < 256; b++) {
+      if (seen[b]) {
+        if (sigma > 255) {
+          throw new IllegalArgumentException("Too many different residues");
+        }
+        codes[b] = sigma++;
+      }
+    }
+    for (int i = 0; i < starts.length; i++) {
+      int end = i + 1 < starts.length ? starts[i + 1] - 1 : n - 1;
+      for (int p = starts[i]; p < end; p++) {
+        text[p] = (byte) codes[text[p] & 0xFF];
+      }
+      if (i > 0) {
+        text[starts[i] - 1] = SEPARATOR;
+      }
+    }
+    text[n - 1] = TERMINATOR;
+
+    int[] sa = suffixArray(text, sigma);
+    byte[] bwt = new byte[n];
+    long[] sampled = new long[(n + 63) / 64];
+    int[] saSamples = new int[(n + SA_SAMPLE - 1) / SA_SAMPLE];
+    int s = 0;
+    for (int i = 0; i < n; i++) {
+      bwt[i] = text[sa[i] == 0 ? n - 1 : sa[i] - 1];
+      if (sa[i] % SA_SAMPLE == 0) {
+        sampled[i >>> 6] |= 1L << i;
+        saSamples[s++] = sa[i];
+      }
+    }
+    return new FmIndex(items, codes, sigma, bwt, starts, saSamples, sampled);
+  }
+
+  // symbols of the text of one level of the suffix array construction
+  private interface Text {
+    int get(int i);
+  }
+
+  // the text must end with a unique smallest symbol; symbols are unsigned
+  static int[] suffixArray(final byte[] text, int sigma) {
+    int[] sa = new int[text.length];
+    sais(new Text() {
+      @Override
+      public int get(int i) {
+        return text[i] & 0xFF;
+      }
+    }, sa, text.length, sigma);
+    return sa;
+  }
+
+  // SA-IS (Nong, Zhang and Chan), O(n): the LMS substrings are sorted by
+  // induced sorting, named, and the suffixes of the names are sorted
+  // recursively if two are equal. The reduced text and its suffix array
+  // are kept in sa itself, only the type bits and the buckets are extra.
+  private static void sais(Text t, int[] sa, int n, int sigma) {
+    if (n == 1) {
+      sa[0] = 0;
+      return;
+    }
+    // bit i is set if suffix i is S-type (smaller than suffix i + 1)
+    BitSet stype = new BitSet(n);
+    stype.set(n - 1);
+    for (int i = n - 2; i >= 0; i--) {
+      int a = t.get(i);
+      int b = t.get(i + 1);
+      if (a < b || (a == b && stype.get(i + 1))) {
+        stype.set(i);
+      }
+    }
+    int[] bucket = new int[sigma];
+
+    // sort the LMS substrings
+    bucketEnds(t, n, bucket);
+    Arrays.fill(sa, 0, n, -1);
+    for (int i = 1; i < n; i++) {
+      if (isLms(stype, i)) {
+        sa[--bucket[t.get(i)]] = i;
+      }
+    }
+    induce(t, sa, n, stype, bucket);
+
+    // name them, in sorted order, into sa[n1 ..)
+    int n1 = 0;
+    for (int i = 0; i < n; i++) {
+      if (isLms(stype, sa[i])) {
+        sa[n1++] = sa[i];
+      }
+    }
+    Arrays.fill(sa, n1, n, -1);
+    int names = 0;
+    int prev = -1;
+    for (int i = 0; i < n1; i++) {
+      int pos = sa[i];
+      boolean differs = prev == -1;
+      for (int d = 0; !differs; d++) {
+        if (t.get(pos + d) != t.get(prev + d)
+            || stype.get(pos + d) != stype.get(prev + d)) {
+          differs = true;
+        } else if (d > 0 && (isLms(stype, pos + d) || isLms(stype, prev + d))) {
+          break;
+        }
+      }
+      if (differs) {
+        names++;
+        prev = pos;
+      }
+      // LMS positions are at least two apart
+      sa[n1 + pos / 2] = names - 1;
+    }
+    for (int i = n - 1, j = n - 1; i >= n1; i--) {
+      if (sa[i] >= 0) {
+        sa[j--] = sa[i];
+      }
+    }
+
+    // sort the reduced text sa[n - n1 ..) into sa[0 .. n1)
+    final int[] reduced = sa;
+    final int offset = n - n1;
+    if (names < n1) {
+      sais(new Text() {
+        @Override
+        public int get(int i) {
+          return reduced[offset + i];
+        }
+      }, sa, n1, names);
+    } else {
+      for (int i = 0; i < n1; i++) {
+        sa[sa[offset + i]] = i;
+      }
+    }
+
+    // place the sorted LMS suffixes, then induce the rest
+    for (int i = 1, j = 0; i < n; i++) {
+      if (isLms(stype, i)) {
+        sa[offset + j++] = i;
+      }
+    }
+    for (int i = 0; i < n1; i++) {
+      sa[i] = sa[offset + sa[i]];
+    }
+    Arrays.fill(sa, n1, n, -1);
+    bucketEnds(t, n, bucket);
+    for (int i = n1 - 1; i >= 0; i--) {
+      int j = sa[i];
+      sa[i] = -1;
+      sa[--bucket[t.get(j)]] = j;
+    }
+    induce(t, sa, n, stype, bucket);
+  }
+
+  private static boolean isLms(BitSet stype, int i) {
+    return i > 0 && stype.get(i) && !stype.get(i - 1);
+  }
+
+  private static void bucketEnds(Text t, int n, int[] bucket) {
+    Arrays.fill(bucket, 0);
+    for (int i = 0; i < n; i++) {
+      bucket[t.get(i)]++;
+    }
+    for (int c = 1; c < bucket.length; c++) {
+      bucket[c] += bucket[c - 1];
+    }
+  }
+
+  // L-type suffixes from the starts of the buckets, left to right, then
+  // S-type ones from the ends, right to left
+  private static void induce(Text t, int[] sa, int n, BitSet stype,
+      int[] bucket) {
+    bucketEnds(t, n, bucket);
+    for (int c = bucket.length - 1; c > 0; c--) {
+      bucket[c] = bucket[c - 1];
+    }
+    bucket[0] = 0;
+    for (int i = 0; i < n; i++) {
+      int j = sa[i] - 1;
+      if (j >= 0 && !stype.get(j)) {
+        sa[bucket[t.get(j)]++] = j;
+      }
+    }
+    bucketEnds(t, n, bucket);
+    for (int i = n - 1; i >= 0; i--) {
+      int j = sa[i] - 1;
+      if (j >= 0 && stype.get(j)) {
+        sa[--bucket[t.get(j)]] = j;
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the cluster read from fastaFile: loaded from
+   * indexDir if it was saved there for the same file, otherwise built and
+   * saved.
+   */
+  public static FmIndex forFastaFile(File fastaFile, List<FastaItem> items,
+      File indexDir) {
+    File indexFile = IndexFiles.indexFile(indexDir, fastaFile, "fm");
+    long stamp = IndexFiles.fastaStamp(fastaFile);
+    if (indexFile.exists()) {
+      try {
+        FmIndex index = read(indexFile, items, stamp);
+        if (index != null) {
+          return index;
+        }
+      } catch (IOException e) {
+        LOG.warn("Could not read FM-index " + indexFile + ": "
+            + e.getMessage());
+      }
+    }
+    FmIndex index = build(items);
+    try {
+      index.write(indexFile, stamp);
+    } catch (IOException e) {
+      LOG.warn("Could not save FM-index " + indexFile + ": "
+          + e.getMessage());
+    }
+    return index;
+  }
+
+  public void write(File file, long stamp) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(stamp);
+      out.writeInt(items.size());
+      out.writeInt(sigma);
+      for (int b = 0; b < 256; b++) {
+        out.writeShort(codes[b]);
+      }
+      out.writeInt(bwt.length);
+      out.write(bwt);
+      for (int start : starts) {
+        out.writeInt(start);
+      }
+      out.writeInt(saSamples.length);
+      for (int sample : saSamples) {
+        out.writeInt(sample);
+      }
+      for (long word : sampled) {
+        out.writeLong(word);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads an index saved by {@link #write}. Returns null if it was saved for
+   * another version of the FASTA file (stamp) or another number of items.
+   */
+  public static FmIndex read(File file, List<FastaItem> items, long stamp)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || in.readLong() != stamp || in.readInt() != items.size()) {
+        return null;
+      }
+      int sigma = in.readInt();
+      int[] codes = new int[256];
+      for (int b = 0; b < 256; b++) {
+        codes[b] = in.readShort();
+      }
+      byte[] bwt = new byte[in.readInt()];
+      in.readFully(bwt);
+      int[] starts = new int[items.size()];
+      for (int i = 0; i < starts.length; i++) {
+        starts[i] = in.readInt();
+      }
+      int[] saSamples = new int[in.readInt()];
+      for (int i = 0; i < saSamples.length; i++) {
+        saSamples[i] = in.readInt();
+      }
+      long[] sampled = new long[(bwt.length + 63) / 64];
+      for (int i = 0; i < sampled.length; i++) {
+        sampled[i] = in.readLong();
+      }
+      return new FmIndex(items, codes, sigma, bwt, starts, saSamples, sampled);
+    } finally {
+      in.close();
+    }
+  }
+
+  // occurrences of code c in bwt[0, i)
+  private int occ(int c, int i) {
+    int block = i / OCC_SAMPLE;
+    int count = occ[block * sigma + c];
+    for (int j = block * OCC_SAMPLE; j < i; j++) {
+      if ((bwt[j] & 0xFF) == c) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int lf(int i) {
+    int c = bwt[i] & 0xFF;
+    return counts[c] + occ(c, i);
+  }
+
+  // text position of the suffix at BWT position i
+  private int locate(int i) {
+    int steps = 0;
+    while ((sampled[i >>> 6] & (1L << i)) == 0) {
+      i = lf(i);
+      steps++;
+    }
+    int rank = sampledRank[i >>> 6]
+        + Long.bitCount(sampled[i >>> 6] & ((1L << i) - 1));
+    return saSamples[rank] + steps;
+  }
+
+  // BWT range {from, to} of the suffixes starting with the literal, null if
+  // there are none
+  private int[] range(byte[] literal) {
+    int from = 0;
+    int to = bwt.length;
+    for (int i = literal.length - 1; i >= 0 && from < to; i--) {
+      int c = codes[literal[i] & 0xFF];
+      if (c < 0) {
+        return null;
+      }
+      from = counts[c] + occ(c, from);
+      to = counts[c] + occ(c, to);
+    }
+    return from < to ? new int[] {from, to} : null;
+  }
+
+  /** Number of occurrences of the literal in all sequences. */
+  public int count(String literal) {
+    int[] range = range(toBytes(literal));
+    return range == null ? 0 : range[1] - range[0];
+  }
+
+  /** Returns the items containing the literal. */
+  public BitSet getItems(String literal) {
+    byte[] residues = toBytes(literal);
+    BitSet result = new BitSet(items.size());
+    if (residues.length == 0) {
+      result.set(0, items.size());
+      return result;
+    }
+    int[] range = range(residues);
+    if (range != null) {
+      for (int i = range[0]; i < range[1]; i++) {
+        int item = Arrays.binarySearch(starts, locate(i));
+        result.set(item >= 0 ? item : -item - 2);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public SequencePattern prepare(SequencePattern pattern) {
+    if (pattern instanceof LiteralPattern) {
+      return new LeafSetPattern(pattern,
+          getItems(((LiteralPattern) pattern).getLiteral()), items.size());
+    }
+    return pattern;
+  }
+
+  /** Approximate heap footprint of the index. */
+  public long getMemoryBytes() {
+    return bwt.length + 4L * (occ.length + starts.length + saSamples.length
+        + sampledRank.length) + 8L * sampled.length;
+  }
+
+  private static byte[] toBytes(String s) {
+    try {
+      return s.getBytes("ISO-8859-1");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
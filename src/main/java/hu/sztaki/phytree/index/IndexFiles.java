@@ -0,0 +1,23 @@
+package hu.sztaki.phytree.index;
+
+import java.io.File;
+
+/**
+ * Naming and validation of the index files saved for a FASTA file.
+ */
+final class IndexFiles {
+
+  private IndexFiles() {
+  }
+
+  // e.g. cluster_1.fasta.k4.idx in the index directory
+  static File indexFile(File indexDir, File fastaFile, String suffix) {
+    return new File(indexDir, fastaFile.getName() + "." + suffix + ".idx");
+  }
+
+  // changes whenever the FASTA file is rewritten
+  static long fastaStamp(File fastaFile) {
+    return fastaFile.lastModified() * 31 + fastaFile.length();
+  }
+
+}
@@ -0,0 +1,287 @@
+package hu.sztaki.phytree.index;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index of the sequences of one cluster: every residue string of
+ * length 1 to k (k-mers and their shorter prefixes) is mapped to the items
+ * containing it.
+ *
+ * A literal pattern of at most k residues is answered by one lookup. For a
+ * longer pattern the item sets of all of its k-mers are intersected, and only
+ * the remaining candidates are scanned. Postings are kept as sorted item
+ * indices (most k-mers occur in few sequences) and turned into bit sets when
+ * queried.
+ *
+ * The index can be saved next to its FASTA file and is reused as long as the
+ * file and k do not change.
+ */
+public class KmerIndex implements SequenceIndex {
+
+  private static final Logger LOG = Log.getLogger(KmerIndex.class);
+
+  public static final int DEFAULT_KMER_LENGTH = 4;
+  // a k-mer is encoded into a long, one byte per residue
+  public static final int MAX_KMER_LENGTH = 7;
+
+  private static final int MAGIC = 0x50544b49; // PTKI
+  private static final int VERSION = 1;
+
+  private final int k;
+  private final List<FastaItem> items;
+  private final Map<Long, int[]> postings;
+
+  private KmerIndex(int k, List<FastaItem> items, Map<Long, int[]> postings) {
+    this.k = k;
+    this.items = items;
+    this.postings = postings;
+  }
+
+  /**
+   * Builds the index of the items, which must be indexed by their position
+   * in the list (see {@link FastaItem#getIndex()}).
+   */
+  public static KmerIndex build(List<FastaItem> items, int k) {
+    checkKmerLength(k);
+    Map<Long, IntList> lists = new HashMap<Long, IntList>();
+    for (int i = 0; i < items.size(); i++) {
+      byte[] residues = toBytes(items.get(i).getSequenceString());
+      for (int start = 0; start < residues.length; start++) {
+        long code = 1;
+        int end = Math.min(residues.length, start + k);
+        for (int j = start; j < end; j++) {
+          code = (code << 8) | (residues[j] & 0xFF);
+          IntList list = lists.get(code);
+          if (list == null) {
+            list = new IntList();
+            lists.put(code, list);
+          }
+          list.addOnce(i);
+        }
+      }
+    }
+    Map<Long, int[]> postings = new HashMap<Long, int[]>(lists.size() * 2);
+    for (Map.Entry<Long, IntList> e : lists.entrySet()) {
+      postings.put(e.getKey(), e.getValue().toArray());
+    }
+    return new KmerIndex(k, items, postings);
+  }
+
+  private static void checkKmerLength(int k) {
+    if (k < 1 || k > MAX_KMER_LENGTH) {
+      throw new IllegalArgumentException("kmerLength must be between 1 and "
+          + MAX_KMER_LENGTH + ": " + k);
+    }
+  }
+
+  /**
+   * Returns the index of the cluster read from fastaFile: loaded from
+   * indexDir if it was saved there for the same file and k, otherwise built
+   * and saved.
+   */
+  public static KmerIndex forFastaFile(File fastaFile, List<FastaItem> items,
+      int k, File indexDir) {
+    File indexFile = IndexFiles.indexFile(indexDir, fastaFile, "k" + k);
+    long stamp = IndexFiles.fastaStamp(fastaFile);
+    if (indexFile.exists()) {
+      try {
+        KmerIndex index = read(indexFile, items, k, stamp);
+        if (index != null) {
+          return index;
+        }
+      } catch (IOException e) {
+        LOG.warn("Could not read k-mer index " + indexFile + ": "
+            + e.getMessage());
+      }
+    }
+    KmerIndex index = build(items, k);
+    try {
+      index.write(indexFile, stamp);
+    } catch (IOException e) {
+      LOG.warn("Could not save k-mer index " + indexFile + ": "
+          + e.getMessage());
+    }
+    return index;
+  }
+
+  public void write(File file, long stamp) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(k);
+      out.writeLong(stamp);
+      out.writeInt(items.size());
+      out.writeInt(postings.size());
+      for (Map.Entry<Long, int[]> e : postings.entrySet()) {
+        int[] list = e.getValue();
+        out.writeLong(e.getKey());
+        out.writeInt(list.length);
+        for (int item : list) {
+          out.writeInt(item);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads an index saved by {@link #write}. Returns null if it was saved for
+   * another version of the FASTA file (stamp), another k or another number
+   * of items.
+   */
+  public static KmerIndex read(File file, List<FastaItem> items, int k,
+      long stamp) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || in.readInt() != k || in.readLong() != stamp
+          || in.readInt() != items.size()) {
+        return null;
+      }
+      int size = in.readInt();
+      Map<Long, int[]> postings = new HashMap<Long, int[]>(size * 2);
+      for (int i = 0; i < size; i++) {
+        long code = in.readLong();
+        int[] list = new int[in.readInt()];
+        for (int j = 0; j < list.length; j++) {
+          list[j] = in.readInt();
+        }
+        postings.put(code, list);
+      }
+      return new KmerIndex(k, items, postings);
+    } finally {
+      in.close();
+    }
+  }
+
+  public int getKmerLength() {
+    return k;
+  }
+
+  public int getKmerCount() {
+    return postings.size();
+  }
+
+  /**
+   * Returns the items containing the literal. The result is exact; for
+   * literals longer than k the candidates found in the index are verified.
+   */
+  public BitSet getItems(String literal) {
+    byte[] residues = toBytes(literal);
+    if (residues.length == 0) {
+      BitSet all = new BitSet(items.size());
+      all.set(0, items.size());
+      return all;
+    }
+    if (residues.length <= k) {
+      return toBitSet(postings.get(encode(residues, 0, residues.length)));
+    }
+    // intersect the k-mers, shortest postings first
+    int kmers = residues.length - k + 1;
+    int[][] lists = new int[kmers][];
+    for (int start = 0; start < kmers; start++) {
+      lists[start] = postings.get(encode(residues, start, k));
+      if (lists[start] == null) {
+        return new BitSet();
+      }
+    }
+    Arrays.sort(lists, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] a, int[] b) {
+        return a.length - b.length;
+      }
+    });
+    BitSet candidates = toBitSet(lists[0]);
+    for (int i = 1; i < lists.length && !candidates.isEmpty(); i++) {
+      candidates.and(toBitSet(lists[i]));
+    }
+    LiteralPattern pattern = LiteralPattern.forLiteral(literal);
+    for (int i = candidates.nextSetBit(0); i >= 0;
+        i = candidates.nextSetBit(i + 1)) {
+      if (!items.get(i).matches(pattern)) {
+        candidates.clear(i);
+      }
+    }
+    return candidates;
+  }
+
+  @Override
+  public SequencePattern prepare(SequencePattern pattern) {
+    if (pattern instanceof LiteralPattern) {
+      return new LeafSetPattern(pattern,
+          getItems(((LiteralPattern) pattern).getLiteral()), items.size());
+    }
+    return pattern;
+  }
+
+  private static long encode(byte[] residues, int from, int len) {
+    long code = 1;
+    for (int i = from; i < from + len; i++) {
+      code = (code << 8) | (residues[i] & 0xFF);
+    }
+    return code;
+  }
+
+  private static BitSet toBitSet(int[] list) {
+    BitSet set = new BitSet();
+    if (list != null) {
+      for (int item : list) {
+        set.set(item);
+      }
+    }
+    return set;
+  }
+
+  private static byte[] toBytes(String s) {
+    try {
+      return s.getBytes("ISO-8859-1");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // growing list of item indices, added in increasing order
+  private static final class IntList {
+    private int[] values = new int[2];
+    private int size;
+
+    void addOnce(int value) {
+      if (size > 0 && values[size - 1] == value) {
+        return;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+package hu.sztaki.phytree.index;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * The result of a pattern precomputed for the sequences of a cluster: the set
+ * of matching items, by their index in the FASTA file. Matching an item of
+ * the cluster is a bit lookup; other sequences are matched by the original
+ * pattern, whose key is kept, so the per node caches are shared between the
+ * two.
+ */
+public class LeafSetPattern extends SequencePattern {
+
+  private final SequencePattern pattern;
+  private final BitSet items;
+  private final int itemCount;
+
+  public LeafSetPattern(SequencePattern pattern, BitSet items, int itemCount) {
+    super(pattern.getKey());
+    this.pattern = pattern;
+    this.items = items;
+    this.itemCount = itemCount;
+  }
+
+  public SequencePattern getPattern() {
+    return pattern;
+  }
+
+  // the matching items, must not be modified
+  public BitSet getItems() {
+    return items;
+  }
+
+  public int getItemCount() {
+    return itemCount;
+  }
+
+  @Override
+  public boolean matches(FastaItem item) {
+    int index = item.getIndex();
+    if (index >= 0 && index < itemCount) {
+      return items.get(index);
+    }
+    return pattern.matches(item);
+  }
+
+  @Override
+  public boolean matches(ByteBuffer residues, int from, int to) {
+    return pattern.matches(residues, from, to);
+  }
+
+}
@@ -0,0 +1,18 @@
+package hu.sztaki.phytree.index;
+
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+/**
+ * An index over the sequences of one cluster (a tree and its FASTA file).
+ */
+public interface SequenceIndex {
+
+  /**
+   * Returns a pattern that matches the same sequences of the cluster as the
+   * given one, but is answered from the index (usually a
+   * {@link LeafSetPattern}), or the pattern itself if the index can not
+   * help with it.
+   */
+  SequencePattern prepare(SequencePattern pattern);
+
+}
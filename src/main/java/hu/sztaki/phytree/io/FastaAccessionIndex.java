@@ -0,0 +1,109 @@
+package hu.sztaki.phytree.io;
+
+import hu.sztaki.phytree.FastaItem;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Offsets of the records of a FASTA file by their header (without the '>',
+ * which is also the name of the leaf in the tree), so sequences are read
+ * when they are needed instead of keeping the whole cluster in memory.
+ */
+public class FastaAccessionIndex {
+
+  private final File file;
+  private final Map<String, Integer> ordinals;
+  // offset of every record and the file length at the end
+  private final long[] offsets;
+  private RandomAccessFile input;
+
+  private FastaAccessionIndex(File file, Map<String, Integer> ordinals,
+      long[] offsets) {
+    this.file = file;
+    this.ordinals = ordinals;
+    this.offsets = offsets;
+  }
+
+  /** Indexes the headers of the file in one pass. */
+  public static FastaAccessionIndex build(File fastaFile) throws IOException {
+    Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    long[] offsets = new long[16];
+    int count = 0;
+    InputStream in = new BufferedInputStream(new FileInputStream(fastaFile));
+    try {
+      long offset = 0;
+      boolean lineStart = true;
+      int b = in.read();
+      while (b != -1) {
+        if (lineStart && b == '>') {
+          if (count + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+          }
+          offsets[count] = offset;
+          StringBuilder header = new StringBuilder();
+          while (b != -1 && b != '\n') {
+            header.append((char) b);
+            b = in.read();
+            offset++;
+          }
+          ordinals.put(header.substring(1).trim(), count++);
+          continue;
+        }
+        lineStart = b == '\n';
+        b = in.read();
+        offset++;
+      }
+      offsets[count] = offset;
+    } finally {
+      in.close();
+    }
+    return new FastaAccessionIndex(fastaFile,
+        ordinals, Arrays.copyOf(offsets, count + 1));
+  }
+
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  public boolean contains(String name) {
+    return ordinals.containsKey(name);
+  }
+
+  /**
+   * Reads the record with the header, null if there is none. Its index is
+   * the position of the record in the file, as with {@link FastaReader}.
+   */
+  public synchronized FastaItem read(String name) throws IOException {
+    Integer ordinal = ordinals.get(name);
+    if (ordinal == null) {
+      return null;
+    }
+    if (input == null) {
+      input = new RandomAccessFile(file, "r");
+    }
+    byte[] record = new byte[(int) (offsets[ordinal + 1] - offsets[ordinal])];
+    input.seek(offsets[ordinal]);
+    input.readFully(record);
+    FastaItem item = new FastaReader(new ByteArrayInputStream(record))
+        .getNextFastaItem();
+    item.setIndex(ordinal);
+    return item;
+  }
+
+  public synchronized void close() throws IOException {
+    if (input != null) {
+      input.close();
+      input = null;
+    }
+  }
+
+}
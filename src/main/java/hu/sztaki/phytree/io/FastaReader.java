@@ -1,6 +1,7 @@
 package hu.sztaki.phytree.io;
 
 import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.SequenceArena;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -12,13 +13,34 @@ public class FastaReader {
   private final InputStream input;
   private final BufferedReader reader;
   private String nextHeaderRow;
+  // if set, the residues of every item read are moved here
+  private final SequenceArena arena;
+  // number of items read so far
+  private int itemCount = 0;
 
   public FastaReader(InputStream in) {
+    this(in, null);
+  }
+
+  public FastaReader(InputStream in, SequenceArena sequenceArena) {
     input = in;
     reader = new BufferedReader(new InputStreamReader(input));
+    arena = sequenceArena;
   }
 
   public FastaItem getNextFastaItem() throws IOException {
+    FastaItem fastaItem = readNextFastaItem();
+    if (fastaItem == null) {
+      return null;
+    }
+    fastaItem.setIndex(itemCount++);
+    if (arena != null) {
+      fastaItem.moveSequenceTo(arena);
+    }
+    return fastaItem;
+  }
+
+  private FastaItem readNextFastaItem() throws IOException {
     String line;
     String headerRow;
     String acNum;
@@ -1,6 +1,8 @@
 package hu.sztaki.phytree.io;
 
 import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -26,10 +28,7 @@ public class FastaWriter {
   public void writeFastaItem(FastaItem fastaItem) throws IOException {
     output.write(fastaItem.getHeaderRow().getBytes(Charset.forName("UTF-8")));
     output.write("\n".getBytes(Charset.forName("UTF-8")));
-    for (String sequenceRow : fastaItem.getSequenceRows()) {
-      output.write(sequenceRow.getBytes(Charset.forName("UTF-8")));
-      output.write("\n".getBytes(Charset.forName("UTF-8")));
-    }
+    fastaItem.writeSequenceRows(output);
   }
   
   public void writeFastaItemWithMatch(FastaItem fastaItem, boolean matched) throws IOException {
@@ -40,10 +39,7 @@ public class FastaWriter {
       output.write("|0".getBytes(Charset.forName("UTF-8")));
     }
     output.write("\n".getBytes(Charset.forName("UTF-8")));
-    for (String sequenceRow : fastaItem.getSequenceRows()) {
-      output.write(sequenceRow.getBytes(Charset.forName("UTF-8")));
-      output.write("\n".getBytes(Charset.forName("UTF-8")));
-    }
+    fastaItem.writeSequenceRows(output);
   }
   
   public void writeFastaList(List<FastaItem> fastaList) throws IOException {
@@ -61,11 +57,20 @@ public class FastaWriter {
   // fasta items containing the pattern will be printed first, in alphabetical order(by AC num),
   // then the rest (also in AC-alphabetical order)
   public void writeOrderedFastaList(List<FastaItem> fastaList, String pattern) throws IOException {
+    writeOrderedFastaList(fastaList, LiteralPattern.forLiteral(pattern));
+  }
+
+  // the same, with "contains the pattern" meaning "matches the pattern"
+  public void writeOrderedFastaList(List<FastaItem> fastaList, SequencePattern pattern) throws IOException {
     List<FastaItem> contains = new ArrayList<FastaItem>();
     List<FastaItem> notContains = new ArrayList<FastaItem>();
     
     for (FastaItem it: fastaList) {
-      if (it.getSequenceString().contains(pattern)) {
+      // leaves without a sequence have nothing to write
+      if (it == null) {
+        continue;
+      }
+      if (it.matches(pattern)) {
         contains.add(it);
       } else {
         notContains.add(it);
@@ -0,0 +1,36 @@
+package hu.sztaki.phytree.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens tree and FASTA files that may be gzip compressed (".gz"); the
+ * compressed ones are inflated on a thread of their own.
+ */
+public class InputFiles {
+
+  private static final String GZIP_SUFFIX = ".gz";
+
+  private InputFiles() {
+  }
+
+  public static boolean isCompressed(File file) {
+    return file.getName().toLowerCase().endsWith(GZIP_SUFFIX);
+  }
+
+  /** The name without ".gz", for telling the type of the file. */
+  public static String uncompressedName(String name) {
+    return name.toLowerCase().endsWith(GZIP_SUFFIX)
+        ? name.substring(0, name.length() - GZIP_SUFFIX.length()) : name;
+  }
+
+  public static InputStream open(File file) throws IOException {
+    if (isCompressed(file)) {
+      return new PipelinedGzipInputStream(file);
+    }
+    return new FileInputStream(file);
+  }
+
+}
@@ -0,0 +1,178 @@
+package hu.sztaki.phytree.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Event based Newick parser: reports the nodes of a tree to a
+ * {@link NewickHandler} as they are read, without building the tree, so it
+ * needs memory only for the name being read.
+ *
+ * Names may be quoted with '"'; comments in square brackets are skipped.
+ * Character offsets are counted from the start of the reader (over all the
+ * trees read from it), so with a single byte charset they are file
+ * offsets.
+ */
+public class NewickEventParser {
+
+  private final Reader reader;
+  // the current character and its offset
+  private int c;
+  private long pos = -1;
+
+  // the node whose name and branch length are being read
+  private boolean pendingLeaf;
+  private boolean pendingClade;
+  private String pendingName;
+  private float pendingLength;
+  private long pendingStart;
+  private long pendingEnd;
+
+  public NewickEventParser(Reader reader) {
+    this.reader = reader;
+  }
+
+  private void next() throws IOException {
+    c = reader.read();
+    pos++;
+  }
+
+  /**
+   * Reads one tree, up to ';' or the end of the input. Returns false if
+   * there was no tree left.
+   */
+  public boolean parse(NewickHandler handler) throws IOException {
+    int depth = 0;
+    // a node may start here (after '(' or ',')
+    boolean nodeNext = true;
+    boolean started = false;
+    pendingLeaf = false;
+    pendingClade = false;
+    next();
+    while (c != -1 && c != ';') {
+      if (Character.isWhitespace(c)) {
+        next();
+      } else if (c == '[') {
+        while (c != -1 && c != ']') {
+          next();
+        }
+        next();
+      } else if (c == '(') {
+        if (!nodeNext) {
+          throw error("Unexpected '('");
+        }
+        started = true;
+        handler.openClade(pos);
+        depth++;
+        next();
+      } else if (c == ',' || c == ')') {
+        if (!started) {
+          throw error("Unexpected '" + (char) c + "'");
+        }
+        finishNode(handler, nodeNext);
+        if (c == ')') {
+          if (depth == 0) {
+            throw error("Unbalanced ')'");
+          }
+          depth--;
+          startPending(false, pos, pos + 1);
+          nodeNext = false;
+        } else {
+          nodeNext = true;
+        }
+        next();
+      } else if (c == ':') {
+        if (nodeNext) {
+          started = true;
+          startPending(true, pos, pos);
+          nodeNext = false;
+        }
+        next();
+        while (c != -1 && Character.isWhitespace(c)) {
+          next();
+        }
+        String number = readWord();
+        try {
+          pendingLength = (float) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+          throw error("Invalid branch length " + number);
+        }
+        pendingEnd = pos;
+      } else {
+        long start = pos;
+        String name = c == '"' ? readQuoted() : readWord();
+        if (nodeNext) {
+          started = true;
+          startPending(true, start, pos);
+          nodeNext = false;
+        } else if (pendingName.length() > 0 || pendingLength != 0) {
+          throw error("Unexpected name " + name);
+        }
+        pendingName = name;
+        pendingEnd = pos;
+      }
+    }
+    if (!started) {
+      return false;
+    }
+    finishNode(handler, nodeNext);
+    if (depth > 0) {
+      throw error("Incomplete Newick tree");
+    }
+    return true;
+  }
+
+  private void startPending(boolean leaf, long start, long end) {
+    pendingLeaf = leaf;
+    pendingClade = !leaf;
+    pendingName = "";
+    pendingLength = 0;
+    pendingStart = start;
+    pendingEnd = end;
+  }
+
+  // reports the node read last, or an empty leaf if there was none
+  private void finishNode(NewickHandler handler, boolean nodeNext)
+      throws IOException {
+    if (nodeNext) {
+      handler.leaf("", 0, pos, pos);
+    } else if (pendingLeaf) {
+      handler.leaf(pendingName, pendingLength, pendingStart, pendingEnd);
+    } else if (pendingClade) {
+      handler.closeClade(pendingName, pendingLength, pendingEnd);
+    }
+    pendingLeaf = false;
+    pendingClade = false;
+  }
+
+  private static boolean isDelimiter(int c) {
+    return c == '(' || c == ')' || c == ',' || c == ':' || c == ';'
+        || c == '[';
+  }
+
+  private String readWord() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (c != -1 && !isDelimiter(c) && !Character.isWhitespace(c)) {
+      sb.append((char) c);
+      next();
+    }
+    return sb.toString();
+  }
+
+  private String readQuoted() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    next();
+    while (c != -1 && c != '"') {
+      sb.append((char) c);
+      next();
+    }
+    next();
+    return sb.toString();
+  }
+
+  private IOException error(String message) {
+    return new IOException(message + " at offset " + pos
+        + " of Newick tree");
+  }
+
+}
@@ -0,0 +1,28 @@
+package hu.sztaki.phytree.io;
+
+import java.io.IOException;
+
+/**
+ * Receives the nodes of a Newick tree from a {@link NewickEventParser}, in
+ * preorder for openings and in postorder for the names and branch lengths
+ * (which follow the children in the text). Offsets are character offsets
+ * in the input of the parser. An IOException thrown by the handler stops
+ * the parser and is thrown by it.
+ */
+public interface NewickHandler {
+
+  /** A clade (an inner node) starts with '(' at offset. */
+  void openClade(long offset) throws IOException;
+
+  /**
+   * A leaf, with its text from start to end (exclusive). The name is empty
+   * and the length is 0 if they are missing.
+   */
+  void leaf(String name, float length, long start, long end)
+      throws IOException;
+
+  /** The clade opened last ends, its text ends at end (exclusive). */
+  void closeClade(String name, float length, long end)
+      throws IOException;
+
+}
@@ -0,0 +1,180 @@
+package hu.sztaki.phytree.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output compressed on a thread pool: the data is cut into blocks,
+ * every block is deflated on its own into a complete gzip member, and the
+ * members are written in order. Concatenated members are a valid gzip file
+ * (RFC 1952), read by gzip, zcat and {@link java.util.zip.GZIPInputStream}
+ * as one stream.
+ *
+ * Blocks do not share a dictionary, so the output is slightly bigger than
+ * that of a single deflater. At most MAX_PENDING_BLOCKS blocks are waiting
+ * to be written; a write beyond that waits for the oldest one.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+  public static final int BLOCK_SIZE = 128 * 1024;
+  public static final int MAX_PENDING_BLOCKS = 16;
+
+  private static final byte[] HEADER = {
+      0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+  private final OutputStream out;
+  private final ExecutorService pool;
+  private final int level;
+  private final LinkedList<Future<byte[]>> pending =
+      new LinkedList<Future<byte[]>>();
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int blockLength = 0;
+  // an empty file still needs a member
+  private boolean anyBlock = false;
+  private long compressedBytes = 0;
+  private boolean closed = false;
+
+  public ParallelGzipOutputStream(OutputStream out, ExecutorService pool) {
+    this(out, pool, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  public ParallelGzipOutputStream(OutputStream out, ExecutorService pool,
+      int level) {
+    this.out = out;
+    this.pool = pool;
+    this.level = level;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (blockLength == block.length) {
+      endBlock();
+    }
+    block[blockLength++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (blockLength == block.length) {
+        endBlock();
+      }
+      int n = Math.min(len, block.length - blockLength);
+      System.arraycopy(b, off, block, blockLength, n);
+      blockLength += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Hands the data written since the last block to the pool without
+   * waiting for it, so several files can be compressed at the same time.
+   */
+  public void endBlock() throws IOException {
+    if (blockLength == 0 && anyBlock) {
+      return;
+    }
+    while (pending.size() >= MAX_PENDING_BLOCKS) {
+      writeMember(pending.removeFirst());
+    }
+    final byte[] data = block;
+    final int length = blockLength;
+    pending.add(pool.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return compress(data, length, level);
+      }
+    }));
+    anyBlock = true;
+    block = new byte[BLOCK_SIZE];
+    blockLength = 0;
+  }
+
+  /** Waits for the blocks written so far and writes them out. */
+  @Override
+  public void flush() throws IOException {
+    if (blockLength > 0) {
+      endBlock();
+    }
+    while (!pending.isEmpty()) {
+      writeMember(pending.removeFirst());
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      endBlock();
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Bytes of gzip written so far. */
+  public long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  private void writeMember(Future<byte[]> member) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = member.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing");
+    } catch (ExecutionException e) {
+      throw new IOException("Could not compress a block", e.getCause());
+    }
+    out.write(bytes);
+    compressedBytes += bytes.length;
+  }
+
+  /** A complete gzip member of the data. */
+  static byte[] compress(byte[] data, int length, int level) {
+    ByteArrayOutputStream member =
+        new ByteArrayOutputStream(length / 2 + 64);
+    member.write(HEADER, 0, HEADER.length);
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        member.write(buffer, 0, n);
+      }
+    } finally {
+      deflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+    writeInt(member, (int) crc.getValue());
+    writeInt(member, length);
+    return member.toByteArray();
+  }
+
+  // little endian
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value & 0xff);
+    out.write((value >>> 8) & 0xff);
+    out.write((value >>> 16) & 0xff);
+    out.write((value >>> 24) & 0xff);
+  }
+
+}
@@ -0,0 +1,177 @@
+package hu.sztaki.phytree.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip file with the inflating done on a thread of its own, so
+ * inflating and parsing overlap.
+ *
+ * The thread fills buffers taken from a ring of free ones and queues them;
+ * the reader takes them in order and gives them back when it is done with
+ * them. At most RING_SIZE buffers are inflated ahead of the reader, so the
+ * memory used does not depend on the size of the file. An error of the
+ * inflating thread is thrown by the read after the last good buffer.
+ */
+public class PipelinedGzipInputStream extends InputStream {
+
+  public static final int BUFFER_SIZE = 1 << 16;
+  public static final int RING_SIZE = 8;
+
+  private static final class Chunk {
+    final byte[] data;
+    int length;
+
+    Chunk(int size) {
+      data = new byte[size];
+    }
+  }
+
+  // the end of the inflated data (or an error)
+  private static final Chunk END = new Chunk(0);
+
+  private final BlockingQueue<Chunk> filled;
+  private final BlockingQueue<Chunk> free;
+  private final Thread inflater;
+  private volatile IOException failure;
+  private Chunk current;
+  private int pos;
+
+  public PipelinedGzipInputStream(File file) throws IOException {
+    this(new FileInputStream(file));
+  }
+
+  /** The gzip header is read here, so a file that is not gzip fails now. */
+  public PipelinedGzipInputStream(InputStream compressed) throws IOException {
+    final GZIPInputStream gzip;
+    try {
+      gzip = new GZIPInputStream(compressed, BUFFER_SIZE);
+    } catch (IOException e) {
+      compressed.close();
+      throw e;
+    }
+    filled = new ArrayBlockingQueue<Chunk>(RING_SIZE + 1);
+    free = new ArrayBlockingQueue<Chunk>(RING_SIZE);
+    for (int i = 0; i < RING_SIZE; i++) {
+      free.add(new Chunk(BUFFER_SIZE));
+    }
+    inflater = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          inflate(gzip);
+        } catch (InterruptedException e) {
+          // closed by the reader
+        } finally {
+          try {
+            gzip.close();
+          } catch (IOException e) {
+            // nothing to do, the data is read or dropped
+          }
+        }
+      }
+    }, "gzip-inflater");
+    inflater.setDaemon(true);
+    inflater.start();
+  }
+
+  private void inflate(InputStream gzip) throws InterruptedException {
+    try {
+      while (true) {
+        Chunk chunk = free.take();
+        chunk.length = readFully(gzip, chunk.data);
+        if (chunk.length > 0) {
+          filled.put(chunk);
+        }
+        if (chunk.length < chunk.data.length) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    filled.put(END);
+  }
+
+  private static int readFully(InputStream in, byte[] buffer)
+      throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int n = in.read(buffer, length, buffer.length - length);
+      if (n < 0) {
+        break;
+      }
+      length += n;
+    }
+    return length;
+  }
+
+  // false at the end of the data
+  private boolean nextChunk() throws IOException {
+    if (current == END) {
+      return false;
+    }
+    if (current != null) {
+      free.offer(current);
+    }
+    try {
+      current = filled.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while inflating");
+    }
+    pos = 0;
+    if (current == END) {
+      if (failure != null) {
+        throw new IOException("Could not inflate the input", failure);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (current == null || pos >= current.length) {
+      if (!nextChunk()) {
+        return -1;
+      }
+    }
+    return current.data[pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (current == null || pos >= current.length) {
+      if (!nextChunk()) {
+        return -1;
+      }
+    }
+    int n = Math.min(len, current.length - pos);
+    System.arraycopy(current.data, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current == null || current == END ? 0 : current.length - pos;
+  }
+
+  /** Stops the inflating thread, the rest of the file is not read. */
+  @Override
+  public void close() {
+    inflater.interrupt();
+    current = END;
+  }
+
+}
@@ -0,0 +1,101 @@
+package hu.sztaki.phytree.io;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of one result subtree, handed from the search to the
+ * output stage. Everything that depends on mutable tree state (the newick
+ * string, the colored leaves) is computed before the descriptor is created,
+ * so the writer never has to touch the tree.
+ *
+ * The newick may also be given as a range of a file, for subtrees found by
+ * a streaming search: the writer copies it from there, so it is never held
+ * in memory.
+ */
+public class ResultDescriptor {
+
+  private final String directory;
+  private final String baseName;
+  private final String newick;
+  private final File newickFile;
+  private final long newickStart;
+  private final long newickEnd;
+  private final List<FastaItem> fastaItems;
+  private final SequencePattern pattern;
+
+  public ResultDescriptor(String directory, String baseName, String newick,
+      List<FastaItem> fastaItems, SequencePattern pattern) {
+    this.directory = directory;
+    this.baseName = baseName;
+    this.newick = newick;
+    this.newickFile = null;
+    this.newickStart = 0;
+    this.newickEnd = 0;
+    this.fastaItems = Collections.unmodifiableList(
+        new ArrayList<FastaItem>(fastaItems));
+    this.pattern = pattern;
+  }
+
+  /**
+   * A result whose newick is the subtree text from newickStart to newickEnd
+   * (exclusive) of newickFile, written as a tree of its own: "(" text ");".
+   */
+  public ResultDescriptor(String directory, String baseName, File newickFile,
+      long newickStart, long newickEnd, List<FastaItem> fastaItems,
+      SequencePattern pattern) {
+    this.directory = directory;
+    this.baseName = baseName;
+    this.newick = null;
+    this.newickFile = newickFile;
+    this.newickStart = newickStart;
+    this.newickEnd = newickEnd;
+    this.fastaItems = Collections.unmodifiableList(
+        new ArrayList<FastaItem>(fastaItems));
+    this.pattern = pattern;
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public String getBaseName() {
+    return baseName;
+  }
+
+  // result file path without extension, e.g. /out/sub3tree0
+  public String getResultFileName() {
+    return directory + File.separator + baseName;
+  }
+
+  // null if the newick is a range of a file
+  public String getNewick() {
+    return newick;
+  }
+
+  public File getNewickFile() {
+    return newickFile;
+  }
+
+  public long getNewickStart() {
+    return newickStart;
+  }
+
+  public long getNewickEnd() {
+    return newickEnd;
+  }
+
+  public List<FastaItem> getFastaItems() {
+    return fastaItems;
+  }
+
+  public SequencePattern getPattern() {
+    return pattern;
+  }
+
+}
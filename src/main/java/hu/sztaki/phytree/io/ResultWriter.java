@@ -0,0 +1,424 @@
+package hu.sztaki.phytree.io;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.metrics.Stage;
+import hu.sztaki.phytree.metrics.StageMetrics;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Output stage for result subtrees. Writes the .nwk and .fasta file of each
+ * {@link ResultDescriptor}.
+ *
+ * In asynchronous mode the search only puts descriptors into a bounded queue
+ * (blocking when it is full) and a dedicated writer thread drains it in
+ * batches: results of a batch are grouped by directory, serialized through
+ * one reused buffer, and - if requested - fsync'ed once at the end of the
+ * batch instead of after every file. In synchronous mode every descriptor is
+ * written right away on the calling thread, as a batch of one.
+ *
+ * With compression turned on the files are written as .nwk.gz and
+ * .fasta.gz by {@link ParallelGzipOutputStream}s sharing one pool: the
+ * blocks of all files of a batch are compressed at the same time and the
+ * files are finished at the end of the batch.
+ */
+public class ResultWriter {
+
+  private static final Logger LOG = Log.getLogger(ResultWriter.class);
+
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+  public static final int DEFAULT_BATCH_SIZE = 32;
+
+  // marks the end of the queue for the writer thread
+  private static final ResultDescriptor END_OF_RESULTS =
+      new ResultDescriptor("", "", "", new ArrayList<FastaItem>(),
+          LiteralPattern.forLiteral(""));
+
+  private final boolean async;
+  private final BlockingQueue<ResultDescriptor> queue;
+  private final int batchSize;
+  private final boolean fsync;
+  private Thread writerThread;
+  private volatile IOException failure;
+  // compresses the output files if set
+  private ExecutorService compressPool;
+  // batches are timed here too if set
+  private StageMetrics metrics;
+
+  // reused for serializing every file, only touched by the writing thread
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+  // newick ranges are copied through it into compressed files
+  private final byte[] copyBuffer = new byte[64 * 1024];
+  private final Set<String> createdDirs = new HashSet<String>();
+
+  private final AtomicLong resultsWritten = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong batchesWritten = new AtomicLong();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final AtomicLong maxBatchNanos = new AtomicLong();
+  private final AtomicLong enqueueWaitNanos = new AtomicLong();
+  private final AtomicLong maxQueueDepth = new AtomicLong();
+
+  public ResultWriter(boolean async, int queueSize, int batchSize, boolean fsync) {
+    this.async = async;
+    this.queue = new ArrayBlockingQueue<ResultDescriptor>(Math.max(queueSize, 1));
+    this.batchSize = Math.max(batchSize, 1);
+    this.fsync = fsync;
+  }
+
+  public void setMetrics(StageMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** Turns on gzip output, compressed on the given number of threads. */
+  public void setCompression(int threads) {
+    compressPool = Executors.newFixedThreadPool(Math.max(threads, 1),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "result-compressor");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+  }
+
+  public boolean isCompressed() {
+    return compressPool != null;
+  }
+
+  public void start() {
+    if (!async || writerThread != null) {
+      return;
+    }
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainQueue();
+      }
+    }, "result-writer");
+    writerThread.start();
+  }
+
+  /**
+   * Hands a result over to the output stage. In asynchronous mode this only
+   * blocks while the queue is full.
+   */
+  public void submit(ResultDescriptor result) throws IOException {
+    checkFailure();
+    if (!async) {
+      List<ResultDescriptor> single = new ArrayList<ResultDescriptor>(1);
+      single.add(result);
+      writeBatch(single);
+      checkFailure();
+      return;
+    }
+    if (writerThread == null) {
+      start();
+    }
+    long start = System.nanoTime();
+    try {
+      queue.put(result);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while queueing result " + result.getBaseName());
+    }
+    enqueueWaitNanos.addAndGet(System.nanoTime() - start);
+    updateMax(maxQueueDepth, queue.size());
+  }
+
+  /**
+   * Waits until every submitted result is on disk, then stops the writer
+   * thread. Rethrows the first error the writer ran into; the writer keeps
+   * draining the queue after an error, so neither this nor submit waits on
+   * a writer that stopped.
+   */
+  public void close() throws IOException {
+    if (writerThread != null) {
+      try {
+        queue.put(END_OF_RESULTS);
+        writerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the result writer");
+      }
+      writerThread = null;
+    }
+    if (compressPool != null) {
+      compressPool.shutdown();
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void drainQueue() {
+    List<ResultDescriptor> batch = new ArrayList<ResultDescriptor>(batchSize);
+    boolean finished = false;
+    while (!finished) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, batchSize - 1);
+      finished = batch.remove(END_OF_RESULTS);
+      if (!batch.isEmpty()) {
+        writeBatch(batch);
+      }
+      batch.clear();
+    }
+  }
+
+  private void writeBatch(List<ResultDescriptor> batch) {
+    long start = System.nanoTime();
+    long bytesBefore = bytesWritten.get();
+    // a batch has results of several clusters
+    StageMetrics.StageTimer timer = metrics != null
+        ? metrics.start(Stage.WRITE, StageMetrics.NO_CLUSTER) : null;
+    Map<String, List<ResultDescriptor>> byDirectory =
+        new LinkedHashMap<String, List<ResultDescriptor>>();
+    for (ResultDescriptor result : batch) {
+      List<ResultDescriptor> inDir = byDirectory.get(result.getDirectory());
+      if (inDir == null) {
+        inDir = new ArrayList<ResultDescriptor>();
+        byDirectory.put(result.getDirectory(), inDir);
+      }
+      inDir.add(result);
+    }
+    List<FileOutputStream> toSync = new ArrayList<FileOutputStream>();
+    List<ParallelGzipOutputStream> toFinish =
+        new ArrayList<ParallelGzipOutputStream>();
+    try {
+      for (Map.Entry<String, List<ResultDescriptor>> entry : byDirectory.entrySet()) {
+        if (createdDirs.add(entry.getKey())) {
+          new File(entry.getKey()).mkdirs();
+        }
+        for (ResultDescriptor result : entry.getValue()) {
+          writeResult(result, toSync, toFinish);
+        }
+      }
+      for (ParallelGzipOutputStream gz : toFinish) {
+        gz.flush();
+        bytesWritten.addAndGet(gz.getCompressedBytes());
+      }
+      for (FileOutputStream os : toSync) {
+        os.getFD().sync();
+      }
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    } catch (Throwable e) {
+      // would kill the writer thread and leave submit and close waiting
+      if (failure == null) {
+        failure = new IOException("Could not write results", e);
+      }
+    } finally {
+      for (ParallelGzipOutputStream gz : toFinish) {
+        try {
+          gz.close();
+        } catch (IOException e) {
+          // already failed or written, nothing left to save
+        }
+      }
+      for (FileOutputStream os : toSync) {
+        try {
+          os.close();
+        } catch (IOException e) {
+          // already failed or synced, nothing left to save
+        }
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    writeNanos.addAndGet(elapsed);
+    updateMax(maxBatchNanos, elapsed);
+    batchesWritten.incrementAndGet();
+    if (timer != null) {
+      timer.end(bytesWritten.get() - bytesBefore, 0, 0, batch.size());
+    }
+  }
+
+  private void writeResult(ResultDescriptor result, List<FileOutputStream> toSync,
+      List<ParallelGzipOutputStream> toFinish) throws IOException {
+    String resultFileName = result.getResultFileName();
+    String suffix = compressPool != null ? ".gz" : "";
+
+    buffer.reset();
+    if (result.getNewickFile() == null) {
+      buffer.write(result.getNewick().getBytes("UTF-8"));
+      writeFile(resultFileName + ".nwk" + suffix, null, toSync, toFinish);
+    } else {
+      writeFile(resultFileName + ".nwk" + suffix, result, toSync, toFinish);
+    }
+
+    buffer.reset();
+    FastaWriter fastaWriter = new FastaWriter(buffer);
+    fastaWriter.writeOrderedFastaList(result.getFastaItems(), result.getPattern());
+    writeFile(resultFileName + ".fasta" + suffix, null, toSync, toFinish);
+
+    resultsWritten.incrementAndGet();
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Written: " + resultFileName + ".nwk" + suffix
+          + " and .fasta" + suffix + "\n");
+    }
+  }
+
+  // writes the buffer, or the newick range of the result if one is given
+  private void writeFile(String fileName, ResultDescriptor newickRange,
+      List<FileOutputStream> toSync, List<ParallelGzipOutputStream> toFinish)
+      throws IOException {
+    FileOutputStream os = new FileOutputStream(fileName);
+    try {
+      if (compressPool != null) {
+        // compressed on the pool, written at the end of the batch
+        ParallelGzipOutputStream gz =
+            new ParallelGzipOutputStream(os, compressPool);
+        toFinish.add(gz);
+        if (newickRange == null) {
+          buffer.writeTo(gz);
+        } else {
+          copyNewick(newickRange, gz, null);
+        }
+        gz.endBlock();
+      } else if (newickRange == null) {
+        buffer.writeTo(os);
+        bytesWritten.addAndGet(buffer.size());
+      } else {
+        bytesWritten.addAndGet(copyNewick(newickRange, os, os.getChannel()));
+      }
+    } finally {
+      if (fsync) {
+        toSync.add(os);
+      } else if (compressPool == null) {
+        os.close();
+      }
+    }
+  }
+
+  /**
+   * Copies the newick range of the result between "(" and ");", with
+   * transferTo if the target is a file channel, otherwise through the copy
+   * buffer. Returns the bytes written.
+   */
+  private long copyNewick(ResultDescriptor result, OutputStream out,
+      FileChannel target) throws IOException {
+    File file = result.getNewickFile();
+    long start = result.getNewickStart();
+    long end = result.getNewickEnd();
+    out.write('(');
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel source = in.getChannel();
+      if (end > source.size()) {
+        throw new IOException("Subtree " + start + "-" + end + " is past the "
+            + "end of " + file);
+      }
+      long pos = start;
+      while (pos < end) {
+        long n;
+        if (target != null) {
+          n = source.transferTo(pos, end - pos, target);
+        } else {
+          n = source.read(ByteBuffer.wrap(copyBuffer, 0,
+              (int) Math.min(copyBuffer.length, end - pos)), pos);
+          if (n > 0) {
+            out.write(copyBuffer, 0, (int) n);
+          }
+        }
+        if (n <= 0) {
+          throw new IOException("Could not read " + file + " at " + pos);
+        }
+        pos += n;
+      }
+    } finally {
+      in.close();
+    }
+    out.write(')');
+    out.write(';');
+    return end - start + 3;
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  public boolean isAsync() {
+    return async;
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public long getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  public long getResultsWritten() {
+    return resultsWritten.get();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  public long getBatchesWritten() {
+    return batchesWritten.get();
+  }
+
+  public long getWriteNanos() {
+    return writeNanos.get();
+  }
+
+  public long getMaxBatchNanos() {
+    return maxBatchNanos.get();
+  }
+
+  // time the search side spent blocked on a full queue
+  public long getEnqueueWaitNanos() {
+    return enqueueWaitNanos.get();
+  }
+
+  public String getStatistics() {
+    long batches = Math.max(batchesWritten.get(), 1);
+    return "Output stage: " + resultsWritten.get() + " results, "
+        + bytesWritten.get() + (compressPool != null ? " gzip" : "")
+        + " bytes in " + batchesWritten.get() + " batches"
+        + ", write time " + (writeNanos.get() / 1000000) + " ms"
+        + " (avg " + (writeNanos.get() / batches / 1000) + " us/batch, max "
+        + (maxBatchNanos.get() / 1000) + " us)"
+        + ", max queue depth " + maxQueueDepth.get()
+        + ", search blocked " + (enqueueWaitNanos.get() / 1000000) + " ms";
+  }
+
+}
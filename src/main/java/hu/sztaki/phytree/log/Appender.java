@@ -0,0 +1,13 @@
+package hu.sztaki.phytree.log;
+
+/** Where the lines of the {@link Logger}s go. */
+public interface Appender {
+
+  /** The line is already prefixed, without the line separator. */
+  void append(Level level, String line);
+
+  /** Returns when the lines appended so far are written. */
+  void flush();
+
+  void close();
+}
@@ -0,0 +1,143 @@
+package hu.sztaki.phytree.log;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes the lines on a thread of its own, so logging threads only put
+ * them into a bounded queue. The thread takes what is queued, up to
+ * batchSize lines, and writes them with one print per stream, so many
+ * lines cost a few writes to the console. A full queue blocks the logging
+ * thread until there is room: lines are not dropped.
+ */
+public class AsyncAppender implements Appender {
+
+  public static final int DEFAULT_QUEUE_SIZE = 8192;
+  public static final int DEFAULT_BATCH_SIZE = 512;
+
+  private static final class Entry {
+    final Level level;
+    final String line;
+    // counted down once the lines before it are written
+    final CountDownLatch written;
+
+    Entry(Level level, String line, CountDownLatch written) {
+      this.level = level;
+      this.line = line;
+      this.written = written;
+    }
+  }
+
+  // marks the end of the queue for the writer thread
+  private static final Entry END = new Entry(Level.OFF, null, null);
+
+  private final PrintStream out;
+  private final PrintStream err;
+  private final BlockingQueue<Entry> queue;
+  private final int batchSize;
+  private final Thread writer;
+  private boolean closed = false;
+
+  public AsyncAppender() {
+    this(System.out, System.err, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE);
+  }
+
+  public AsyncAppender(PrintStream out, PrintStream err, int queueSize,
+      int batchSize) {
+    this.out = out;
+    this.err = err;
+    this.queue = new ArrayBlockingQueue<Entry>(Math.max(queueSize, 1));
+    this.batchSize = Math.max(batchSize, 1);
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, "log-appender");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void drain() {
+    List<Entry> batch = new ArrayList<Entry>(batchSize);
+    StringBuilder outLines = new StringBuilder();
+    StringBuilder errLines = new StringBuilder();
+    boolean end = false;
+    while (!end) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, batchSize - 1);
+      for (Entry entry : batch) {
+        if (entry == END) {
+          end = true;
+        } else if (entry.line != null) {
+          (entry.level.compareTo(Level.WARN) >= 0 ? errLines : outLines)
+              .append(entry.line).append('\n');
+        }
+      }
+      write(out, outLines);
+      write(err, errLines);
+      for (Entry entry : batch) {
+        if (entry.written != null) {
+          entry.written.countDown();
+        }
+      }
+      batch.clear();
+    }
+  }
+
+  private static void write(PrintStream stream, StringBuilder lines) {
+    if (lines.length() > 0) {
+      stream.print(lines);
+      stream.flush();
+      lines.setLength(0);
+    }
+  }
+
+  @Override
+  public void append(Level level, String line) {
+    put(new Entry(level, line, null));
+  }
+
+  private void put(Entry entry) {
+    try {
+      queue.put(entry);
+    } catch (InterruptedException e) {
+      // the line is lost, the interrupt is not
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void flush() {
+    CountDownLatch written = new CountDownLatch(1);
+    put(new Entry(Level.OFF, null, written));
+    try {
+      written.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Writes the queued lines and stops the thread. */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    put(END);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
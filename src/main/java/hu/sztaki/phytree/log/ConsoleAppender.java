@@ -0,0 +1,38 @@
+package hu.sztaki.phytree.log;
+
+import java.io.PrintStream;
+
+/**
+ * Writes every line right away on the calling thread: debug and info to
+ * System.out, warnings and errors to System.err.
+ */
+public class ConsoleAppender implements Appender {
+
+  private final PrintStream out;
+  private final PrintStream err;
+
+  public ConsoleAppender() {
+    this(System.out, System.err);
+  }
+
+  public ConsoleAppender(PrintStream out, PrintStream err) {
+    this.out = out;
+    this.err = err;
+  }
+
+  @Override
+  public void append(Level level, String line) {
+    (level.compareTo(Level.WARN) >= 0 ? err : out).println(line);
+  }
+
+  @Override
+  public void flush() {
+    out.flush();
+    err.flush();
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+}
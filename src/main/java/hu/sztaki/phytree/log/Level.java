@@ -0,0 +1,26 @@
+package hu.sztaki.phytree.log;
+
+/** Log levels, from the most verbose; OFF turns logging off. */
+public enum Level {
+  DEBUG("Debug: "),
+  INFO(""),
+  WARN("Warning: "),
+  ERROR("Error: "),
+  OFF("");
+
+  private final String prefix;
+
+  private Level(String prefix) {
+    this.prefix = prefix;
+  }
+
+  /** Put before the message; info lines are printed as they are. */
+  public String getPrefix() {
+    return prefix;
+  }
+
+  /** The level of a name like "info" or "WARN". */
+  public static Level fromName(String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+}
@@ -0,0 +1,56 @@
+package hu.sztaki.phytree.log;
+
+/**
+ * The level and the appender of all loggers of the run. Until
+ * {@link #configure} is called lines of info and above are written right
+ * away to the console.
+ */
+public final class Log {
+
+  private static volatile Level level = Level.INFO;
+  private static volatile Appender appender = new ConsoleAppender();
+
+  private Log() {
+  }
+
+  public static Logger getLogger(Class<?> c) {
+    return new Logger(c.getSimpleName());
+  }
+
+  public static Level getLevel() {
+    return level;
+  }
+
+  public static void setLevel(Level newLevel) {
+    level = newLevel;
+  }
+
+  static Appender getAppender() {
+    return appender;
+  }
+
+  /** Replaces the appender; the old one is closed after its lines. */
+  public static synchronized void setAppender(Appender newAppender) {
+    Appender old = appender;
+    appender = newAppender;
+    old.close();
+  }
+
+  /** Sets the level, and writes on a thread of its own if async. */
+  public static void configure(Level newLevel, boolean async) {
+    setLevel(newLevel);
+    setAppender(async ? new AsyncAppender() : new ConsoleAppender());
+  }
+
+  public static void flush() {
+    appender.flush();
+  }
+
+  /**
+   * Writes what is queued and goes back to the console appender, for
+   * lines logged after the end of the run.
+   */
+  public static void close() {
+    setAppender(new ConsoleAppender());
+  }
+}
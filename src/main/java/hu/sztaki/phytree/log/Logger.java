@@ -0,0 +1,73 @@
+package hu.sztaki.phytree.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logs through the appender of {@link Log} if the level is enabled. A
+ * disabled level costs a volatile read; messages built from several parts
+ * should be guarded by {@link #isEnabled(Level)} in loops, so they are not
+ * built for nothing.
+ */
+public class Logger {
+
+  private final String name;
+
+  Logger(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isEnabled(Level level) {
+    return level.compareTo(Log.getLevel()) >= 0 && level != Level.OFF;
+  }
+
+  public boolean isDebugEnabled() {
+    return isEnabled(Level.DEBUG);
+  }
+
+  public boolean isInfoEnabled() {
+    return isEnabled(Level.INFO);
+  }
+
+  public void log(Level level, String message) {
+    if (isEnabled(level)) {
+      Log.getAppender().append(level, level.getPrefix() + message);
+    }
+  }
+
+  public void debug(String message) {
+    log(Level.DEBUG, message);
+  }
+
+  public void info(String message) {
+    log(Level.INFO, message);
+  }
+
+  public void warn(String message) {
+    log(Level.WARN, message);
+  }
+
+  public void error(String message) {
+    log(Level.ERROR, message);
+  }
+
+  /** The message and the stack trace of the error. */
+  public void error(String message, Throwable error) {
+    if (isEnabled(Level.ERROR)) {
+      StringWriter trace = new StringWriter();
+      PrintWriter pw = new PrintWriter(trace);
+      error.printStackTrace(pw);
+      pw.flush();
+      String text = trace.toString();
+      // the appender ends the line
+      if (text.endsWith("\n")) {
+        text = text.substring(0, text.length() - 1);
+      }
+      log(Level.ERROR, message + "\n" + text);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package hu.sztaki.phytree.log;
+
+/**
+ * Rate limits a warning that can come up for every sequence or node of a
+ * tree: the first maxExamples are logged, the rest are only counted and
+ * reported in one line at the end of the tree. Used by one thread.
+ */
+public class WarningSummary {
+
+  private final Logger log;
+  private final String message;
+  private final int maxExamples;
+  private int count = 0;
+
+  public WarningSummary(Logger log, String message, int maxExamples) {
+    this.log = log;
+    this.message = message;
+    this.maxExamples = maxExamples;
+  }
+
+  public void add(String example) {
+    count++;
+    if (count <= maxExamples && log.isEnabled(Level.WARN)) {
+      log.warn(message + ": " + example);
+    }
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /** Logs the number of warnings not shown, and starts again. */
+  public void report(String where) {
+    if (count > maxExamples) {
+      log.warn(message + ": " + (count - maxExamples) + " more in " + where
+          + " (" + count + " in all)");
+    }
+    count = 0;
+  }
+}
@@ -0,0 +1,77 @@
+package hu.sztaki.phytree.memory;
+
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.tree.Tree;
+
+/**
+ * Estimates the footprint of every tree as it is loaded, logs it, sums it
+ * up for the run and stops the run at the first tree over the limit,
+ * before the search spends time on it.
+ */
+public class FootprintAccounting {
+
+  private static final Logger LOG = Log.getLogger(FootprintAccounting.class);
+
+  // heap bytes a tree may take, 0 for no limit
+  private final long maxTreeBytes;
+  private final TreeFootprint totals = new TreeFootprint();
+  private TreeFootprint largest;
+
+  public FootprintAccounting(long maxTreeBytes) {
+    this.maxTreeBytes = maxTreeBytes;
+  }
+
+  /**
+   * The footprint of the tree, with its sequences attached.
+   *
+   * @throws TreeTooLargeException if it is over the limit
+   */
+  public TreeFootprint account(Tree tree) {
+    TreeFootprint f = TreeFootprint.estimate(tree);
+    // trees of a NEXUS file are told apart by their number in it
+    String treeId = tree.getNexusIndex() > 0
+        ? tree.getKey() + "_" + tree.getNexusIndex()
+        : String.valueOf(tree.getKey());
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Footprint of tree " + treeId + ": " + f);
+    }
+    totals.add(f);
+    if (largest == null || f.getHeapBytes() > largest.getHeapBytes()) {
+      largest = f;
+    }
+    if (maxTreeBytes > 0 && f.getHeapBytes() > maxTreeBytes) {
+      throw new TreeTooLargeException("Tree " + treeId + " needs about "
+          + TreeFootprint.formatBytes(f.getHeapBytes()) + " of heap, more "
+          + "than maxTreeBytes (" + TreeFootprint.formatBytes(maxTreeBytes)
+          + ")");
+    }
+    return f;
+  }
+
+  public TreeFootprint getTotals() {
+    return totals;
+  }
+
+  public String getSummary() {
+    return "Footprint of all " + totals.getTreeCount() + " trees: " + totals
+        + (largest != null ? "; largest tree "
+            + TreeFootprint.formatBytes(largest.getHeapBytes()) : "");
+  }
+
+  /** Bytes from a size like 512m, 2g or 100000 (k, m, g: powers of 1024). */
+  public static long parseBytes(String size) {
+    String s = size.trim().toLowerCase();
+    long unit = 1;
+    if (s.endsWith("k") || s.endsWith("m") || s.endsWith("g")) {
+      char c = s.charAt(s.length() - 1);
+      unit = c == 'k' ? 1024L : c == 'm' ? 1024L * 1024 : 1024L * 1024 * 1024;
+      s = s.substring(0, s.length() - 1).trim();
+    }
+    long value = Long.parseLong(s);
+    if (value < 0) {
+      throw new IllegalArgumentException("negative size: " + size);
+    }
+    return value * unit;
+  }
+}
@@ -0,0 +1,128 @@
+package hu.sztaki.phytree.memory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimated heap sizes of objects on a 64-bit JVM with compressed
+ * references (heaps below 32 GB): 12 byte object headers, 4 byte
+ * references, 8 byte alignment, and strings of one byte per character
+ * (compact strings of Java 9 and newer, names and residues are ASCII).
+ * Estimates, not measurements: good for sizing heaps and comparing
+ * representations, not for accounting to the byte.
+ */
+public final class ObjectSizes {
+
+  public static final int HEADER = 12;
+  public static final int ARRAY_HEADER = 16;
+  public static final int REFERENCE = 4;
+
+  // a String object without its array
+  static final long STRING_SHALLOW = 24;
+  // an ArrayList object without its array
+  static final long ARRAY_LIST_SHALLOW = 24;
+  static final int ARRAY_LIST_DEFAULT_CAPACITY = 10;
+  static final long HASH_MAP_SHALLOW = 48;
+  static final long HASH_MAP_ENTRY = 32;
+  static final long BOXED_INTEGER = 16;
+
+  private static final Map<Class<?>, Long> SHALLOW =
+      new ConcurrentHashMap<Class<?>, Long>();
+
+  private ObjectSizes() {
+  }
+
+  public static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  /** Size of an object of the class, its instance fields only. */
+  public static long shallowSize(Class<?> c) {
+    Long size = SHALLOW.get(c);
+    if (size == null) {
+      long fields = 0;
+      for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+        for (Field f : k.getDeclaredFields()) {
+          if (!Modifier.isStatic(f.getModifiers())) {
+            fields += fieldSize(f.getType());
+          }
+        }
+      }
+      size = align(HEADER + fields);
+      SHALLOW.put(c, size);
+    }
+    return size;
+  }
+
+  private static int fieldSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    } else if (type == byte.class || type == boolean.class) {
+      return 1;
+    }
+    return REFERENCE;
+  }
+
+  /** A String with its array, 0 for null. */
+  public static long stringSize(String s) {
+    if (s == null) {
+      return 0;
+    }
+    return STRING_SHALLOW + align(ARRAY_HEADER + s.length());
+  }
+
+  public static long intArraySize(int length) {
+    return align(ARRAY_HEADER + 4L * length);
+  }
+
+  public static long byteArraySize(long length) {
+    return align(ARRAY_HEADER + length);
+  }
+
+  /**
+   * An ArrayList with its array, not the elements. The capacity is not
+   * known: lists grown from empty have 10 slots at first and half again
+   * as many every time they fill up.
+   */
+  public static long arrayListSize(List<?> list) {
+    if (list == null) {
+      return 0;
+    }
+    int size = list.size();
+    if (size == 0) {
+      // the shared empty array
+      return ARRAY_LIST_SHALLOW;
+    }
+    long capacity = ARRAY_LIST_DEFAULT_CAPACITY;
+    while (capacity < size) {
+      capacity += capacity >> 1;
+    }
+    return ARRAY_LIST_SHALLOW + align(ARRAY_HEADER + REFERENCE * capacity);
+  }
+
+  /** A HashMap of that many entries with its table, not keys or values. */
+  public static long hashMapSize(int entries) {
+    if (entries == 0) {
+      return HASH_MAP_SHALLOW;
+    }
+    long table = 16;
+    while (table * 3 / 4 < entries) {
+      table <<= 1;
+    }
+    return HASH_MAP_SHALLOW + align(ARRAY_HEADER + REFERENCE * table)
+        + HASH_MAP_ENTRY * entries;
+  }
+
+  /** Integer objects of values out of the shared -128..127 cache. */
+  public static long boxedIntegerSize(int value) {
+    return value >= -128 && value <= 127 ? 0 : BOXED_INTEGER;
+  }
+
+}
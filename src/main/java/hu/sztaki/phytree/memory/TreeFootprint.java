@@ -0,0 +1,156 @@
+package hu.sztaki.phytree.memory;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.util.Locale;
+
+/**
+ * Estimated memory of a loaded {@link Tree} and the sequences attached to
+ * its leaves, by what it is spent on (see {@link ObjectSizes} for the
+ * model). Footprints can be added up for the totals of a run; sequences
+ * shared by several trees (the trees of a NEXUS file) are counted for
+ * every tree.
+ */
+public class TreeFootprint {
+
+  private int trees;
+  private long nodeCount;
+  private long leafCount;
+  // TreeNode objects and the node list of the tree
+  private long nodes;
+  private long childLists;
+  private long patternCaches;
+  // names and labels of the nodes
+  private long names;
+  // FastaItems with their rows, on the heap
+  private long sequences;
+  private long nodesByName;
+  // residues in the sequence arena, off the heap
+  private long arena;
+
+  /** Walks the nodes of the tree and their sequences. */
+  public static TreeFootprint estimate(Tree tree) {
+    TreeFootprint f = new TreeFootprint();
+    f.trees = 1;
+    long nodeSize = ObjectSizes.shallowSize(TreeNode.class);
+    f.nodes = ObjectSizes.arrayListSize(tree.nodes);
+    for (TreeNode n : tree.nodes) {
+      f.nodeCount++;
+      f.nodes += nodeSize;
+      f.childLists += ObjectSizes.arrayListSize(n.getChildren());
+      f.patternCaches += n.getPatternCacheBytes();
+      String name = n.getName();
+      if (name != null && name.length() > 0) {
+        f.names += ObjectSizes.stringSize(name);
+      }
+      if (n.label != name && n.label != null && n.label.length() > 0) {
+        f.names += ObjectSizes.stringSize(n.label);
+      }
+      if (n.isLeaf()) {
+        f.leafCount++;
+      }
+      FastaItem item = n.getSequence();
+      if (item != null) {
+        f.sequences += item.getHeapBytes();
+        f.arena += item.getArenaBytes();
+      }
+    }
+    // keys and values are the names and the nodes counted above
+    f.nodesByName = ObjectSizes.hashMapSize(tree.getNamedNodeCount());
+    return f;
+  }
+
+  public void add(TreeFootprint other) {
+    trees += other.trees;
+    nodeCount += other.nodeCount;
+    leafCount += other.leafCount;
+    nodes += other.nodes;
+    childLists += other.childLists;
+    patternCaches += other.patternCaches;
+    names += other.names;
+    sequences += other.sequences;
+    nodesByName += other.nodesByName;
+    arena += other.arena;
+  }
+
+  /** All of it on the heap, the arena not included. */
+  public long getHeapBytes() {
+    return nodes + childLists + patternCaches + names + sequences
+        + nodesByName;
+  }
+
+  /** Heap bytes per node, for choosing a representation. */
+  public double getHeapBytesPerNode() {
+    return nodeCount == 0 ? 0.0 : (double) getHeapBytes() / nodeCount;
+  }
+
+  public int getTreeCount() {
+    return trees;
+  }
+
+  public long getNodeCount() {
+    return nodeCount;
+  }
+
+  public long getLeafCount() {
+    return leafCount;
+  }
+
+  public long getNodeBytes() {
+    return nodes;
+  }
+
+  public long getChildListBytes() {
+    return childLists;
+  }
+
+  public long getPatternCacheBytes() {
+    return patternCaches;
+  }
+
+  public long getNameBytes() {
+    return names;
+  }
+
+  public long getSequenceBytes() {
+    return sequences;
+  }
+
+  public long getNodesByNameBytes() {
+    return nodesByName;
+  }
+
+  public long getArenaBytes() {
+    return arena;
+  }
+
+  /** A short size, like 12.3 MB. */
+  public static String formatBytes(long bytes) {
+    if (bytes < 1024) {
+      return bytes + " B";
+    }
+    String[] units = {"KB", "MB", "GB", "TB"};
+    double value = bytes;
+    int unit = -1;
+    while (value >= 1024 && unit < units.length - 1) {
+      value /= 1024;
+      unit++;
+    }
+    return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+  }
+
+  @Override
+  public String toString() {
+    return formatBytes(getHeapBytes()) + " heap for " + nodeCount
+        + " nodes (" + leafCount + " leaves): nodes " + formatBytes(nodes)
+        + ", child lists " + formatBytes(childLists)
+        + ", pattern caches " + formatBytes(patternCaches)
+        + ", names " + formatBytes(names)
+        + ", sequences " + formatBytes(sequences)
+        + ", nodesByName " + formatBytes(nodesByName)
+        + (arena > 0 ? "; arena " + formatBytes(arena) + " off-heap" : "");
+  }
+
+}
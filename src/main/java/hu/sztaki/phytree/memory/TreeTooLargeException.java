@@ -0,0 +1,11 @@
+package hu.sztaki.phytree.memory;
+
+/** A tree needs more memory than the limit of the run. */
+public class TreeTooLargeException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public TreeTooLargeException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,73 @@
+package hu.sztaki.phytree.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets of powers of two nanoseconds: bucket i holds
+ * the durations from 2^(i-1) to 2^i - 1 ns. Recording is a few atomic
+ * adds, so it can be shared by threads; percentiles are the upper bound of
+ * their bucket, so they are at most twice the real value.
+ */
+public class LatencyHistogram {
+
+  static final int BUCKETS = 64;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucket(nanos));
+    count.incrementAndGet();
+    long m = max.get();
+    while (nanos > m && !max.compareAndSet(m, nanos)) {
+      m = max.get();
+    }
+  }
+
+  static int bucket(long nanos) {
+    return 64 - Long.numberOfLeadingZeros(nanos);
+  }
+
+  /** The largest duration of bucket i, in nanoseconds. */
+  static long upperBound(int bucket) {
+    return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getBucketCount(int bucket) {
+    return counts.get(bucket);
+  }
+
+  /**
+   * The duration q (from 0 to 1) of the recorded ones are not longer than,
+   * in nanoseconds; 0 if nothing was recorded.
+   */
+  public long getPercentile(double q) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(q * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank && seen > 0) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+}
@@ -0,0 +1,23 @@
+package hu.sztaki.phytree.metrics;
+
+/** The steps a cluster goes through, in order. */
+public enum Stage {
+  PARSE("parse"),
+  FASTA_READ("fasta_read"),
+  ATTACH("attach"),
+  INDEX("index"),
+  SEARCH("search"),
+  SUPPORT("support"),
+  WRITE("write");
+
+  private final String label;
+
+  private Stage(String label) {
+    this.label = label;
+  }
+
+  /** Name of the stage in the summary and the JSON report. */
+  public String getLabel() {
+    return label;
+  }
+}
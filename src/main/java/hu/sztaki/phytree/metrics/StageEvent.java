@@ -0,0 +1,42 @@
+package hu.sztaki.phytree.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A stage of a cluster as a Flight Recorder event, so a recording (for
+ * example java -XX:StartFlightRecording ...) shows the stages next to GC
+ * and I/O. Only loaded by {@link StageMetrics} when JFR is there.
+ */
+@Name("hu.sztaki.phytree.Stage")
+@Label("Pipeline Stage")
+@Category("PhyTreeSearch")
+@Description("One stage of the search for one cluster")
+@StackTrace(false)
+class StageEvent extends Event {
+
+  @Label("Stage")
+  String stage;
+
+  @Label("Cluster")
+  int cluster;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  @Label("Nodes")
+  long nodes;
+
+  @Label("Leaves")
+  long leaves;
+
+  @Label("Results")
+  long results;
+
+}
@@ -0,0 +1,236 @@
+package hu.sztaki.phytree.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time and throughput of the stages of a run. A stage of a cluster is
+ * measured by a {@link StageTimer}: started before the work and ended with
+ * what was done (bytes, nodes, leaves - or the sequences of a FASTA file -
+ * and results). The totals and a latency histogram are kept per stage,
+ * with atomic adds, so the writer thread and the searching thread can share
+ * one StageMetrics; every timed stage is also a {@link StageEvent} if a
+ * Flight Recorder recording is running.
+ *
+ * The cost is two System.nanoTime calls and a few adds per stage of a
+ * cluster, nothing per node or sequence.
+ */
+public class StageMetrics {
+
+  /** Cluster of a stage that is not about a single cluster. */
+  public static final int NO_CLUSTER = -1;
+
+  private static final boolean JFR = jfrAvailable();
+
+  private static boolean jfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  private static final class Totals {
+    final AtomicLong nanos = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong nodes = new AtomicLong();
+    final AtomicLong leaves = new AtomicLong();
+    final AtomicLong results = new AtomicLong();
+    final LatencyHistogram histogram = new LatencyHistogram();
+  }
+
+  private final Map<Stage, Totals> totals =
+      new EnumMap<Stage, Totals>(Stage.class);
+  private final long startNanos = System.nanoTime();
+
+  public StageMetrics() {
+    for (Stage stage : Stage.values()) {
+      totals.put(stage, new Totals());
+    }
+  }
+
+  /** One stage of one cluster, ended once. */
+  public final class StageTimer {
+    private final Stage stage;
+    private final int cluster;
+    private final long start;
+    private final StageEvent event;
+
+    private StageTimer(Stage stage, int cluster) {
+      this.stage = stage;
+      this.cluster = cluster;
+      this.event = JFR ? beginEvent() : null;
+      this.start = System.nanoTime();
+    }
+
+    private StageEvent beginEvent() {
+      StageEvent e = new StageEvent();
+      if (!e.isEnabled()) {
+        return null;
+      }
+      e.begin();
+      return e;
+    }
+
+    public void end(long bytes, long nodes, long leaves, long results) {
+      long elapsed = System.nanoTime() - start;
+      Totals t = totals.get(stage);
+      t.nanos.addAndGet(elapsed);
+      t.bytes.addAndGet(bytes);
+      t.nodes.addAndGet(nodes);
+      t.leaves.addAndGet(leaves);
+      t.results.addAndGet(results);
+      t.histogram.record(elapsed);
+      if (event != null) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.stage = stage.getLabel();
+          event.cluster = cluster;
+          event.bytes = bytes;
+          event.nodes = nodes;
+          event.leaves = leaves;
+          event.results = results;
+          event.commit();
+        }
+      }
+    }
+  }
+
+  public StageTimer start(Stage stage, int cluster) {
+    return new StageTimer(stage, cluster);
+  }
+
+  public long getCount(Stage stage) {
+    return totals.get(stage).histogram.getCount();
+  }
+
+  public long getNanos(Stage stage) {
+    return totals.get(stage).nanos.get();
+  }
+
+  public long getBytes(Stage stage) {
+    return totals.get(stage).bytes.get();
+  }
+
+  public long getNodes(Stage stage) {
+    return totals.get(stage).nodes.get();
+  }
+
+  public long getLeaves(Stage stage) {
+    return totals.get(stage).leaves.get();
+  }
+
+  public long getResults(Stage stage) {
+    return totals.get(stage).results.get();
+  }
+
+  public LatencyHistogram getHistogram(Stage stage) {
+    return totals.get(stage).histogram;
+  }
+
+  // MB (10^6 bytes) per second of the stage, 0 without bytes
+  private double megabytesPerSecond(Stage stage) {
+    long nanos = getNanos(stage);
+    return nanos == 0 ? 0.0 : getBytes(stage) * 1000.0 / nanos;
+  }
+
+  /** A line per stage that ran, for the end of the run. */
+  public String getSummary() {
+    StringBuilder sb = new StringBuilder("Stages (wall time ")
+        .append((System.nanoTime() - startNanos) / 1000000).append(" ms):");
+    for (Stage stage : Stage.values()) {
+      LatencyHistogram h = getHistogram(stage);
+      if (h.getCount() == 0) {
+        continue;
+      }
+      sb.append("\n  ").append(stage.getLabel()).append(": ")
+          .append(h.getCount()).append(" x, ")
+          .append(getNanos(stage) / 1000000).append(" ms")
+          .append(" (p50 ").append(h.getPercentile(0.5) / 1000)
+          .append(" us, p99 ").append(h.getPercentile(0.99) / 1000)
+          .append(" us, max ").append(h.getMax() / 1000).append(" us)");
+      if (getBytes(stage) > 0) {
+        sb.append(", ").append(getBytes(stage)).append(" bytes, ")
+            .append(String.format(Locale.ROOT, "%.1f",
+                megabytesPerSecond(stage)))
+            .append(" MB/s");
+      }
+      if (getNodes(stage) > 0) {
+        sb.append(", ").append(getNodes(stage)).append(" nodes");
+      }
+      if (getLeaves(stage) > 0) {
+        sb.append(", ").append(getLeaves(stage)).append(" leaves");
+      }
+      if (getResults(stage) > 0) {
+        sb.append(", ").append(getResults(stage)).append(" results");
+      }
+    }
+    return sb.toString();
+  }
+
+  /** The totals and histograms of every stage as a JSON object. */
+  public String toJson() {
+    StringBuilder sb = new StringBuilder("{\n  \"wallMillis\": ")
+        .append((System.nanoTime() - startNanos) / 1000000)
+        .append(",\n  \"stages\": [");
+    boolean first = true;
+    for (Stage stage : Stage.values()) {
+      LatencyHistogram h = getHistogram(stage);
+      sb.append(first ? "\n" : ",\n");
+      first = false;
+      sb.append("    {\"stage\": \"").append(stage.getLabel())
+          .append("\", \"count\": ").append(h.getCount())
+          .append(", \"totalNanos\": ").append(getNanos(stage))
+          .append(", \"bytes\": ").append(getBytes(stage))
+          .append(", \"nodes\": ").append(getNodes(stage))
+          .append(", \"leaves\": ").append(getLeaves(stage))
+          .append(", \"results\": ").append(getResults(stage))
+          .append(", \"megabytesPerSecond\": ")
+          .append(String.format(Locale.ROOT, "%.3f",
+              megabytesPerSecond(stage)))
+          .append(", \"p50Nanos\": ").append(h.getPercentile(0.5))
+          .append(", \"p90Nanos\": ").append(h.getPercentile(0.9))
+          .append(", \"p99Nanos\": ").append(h.getPercentile(0.99))
+          .append(", \"maxNanos\": ").append(h.getMax())
+          .append(",\n     \"histogram\": [");
+      // non-empty buckets only, by their upper bound
+      boolean firstBucket = true;
+      for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+        long n = h.getBucketCount(i);
+        if (n > 0) {
+          sb.append(firstBucket ? "" : ", ")
+              .append("{\"upToNanos\": ")
+              .append(LatencyHistogram.upperBound(i))
+              .append(", \"count\": ").append(n).append('}');
+          firstBucket = false;
+        }
+      }
+      sb.append("]}");
+    }
+    return sb.append("\n  ]\n}\n").toString();
+  }
+
+  public void writeJsonReport(File file) throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) {
+      dir.mkdirs();
+    }
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write(toJson());
+    } finally {
+      out.close();
+    }
+  }
+
+}
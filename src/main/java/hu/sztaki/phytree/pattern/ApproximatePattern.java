@@ -0,0 +1,186 @@
+package hu.sztaki.phytree.pattern;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A literal pattern that may occur with at most k differences, either
+ * substitutions only (Hamming distance) or substitutions, insertions and
+ * deletions (edit distance).
+ *
+ * Both modes are bit-parallel, the pattern (at most 64 residues) fits in one
+ * machine word: Hamming distance is matched with Shift-And extended to k + 1
+ * state words (Wu-Manber), edit distance with Myers' bit-vector algorithm.
+ * Before that, the sequence is filtered by the exact scanner: if the pattern
+ * is cut into k + 1 pieces, every approximate occurrence contains one of them
+ * unchanged, so sequences without any of the pieces are rejected at the
+ * speed of exact matching.
+ */
+public class ApproximatePattern extends SequencePattern {
+
+  public static final int MAX_LENGTH = 64;
+
+  public enum Mode {
+    HAMMING, EDIT
+  }
+
+  // shorter filter pieces would let through almost every sequence
+  private static final int MIN_PIECE_LENGTH = 2;
+
+  private final String literal;
+  private final int maxMismatches;
+  private final Mode mode;
+  private final int length;
+  // peq[b] has bit i set if the i-th residue of the pattern is b
+  private final long[] peq = new long[256];
+  private final long highBit;
+  private final PatternScanner[] pieces;
+  // Shift-And state words of the calling thread, reused by every match
+  private final ThreadLocal<long[]> scratch = new ThreadLocal<long[]>();
+
+  public ApproximatePattern(String literal, int maxMismatches, Mode mode) {
+    super("approx:" + mode.name().toLowerCase() + ":" + maxMismatches + ":"
+        + literal);
+    if (literal.length() == 0 || literal.length() > MAX_LENGTH) {
+      throw new IllegalArgumentException("Approximate patterns must have 1 to "
+          + MAX_LENGTH + " residues: " + literal);
+    }
+    if (maxMismatches < 0) {
+      throw new IllegalArgumentException("Invalid maxMismatches: "
+          + maxMismatches);
+    }
+    this.literal = literal;
+    this.maxMismatches = maxMismatches;
+    this.mode = mode;
+    byte[] bytes;
+    try {
+      bytes = literal.getBytes("ISO-8859-1");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    length = bytes.length;
+    for (int i = 0; i < length; i++) {
+      peq[bytes[i] & 0xFF] |= 1L << i;
+    }
+    highBit = 1L << (length - 1);
+
+    int pieceLength = length / (maxMismatches + 1);
+    if (pieceLength >= MIN_PIECE_LENGTH) {
+      pieces = new PatternScanner[maxMismatches + 1];
+      for (int i = 0; i <= maxMismatches; i++) {
+        int end = i == maxMismatches ? length : (i + 1) * pieceLength;
+        byte[] piece = new byte[end - i * pieceLength];
+        System.arraycopy(bytes, i * pieceLength, piece, 0, piece.length);
+        pieces[i] = new PatternScanner(piece);
+      }
+    } else {
+      pieces = null;
+    }
+  }
+
+  public String getLiteral() {
+    return literal;
+  }
+
+  public int getMaxMismatches() {
+    return maxMismatches;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  @Override
+  public boolean matches(ByteBuffer residues, int from, int to) {
+    if (mode == Mode.HAMMING && to - from < length) {
+      return false;
+    }
+    if (pieces != null && !containsPiece(residues, from, to)) {
+      return false;
+    }
+    if (mode == Mode.HAMMING) {
+      return matchesHamming(residues, from, to);
+    }
+    return matchesEdit(residues, from, to);
+  }
+
+  private boolean containsPiece(ByteBuffer residues, int from, int to) {
+    for (PatternScanner piece : pieces) {
+      if (piece.contains(residues, from, to)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Shift-And: bit i of state[d] is set if the first i + 1 residues of the
+  // pattern end at the current position with at most d substitutions
+  private boolean matchesHamming(ByteBuffer residues, int from, int to) {
+    int k = maxMismatches;
+    if (k == 0) {
+      long state = 0;
+      for (int i = from; i < to; i++) {
+        state = ((state << 1) | 1L) & peq[residues.get(i) & 0xFF];
+        if ((state & highBit) != 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+    long[] state = scratch.get();
+    if (state == null) {
+      state = new long[k + 1];
+      scratch.set(state);
+    } else {
+      Arrays.fill(state, 0L);
+    }
+    for (int i = from; i < to; i++) {
+      long eq = peq[residues.get(i) & 0xFF];
+      long previous = state[0];
+      state[0] = ((previous << 1) | 1L) & eq;
+      for (int d = 1; d <= k; d++) {
+        long current = state[d];
+        state[d] = (((current << 1) | 1L) & eq) | ((previous << 1) | 1L);
+        previous = current;
+      }
+      if ((state[k] & highBit) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Myers: the vertical deltas of the last dynamic programming column are
+  // kept in pv/mv, score is the edit distance of the whole pattern to the
+  // best substring ending at the current position
+  private boolean matchesEdit(ByteBuffer residues, int from, int to) {
+    if (length <= maxMismatches) {
+      return true;
+    }
+    long pv = -1L;
+    long mv = 0;
+    int score = length;
+    for (int i = from; i < to; i++) {
+      long eq = peq[residues.get(i) & 0xFF];
+      long xv = eq | mv;
+      long xh = (((eq & pv) + pv) ^ pv) | eq;
+      long ph = mv | ~(xh | pv);
+      long mh = pv & xh;
+      if ((ph & highBit) != 0) {
+        score++;
+      } else if ((mh & highBit) != 0) {
+        score--;
+      }
+      ph <<= 1;
+      mh <<= 1;
+      pv = mh | ~(xv | ph);
+      mv = ph & xv;
+      if (score <= maxMismatches) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
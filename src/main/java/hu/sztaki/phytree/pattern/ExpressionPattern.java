@@ -0,0 +1,359 @@
+package hu.sztaki.phytree.pattern;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.index.LeafSetPattern;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A boolean expression over literals and motifs, e.g.
+ * HD AND NOT (DE OR KK) or prosite(C-x(2)-C) & !"AND".
+ *
+ * Operators, from the loosest: OR (|), AND (&), NOT (!), with parentheses
+ * for grouping. An atom is a literal (a word of residues, quoted if it is
+ * one of the keywords) or a PROSITE motif written as prosite(...).
+ *
+ * For a tree, every atom is evaluated once into the set of matching leaves
+ * (from the sequence index of the tree if it has one), and the expression
+ * is computed from these sets with word-at-a-time bit set operations; the
+ * result is a {@link LeafSetPattern}. A single sequence (e.g. one that does
+ * not belong to the tree) is matched by evaluating the expression on it.
+ */
+public class ExpressionPattern extends SequencePattern {
+
+  private final String expression;
+  private final List<SequencePattern> atoms;
+  private final Node root;
+
+  private ExpressionPattern(String expression, List<SequencePattern> atoms,
+      Node root) {
+    super("expr:" + root);
+    this.expression = expression;
+    this.atoms = atoms;
+    this.root = root;
+  }
+
+  public static ExpressionPattern parse(String expression) {
+    return parse(expression, MotifPattern.DEFAULT_MAX_DFA_STATES);
+  }
+
+  public static ExpressionPattern parse(String expression, int maxDfaStates) {
+    Parser parser = new Parser(expression, maxDfaStates);
+    Node root = parser.parseOr();
+    parser.skipSpaces();
+    if (parser.pos < expression.length()) {
+      throw parser.error("Unexpected '" + expression.charAt(parser.pos) + "'");
+    }
+    return new ExpressionPattern(expression, parser.atoms, root);
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  public List<SequencePattern> getAtoms() {
+    return atoms;
+  }
+
+  @Override
+  public boolean matches(ByteBuffer residues, int from, int to) {
+    return root.matches(residues, from, to);
+  }
+
+  /**
+   * Evaluates the expression for the leaves of the tree, each atom once.
+   * Leaves are identified by the index of their FASTA item; leaves without
+   * one are left to {@link #matches(FastaItem)} of the original expression.
+   */
+  @Override
+  public SequencePattern prepare(Tree tree) {
+    List<FastaItem> leafItems = new ArrayList<FastaItem>();
+    BitSet universe = new BitSet();
+    for (TreeNode node : tree.nodes) {
+      FastaItem item = node.getSequence();
+      if (node.isLeaf() && item != null && item.getIndex() >= 0) {
+        leafItems.add(item);
+        universe.set(item.getIndex());
+      }
+    }
+    BitSet[] atomSets = new BitSet[atoms.size()];
+    for (int a = 0; a < atomSets.length; a++) {
+      SequencePattern atom = atoms.get(a).prepare(tree);
+      if (atom instanceof LeafSetPattern) {
+        atomSets[a] = (BitSet) ((LeafSetPattern) atom).getItems().clone();
+        atomSets[a].and(universe);
+      } else {
+        atomSets[a] = new BitSet();
+        for (FastaItem item : leafItems) {
+          if (atom.matches(item)) {
+            atomSets[a].set(item.getIndex());
+          }
+        }
+      }
+    }
+    return new LeafSetPattern(this, root.evaluate(atomSets, universe),
+        universe.length());
+  }
+
+  private abstract static class Node {
+    abstract boolean matches(ByteBuffer residues, int from, int to);
+
+    // a new set, the arguments are not modified
+    abstract BitSet evaluate(BitSet[] atomSets, BitSet universe);
+  }
+
+  private static final class Atom extends Node {
+    private final SequencePattern pattern;
+    private final int index;
+
+    Atom(SequencePattern pattern, int index) {
+      this.pattern = pattern;
+      this.index = index;
+    }
+
+    @Override
+    boolean matches(ByteBuffer residues, int from, int to) {
+      return pattern.matches(residues, from, to);
+    }
+
+    @Override
+    BitSet evaluate(BitSet[] atomSets, BitSet universe) {
+      return (BitSet) atomSets[index].clone();
+    }
+
+    @Override
+    public String toString() {
+      return "\"" + pattern.getKey() + "\"";
+    }
+  }
+
+  private static final class Not extends Node {
+    private final Node operand;
+
+    Not(Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    boolean matches(ByteBuffer residues, int from, int to) {
+      return !operand.matches(residues, from, to);
+    }
+
+    @Override
+    BitSet evaluate(BitSet[] atomSets, BitSet universe) {
+      BitSet result = (BitSet) universe.clone();
+      result.andNot(operand.evaluate(atomSets, universe));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "NOT " + operand;
+    }
+  }
+
+  private static final class And extends Node {
+    private final Node left;
+    private final Node right;
+
+    And(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    boolean matches(ByteBuffer residues, int from, int to) {
+      return left.matches(residues, from, to)
+          && right.matches(residues, from, to);
+    }
+
+    @Override
+    BitSet evaluate(BitSet[] atomSets, BitSet universe) {
+      BitSet result = left.evaluate(atomSets, universe);
+      result.and(right.evaluate(atomSets, universe));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "(" + left + " AND " + right + ")";
+    }
+  }
+
+  private static final class Or extends Node {
+    private final Node left;
+    private final Node right;
+
+    Or(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    boolean matches(ByteBuffer residues, int from, int to) {
+      return left.matches(residues, from, to)
+          || right.matches(residues, from, to);
+    }
+
+    @Override
+    BitSet evaluate(BitSet[] atomSets, BitSet universe) {
+      BitSet result = left.evaluate(atomSets, universe);
+      result.or(right.evaluate(atomSets, universe));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "(" + left + " OR " + right + ")";
+    }
+  }
+
+  // recursive descent parser, atoms with the same key are shared
+  private static final class Parser {
+    private final String text;
+    private final int maxDfaStates;
+    private final List<SequencePattern> atoms = new ArrayList<SequencePattern>();
+    private final List<Atom> atomNodes = new ArrayList<Atom>();
+    private int pos = 0;
+
+    Parser(String text, int maxDfaStates) {
+      this.text = text;
+      this.maxDfaStates = maxDfaStates;
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + pos
+          + " of expression " + text);
+    }
+
+    void skipSpaces() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    // consumes the operator if it comes next
+    boolean accept(String keyword, char symbol) {
+      skipSpaces();
+      if (pos < text.length() && text.charAt(pos) == symbol) {
+        pos++;
+        return true;
+      }
+      if (text.startsWith(keyword, pos)) {
+        int end = pos + keyword.length();
+        if (end == text.length() || !isWordChar(text.charAt(end))) {
+          pos = end;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    Node parseOr() {
+      Node node = parseAnd();
+      while (accept("OR", '|')) {
+        node = new Or(node, parseAnd());
+      }
+      return node;
+    }
+
+    Node parseAnd() {
+      Node node = parseNot();
+      while (accept("AND", '&')) {
+        node = new And(node, parseNot());
+      }
+      return node;
+    }
+
+    Node parseNot() {
+      if (accept("NOT", '!')) {
+        return new Not(parseNot());
+      }
+      skipSpaces();
+      if (pos < text.length() && text.charAt(pos) == '(') {
+        pos++;
+        Node node = parseOr();
+        skipSpaces();
+        if (pos >= text.length() || text.charAt(pos) != ')') {
+          throw error("Missing ')'");
+        }
+        pos++;
+        return node;
+      }
+      return parseAtom();
+    }
+
+    Node parseAtom() {
+      skipSpaces();
+      if (pos >= text.length()) {
+        throw error("Missing literal or motif");
+      }
+      if (text.charAt(pos) == '"') {
+        int end = text.indexOf('"', pos + 1);
+        if (end < 0) {
+          throw error("Missing '\"'");
+        }
+        String literal = text.substring(pos + 1, end);
+        pos = end + 1;
+        return atom(LiteralPattern.forLiteral(literal));
+      }
+      int start = pos;
+      while (pos < text.length() && isWordChar(text.charAt(pos))) {
+        pos++;
+      }
+      String word = text.substring(start, pos);
+      if (word.length() == 0) {
+        throw error("Unexpected '" + text.charAt(pos) + "'");
+      }
+      if (word.equals("prosite") && pos < text.length()
+          && text.charAt(pos) == '(') {
+        return atom(new MotifPattern(readParenthesized(), maxDfaStates));
+      }
+      if (word.equals("AND") || word.equals("OR") || word.equals("NOT")) {
+        throw error("Unexpected " + word);
+      }
+      return atom(LiteralPattern.forLiteral(word));
+    }
+
+    // the text between the parenthesis at pos and its pair
+    String readParenthesized() {
+      int depth = 0;
+      int start = pos + 1;
+      for (; pos < text.length(); pos++) {
+        char c = text.charAt(pos);
+        if (c == '(') {
+          depth++;
+        } else if (c == ')') {
+          depth--;
+          if (depth == 0) {
+            pos++;
+            return text.substring(start, pos - 1);
+          }
+        }
+      }
+      throw error("Missing ')'");
+    }
+
+    Atom atom(SequencePattern pattern) {
+      for (Atom a : atomNodes) {
+        if (a.pattern.getKey().equals(pattern.getKey())) {
+          return a;
+        }
+      }
+      Atom a = new Atom(pattern, atoms.size());
+      atoms.add(pattern);
+      atomNodes.add(a);
+      return a;
+    }
+
+    static boolean isWordChar(char c) {
+      return Character.isLetter(c) || c == '*';
+    }
+  }
+
+}
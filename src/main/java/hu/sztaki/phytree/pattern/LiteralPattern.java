@@ -0,0 +1,52 @@
+package hu.sztaki.phytree.pattern;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A plain substring of the sequence, this is what seqPattern has always
+ * meant. Its key is the literal itself.
+ */
+public class LiteralPattern extends SequencePattern {
+
+  // compiled literals of the (few) patterns used in a run
+  private static final ConcurrentHashMap<String, LiteralPattern> CACHE =
+      new ConcurrentHashMap<String, LiteralPattern>();
+  private static final int MAX_CACHED = 1024;
+
+  private final String literal;
+  private final PatternScanner scanner;
+
+  public LiteralPattern(String literal) {
+    super(literal);
+    this.literal = literal;
+    try {
+      scanner = new PatternScanner(literal.getBytes("ISO-8859-1"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Returns a (possibly cached) pattern for the literal. */
+  public static LiteralPattern forLiteral(String literal) {
+    LiteralPattern pattern = CACHE.get(literal);
+    if (pattern == null) {
+      pattern = new LiteralPattern(literal);
+      if (CACHE.size() < MAX_CACHED) {
+        CACHE.put(literal, pattern);
+      }
+    }
+    return pattern;
+  }
+
+  public String getLiteral() {
+    return literal;
+  }
+
+  @Override
+  public boolean matches(ByteBuffer residues, int from, int to) {
+    return scanner.contains(residues, from, to);
+  }
+
+}
@@ -0,0 +1,376 @@
+package hu.sztaki.phytree.pattern;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A PROSITE-style motif, e.g. "H-x(2)-[DE]-x-H" or "<M-{P}-x(2,4)-[ST]>".
+ *
+ * Supported syntax: elements separated by '-'; an element is an upper case
+ * residue, 'x' (any residue), [ABC] (any of the listed residues) or {ABC}
+ * (any residue but the listed ones), optionally followed by a repetition
+ * (n) or (n,m). A leading '<' anchors the motif to the start, a trailing '>'
+ * to the end of the sequence; a trailing '.' is ignored. Residues match case
+ * insensitively.
+ *
+ * The motif is compiled once into a byte level DFA (over classes of
+ * equivalent bytes), which matches a sequence in one allocation free pass.
+ * If the DFA would have more than the given number of states, the motif is
+ * matched by simulating the underlying NFA with bit sets instead.
+ */
+public class MotifPattern extends SequencePattern {
+
+  public static final int DEFAULT_MAX_DFA_STATES = 4096;
+
+  private final String motif;
+  private final boolean anchorStart;
+  private final boolean anchorEnd;
+
+  // NFA: state i means that the first i positions of the motif are matched,
+  // sets of states are bit sets of 'words' longs
+  private final int positions;
+  private final int words;
+  private final int[] byteClass = new int[256];
+  private final int numClasses;
+  // classMasks[c] has bit i set if position i accepts the bytes of class c
+  private final long[][] classMasks;
+  // positions that may be skipped (the optional part of x(n,m))
+  private final long[] optionalMask;
+
+  // DFA, null if it would have been too big
+  private final int[] transitions;
+  private final boolean[] accepting;
+  private final int startState;
+  private final int deadState;
+
+  private final ThreadLocal<long[][]> nfaScratch = new ThreadLocal<long[][]>();
+
+  public MotifPattern(String motif) {
+    this(motif, DEFAULT_MAX_DFA_STATES);
+  }
+
+  public MotifPattern(String motif, int maxDfaStates) {
+    super("motif:" + motif);
+    this.motif = motif;
+
+    String m = motif.replaceAll("\\s", "");
+    if (m.endsWith(".")) {
+      m = m.substring(0, m.length() - 1);
+    }
+    anchorStart = m.startsWith("<");
+    if (anchorStart) {
+      m = m.substring(1);
+    }
+    anchorEnd = m.endsWith(">");
+    if (anchorEnd) {
+      m = m.substring(0, m.length() - 1);
+    }
+
+    // parse elements and expand repetitions into positions
+    List<boolean[]> elementAccepts = new ArrayList<boolean[]>();
+    List<Integer> positionElements = new ArrayList<Integer>();
+    List<Boolean> positionOptional = new ArrayList<Boolean>();
+    if (m.length() > 0) {
+      for (String token : m.split("-", -1)) {
+        int[] repeat = new int[2];
+        boolean[] accepts = parseElement(token, repeat);
+        int element = elementAccepts.size();
+        elementAccepts.add(accepts);
+        for (int i = 0; i < repeat[1]; i++) {
+          positionElements.add(element);
+          positionOptional.add(i >= repeat[0]);
+        }
+      }
+    }
+    positions = positionElements.size();
+    words = (positions + 1 + 63) / 64;
+
+    // bytes accepted by exactly the same elements form one class
+    Map<BitSet, Integer> classIds = new HashMap<BitSet, Integer>();
+    List<BitSet> classSignatures = new ArrayList<BitSet>();
+    for (int b = 0; b < 256; b++) {
+      BitSet signature = new BitSet();
+      for (int e = 0; e < elementAccepts.size(); e++) {
+        if (elementAccepts.get(e)[b]) {
+          signature.set(e);
+        }
+      }
+      Integer id = classIds.get(signature);
+      if (id == null) {
+        id = classSignatures.size();
+        classIds.put(signature, id);
+        classSignatures.add(signature);
+      }
+      byteClass[b] = id;
+    }
+    numClasses = classSignatures.size();
+    classMasks = new long[numClasses][words];
+    optionalMask = new long[words];
+    for (int p = 0; p < positions; p++) {
+      for (int c = 0; c < numClasses; c++) {
+        if (classSignatures.get(c).get(positionElements.get(p))) {
+          classMasks[c][p >>> 6] |= 1L << p;
+        }
+      }
+      if (positionOptional.get(p)) {
+        optionalMask[p >>> 6] |= 1L << p;
+      }
+    }
+
+    // subset construction
+    List<long[]> states = new ArrayList<long[]>();
+    Map<StateKey, Integer> stateIds = new HashMap<StateKey, Integer>();
+    long[] start = new long[words];
+    start[0] = 1L;
+    closure(start);
+    states.add(start);
+    stateIds.put(new StateKey(start), 0);
+    int[] trans = new int[16 * numClasses];
+    boolean tooBig = false;
+    for (int s = 0; s < states.size() && !tooBig; s++) {
+      long[] from = states.get(s);
+      for (int c = 0; c < numClasses; c++) {
+        long[] to = new long[words];
+        if (!anchorEnd && isAccepting(from)) {
+          // a match was found already, the rest of the input is irrelevant
+          System.arraycopy(from, 0, to, 0, words);
+        } else {
+          step(from, c, to);
+        }
+        StateKey key = new StateKey(to);
+        Integer id = stateIds.get(key);
+        if (id == null) {
+          if (states.size() >= maxDfaStates) {
+            tooBig = true;
+            break;
+          }
+          id = states.size();
+          states.add(to);
+          stateIds.put(key, id);
+        }
+        if ((s + 1) * numClasses > trans.length) {
+          trans = Arrays.copyOf(trans, trans.length * 2);
+        }
+        trans[s * numClasses + c] = id;
+      }
+    }
+    if (tooBig) {
+      transitions = null;
+      accepting = null;
+      startState = -1;
+      deadState = -1;
+    } else {
+      transitions = Arrays.copyOf(trans, states.size() * numClasses);
+      accepting = new boolean[states.size()];
+      int dead = -1;
+      for (int s = 0; s < states.size(); s++) {
+        accepting[s] = isAccepting(states.get(s));
+        if (isEmpty(states.get(s))) {
+          dead = s;
+        }
+      }
+      startState = 0;
+      deadState = dead;
+    }
+  }
+
+  // parses one element, its repetition is returned in repeat ({min, max})
+  private boolean[] parseElement(String token, int[] repeat) {
+    if (token.length() == 0) {
+      throw new IllegalArgumentException("Empty element in motif " + motif);
+    }
+    boolean[] accepts = new boolean[256];
+    int end;
+    char c = token.charAt(0);
+    if (c == 'x') {
+      Arrays.fill(accepts, true);
+      end = 1;
+    } else if (c == '[' || c == '{') {
+      char close = c == '[' ? ']' : '}';
+      end = token.indexOf(close);
+      if (end < 2) {
+        throw new IllegalArgumentException("Invalid element " + token
+            + " in motif " + motif);
+      }
+      boolean[] listed = new boolean[256];
+      for (int i = 1; i < end; i++) {
+        setResidue(listed, token.charAt(i), token);
+      }
+      for (int b = 0; b < 256; b++) {
+        accepts[b] = (c == '[') == listed[b];
+      }
+      end++;
+    } else {
+      setResidue(accepts, c, token);
+      end = 1;
+    }
+    repeat[0] = 1;
+    repeat[1] = 1;
+    if (end < token.length()) {
+      if (token.charAt(end) != '(' || !token.endsWith(")")) {
+        throw new IllegalArgumentException("Invalid element " + token
+            + " in motif " + motif);
+      }
+      String[] bounds = token.substring(end + 1, token.length() - 1).split(",");
+      try {
+        repeat[0] = Integer.parseInt(bounds[0]);
+        repeat[1] = bounds.length > 1 ? Integer.parseInt(bounds[1]) : repeat[0];
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid repetition in element "
+            + token + " of motif " + motif);
+      }
+      if (bounds.length > 2 || repeat[0] < 0 || repeat[1] < repeat[0]) {
+        throw new IllegalArgumentException("Invalid repetition in element "
+            + token + " of motif " + motif);
+      }
+    }
+    return accepts;
+  }
+
+  private void setResidue(boolean[] accepts, char c, String token) {
+    if (c < 'A' || c > 'Z') {
+      throw new IllegalArgumentException("Invalid residue '" + c
+          + "' in element " + token + " of motif " + motif);
+    }
+    accepts[c] = true;
+    accepts[Character.toLowerCase(c)] = true;
+  }
+
+  private boolean isAccepting(long[] set) {
+    return (set[positions >>> 6] & (1L << positions)) != 0;
+  }
+
+  private static boolean isEmpty(long[] set) {
+    for (long w : set) {
+      if (w != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // one NFA step on a byte of the given class
+  private void step(long[] from, int cls, long[] to) {
+    long[] mask = classMasks[cls];
+    long carry = 0;
+    for (int w = 0; w < words; w++) {
+      long v = from[w] & mask[w];
+      to[w] = (v << 1) | carry;
+      carry = v >>> 63;
+    }
+    if (!anchorStart) {
+      // a new match can start anywhere
+      to[0] |= 1L;
+    }
+    closure(to);
+  }
+
+  // adds the states reachable by skipping optional positions
+  private void closure(long[] set) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      long carry = 0;
+      for (int w = 0; w < words; w++) {
+        long v = set[w] & optionalMask[w];
+        long add = (v << 1) | carry;
+        carry = v >>> 63;
+        if ((add & ~set[w]) != 0) {
+          set[w] |= add;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  public String getMotif() {
+    return motif;
+  }
+
+  /** True if the motif is matched by a DFA (and not the NFA fallback). */
+  public boolean isDeterministic() {
+    return transitions != null;
+  }
+
+  public int getDfaStateCount() {
+    return accepting == null ? 0 : accepting.length;
+  }
+
+  @Override
+  public boolean matches(ByteBuffer residues, int from, int to) {
+    if (transitions == null) {
+      return simulate(residues, from, to);
+    }
+    int s = startState;
+    if (!anchorEnd && accepting[s]) {
+      return true;
+    }
+    int[] t = transitions;
+    int nc = numClasses;
+    for (int i = from; i < to; i++) {
+      s = t[s * nc + byteClass[residues.get(i) & 0xFF]];
+      if (s == deadState) {
+        return false;
+      }
+      if (!anchorEnd && accepting[s]) {
+        return true;
+      }
+    }
+    return accepting[s];
+  }
+
+  private boolean simulate(ByteBuffer residues, int from, int to) {
+    long[][] scratch = nfaScratch.get();
+    if (scratch == null) {
+      scratch = new long[2][words];
+      nfaScratch.set(scratch);
+    }
+    long[] current = scratch[0];
+    long[] next = scratch[1];
+    Arrays.fill(current, 0);
+    current[0] = 1L;
+    closure(current);
+    if (!anchorEnd && isAccepting(current)) {
+      return true;
+    }
+    for (int i = from; i < to; i++) {
+      step(current, byteClass[residues.get(i) & 0xFF], next);
+      long[] tmp = current;
+      current = next;
+      next = tmp;
+      if (!anchorEnd && isAccepting(current)) {
+        return true;
+      }
+      if (anchorStart && isEmpty(current)) {
+        return false;
+      }
+    }
+    return isAccepting(current);
+  }
+
+  private static final class StateKey {
+    private final long[] set;
+    private final int hash;
+
+    StateKey(long[] set) {
+      this.set = set;
+      this.hash = Arrays.hashCode(set);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StateKey && Arrays.equals(set, ((StateKey) o).set);
+    }
+  }
+
+}
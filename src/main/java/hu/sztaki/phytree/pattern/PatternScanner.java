@@ -0,0 +1,109 @@
+package hu.sztaki.phytree.pattern;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds a literal amino-acid pattern in a range of a byte buffer.
+ *
+ * The scan compares the first and the last residue of the pattern at 8
+ * consecutive start positions at once, using one 64 bit word per comparison
+ * (SWAR: the 8 bytes of a long are the 8 lanes). Only the positions where both
+ * ends match are verified byte by byte. Short ranges, the tail of a range and
+ * big endian buffers are handled by a plain scalar loop, which can also be
+ * forced for every scan with the phytree.scalarScan system property.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class PatternScanner {
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+
+  private static final boolean SCALAR_ONLY = Boolean.getBoolean("phytree.scalarScan");
+
+  private final byte[] pattern;
+  private final long firstBroadcast;
+  private final long lastBroadcast;
+
+  public PatternScanner(byte[] pattern) {
+    this.pattern = pattern.clone();
+    if (pattern.length > 0) {
+      firstBroadcast = (pattern[0] & 0xFFL) * ONES;
+      lastBroadcast = (pattern[pattern.length - 1] & 0xFFL) * ONES;
+    } else {
+      firstBroadcast = 0;
+      lastBroadcast = 0;
+    }
+  }
+
+  public int length() {
+    return pattern.length;
+  }
+
+  public boolean contains(ByteBuffer buf, int from, int to) {
+    return indexOf(buf, from, to) >= 0;
+  }
+
+  /**
+   * Returns the absolute index of the first occurrence of the pattern that
+   * lies entirely in [from, to) of the buffer, or -1. Absolute gets are used
+   * only, the position and limit of the buffer are not touched.
+   */
+  public int indexOf(ByteBuffer buf, int from, int to) {
+    int m = pattern.length;
+    if (m == 0) {
+      return from;
+    }
+    int lastStart = to - m;
+    if (lastStart < from) {
+      return -1;
+    }
+    int i = from;
+    if (!SCALAR_ONLY && buf.order() == ByteOrder.LITTLE_ENDIAN) {
+      int lastOffset = m - 1;
+      // both words read at i and i + m - 1 must end before 'to'
+      while (i + 7 <= lastStart) {
+        long x = (buf.getLong(i) ^ firstBroadcast)
+            | (buf.getLong(i + lastOffset) ^ lastBroadcast);
+        // high bit set in the lanes where x is zero (and maybe in some lanes
+        // right above one, those are ruled out by the verification)
+        long candidates = (x - ONES) & ~x & HIGHS;
+        while (candidates != 0) {
+          int start = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+          if (matchesAt(buf, start)) {
+            return start;
+          }
+          candidates &= candidates - 1;
+        }
+        i += 8;
+      }
+    }
+    return scalarIndexOf(buf, i, lastStart);
+  }
+
+  private int scalarIndexOf(ByteBuffer buf, int from, int lastStart) {
+    byte first = pattern[0];
+    for (int i = from; i <= lastStart; i++) {
+      if (buf.get(i) == first && matchesAt(buf, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean matchesAt(ByteBuffer buf, int start) {
+    for (int j = 0; j < pattern.length; j++) {
+      if (buf.get(start + j) != pattern[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Wraps a residue array so it can be scanned by {@link #indexOf}. */
+  public static ByteBuffer wrap(byte[] residues) {
+    return ByteBuffer.wrap(residues).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+}
@@ -0,0 +1,57 @@
+package hu.sztaki.phytree.pattern;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.tree.Tree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A criterion a leaf sequence either matches or not, e.g. a literal
+ * amino-acid pattern or a PROSITE-style motif. Patterns are compiled once per
+ * run and are shared by every tree and thread, so implementations must be
+ * immutable.
+ *
+ * The key identifies the pattern in the per node caches of
+ * {@link hu.sztaki.phytree.tree.TreeNode#getLeafNumWithPattern(SequencePattern)},
+ * two patterns with the same key must match the same sequences.
+ */
+public abstract class SequencePattern {
+
+  private final String key;
+
+  protected SequencePattern(String key) {
+    this.key = key;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Matches the residues [from, to) of the buffer (absolute indices, ASCII
+   * bytes). The position and limit of the buffer must not be changed.
+   */
+  public abstract boolean matches(ByteBuffer residues, int from, int to);
+
+  public boolean matches(FastaItem item) {
+    return item.matches(this);
+  }
+
+  /**
+   * Returns a pattern that matches the same sequences, specialised for
+   * searching the given tree, e.g. answered from the sequence index of the
+   * tree. It must have the same key.
+   */
+  public SequencePattern prepare(Tree tree) {
+    if (tree.getSequenceIndex() != null) {
+      return tree.getSequenceIndex().prepare(this);
+    }
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+
+}
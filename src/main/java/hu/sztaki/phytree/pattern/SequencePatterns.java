@@ -0,0 +1,93 @@
+package hu.sztaki.phytree.pattern;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Compiles the seqPattern property into a {@link SequencePattern}, according
+ * to the patternType property:
+ *
+ *  - literal (default): seqPattern is a plain substring, e.g. HD
+ *  - prosite: seqPattern is a PROSITE-style motif, e.g. H-x(2)-[DE]-x-H
+ *    (maxDfaStates limits the size of the compiled automaton)
+ *  - approx: seqPattern is a substring of at most 64 residues, which may occur
+ *    with up to maxMismatches substitutions (approxMode = hamming) or
+ *    substitutions, insertions and deletions (approxMode = edit)
+ *  - expression: seqPattern combines literals and motifs with AND, OR and
+ *    NOT, e.g. HD AND NOT (DE OR prosite(K-x-K))
+ */
+public final class SequencePatterns {
+
+  public static final String LITERAL = "literal";
+  public static final String PROSITE = "prosite";
+  public static final String APPROX = "approx";
+  public static final String EXPRESSION = "expression";
+
+  public static final int DEFAULT_MAX_MISMATCHES = 1;
+
+  private SequencePatterns() {
+  }
+
+  /**
+   * Returns the pattern configured by seqPattern/patternType, or null if
+   * there is no seqPattern.
+   */
+  public static SequencePattern fromConfig(Configuration conf) {
+    if (!conf.containsKey("seqPattern")) {
+      return null;
+    }
+    String type = LITERAL;
+    if (conf.containsKey("patternType")) {
+      type = conf.getString("patternType").trim().toLowerCase();
+    }
+    return compile(getPatternString(conf), type, conf);
+  }
+
+  // the configuration splits values at commas, e.g. in x(2,4)
+  static String getPatternString(Configuration conf) {
+    String[] parts = conf.getStringArray("seqPattern");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < parts.length; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(parts[i]);
+    }
+    return sb.toString().trim();
+  }
+
+  public static SequencePattern compile(String pattern, String type,
+      Configuration conf) {
+    if (type.equals(LITERAL)) {
+      return LiteralPattern.forLiteral(pattern);
+    }
+    if (type.equals(PROSITE)) {
+      return new MotifPattern(pattern,
+          conf.getInt("maxDfaStates", MotifPattern.DEFAULT_MAX_DFA_STATES));
+    }
+    if (type.equals(APPROX)) {
+      return new ApproximatePattern(pattern,
+          conf.getInt("maxMismatches", DEFAULT_MAX_MISMATCHES),
+          getApproxMode(conf));
+    }
+    if (type.equals(EXPRESSION)) {
+      return ExpressionPattern.parse(pattern,
+          conf.getInt("maxDfaStates", MotifPattern.DEFAULT_MAX_DFA_STATES));
+    }
+    throw new IllegalArgumentException("Unknown patternType: " + type);
+  }
+
+  private static ApproximatePattern.Mode getApproxMode(Configuration conf) {
+    if (!conf.containsKey("approxMode")) {
+      return ApproximatePattern.Mode.HAMMING;
+    }
+    String mode = conf.getString("approxMode").trim().toLowerCase();
+    if (mode.equals("hamming")) {
+      return ApproximatePattern.Mode.HAMMING;
+    }
+    if (mode.equals("edit")) {
+      return ApproximatePattern.Mode.EDIT;
+    }
+    throw new IllegalArgumentException("Unknown approxMode: " + mode);
+  }
+
+}
@@ -0,0 +1,145 @@
+package hu.sztaki.phytree.stats;
+
+/**
+ * One sided tests of whether a subtree has more pattern leaves than expected
+ * from the whole tree: the p-value is P(X >= k) for a subtree of n leaves
+ * with k pattern leaves, in a tree of N leaves with K pattern leaves.
+ *
+ * HYPERGEOMETRIC draws the n leaves without replacement from the tree,
+ * BINOMIAL with replacement (pattern rate K / N), which is close for big
+ * trees. Tails are summed in log space from the first term with the ratio of
+ * consecutive terms, and stop once the terms, decreasing after the mode, can
+ * not change the sum any more; so tiny p-values do not underflow, and
+ * significant subtrees need only a few terms. At or below the mean the lower
+ * tail P(X < k) is summed instead, down from k - 1, and the p-value is one
+ * minus that: summing up from k would pass the mode and take O(n) terms.
+ */
+public enum EnrichmentTest {
+
+  HYPERGEOMETRIC {
+    @Override
+    public double logPValue(int k, int n, int patternLeaves, int leaves) {
+      int K = patternLeaves;
+      int N = leaves;
+      int max = Math.min(n, K);
+      int min = Math.max(0, n - (N - K));
+      if (k <= min) {
+        return 0;
+      }
+      if (k > max) {
+        return Double.NEGATIVE_INFINITY;
+      }
+      LogFactorialTable lf = LogFactorialTable.shared();
+      if (k <= (double) n * K / N) {
+        double logLast = lf.logChoose(K, k - 1)
+            + lf.logChoose(N - K, n - k + 1) - lf.logChoose(N, n);
+        double sum = 1;
+        double term = 1;
+        for (int i = k - 1; i > min; i--) {
+          term *= (double) i * (N - K - n + i)
+              / ((double) (K - i + 1) * (n - i + 1));
+          sum += term;
+          if (term < sum * EPSILON) {
+            break;
+          }
+        }
+        return complement(logLast + Math.log(sum));
+      }
+      double logFirst = lf.logChoose(K, k) + lf.logChoose(N - K, n - k)
+          - lf.logChoose(N, n);
+      double sum = 1;
+      double term = 1;
+      for (int i = k; i < max; i++) {
+        term *= (double) (K - i) * (n - i) / ((double) (i + 1) * (N - K - n + i + 1));
+        sum += term;
+        if (term < sum * EPSILON) {
+          break;
+        }
+        if (sum > RESCALE) {
+          // far below the mode, keep the terms finite
+          logFirst += Math.log(sum);
+          term /= sum;
+          sum = 1;
+        }
+      }
+      return Math.min(0, logFirst + Math.log(sum));
+    }
+  },
+
+  BINOMIAL {
+    @Override
+    public double logPValue(int k, int n, int patternLeaves, int leaves) {
+      if (k <= 0) {
+        return 0;
+      }
+      if (k > n || patternLeaves == 0) {
+        return Double.NEGATIVE_INFINITY;
+      }
+      if (patternLeaves >= leaves) {
+        return 0;
+      }
+      double p = (double) patternLeaves / leaves;
+      LogFactorialTable lf = LogFactorialTable.shared();
+      if (k <= n * p) {
+        double logLast = lf.logChoose(n, k - 1) + (k - 1) * Math.log(p)
+            + (n - k + 1) * Math.log1p(-p);
+        double inverseOdds = (1 - p) / p;
+        double sum = 1;
+        double term = 1;
+        for (int i = k - 1; i > 0; i--) {
+          term *= (double) i / (n - i + 1) * inverseOdds;
+          sum += term;
+          if (term < sum * EPSILON) {
+            break;
+          }
+        }
+        return complement(logLast + Math.log(sum));
+      }
+      double logFirst = lf.logChoose(n, k) + k * Math.log(p)
+          + (n - k) * Math.log1p(-p);
+      double odds = p / (1 - p);
+      double sum = 1;
+      double term = 1;
+      for (int i = k; i < n; i++) {
+        term *= (double) (n - i) / (i + 1) * odds;
+        sum += term;
+        if (term < sum * EPSILON) {
+          break;
+        }
+        if (sum > RESCALE) {
+          // far below the mode, keep the terms finite
+          logFirst += Math.log(sum);
+          term /= sum;
+          sum = 1;
+        }
+      }
+      return Math.min(0, logFirst + Math.log(sum));
+    }
+  };
+
+  // relative size of a term that can not change the sum of the tail
+  private static final double EPSILON = 1e-17;
+  private static final double RESCALE = 1e200;
+
+  // log(1 - exp(logLowerTail)), the lower tail being at most about a half
+  private static double complement(double logLowerTail) {
+    return Math.min(0, Math.log1p(-Math.exp(logLowerTail)));
+  }
+
+  /** Natural log of the p-value, 0 for p = 1. */
+  public abstract double logPValue(int k, int n, int patternLeaves, int leaves);
+
+  public double pValue(int k, int n, int patternLeaves, int leaves) {
+    return Math.exp(logPValue(k, n, patternLeaves, leaves));
+  }
+
+  /** -log10 of the p-value, the larger the more significant. */
+  public double significance(int k, int n, int patternLeaves, int leaves) {
+    return -logPValue(k, n, patternLeaves, leaves) / Math.log(10);
+  }
+
+  public static EnrichmentTest fromName(String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+
+}
@@ -0,0 +1,60 @@
+package hu.sztaki.phytree.stats;
+
+/**
+ * ln(n!) for every n up to the largest one asked for so far. The table is
+ * shared by the whole run and grows (by at least doubling) when a larger n
+ * comes; lookups need no locking.
+ */
+public final class LogFactorialTable {
+
+  private static final LogFactorialTable SHARED = new LogFactorialTable(1024);
+
+  private volatile double[] table;
+
+  LogFactorialTable(int initialSize) {
+    table = compute(new double[0], Math.max(2, initialSize));
+  }
+
+  public static LogFactorialTable shared() {
+    return SHARED;
+  }
+
+  private static double[] compute(double[] old, int size) {
+    double[] t = new double[size];
+    System.arraycopy(old, 0, t, 0, old.length);
+    for (int i = Math.max(1, old.length); i < size; i++) {
+      t[i] = t[i - 1] + Math.log(i);
+    }
+    return t;
+  }
+
+  private synchronized double[] grow(int n) {
+    double[] t = table;
+    if (n >= t.length) {
+      t = compute(t, Math.max(n + 1, 2 * t.length));
+      table = t;
+    }
+    return t;
+  }
+
+  public double logFactorial(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("Negative factorial: " + n);
+    }
+    double[] t = table;
+    if (n >= t.length) {
+      t = grow(n);
+    }
+    return t[n];
+  }
+
+  // ln of n choose k, k must be between 0 and n
+  public double logChoose(int n, int k) {
+    return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+  }
+
+  public int size() {
+    return table.length;
+  }
+
+}
@@ -0,0 +1,125 @@
+package hu.sztaki.phytree.succinct;
+
+import java.util.Arrays;
+
+/**
+ * An immutable bit vector with rank and select.
+ *
+ * rank1 is answered from the number of ones before every 512-bit block and
+ * at most 8 word popcounts. select1 starts from the block of a sampled one
+ * (every 512th), so it only looks at the blocks between two samples. The
+ * extra space is an int per 512 bits and an int per 512 ones.
+ */
+public class RankSelectBitVector {
+
+  private static final int WORDS_PER_BLOCK = 8;
+  private static final int BLOCK_BITS = WORDS_PER_BLOCK * 64;
+  private static final int SELECT_SAMPLE = 512;
+
+  private final long[] words;
+  private final int size;
+  private final int ones;
+  // blockRanks[b]: number of ones before block b, one extra at the end
+  private final int[] blockRanks;
+  // selectSamples[i]: block of the (i * SELECT_SAMPLE)-th one
+  private final int[] selectSamples;
+
+  /**
+   * Bit i is bit (i % 64) of words[i / 64], the lowest first. Words are not
+   * copied; bits at or above size must be zero.
+   */
+  public RankSelectBitVector(long[] words, int size) {
+    int wordCount = (size + 63) >>> 6;
+    this.words = words.length == wordCount ? words
+        : Arrays.copyOf(words, wordCount);
+    this.size = size;
+    int blocks = (wordCount + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK;
+    blockRanks = new int[blocks + 1];
+    int count = 0;
+    for (int w = 0; w < wordCount; w++) {
+      if (w % WORDS_PER_BLOCK == 0) {
+        blockRanks[w / WORDS_PER_BLOCK] = count;
+      }
+      count += Long.bitCount(this.words[w]);
+    }
+    blockRanks[blocks] = count;
+    ones = count;
+    selectSamples = new int[(ones + SELECT_SAMPLE - 1) / SELECT_SAMPLE];
+    int block = 0;
+    for (int i = 0; i < selectSamples.length; i++) {
+      int k = i * SELECT_SAMPLE;
+      while (blockRanks[block + 1] <= k) {
+        block++;
+      }
+      selectSamples[i] = block;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int ones() {
+    return ones;
+  }
+
+  public boolean get(int i) {
+    return (words[i >>> 6] & (1L << i)) != 0;
+  }
+
+  // bits 8 * byteIndex to 8 * byteIndex + 7 as the lowest bits
+  int getByte(int byteIndex) {
+    return (int) (words[byteIndex >>> 3] >>> ((byteIndex & 7) << 3)) & 0xFF;
+  }
+
+  /** Number of ones before position i (0 <= i <= size). */
+  public int rank1(int i) {
+    int word = i >>> 6;
+    int block = i / BLOCK_BITS;
+    int rank = blockRanks[block];
+    for (int w = block * WORDS_PER_BLOCK; w < word; w++) {
+      rank += Long.bitCount(words[w]);
+    }
+    int bit = i & 63;
+    if (bit != 0) {
+      rank += Long.bitCount(words[word] & ((1L << bit) - 1));
+    }
+    return rank;
+  }
+
+  public int rank0(int i) {
+    return i - rank1(i);
+  }
+
+  /** Position of the k-th one (counted from 0), -1 if there are fewer. */
+  public int select1(int k) {
+    if (k < 0 || k >= ones) {
+      return -1;
+    }
+    int lo = selectSamples[k / SELECT_SAMPLE];
+    int hi = k / SELECT_SAMPLE + 1 < selectSamples.length
+        ? selectSamples[k / SELECT_SAMPLE + 1] : blockRanks.length - 2;
+    // last block starting with at most k ones before it
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (blockRanks[mid] <= k) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    int remaining = k - blockRanks[lo];
+    int w = lo * WORDS_PER_BLOCK;
+    int count = Long.bitCount(words[w]);
+    while (remaining >= count) {
+      remaining -= count;
+      count = Long.bitCount(words[++w]);
+    }
+    long word = words[w];
+    for (int r = 0; r < remaining; r++) {
+      word &= word - 1;
+    }
+    return (w << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+}
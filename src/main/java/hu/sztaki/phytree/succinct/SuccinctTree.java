@@ -0,0 +1,533 @@
+package hu.sztaki.phytree.succinct;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.index.SequenceIndex;
+import hu.sztaki.phytree.io.NewickEventParser;
+import hu.sztaki.phytree.io.NewickHandler;
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.log.WarningSummary;
+import hu.sztaki.phytree.tree.SeqsToTreeNodes;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only tree in about 2 bits per node plus its annotations, for trees
+ * too big for a {@link hu.sztaki.phytree.tree.TreeNode} per node.
+ *
+ * The topology is a balanced parentheses sequence: a node is an opening
+ * parenthesis (1), followed by its children, and a closing one (0). Nodes
+ * are identified by their preorder number, which is the rank of their
+ * opening parenthesis and indexes the branch length and name arrays. Leaves
+ * are marked in a second bit vector, so the leaves of a subtree (a range of
+ * preorder numbers) are counted with two ranks.
+ *
+ * Matching parentheses are found with a range min-max tree: the minimum and
+ * maximum excess (opening minus closing parentheses so far) of every
+ * 512-bit block, in a segment tree over the blocks. A search scans its own
+ * block a byte at a time with lookup tables, then descends the segment tree
+ * to the block holding the answer. Parent, first child, next sibling,
+ * subtree size and leaf rank are constant time apart from that descent,
+ * which is logarithmic in the number of blocks.
+ *
+ * The tree is built in one pass over Newick text, see {@link #read(Reader)}.
+ */
+public class SuccinctTree {
+
+  private static final Logger LOG = Log.getLogger(SuccinctTree.class);
+
+  private static final int BLOCK_BITS = 512;
+
+  // excess change, minimum and maximum prefix excess of every byte
+  private static final int[] BYTE_EXCESS = new int[256];
+  private static final int[] BYTE_MIN = new int[256];
+  private static final int[] BYTE_MAX = new int[256];
+
+  static {
+    for (int b = 0; b < 256; b++) {
+      int excess = 0;
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      for (int i = 0; i < 8; i++) {
+        excess += (b & (1 << i)) != 0 ? 1 : -1;
+        min = Math.min(min, excess);
+        max = Math.max(max, excess);
+      }
+      BYTE_EXCESS[b] = excess;
+      BYTE_MIN[b] = min;
+      BYTE_MAX[b] = max;
+    }
+  }
+
+  private final RankSelectBitVector parens;
+  // by preorder number
+  private final RankSelectBitVector leaves;
+  private final float[] lengths;
+  // name of node v: names[nameOffsets[2v], nameOffsets[2v + 1])
+  private final String names;
+  private final int[] nameOffsets;
+  // segment tree of the block minimum / maximum excess, leaves at treeSize
+  private final int treeSize;
+  private final int[] minExcess;
+  private final int[] maxExcess;
+
+  private int key;
+  // by leaf rank, set by setSequences
+  private FastaItem[] leafSequences;
+  private SequenceIndex sequenceIndex;
+
+  private SuccinctTree(RankSelectBitVector parens, RankSelectBitVector leaves,
+      float[] lengths, String names, int[] nameOffsets) {
+    this.parens = parens;
+    this.leaves = leaves;
+    this.lengths = lengths;
+    this.names = names;
+    this.nameOffsets = nameOffsets;
+    int blocks = Math.max(1, (parens.size() + BLOCK_BITS - 1) / BLOCK_BITS);
+    int size = 1;
+    while (size < blocks) {
+      size <<= 1;
+    }
+    treeSize = size;
+    minExcess = new int[2 * size];
+    maxExcess = new int[2 * size];
+    Arrays.fill(minExcess, Integer.MAX_VALUE);
+    Arrays.fill(maxExcess, Integer.MIN_VALUE);
+    int excess = 0;
+    for (int i = 0; i < parens.size(); i++) {
+      excess += parens.get(i) ? 1 : -1;
+      int node = size + i / BLOCK_BITS;
+      minExcess[node] = Math.min(minExcess[node], excess);
+      maxExcess[node] = Math.max(maxExcess[node], excess);
+    }
+    for (int node = size - 1; node > 0; node--) {
+      minExcess[node] = Math.min(minExcess[2 * node], minExcess[2 * node + 1]);
+      maxExcess[node] = Math.max(maxExcess[2 * node], maxExcess[2 * node + 1]);
+    }
+  }
+
+  /**
+   * Reads one Newick tree (up to ';' or the end of the input) without
+   * building any node objects: parentheses, names and branch lengths are
+   * appended to growing arrays as the {@link NewickEventParser} reports
+   * them.
+   */
+  public static SuccinctTree read(Reader reader) throws IOException {
+    return new Builder().read(reader);
+  }
+
+  public int getKey() {
+    return key;
+  }
+
+  public void setKey(int key) {
+    this.key = key;
+  }
+
+  public int getNodeCount() {
+    return parens.size() / 2;
+  }
+
+  public int getLeafCount() {
+    return leaves.ones();
+  }
+
+  public int getRoot() {
+    return 0;
+  }
+
+  public boolean isLeaf(int node) {
+    return leaves.get(node);
+  }
+
+  public String getName(int node) {
+    return names.substring(nameOffsets[2 * node], nameOffsets[2 * node + 1]);
+  }
+
+  public float getDistFromParent(int node) {
+    return lengths[node];
+  }
+
+  /** The parent of the node, -1 for the root. */
+  public int parent(int node) {
+    if (node == 0) {
+      return -1;
+    }
+    return parens.rank1(enclose(parens.select1(node)));
+  }
+
+  /** The first child of the node, -1 for leaves. */
+  public int firstChild(int node) {
+    return isLeaf(node) ? -1 : node + 1;
+  }
+
+  /** The next child of the parent of the node, -1 for the last one. */
+  public int nextSibling(int node) {
+    int close = findClose(parens.select1(node));
+    if (close + 1 < parens.size() && parens.get(close + 1)) {
+      return node + (close + 1 - parens.select1(node)) / 2;
+    }
+    return -1;
+  }
+
+  /** Number of nodes in the subtree of the node, itself included. */
+  public int getSubtreeSize(int node) {
+    int open = parens.select1(node);
+    return (findClose(open) - open + 1) / 2;
+  }
+
+  /** Number of leaves before the node in preorder. */
+  public int getLeafRank(int node) {
+    return leaves.rank1(node);
+  }
+
+  /** The leaf with the given leaf rank. */
+  public int getLeaf(int leafRank) {
+    return leaves.select1(leafRank);
+  }
+
+  /** Number of leaves in the subtree of the node. */
+  public int getLeafNum(int node) {
+    return leaves.rank1(node + getSubtreeSize(node)) - leaves.rank1(node);
+  }
+
+  /** 1 for the root, like {@link hu.sztaki.phytree.tree.TreeNode#depth}. */
+  public int getDepth(int node) {
+    return excess(parens.select1(node));
+  }
+
+  /** 1 for leaves, otherwise the longest path to a leaf + 1. */
+  public int getSubTreeHeight(int node) {
+    int open = parens.select1(node);
+    return maxExcess(open, findClose(open)) - excess(open) + 1;
+  }
+
+  public FastaItem getLeafSequence(int leafRank) {
+    return leafSequences == null ? null : leafSequences[leafRank];
+  }
+
+  /**
+   * Attaches the sequences to the leaves of the same name (the FASTA header
+   * without the '>').
+   */
+  public void setSequences(List<FastaItem> fastaItems) {
+    Map<String, Integer> leafRanks = new HashMap<String, Integer>();
+    for (int r = 0; r < getLeafCount(); r++) {
+      leafRanks.put(getName(getLeaf(r)), r);
+    }
+    leafSequences = new FastaItem[getLeafCount()];
+    WarningSummary noNode = new WarningSummary(LOG,
+        "no node found for this sequence", SeqsToTreeNodes.MAX_WARNINGS_PER_TREE);
+    for (FastaItem fi : fastaItems) {
+      Integer r = leafRanks.get(fi.getHeaderRow().substring(1).trim());
+      if (r != null) {
+        leafSequences[r] = fi;
+      } else {
+        noNode.add(fi.getHeaderRow());
+      }
+    }
+    noNode.report("tree " + getKey());
+  }
+
+  public SequenceIndex getSequenceIndex() {
+    return sequenceIndex;
+  }
+
+  public void setSequenceIndex(SequenceIndex index) {
+    sequenceIndex = index;
+  }
+
+  /**
+   * The subtree of the node in Newick format, without the closing ';', the
+   * same as {@link hu.sztaki.phytree.tree.TreeNode#getNewickSubtree}. Leaves
+   * with their leaf rank in coloredLeaves are colored, if it is not null.
+   */
+  public String getNewick(int node, BitSet coloredLeaves) {
+    StringBuilder sb = new StringBuilder();
+    int open = parens.select1(node);
+    int close = findClose(open);
+    int[] stack = new int[16];
+    int top = 0;
+    int current = node;
+    for (int p = open; p <= close; p++) {
+      if (parens.get(p)) {
+        if (p > open && !parens.get(p - 1)) {
+          sb.append(',');
+        }
+        if (isLeaf(current)) {
+          appendLabel(sb, current, coloredLeaves != null
+              && coloredLeaves.get(getLeafRank(current)));
+        } else {
+          sb.append('(');
+          if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+          }
+          stack[top++] = current;
+        }
+        current++;
+      } else if (!parens.get(p - 1)) {
+        sb.append(')');
+        appendLabel(sb, stack[--top], false);
+      }
+    }
+    return sb.toString();
+  }
+
+  private void appendLabel(StringBuilder sb, int node, boolean colored) {
+    sb.append(getName(node).trim());
+    if (colored) {
+      sb.append("[&&NHX:COLOR=1]");
+    }
+    sb.append(':').append(lengths[node]);
+  }
+
+  // excess after position i (0 for i = -1)
+  private int excess(int i) {
+    return 2 * parens.rank1(i + 1) - (i + 1);
+  }
+
+  // position of the closing parenthesis of the one opened at open
+  private int findClose(int open) {
+    int target = excess(open) - 1;
+    int block = open / BLOCK_BITS;
+    int found = forwardScan(open + 1, blockEnd(block), excess(open), target);
+    if (found >= 0) {
+      return found;
+    }
+    block = firstBlockAtMost(1, 0, treeSize - 1, block + 1, target);
+    int start = block * BLOCK_BITS;
+    return forwardScan(start, blockEnd(block), excess(start - 1), target);
+  }
+
+  // position of the parenthesis opening the parent of the one at open
+  private int enclose(int open) {
+    int target = excess(open) - 2;
+    int block = open / BLOCK_BITS;
+    int found = backwardScan(block * BLOCK_BITS, open, excess(open - 1),
+        target);
+    if (found < 0 && block > 0) {
+      block = lastBlockAtMost(1, 0, treeSize - 1, block - 1, target);
+      if (block >= 0) {
+        int end = blockEnd(block);
+        found = backwardScan(block * BLOCK_BITS, end, excess(end - 1), target);
+      }
+    }
+    // -1: the excess before the first parenthesis, the parent is the root
+    return found + 1;
+  }
+
+  // maximum excess after the positions from..to
+  private int maxExcess(int from, int to) {
+    int fromBlock = from / BLOCK_BITS;
+    int toBlock = to / BLOCK_BITS;
+    if (fromBlock == toBlock) {
+      return scanMax(from, to + 1, excess(from - 1));
+    }
+    int max = scanMax(from, blockEnd(fromBlock), excess(from - 1));
+    if (toBlock > fromBlock + 1) {
+      max = Math.max(max, blockMax(fromBlock + 1, toBlock - 1));
+    }
+    int start = toBlock * BLOCK_BITS;
+    return Math.max(max, scanMax(start, to + 1, excess(start - 1)));
+  }
+
+  private int blockEnd(int block) {
+    return Math.min(parens.size(), (block + 1) * BLOCK_BITS);
+  }
+
+  // first position j in [start, end) with excess(j) <= target, where cur is
+  // excess(start - 1) > target; -1 if there is none
+  private int forwardScan(int start, int end, int cur, int target) {
+    int j = start;
+    while (j < end) {
+      if ((j & 7) == 0 && j + 8 <= end) {
+        int b = parens.getByte(j >>> 3);
+        if (cur + BYTE_MIN[b] > target) {
+          cur += BYTE_EXCESS[b];
+          j += 8;
+          continue;
+        }
+      }
+      cur += parens.get(j) ? 1 : -1;
+      if (cur <= target) {
+        return j;
+      }
+      j++;
+    }
+    return -1;
+  }
+
+  // last position j in [start, end) with excess(j) <= target, where cur is
+  // excess(end - 1); -1 if there is none
+  private int backwardScan(int start, int end, int cur, int target) {
+    int j = end - 1;
+    while (j >= start) {
+      if ((j & 7) == 7 && j - 7 >= start) {
+        int b = parens.getByte(j >>> 3);
+        int before = cur - BYTE_EXCESS[b];
+        if (before + BYTE_MIN[b] > target) {
+          cur = before;
+          j -= 8;
+          continue;
+        }
+      }
+      if (cur <= target) {
+        return j;
+      }
+      cur -= parens.get(j) ? 1 : -1;
+      j--;
+    }
+    return -1;
+  }
+
+  private int scanMax(int start, int end, int cur) {
+    int max = Integer.MIN_VALUE;
+    int j = start;
+    while (j < end) {
+      if ((j & 7) == 0 && j + 8 <= end) {
+        int b = parens.getByte(j >>> 3);
+        max = Math.max(max, cur + BYTE_MAX[b]);
+        cur += BYTE_EXCESS[b];
+        j += 8;
+      } else {
+        cur += parens.get(j) ? 1 : -1;
+        max = Math.max(max, cur);
+        j++;
+      }
+    }
+    return max;
+  }
+
+  // first block >= from of the segment tree node (covering blocks lo..hi)
+  // with a minimum excess <= target, -1 if there is none
+  private int firstBlockAtMost(int node, int lo, int hi, int from,
+      int target) {
+    if (hi < from || minExcess[node] > target) {
+      return -1;
+    }
+    if (lo == hi) {
+      return lo;
+    }
+    int mid = (lo + hi) >>> 1;
+    int found = firstBlockAtMost(2 * node, lo, mid, from, target);
+    return found >= 0 ? found
+        : firstBlockAtMost(2 * node + 1, mid + 1, hi, from, target);
+  }
+
+  // last block <= to with a minimum excess <= target, -1 if there is none
+  private int lastBlockAtMost(int node, int lo, int hi, int to, int target) {
+    if (lo > to || minExcess[node] > target) {
+      return -1;
+    }
+    if (lo == hi) {
+      return lo;
+    }
+    int mid = (lo + hi) >>> 1;
+    int found = lastBlockAtMost(2 * node + 1, mid + 1, hi, to, target);
+    return found >= 0 ? found
+        : lastBlockAtMost(2 * node, lo, mid, to, target);
+  }
+
+  // maximum excess of the blocks from..to
+  private int blockMax(int from, int to) {
+    int max = Integer.MIN_VALUE;
+    for (int lo = from + treeSize, hi = to + treeSize + 1; lo < hi;
+        lo >>>= 1, hi >>>= 1) {
+      if ((lo & 1) == 1) {
+        max = Math.max(max, maxExcess[lo++]);
+      }
+      if ((hi & 1) == 1) {
+        max = Math.max(max, maxExcess[--hi]);
+      }
+    }
+    return max;
+  }
+
+  // appends the nodes to growing arrays as the parser reports them
+  private static final class Builder implements NewickHandler {
+    private long[] parens = new long[16];
+    private int parenCount;
+    private long[] leafBits = new long[16];
+    private float[] lengths = new float[64];
+    private int[] nameOffsets = new int[128];
+    private final StringBuilder names = new StringBuilder();
+    private int nodeCount;
+    private int[] open = new int[16];
+    private int depth;
+
+    SuccinctTree read(Reader reader) throws IOException {
+      if (!new NewickEventParser(reader).parse(this)) {
+        throw new IOException("No Newick tree found");
+      }
+      float[] nodeLengths = Arrays.copyOf(lengths, nodeCount);
+      int[] offsets = Arrays.copyOf(nameOffsets, 2 * nodeCount);
+      return new SuccinctTree(new RankSelectBitVector(parens, parenCount),
+          new RankSelectBitVector(leafBits, nodeCount), nodeLengths,
+          names.toString(), offsets);
+    }
+
+    @Override
+    public void openClade(long offset) {
+      int node = addNode();
+      appendParen(true);
+      if (depth == open.length) {
+        open = Arrays.copyOf(open, depth * 2);
+      }
+      open[depth++] = node;
+    }
+
+    @Override
+    public void leaf(String name, float length, long start, long end) {
+      int node = addNode();
+      while ((node >>> 6) >= leafBits.length) {
+        leafBits = Arrays.copyOf(leafBits, leafBits.length * 2);
+      }
+      leafBits[node >>> 6] |= 1L << node;
+      appendParen(true);
+      appendParen(false);
+      setName(node, name);
+      lengths[node] = length;
+    }
+
+    @Override
+    public void closeClade(String name, float length, long end) {
+      int node = open[--depth];
+      appendParen(false);
+      setName(node, name);
+      lengths[node] = length;
+    }
+
+    private int addNode() {
+      if (nodeCount == lengths.length) {
+        lengths = Arrays.copyOf(lengths, nodeCount * 2);
+        nameOffsets = Arrays.copyOf(nameOffsets, nodeCount * 4);
+      }
+      nameOffsets[2 * nodeCount] = names.length();
+      nameOffsets[2 * nodeCount + 1] = names.length();
+      return nodeCount++;
+    }
+
+    private void setName(int node, String name) {
+      nameOffsets[2 * node] = names.length();
+      names.append(name);
+      nameOffsets[2 * node + 1] = names.length();
+    }
+
+    private void appendParen(boolean opening) {
+      if ((parenCount >>> 6) == parens.length) {
+        parens = Arrays.copyOf(parens, parens.length * 2);
+      }
+      if (opening) {
+        parens[parenCount >>> 6] |= 1L << parenCount;
+      }
+      parenCount++;
+    }
+  }
+
+}
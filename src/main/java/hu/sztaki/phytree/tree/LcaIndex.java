@@ -0,0 +1,105 @@
+package hu.sztaki.phytree.tree;
+
+import java.util.Collection;
+
+/**
+ * Lowest common ancestor queries in O(1), after O(n log n) preprocessing.
+ *
+ * Uses the preorder keys assigned by {@link Tree#postProcess()}: for nodes u
+ * and v with key(u) < key(v), the LCA is the parent of the shallowest node
+ * with a key in (key(u), key(v)] (or u itself, if it is an ancestor of v).
+ * This is the Euler tour method on the preorder sequence, which is half as
+ * long; the shallowest node of a key range is found with a sparse table.
+ */
+public class LcaIndex {
+
+  private final Tree tree;
+  private final int[] depth;
+  // sparse[j][i]: key of the shallowest node with a key in [i, i + 2^j)
+  private final int[][] sparse;
+
+  public LcaIndex(Tree tree) {
+    this.tree = tree;
+    int n = tree.nodes.size();
+    depth = new int[n];
+    for (TreeNode node : tree.nodes) {
+      TreeNode parent = node.parent();
+      depth[node.getKey()] = parent == null ? 0 : depth[parent.getKey()] + 1;
+    }
+    int levels = 1;
+    while ((1 << levels) <= n) {
+      levels++;
+    }
+    sparse = new int[levels][];
+    sparse[0] = new int[n];
+    for (int i = 0; i < n; i++) {
+      sparse[0][i] = i;
+    }
+    for (int j = 1; j < levels; j++) {
+      int half = 1 << (j - 1);
+      int size = n - (1 << j) + 1;
+      sparse[j] = new int[size];
+      for (int i = 0; i < size; i++) {
+        sparse[j][i] = shallower(sparse[j - 1][i], sparse[j - 1][i + half]);
+      }
+    }
+  }
+
+  private int shallower(int a, int b) {
+    return depth[b] < depth[a] ? b : a;
+  }
+
+  // key of the shallowest node with a key in [from, to]
+  private int shallowest(int from, int to) {
+    int level = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+    return shallower(sparse[level][from], sparse[level][to - (1 << level) + 1]);
+  }
+
+  public int getDepth(TreeNode node) {
+    return depth[node.getKey()];
+  }
+
+  public TreeNode lca(TreeNode a, TreeNode b) {
+    int u = a.getKey();
+    int v = b.getKey();
+    if (u == v) {
+      return a;
+    }
+    if (u > v) {
+      int tmp = u;
+      u = v;
+      v = tmp;
+    }
+    return tree.getNodeByKey(shallowest(u + 1, v)).parent();
+  }
+
+  /**
+   * The lowest common ancestor of the nodes, null for no nodes. It is the LCA
+   * of the first and the last of them in preorder.
+   */
+  public TreeNode lca(Collection<TreeNode> nodes) {
+    TreeNode first = null;
+    TreeNode last = null;
+    for (TreeNode node : nodes) {
+      if (first == null || node.getKey() < first.getKey()) {
+        first = node;
+      }
+      if (last == null || node.getKey() > last.getKey()) {
+        last = node;
+      }
+    }
+    if (first == null) {
+      return null;
+    }
+    return lca(first, last);
+  }
+
+  /**
+   * The patristic distance of the nodes: the sum of the branch lengths on the
+   * path between them, from the root distances and their LCA.
+   */
+  public double distance(TreeNode a, TreeNode b) {
+    return a.rootDistance + b.rootDistance - 2 * lca(a, b).rootDistance;
+  }
+
+}
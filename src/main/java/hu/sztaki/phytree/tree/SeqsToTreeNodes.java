@@ -1,6 +1,9 @@
 package hu.sztaki.phytree.tree;
 
 import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.log.Log;
+import hu.sztaki.phytree.log.Logger;
+import hu.sztaki.phytree.log.WarningSummary;
 
 import java.util.List;
 
@@ -13,6 +16,10 @@ import java.util.List;
  */
 public class SeqsToTreeNodes {
 
+  private static final Logger LOG = Log.getLogger(SeqsToTreeNodes.class);
+  // sequences without a node logged for a tree, the rest are counted
+  public static final int MAX_WARNINGS_PER_TREE = 5;
+
   Tree tree;
   List<FastaItem> fastaItems;
   
@@ -25,6 +32,8 @@ public class SeqsToTreeNodes {
   }
 
   public Tree appendSeqsToNodes() {
+    WarningSummary noNode = new WarningSummary(LOG,
+        "no node found for this sequence", MAX_WARNINGS_PER_TREE);
     for (FastaItem fi : fastaItems) {
       String name = fi.getAcNum();
       String fragmentNum = fi.getFragId();
@@ -33,9 +42,10 @@ public class SeqsToTreeNodes {
       if (tn != null) {
         tn.setSequence(fi);
       } else {
-        System.err.println("Warning : no node found for this sequence: " + fi.getHeaderRow());
+        noNode.add(fi.getHeaderRow());
       }
     }
+    noNode.report("tree " + tree.getKey());
     return tree;
   }
 
@@ -34,6 +34,8 @@ package hu.sztaki.phytree.tree;
  THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import hu.sztaki.phytree.index.SequenceIndex;
+
 import java.util.*;
 import java.text.Collator;
 
@@ -104,6 +106,7 @@ public class Tree {
     nodesByName = new HashMap<String, TreeNode>(treeToCopy.nodesByName);
     numLeaves = treeToCopy.numLeaves;
     root = treeToCopy.root;
+    sequenceIndex = treeToCopy.sequenceIndex;
   }
 
   /**
@@ -164,6 +167,11 @@ public class Tree {
     return (TreeNode) nodesByName.get(s);
   }
 
+  // number of nodes that can be found by their name
+  public int getNamedNodeCount() {
+    return nodesByName == null ? 0 : nodesByName.size();
+  }
+
   public String getNewick(boolean withColors) {
     String newick = root.getNewickSubtree(withColors);
     int idx = newick.lastIndexOf(':');
@@ -251,6 +259,31 @@ public class Tree {
    */
   protected TreeNode root = null;
 
+  /**
+   * Index over the sequences of the leaves, null if there is none.
+   */
+  private SequenceIndex sequenceIndex = null;
+
+  public SequenceIndex getSequenceIndex() {
+    return sequenceIndex;
+  }
+
+  public void setSequenceIndex(SequenceIndex index) {
+    sequenceIndex = index;
+  }
+
+  /**
+   * Lowest common ancestor index, built on first use.
+   */
+  private LcaIndex lcaIndex = null;
+
+  public synchronized LcaIndex getLcaIndex() {
+    if (lcaIndex == null) {
+      lcaIndex = new LcaIndex(this);
+    }
+    return lcaIndex;
+  }
+
   /**
    * Sets the file name. Copies the value for some reason.
    * 
@@ -280,6 +313,7 @@ public class Tree {
    */
   public void postProcess() {
     preorderPostProcess();
+    computeCladeDistances();
     linkLeaves();
     // System.out.println("progress bar updated: min:" + jpb.getMinimum() +
     // " max:" + jpb.getMaximum() + " value:" + jpb.getValue());
@@ -311,11 +345,44 @@ public class Tree {
         nodesByName.put(n.name, n);
       }
       n.depth = (null != n.parent) ? n.parent.depth + 1 : 1;
+      n.rootDistance = (null != n.parent)
+          ? n.parent.rootDistance + n.distFromParent : 0.0;
       depth = (n.depth > depth) ? n.depth : depth;
     }
 
   }
 
+  /**
+   * Computes the branch length aggregates of every clade (see
+   * {@link TreeNode#getCladeDiameter()}) in one pass over the nodes in
+   * reverse preorder, so children are done before their parents.
+   */
+  private void computeCladeDistances() {
+    for (int i = nodes.size() - 1; i >= 0; i--) {
+      TreeNode n = nodes.get(i);
+      double deepest = 0.0;
+      double secondDeepest = 0.0;
+      double sum = 0.0;
+      double diameter = 0.0;
+      for (TreeNode child : n.children) {
+        double down = child.distFromParent + child.cladeDepth;
+        if (down > deepest) {
+          secondDeepest = deepest;
+          deepest = down;
+        } else if (down > secondDeepest) {
+          secondDeepest = down;
+        }
+        sum += child.cladeLeafDistanceSum
+            + child.distFromParent * child.getLeafNum();
+        diameter = Math.max(diameter, child.cladeDiameter);
+      }
+      n.cladeDepth = deepest;
+      n.cladeLeafDistanceSum = sum;
+      n.cladeDiameter = n.children.size() > 1
+          ? Math.max(diameter, deepest + secondDeepest) : diameter;
+    }
+  }
+
   /**
    * Traverse the tree and initialize the {@link #nodesByName} and
    * {@link #nodes} data structures. Used when modifying the names of nodes as
@@ -465,6 +532,14 @@ public class Tree {
     return nexusIndex;
   }
 
+  /**
+   * @param index
+   *          Number of the tree in its nexus file, from 1.
+   */
+  public void setNexusIndex(int index) {
+    nexusIndex = index;
+  }
+
   /**
    * @param leafSplitAxis
    *          The leafSplitLine to set.
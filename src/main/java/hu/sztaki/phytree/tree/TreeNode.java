@@ -35,7 +35,11 @@ package hu.sztaki.phytree.tree;
  */
 
 import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.memory.ObjectSizes;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -111,6 +115,20 @@ public class TreeNode {
     return sequence.getSequenceString();
   }
 
+  // same as getSeqString().contains(pattern), without building the string
+  public boolean seqContains(String pattern) {
+    return seqMatches(LiteralPattern.forLiteral(pattern));
+  }
+
+  private static final ByteBuffer NO_RESIDUES = ByteBuffer.allocate(0);
+
+  // nodes without a sequence are treated as having an empty one
+  public boolean seqMatches(SequencePattern pattern) {
+    if (sequence == null)
+      return pattern.matches(NO_RESIDUES, 0, 0);
+    return pattern.matches(sequence);
+  }
+
   // 1 for leaf nodes, 1< for inner nodes, max length of path to a leaf +1
   private int subTreeHeight = -1;
 
@@ -130,6 +148,28 @@ public class TreeNode {
     return subTreeHeight;
   }
 
+  // branch length aggregates of the clade, set by Tree#postProcess: the
+  // longest and the summed distance to its leaves, and the longest path
+  // between two of its leaves
+  double cladeDepth;
+  double cladeLeafDistanceSum;
+  double cladeDiameter;
+
+  // distance to the farthest leaf of the clade (0 for leaves)
+  public double getCladeDepth() {
+    return cladeDepth;
+  }
+
+  // mean distance to the leaves of the clade (0 for leaves)
+  public double getMeanCladeDepth() {
+    return cladeLeafDistanceSum / getLeafNum();
+  }
+
+  // patristic distance of the two farthest leaves of the clade
+  public double getCladeDiameter() {
+    return cladeDiameter;
+  }
+
   private int leafNum = -1;
   private List<String> patterns = new ArrayList<String>();
   // how many of the leaves of the subtree starting at this node contain the
@@ -141,6 +181,17 @@ public class TreeNode {
     patternNums.add(-1);
   }
 
+  // estimated heap bytes of the pattern counts cached at this node; the
+  // pattern keys are shared by all nodes
+  public long getPatternCacheBytes() {
+    long bytes = ObjectSizes.arrayListSize(patterns)
+        + ObjectSizes.arrayListSize(patternNums);
+    for (int num : patternNums) {
+      bytes += ObjectSizes.boxedIntegerSize(num);
+    }
+    return bytes;
+  }
+
   public int getLeafNum() {
     if (leafNum == -1) {
       if (isLeaf()) {
@@ -156,10 +207,16 @@ public class TreeNode {
   }
 
   public int getLeafNumWithPattern(String pattern) {
-    if (!patterns.contains(pattern)) {
-      addPattern(pattern);
+    return getLeafNumWithPattern(LiteralPattern.forLiteral(pattern));
+  }
+
+  // cached per pattern key
+  public int getLeafNumWithPattern(SequencePattern pattern) {
+    String key = pattern.getKey();
+    if (!patterns.contains(key)) {
+      addPattern(key);
     }
-    int idx = patterns.indexOf(pattern);
+    int idx = patterns.indexOf(key);
     int val = patternNums.get(idx);
     if (val == -1) {
       int computed = computeLeafNumWithPattern(pattern);
@@ -169,9 +226,9 @@ public class TreeNode {
     return val;
   }
 
-  private int computeLeafNumWithPattern(String pattern) {
+  private int computeLeafNumWithPattern(SequencePattern pattern) {
     if (isLeaf()) {
-      if (getSeqString().contains(pattern)) {
+      if (seqMatches(pattern)) {
         return 1;
       } else {
         return 0;
@@ -283,6 +340,12 @@ public class TreeNode {
    */
   public float distFromParent = 0.0f;
 
+  /**
+   * Sum of the branch lengths on the path from the root, set by
+   * {@link Tree#postProcess()}.
+   */
+  public double rootDistance = 0.0;
+
   /**
    * Leftmost (minimum) leaf node under this internal node (or this node for
    * leaves).
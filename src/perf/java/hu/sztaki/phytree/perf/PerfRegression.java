@@ -0,0 +1,385 @@
+package hu.sztaki.phytree.perf;
+
+import hu.sztaki.phytree.corpus.CorpusGenerator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+/**
+ * Runs the whole Main pipeline on generated corpora of fixed sizes and
+ * compares the wall time, peak RSS, peak heap and GC time with the
+ * committed baseline file; fails (exit code 1) if one of them is over
+ * baseline * (1 + tolerance) + slack.
+ *
+ * Every corpus of the baseline file is generated by
+ * {@link CorpusGenerator} once (it is kept while its settings are the
+ * same) and searched runs times, each in a new JVM running
+ * {@link PerfRun}; the median of the runs is compared. With --update the
+ * medians are written into the baseline file instead, to be committed
+ * after a deliberate change or on a new machine.
+ */
+public class PerfRegression {
+
+  static final String[] METRICS = {
+      "wallMillis", "peakRssKb", "peakHeapBytes", "gcMillis" };
+
+  // settings of a corpus, written next to it to tell if it can be reused
+  private static final String[] CORPUS_KEYS = {
+      "clusters", "leaves", "treeShape", "branchLengths", "meanBranchLength",
+      "motif", "motifRate", "minSeqLength", "maxSeqLength", "seed" };
+
+  private final Configuration baseline;
+  private final File baselineFile;
+  private final File workDir;
+
+  public PerfRegression(File baselineFile, File workDir)
+      throws ConfigurationException {
+    this.baselineFile = baselineFile;
+    this.baseline = new PropertiesConfiguration(baselineFile.getPath());
+    this.workDir = workDir;
+  }
+
+  /** Generates the corpus unless it is there with the same settings. */
+  File prepareCorpus(String name) throws IOException {
+    File dir = new File(workDir, name);
+    File settings = new File(dir, "corpus.properties");
+    StringBuilder spec = new StringBuilder("corpusDir = ")
+        .append(dir.getPath()).append('\n');
+    for (String key : CORPUS_KEYS) {
+      if (baseline.containsKey(name + "." + key)) {
+        spec.append(key).append(" = ")
+            .append(join(baseline.getStringArray(name + "." + key)))
+            .append('\n');
+      }
+    }
+    if (settings.exists() && readFile(settings).equals(spec.toString())) {
+      return dir;
+    }
+    dir.mkdirs();
+    deleteTree(new File(dir, "trees"));
+    deleteTree(new File(dir, "fasta"));
+    writeFile(settings, spec.toString());
+    System.out.println("Generating corpus " + name);
+    List<String> command = new ArrayList<String>();
+    command.add(javaCommand());
+    command.addAll(jvmArgs(name));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(CorpusGenerator.class.getName());
+    command.add(settings.getPath());
+    if (run(command).exitCode != 0) {
+      settings.delete();
+      throw new IOException("Could not generate corpus " + name);
+    }
+    return dir;
+  }
+
+  private static final class Output {
+    int exitCode;
+    // the last lines, for the error message
+    LinkedList<String> tail = new LinkedList<String>();
+    String perfLine;
+  }
+
+  private static Output run(List<String> command) throws IOException {
+    ProcessBuilder pb = new ProcessBuilder(command);
+    pb.redirectErrorStream(true);
+    Process process = pb.start();
+    Output output = new Output();
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+        process.getInputStream()));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith(PerfRun.PREFIX)) {
+          output.perfLine = line;
+        }
+        output.tail.add(line);
+        if (output.tail.size() > 20) {
+          output.tail.removeFirst();
+        }
+      }
+    } finally {
+      br.close();
+    }
+    try {
+      output.exitCode = process.waitFor();
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running " + command);
+    }
+    return output;
+  }
+
+  /** Runs Main on the corpus once, the metrics by their names. */
+  Map<String, Long> runOnce(String name, File corpus) throws IOException {
+    File out = new File(workDir, name + "-out");
+    deleteTree(out);
+    out.mkdirs();
+    StringBuilder props = new StringBuilder()
+        .append("treeFilesDir = ").append(new File(corpus, "trees").getPath())
+        .append("\nfastaFilesDir = ")
+        .append(new File(corpus, "fasta").getPath())
+        .append("\noutputTreeFilesDir = ").append(out.getPath())
+        .append("\nseqPattern = ").append(baseline.getString(name + ".motif",
+            "FF"))
+        .append("\nminLeafNum = 8\nminPatternPercent = 60\nlogLevel = warn\n");
+    // the search settings of the corpus, e.g. name.config.succinctTrees
+    String prefix = name + ".config.";
+    for (Iterator<String> keys = baseline.getKeys(); keys.hasNext();) {
+      String key = keys.next();
+      if (key.startsWith(prefix)) {
+        props.append(key.substring(prefix.length())).append(" = ")
+            .append(join(baseline.getStringArray(key))).append('\n');
+      }
+    }
+    File propsFile = new File(workDir, name + "-search.properties");
+    writeFile(propsFile, props.toString());
+
+    List<String> command = new ArrayList<String>();
+    command.add(javaCommand());
+    command.addAll(jvmArgs(name));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(PerfRun.class.getName());
+    command.add(propsFile.getPath());
+    Output output = run(command);
+    if (output.exitCode != 0 || output.perfLine == null) {
+      StringBuilder sb = new StringBuilder("Search of corpus " + name
+          + " failed (exit code " + output.exitCode + "):");
+      for (String line : output.tail) {
+        sb.append("\n  ").append(line);
+      }
+      throw new IOException(sb.toString());
+    }
+    Map<String, Long> ret = new HashMap<String, Long>();
+    for (String field : output.perfLine.substring(PerfRun.PREFIX.length())
+        .split(" ")) {
+      String[] kv = field.split("=");
+      ret.put(kv[0], Long.parseLong(kv[1]));
+    }
+    return ret;
+  }
+
+  /** The median of the runs of every metric. */
+  Map<String, Long> measure(String name) throws IOException {
+    File corpus = prepareCorpus(name);
+    int runs = Math.max(1, baseline.getInt("runs", 3));
+    Map<String, long[]> values = new HashMap<String, long[]>();
+    for (String metric : METRICS) {
+      values.put(metric, new long[runs]);
+    }
+    for (int r = 0; r < runs; r++) {
+      Map<String, Long> run = runOnce(name, corpus);
+      for (String metric : METRICS) {
+        Long v = run.get(metric);
+        values.get(metric)[r] = v == null ? -1 : v;
+      }
+    }
+    Map<String, Long> ret = new HashMap<String, Long>();
+    for (String metric : METRICS) {
+      long[] v = values.get(metric);
+      Arrays.sort(v);
+      ret.put(metric, v[runs / 2]);
+    }
+    return ret;
+  }
+
+  /** The largest value still accepted, -1 if not checked. */
+  long limit(String name, String metric) {
+    String key = name + ".baseline." + metric;
+    if (!baseline.containsKey(key)) {
+      return -1;
+    }
+    long base = baseline.getLong(key);
+    if (base < 0) {
+      return -1;
+    }
+    double tolerance = baseline.getDouble("tolerance." + metric, 0.25);
+    long slack = baseline.getLong("slack." + metric, 0);
+    return (long) Math.ceil(base * (1 + tolerance)) + slack;
+  }
+
+  /** Prints the comparison; false if a metric is over its limit. */
+  boolean check(String name, Map<String, Long> measured) {
+    boolean ok = true;
+    for (String metric : METRICS) {
+      long value = measured.get(metric);
+      long limit = limit(name, metric);
+      String status;
+      if (limit < 0 || value < 0) {
+        status = "not checked";
+      } else if (value > limit) {
+        status = "REGRESSION";
+        ok = false;
+      } else {
+        status = "ok";
+      }
+      System.out.println(String.format("  %-14s %14d  baseline %14s  "
+          + "limit %14s  %s", metric, value,
+          baseline.getString(name + ".baseline." + metric, "-"),
+          limit < 0 ? "-" : String.valueOf(limit), status));
+    }
+    return ok;
+  }
+
+  /** Writes the measured values as the new baseline, keeping the rest. */
+  void updateBaseline(Map<String, Map<String, Long>> measured)
+      throws IOException {
+    Map<String, String> values = new HashMap<String, String>();
+    for (Map.Entry<String, Map<String, Long>> corpus : measured.entrySet()) {
+      for (Map.Entry<String, Long> m : corpus.getValue().entrySet()) {
+        values.put(corpus.getKey() + ".baseline." + m.getKey(),
+            String.valueOf(m.getValue()));
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    BufferedReader br = new BufferedReader(new FileReader(baselineFile));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+        int eq = line.indexOf('=');
+        String key = eq < 0 ? null : line.substring(0, eq).trim();
+        if (key != null && values.containsKey(key)) {
+          sb.append(key).append(" = ").append(values.remove(key));
+        } else {
+          sb.append(line);
+        }
+        sb.append('\n');
+      }
+    } finally {
+      br.close();
+    }
+    // corpora without a baseline yet
+    for (String corpus : measured.keySet()) {
+      for (String metric : METRICS) {
+        String key = corpus + ".baseline." + metric;
+        if (values.containsKey(key)) {
+          sb.append(key).append(" = ").append(values.get(key)).append('\n');
+        }
+      }
+    }
+    writeFile(baselineFile, sb.toString());
+  }
+
+  private List<String> jvmArgs(String name) {
+    List<String> ret = new ArrayList<String>();
+    for (String key : new String[] {"jvmArgs", name + ".jvmArgs"}) {
+      if (baseline.containsKey(key)) {
+        for (String arg : join(baseline.getStringArray(key)).split("\\s+")) {
+          if (!arg.isEmpty()) {
+            ret.add(arg);
+          }
+        }
+      }
+    }
+    return ret;
+  }
+
+  private static String javaCommand() {
+    return new File(new File(System.getProperty("java.home"), "bin"), "java")
+        .getPath();
+  }
+
+  // a list value is split at the commas by the configuration
+  private static String join(String[] values) {
+    StringBuilder sb = new StringBuilder();
+    for (String v : values) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(v);
+    }
+    return sb.toString();
+  }
+
+  private static String readFile(File file) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+        sb.append(line).append('\n');
+      }
+    } finally {
+      br.close();
+    }
+    return sb.toString();
+  }
+
+  private static void writeFile(File file, String text) throws IOException {
+    PrintWriter out = new PrintWriter(new FileWriter(file));
+    try {
+      out.print(text);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+
+  /** Arguments: baseline file, work directory, optionally --update. */
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.out.println("Expecting 2 arguments: baselineFile workDir "
+          + "[--update]");
+      System.exit(3);
+    }
+    boolean update = args.length > 2 && args[2].equals("--update");
+    try {
+      File workDir = new File(args[1]);
+      workDir.mkdirs();
+      PerfRegression perf = new PerfRegression(new File(args[0]), workDir);
+      Map<String, Map<String, Long>> measured =
+          new LinkedHashMap<String, Map<String, Long>>();
+      boolean ok = true;
+      for (String name : perf.baseline.getStringArray("corpora")) {
+        name = name.trim();
+        Map<String, Long> m = perf.measure(name);
+        measured.put(name, m);
+        System.out.println("Corpus " + name + ":");
+        ok &= perf.check(name, m);
+      }
+      if (update) {
+        perf.updateBaseline(measured);
+        System.out.println("Baseline written to " + args[0]);
+      } else if (!ok) {
+        System.out.println("Performance regression, see above");
+        System.exit(1);
+      }
+    } catch (ConfigurationException e) {
+      System.out.println("Could not read the baseline: " + e.getMessage());
+      System.exit(3);
+    } catch (IOException e) {
+      System.out.println(e.getMessage());
+      System.exit(2);
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+package hu.sztaki.phytree.perf;
+
+import hu.sztaki.phytree.Main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Runs Main on a properties file in a JVM of its own and prints what it
+ * cost as the last line:
+ * PERF wallMillis=.. peakRssKb=.. peakHeapBytes=.. gcMillis=..
+ */
+public class PerfRun {
+
+  public static final String PREFIX = "PERF ";
+
+  public static void main(String[] args) {
+    long start = System.nanoTime();
+    Main.main(args);
+    long wallMillis = (System.nanoTime() - start) / 1000000;
+    System.out.println(PREFIX + "wallMillis=" + wallMillis
+        + " peakRssKb=" + peakRssKb()
+        + " peakHeapBytes=" + peakHeapBytes()
+        + " gcMillis=" + gcMillis());
+  }
+
+  // the sum of the peaks of the heap pools, an upper bound of the peak
+  private static long peakHeapBytes() {
+    long sum = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        sum += pool.getPeakUsage().getUsed();
+      }
+    }
+    return sum;
+  }
+
+  private static long gcMillis() {
+    long sum = 0;
+    for (GarbageCollectorMXBean gc
+        : ManagementFactory.getGarbageCollectorMXBeans()) {
+      sum += Math.max(gc.getCollectionTime(), 0);
+    }
+    return sum;
+  }
+
+  // the high water mark of the resident set, -1 where there is no /proc
+  private static long peakRssKb() {
+    File status = new File("/proc/self/status");
+    if (!status.exists()) {
+      return -1;
+    }
+    try {
+      BufferedReader br = new BufferedReader(new FileReader(status));
+      try {
+        String line;
+        while ((line = br.readLine()) != null) {
+          if (line.startsWith("VmHWM:")) {
+            return Long.parseLong(line.substring(6).replace("kB", "").trim());
+          }
+        }
+      } finally {
+        br.close();
+      }
+    } catch (IOException e) {
+      // no peak then
+    }
+    return -1;
+  }
+
+}
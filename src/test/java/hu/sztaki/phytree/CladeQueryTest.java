@@ -0,0 +1,54 @@
+package hu.sztaki.phytree;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.tree.Tree;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CladeQueryTest {
+
+  @Test
+  public void testFindClades() {
+    String newick = "((A|1:0.1,B|1:0.1):0.2,((C|1:0.1,D|1:0.1):0.1,E|1:0.3):0.2);";
+    Tree tree = new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+    String[] names = {"A", "B", "C", "D", "E"};
+    String[] seqs = {"HDA", "AAA", "HDH", "HDD", "KKK"};
+    for (int i = 0; i < names.length; i++) {
+      FastaItem item = new FastaItem(">" + names[i] + "|1", names[i], "1");
+      item.addSeqRow(seqs[i]);
+      item.setIndex(i);
+      tree.getNodeByName(names[i] + "|1").setSequence(item);
+    }
+    List<Collection<String>> sets = new ArrayList<Collection<String>>();
+    sets.add(Arrays.asList("C", "D"));
+    sets.add(Arrays.asList("D", "E", "X"));
+    sets.add(Arrays.asList("A", "E"));
+    sets.add(Arrays.asList("B"));
+    sets.add(Arrays.asList("Y"));
+    List<CladeStats> stats = new CladeQuery(tree).findClades(sets,
+        LiteralPattern.forLiteral("HD"));
+
+    assertEquals(2, stats.get(0).getLeafNum());
+    assertEquals(2, stats.get(0).getPatternLeafNum());
+    assertEquals(3, stats.get(1).getLeafNum());
+    assertEquals(2, stats.get(1).getFound());
+    assertEquals(Arrays.asList("X"), stats.get(1).getMissing());
+    assertSame(tree.getRoot(), stats.get(2).getClade());
+    assertEquals(3, stats.get(2).getPatternLeafNum());
+    assertEquals(60.0, stats.get(2).getPatternPercent(), 1e-9);
+    assertTrue(stats.get(3).getClade().isLeaf());
+    assertEquals(0, stats.get(3).getPatternLeafNum());
+    assertNull(stats.get(4).getClade());
+  }
+
+}
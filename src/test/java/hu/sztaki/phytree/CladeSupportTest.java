@@ -0,0 +1,71 @@
+package hu.sztaki.phytree;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CladeSupportTest {
+
+  private static Tree parse(String newick) {
+    return new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+  }
+
+  @Test
+  public void testHashLeaves() {
+    Tree tree = parse("((A,B)X,(C,(D,E))Y)R;");
+    TreeNode y = tree.getNodeByName("Y");
+    assertEquals(CladeSupport.hashLeaf("C") ^ CladeSupport.hashLeaf("D")
+        ^ CladeSupport.hashLeaf("E"), CladeSupport.hashLeaves(y));
+    assertEquals(CladeSupport.hashLeaf("A"),
+        CladeSupport.hashLeaves(tree.getNodeByName("A")));
+    assertTrue(CladeSupport.hashLeaf("A") != CladeSupport.hashLeaf("B"));
+  }
+
+  @Test
+  public void testCountReplicates() throws IOException {
+    Tree tree = parse("((A,B)X,(C,(D,E))Y,F)R;");
+    List<TreeNode> clades = new ArrayList<TreeNode>();
+    clades.add(tree.getNodeByName("X"));
+    clades.add(tree.getNodeByName("Y"));
+    clades.add(tree.getNodeByName("C"));
+    File file = File.createTempFile("replicates", ".nex");
+    try {
+      FileWriter out = new FileWriter(file);
+      out.write("#NEXUS\nbegin trees;\n"
+          + "translate 1 A, 2 B, 3 C, 4 D, 5 E, 6 F;\n"
+          + "tree r1 = [&R] ((1,2),(3,(4,5)),6);\n"
+          // Y only as the complement of a clade: rooted elsewhere
+          + "tree r2 = [&U] (3,((1,2),6),(4,5));\n"
+          + "tree r3 = (((1,3):0.1,2),((4,5),6));\n"
+          + "tree r4 = (1,(2,(3,(4,(5,6)))));\n"
+          + "end;\n");
+      out.close();
+      for (int threads = 1; threads <= 3; threads++) {
+        CladeSupport support = new CladeSupport(clades);
+        support.countReplicates(file, threads);
+        assertEquals(4, support.getReplicateCount());
+        // r1, r2, and r4 as the complement of {C,D,E,F}
+        assertEquals(3, support.getCount(0));
+        assertEquals(2, support.getCount(1));
+        assertEquals(0.5, support.getSupport(1), 1e-12);
+        // a single leaf is in every replicate
+        assertEquals(4, support.getCount(2));
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package hu.sztaki.phytree;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.tree.Tree;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class NexusTreeReaderTest {
+
+  private static final String NEXUS = "#NEXUS\n"
+      + "[written by hand; with a comment [nested] in it]\n"
+      + "begin taxa;\n"
+      + "  dimensions ntax=3;\n"
+      + "  taxlabels A B 'C c';\n"
+      + "end;\n"
+      + "BEGIN TREES;\n"
+      + "  TRANSLATE\n"
+      + "    1 A,\n"
+      + "    2 B,\n"
+      + "    3 'C|1-10|x';\n"
+      + "  tree first = [&R] ((1:0.1,2:0.2)X:0.3,3:0.4);\n"
+      + "  tree * second = [&U] (1,(2,3)[inner;comment]);\n"
+      + "  utree third=(3:1,(1:2,2:3):4);\n"
+      + "END;\n";
+
+  private static File write(String text) throws IOException {
+    File file = File.createTempFile("trees", ".nex");
+    FileWriter out = new FileWriter(file);
+    out.write(text);
+    out.close();
+    return file;
+  }
+
+  private static String newickOf(String newick) {
+    return new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize().getNewick(false);
+  }
+
+  @Test
+  public void testTreeStatements() throws IOException {
+    File file = write(NEXUS);
+    try {
+      NexusTreeReader reader = new NexusTreeReader(file, 2);
+      assertEquals(3, reader.getTreeCount());
+      assertEquals("first", reader.getTreeStatements().get(0).getName());
+      assertEquals("second", reader.getTreeStatements().get(1).getName());
+      assertEquals("third", reader.getTreeStatements().get(2).getName());
+      String text = NEXUS.substring(
+          (int) reader.getTreeStatements().get(2).getStart(),
+          (int) reader.getTreeStatements().get(2).getEnd());
+      assertEquals("(3:1,(1:2,2:3):4)", text);
+      reader.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testTreesInOrderWithTranslatedNames() throws IOException {
+    File file = write(NEXUS);
+    try {
+      NexusTreeReader reader = new NexusTreeReader(file, 3);
+      final List<String> progress = new ArrayList<String>();
+      reader.setProgressListener(new ParseProgressListener() {
+        @Override
+        public void progress(int done, int total) {
+          progress.add(done + "/" + total);
+        }
+      });
+      Tree tree = reader.getNextTree();
+      assertEquals(1, tree.getNexusIndex());
+      assertEquals("first", tree.getName());
+      assertEquals(newickOf("((A:0.1,B:0.2)X:0.3,C|1-10|x:0.4);"),
+          tree.getNewick(false));
+      assertNotNull(tree.getNodeByName("C|1-10|x"));
+      tree = reader.getNextTree();
+      assertEquals(2, tree.getNexusIndex());
+      assertEquals(newickOf("(A,(B,C|1-10|x));"), tree.getNewick(false));
+      tree = reader.getNextTree();
+      assertEquals(3, tree.getNexusIndex());
+      assertEquals(newickOf("(C|1-10|x:1,(A:2,B:3):4);"),
+          tree.getNewick(false));
+      assertNull(reader.getNextTree());
+      reader.close();
+      assertEquals("[1/3, 2/3, 3/3]", progress.toString());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testQuotedTranslation() throws IOException {
+    File file = write("#NEXUS\nbegin trees;\n"
+        + "  translate 1 'Homo sapiens', 2 'Pan (troglodytes)', 3 Gorilla;\n"
+        + "  tree t = ((1:0.1,2:0.2):0.3,3:0.4);\n"
+        + "end;\n");
+    try {
+      NexusTreeReader reader = new NexusTreeReader(file, 1);
+      Tree tree = reader.getNextTree();
+      assertNotNull(tree.getNodeByName("Homo sapiens"));
+      assertNotNull(tree.getNodeByName("Pan (troglodytes)"));
+      assertNotNull(tree.getNodeByName("Gorilla"));
+      assertEquals(3, tree.getLeafCount());
+      reader.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testManyTrees() throws IOException {
+    StringBuilder sb = new StringBuilder("#NEXUS\nbegin trees;\n");
+    for (int i = 0; i < 100; i++) {
+      sb.append("tree t").append(i).append(" = ((L").append(i)
+          .append(",M),N").append(i).append(");\n");
+    }
+    File file = write(sb.append("end;\n").toString());
+    try {
+      NexusTreeReader reader = new NexusTreeReader(file, 4);
+      for (int i = 0; i < 100; i++) {
+        Tree tree = reader.getNextTree();
+        assertEquals("t" + i, tree.getName());
+        assertEquals(newickOf("((L" + i + ",M),N" + i + ");"),
+            tree.getNewick(false));
+      }
+      assertNull(reader.getNextTree());
+      reader.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+
+  @Test
+  public void testStatementReader() throws IOException {
+    Map<String, String> translation = new HashMap<String, String>();
+    translation.put("1", "A");
+    translation.put("2", "B");
+    translation.put("3", "C");
+    translation.put("5", "D d");
+    translation.put("6", "E:e");
+    BufferedReader in = new BufferedReader(
+        new NexusTreeReader.NewickStatementReader(new StringReader(
+            "[&R] (1:0.5,( 2,3)[x]:1,\"4 [y]\",(5,6))"), translation));
+    assertEquals(" (A:0.5,( B,C):1,\"4 [y]\",(\"D d\",\"E:e\"));",
+        in.readLine());
+    assertNull(in.readLine());
+    in.close();
+  }
+}
@@ -0,0 +1,106 @@
+package hu.sztaki.phytree;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelTreeParserTest {
+
+  private int nodeCounter;
+
+  // leaf names repeat, as they may in a tree file
+  private String randomNewick(Random rnd, int leaves) {
+    String label = ":" + rnd.nextInt(100) / 100.0;
+    if (leaves == 1) {
+      return "L" + (nodeCounter++ % 50) + label;
+    }
+    StringBuilder sb = new StringBuilder("(");
+    int parts = leaves >= 4 && rnd.nextBoolean() ? 4 : 2;
+    int left = leaves;
+    for (int i = 0; i < parts; i++) {
+      int size = i == parts - 1 ? left
+          : 1 + rnd.nextInt(left - (parts - i - 1));
+      sb.append(i > 0 ? "," : "").append(randomNewick(rnd, size));
+      left -= size;
+    }
+    return sb.append(")I").append(nodeCounter++).append(label).toString();
+  }
+
+  private static int key(TreeNode node) {
+    return node == null ? -1 : node.getKey();
+  }
+
+  private void checkAgainstTreeParser(String newick, int threads,
+      long minChunkSize) throws IOException {
+    File file = File.createTempFile("parallel", ".nwk");
+    try {
+      FileWriter out = new FileWriter(file);
+      out.write(newick);
+      out.close();
+      Tree expected = new TreeParser(new BufferedReader(
+          new StringReader(newick))).tokenize();
+      Tree tree = new ParallelTreeParser(threads, minChunkSize).parse(file);
+      assertEquals(expected.nodes.size(), tree.nodes.size());
+      assertEquals(expected.getLeafCount(), tree.getLeafCount());
+      for (int i = 0; i < expected.nodes.size(); i++) {
+        TreeNode e = expected.nodes.get(i);
+        TreeNode n = tree.nodes.get(i);
+        assertEquals(e.getKey(), n.getKey());
+        assertEquals(e.getName(), n.getName());
+        assertEquals(e.getWeight(), n.getWeight(), 0.0);
+        assertEquals(key(e.parent()), key(n.parent()));
+        assertEquals(e.depth, n.depth);
+        assertEquals(e.getLeafNum(), n.getLeafNum());
+        assertEquals(e.getSubTreeHeight(), n.getSubTreeHeight());
+        assertEquals(key(e.leftmostLeaf), key(n.leftmostLeaf));
+        assertEquals(key(e.rightmostLeaf), key(n.rightmostLeaf));
+        assertEquals(key(e.preorderNext), key(n.preorderNext));
+        assertEquals(key(e.posorderNext), key(n.posorderNext));
+      }
+      assertEquals(expected.getNewick(false), tree.getNewick(false));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testAgainstTreeParser() throws IOException {
+    Random rnd = new Random(5);
+    for (int i = 0; i < 20; i++) {
+      nodeCounter = 0;
+      String newick = randomNewick(rnd, 2 + rnd.nextInt(800)) + ";";
+      checkAgainstTreeParser(newick, 1 + rnd.nextInt(4),
+          8 + rnd.nextInt(200));
+    }
+  }
+
+  @Test
+  public void testSmallTrees() throws IOException {
+    checkAgainstTreeParser("A;", 4, 1);
+    checkAgainstTreeParser("(A,B);", 4, 1);
+    checkAgainstTreeParser("(A:0.1,(B:0.2,C)X:0.3)R:0.0;", 4, 1);
+    // no ';' at the end of the file
+    checkAgainstTreeParser("((A,B)X,(C,D)Y,E)R", 4, 1);
+  }
+
+  @Test
+  public void testCaterpillar() throws IOException {
+    // one chunk would be almost the whole file: parsed in one piece
+    StringBuilder sb = new StringBuilder("L0");
+    for (int i = 1; i < 300; i++) {
+      sb.insert(0, "(L" + i + ":0.1,").append("):0.2");
+    }
+    checkAgainstTreeParser(sb.append(";").toString(), 4, 8);
+  }
+
+}
@@ -0,0 +1,130 @@
+package hu.sztaki.phytree;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.io.FastaReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SequenceArenaTest {
+
+  private final String fastaString = "> Alma-1|0-10|b\n"
+      + "TRHHHHTTTR\n"
+      + "RTDDDHHHHR\n"
+      + "> Korte-3|0-10|a\n"
+      + "TRHHHHTTTRRTDDHDHDHD\n"
+      + "> Szilva-NO|3-20|a\n"
+      + "TRHHHHTTTR\n"
+      + "RTDDDHHHHR\n"
+      + "AAAA\n";
+
+  private List<FastaItem> readAll(SequenceArena arena) throws IOException {
+    FastaReader reader = new FastaReader(
+        new ByteArrayInputStream(fastaString.getBytes()), arena);
+    List<FastaItem> items = new ArrayList<FastaItem>();
+    FastaItem item = reader.getNextFastaItem();
+    while (item != null) {
+      items.add(item);
+      item = reader.getNextFastaItem();
+    }
+    return items;
+  }
+
+  private void checkItems(SequenceArena arena) throws IOException {
+    List<FastaItem> plain = readAll(null);
+    List<FastaItem> inArena = readAll(arena);
+    assertEquals(plain.size(), inArena.size());
+    for (int i = 0; i < plain.size(); i++) {
+      FastaItem p = plain.get(i);
+      FastaItem a = inArena.get(i);
+      assertTrue(a.isInArena());
+      assertEquals(p.getSequenceString(), a.getSequenceString());
+      assertEquals(p.getSequenceLength(), a.getSequenceLength());
+      assertEquals(p.getSequenceRows(), a.getSequenceRows());
+      for (String pattern : new String[] {"HD", "RRT", "TRH", "AAAA", "DHDHD", "W", ""}) {
+        assertEquals(p.containsPattern(pattern), a.containsPattern(pattern));
+      }
+      ByteArrayOutputStream pOut = new ByteArrayOutputStream();
+      ByteArrayOutputStream aOut = new ByteArrayOutputStream();
+      p.writeSequenceRows(pOut);
+      a.writeSequenceRows(aOut);
+      assertEquals(pOut.toString(), aOut.toString());
+    }
+    assertEquals(64, arena.getResidueCount());
+  }
+
+  @Test
+  public void testByteArena() throws IOException {
+    checkItems(new SequenceArena());
+  }
+
+  @Test
+  public void testPackedArena() throws IOException {
+    SequenceArena arena = new SequenceArena(true);
+    checkItems(arena);
+    assertTrue(arena.isPacked());
+  }
+
+  @Test
+  public void testSmallChunks() throws IOException {
+    // sequences have to be moved to new chunks while they are read
+    checkItems(new SequenceArena(false, 16));
+    checkItems(new SequenceArena(true, 8));
+  }
+
+  @Test
+  public void testPackedResidues() {
+    SequenceArena arena = new SequenceArena(true, 8);
+    arena.beginSequence();
+    arena.appendRow("ACDEFGHIKLMNPQRSTVWY");
+    arena.appendRow("BZXUOJ*-.");
+    long handle = arena.endSequence();
+    assertEquals("ACDEFGHIKLMNPQRSTVWYBZXUOJ*-.", arena.getString(handle, 29));
+    assertEquals((byte) 'Y', arena.residueAt(handle, 19));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPackedRejectsUnknownResidue() {
+    SequenceArena arena = new SequenceArena(true);
+    arena.beginSequence();
+    arena.appendRow("AC1D");
+  }
+
+  @Test
+  public void testPackedKeepsOthersOnHeap() {
+    SequenceArena arena = new SequenceArena(true);
+    assertFalse(arena.canStore("ACgtA"));
+    assertFalse(arena.canStore("AC1D"));
+    assertTrue(new SequenceArena(false).canStore("ACgt1"));
+    FastaItem masked = new FastaItem(">sp|M|0", "M", "0");
+    masked.addSeqRow("HDDA");
+    masked.addSeqRow("hdda");
+    masked.moveSequenceTo(arena);
+    assertFalse(masked.isInArena());
+    assertEquals("HDDAhdda", masked.getSequenceString());
+    assertTrue(masked.containsPattern("hd"));
+    FastaItem plain = new FastaItem(">sp|P|0", "P", "0");
+    plain.addSeqRow("HDDA");
+    plain.moveSequenceTo(arena);
+    assertTrue(plain.isInArena());
+    assertEquals("HDDA", plain.getSequenceString());
+  }
+
+  @Test
+  public void testAddRowAfterMove() {
+    FastaItem item = new FastaItem(">sp|C|ize", "C", "ize");
+    item.addSeqRow("TTTD");
+    item.moveSequenceTo(new SequenceArena());
+    item.addSeqRow("DAA");
+    assertFalse(item.isInArena());
+    assertEquals("TTTDDAA", item.getSequenceString());
+    assertTrue(item.containsPattern("DD"));
+  }
+
+}
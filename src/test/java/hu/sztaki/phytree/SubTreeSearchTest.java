@@ -1,17 +1,23 @@
 package hu.sztaki.phytree;
 
 import static org.junit.Assert.*;
+import hu.sztaki.phytree.index.KmerIndex;
+import hu.sztaki.phytree.io.FastaAccessionIndex;
 import hu.sztaki.phytree.io.FastaReader;
+import hu.sztaki.phytree.succinct.SuccinctTree;
 import hu.sztaki.phytree.tree.SeqsToTreeNodes;
 import hu.sztaki.phytree.tree.Tree;
 import hu.sztaki.phytree.tree.TreeNode;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.configuration.Configuration;
@@ -185,4 +191,232 @@ public class SubTreeSearchTest {
     assertEquals(10, fastaResult.size());
   }
 
+  @Test
+  public void testSubtreeSearchMotif() {
+    Configuration conf = new PropertiesConfiguration();
+    conf.addProperty("minLeafNum", 2);
+    conf.addProperty("minPatternPercent", 100);
+    conf.addProperty("patternType", "prosite");
+    conf.addProperty("seqPattern", "H-D");
+    SubTreeSearch ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    List<TreeNode> results = ts.findSubtrees(tree);
+
+    // same as the literal HD
+    assertEquals(2, results.size());
+    assertEquals(2, results.get(0).getLeafNum());
+    assertEquals(2, results.get(1).getLeafNum());
+    assertEquals(2, results.get(0).getLeafNumWithPattern(ts.getPattern()));
+
+    // DD or HD, every sequence has one of them
+    conf.setProperty("seqPattern", "[DH]-D");
+    ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    results = ts.findSubtrees(tree);
+    assertEquals(1, results.size());
+    assertEquals(10, results.get(0).getLeafNum());
+  }
+
+  @Test
+  public void testSubtreeSearchWithKmerIndex() {
+    Configuration conf = new PropertiesConfiguration();
+    conf.addProperty("minLeafNum", 2);
+    conf.addProperty("minPatternPercent", 100);
+    conf.addProperty("seqPattern", "HD");
+    List<FastaItem> fastaItemList = new ArrayList<FastaItem>();
+    for (TreeNode leaf : tree.nodes) {
+      if (leaf.getSequence() != null) {
+        fastaItemList.add(leaf.getSequence());
+      }
+    }
+    // indexed by their position in the FASTA string
+    FastaItem[] byIndex = new FastaItem[fastaItemList.size()];
+    for (FastaItem item : fastaItemList) {
+      byIndex[item.getIndex()] = item;
+    }
+    tree.setSequenceIndex(KmerIndex.build(Arrays.asList(byIndex), 1));
+    SubTreeSearch ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    List<TreeNode> results = ts.findSubtrees(tree);
+    assertEquals(2, results.size());
+    assertEquals(2, results.get(0).getLeafNum());
+    assertEquals(2, results.get(1).getLeafNum());
+    assertEquals(2, results.get(0).getLeafNumWithPattern(ts.getPattern()));
+  }
+
+  @Test
+  public void testSubtreeSearchExpression() {
+    Configuration conf = new PropertiesConfiguration();
+    conf.addProperty("minLeafNum", 2);
+    conf.addProperty("minPatternPercent", 100);
+    conf.addProperty("patternType", "expression");
+    conf.addProperty("seqPattern", "HD AND NOT HH");
+    SubTreeSearch ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    List<TreeNode> results = ts.findSubtrees(tree);
+    assertEquals(0, results.size());
+
+    conf.setProperty("seqPattern", "HD OR DD");
+    ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    results = ts.findSubtrees(tree);
+    assertEquals(1, results.size());
+    assertEquals(10, results.get(0).getLeafNum());
+    assertEquals(10, results.get(0).getLeafNumWithPattern(ts.getTreePattern()));
+  }
+
+  @Test
+  public void testSubtreeSearchPValue() {
+    Configuration conf = new PropertiesConfiguration();
+    conf.addProperty("minLeafNum", 2);
+    conf.addProperty("minPatternPercent", 100);
+    conf.addProperty("seqPattern", "HD");
+    // 2 of 2 leaves with 7 of 10 in the tree: p = 7/10 * 6/9 = 0.467
+    conf.addProperty("maxPValue", 0.5);
+    SubTreeSearch ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    assertEquals(2, ts.findSubtrees(tree).size());
+
+    conf.setProperty("maxPValue", 0.4);
+    ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    assertEquals(0, ts.findSubtrees(tree).size());
+  }
+
+  private List<TreeNode> findWithLimit(String limit, double value) {
+    Configuration conf = new PropertiesConfiguration();
+    conf.addProperty("minLeafNum", 2);
+    conf.addProperty("minPatternPercent", 100);
+    conf.addProperty("seqPattern", "HD");
+    conf.addProperty(limit, value);
+    SubTreeSearch ts = new SubTreeSearch();
+    ts.setConfig(conf);
+    return ts.findSubtrees(tree);
+  }
+
+  @Test
+  public void testSubtreeSearchCladeDistances() {
+    // Korte-3:0.1 + Korte-2:0.15 is too long, Alma-2:0.02 + Alma-3:0.03 is not
+    List<TreeNode> results = findWithLimit("maxCladeDiameter", 0.1);
+    assertEquals(1, results.size());
+    assertEquals(0.05, results.get(0).getCladeDiameter(), 1e-6);
+    assertEquals(0.03, results.get(0).getCladeDepth(), 1e-6);
+
+    assertEquals(1, findWithLimit("maxCladeDepth", 0.12).size());
+    // the Korte clade has a mean depth of 0.125
+    assertEquals(2, findWithLimit("maxMeanCladeDepth", 0.13).size());
+    assertEquals(1, findWithLimit("maxMeanCladeDepth", 0.12).size());
+  }
+
+  @Test
+  public void testSuccinctTreeSearch() throws IOException {
+    SuccinctTree succinct = SuccinctTree.read(new StringReader(treeString));
+    List<FastaItem> fastaItemList = new ArrayList<FastaItem>();
+    for (TreeNode node : tree.nodes) {
+      if (node.getSequence() != null) {
+        fastaItemList.add(node.getSequence());
+      }
+    }
+    succinct.setSequences(fastaItemList);
+    int[][] limits = {{8, 0, 60}, {2, 0, 100}, {0, 3, 70}, {0, 2, 100}};
+    for (int[] limit : limits) {
+      Configuration conf = new PropertiesConfiguration();
+      if (limit[0] > 0) {
+        conf.addProperty("minLeafNum", limit[0]);
+      }
+      if (limit[1] > 0) {
+        conf.addProperty("minHeightNum", limit[1]);
+      }
+      conf.addProperty("minPatternPercent", limit[2]);
+      conf.addProperty("seqPattern", "HD");
+      SubTreeSearch ts = new SubTreeSearch();
+      ts.setConfig(conf);
+      List<TreeNode> expected = ts.findSubtrees(tree);
+      SuccinctSubTreeSearch ss = new SuccinctSubTreeSearch();
+      ss.setConfig(conf);
+      List<Integer> results = ss.findSubtrees(succinct);
+      assertEquals(expected.size(), results.size());
+      for (int i = 0; i < results.size(); i++) {
+        TreeNode node = expected.get(i);
+        int v = results.get(i);
+        assertEquals(node.getKey(), v);
+        assertEquals(node.getLeafNumWithPattern(ts.getTreePattern()),
+            ss.getLeafNumWithPattern(succinct, v));
+        assertEquals(ts.getFastaResult(node), ss.getFastaResult(succinct, v));
+        assertEquals(node.getNewickSubtree(true),
+            succinct.getNewick(v, ss.getPatternLeaves()));
+      }
+    }
+  }
+
+  private File writeTempFile(String content, String suffix)
+      throws IOException {
+    File file = File.createTempFile("streaming", suffix);
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(content);
+    writer.close();
+    return file;
+  }
+
+  @Test
+  public void testStreamingSearch() throws IOException {
+    File newickFile = writeTempFile(treeString, ".nwk");
+    FastaAccessionIndex sequences = FastaAccessionIndex.build(
+        writeTempFile(fastaString, ".fasta"));
+    assertEquals(10, sequences.size());
+    Object[][] limits = {{"minLeafNum", 8}, {"minLeafNum", 2},
+        {"minHeightNum", 3}, {"maxPValue", 0.5}, {"maxPValue", 0.4}};
+    for (Object[] limit : limits) {
+      Configuration conf = new PropertiesConfiguration();
+      conf.addProperty((String) limit[0], limit[1]);
+      conf.addProperty("minPatternPercent", limit[0].equals("minLeafNum")
+          && limit[1].equals(8) ? 60 : 100);
+      conf.addProperty("seqPattern", "HD");
+      SubTreeSearch ts = new SubTreeSearch();
+      ts.setConfig(conf);
+      List<TreeNode> expected = ts.findSubtrees(tree);
+      StreamingSubTreeSearch ss = new StreamingSubTreeSearch();
+      ss.setConfig(conf);
+      ss.setSequences(sequences);
+      List<StreamingSubTreeSearch.CladeRange> results =
+          ss.findSubtrees(newickFile);
+      assertEquals(expected.size(), results.size());
+      for (int i = 0; i < results.size(); i++) {
+        TreeNode node = expected.get(i);
+        StreamingSubTreeSearch.CladeRange clade = results.get(i);
+        assertEquals(node.getLeafNum(), clade.getLeafNum());
+        assertEquals(node.getLeafNumWithPattern(ts.getTreePattern()),
+            clade.getLeafNumWithPattern());
+        List<FastaItem> fastaResult = ss.getFastaResult(newickFile, clade);
+        List<FastaItem> expectedFasta = ts.getFastaResult(node);
+        assertEquals(expectedFasta.size(), fastaResult.size());
+        for (int j = 0; j < fastaResult.size(); j++) {
+          assertEquals(expectedFasta.get(j).getHeaderRow(),
+              fastaResult.get(j).getHeaderRow());
+          assertEquals(expectedFasta.get(j).getSequenceString(),
+              fastaResult.get(j).getSequenceString());
+        }
+      }
+    }
+    sequences.close();
+    // an unreadable sequence fails the search with its IOException
+    File fastaFile = writeTempFile(fastaString, ".fasta");
+    sequences = FastaAccessionIndex.build(fastaFile);
+    new FileWriter(fastaFile).close();
+    StreamingSubTreeSearch ss = new StreamingSubTreeSearch();
+    Configuration conf = new PropertiesConfiguration();
+    conf.addProperty("seqPattern", "HD");
+    ss.setConfig(conf);
+    ss.setSequences(sequences);
+    try {
+      ss.findSubtrees(newickFile);
+      fail("the emptied sequence file should not be readable");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      sequences.close();
+    }
+  }
+
 }
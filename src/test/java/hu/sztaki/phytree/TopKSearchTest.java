@@ -0,0 +1,128 @@
+package hu.sztaki.phytree;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
+import hu.sztaki.phytree.stats.EnrichmentTest;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Test;
+
+public class TopKSearchTest {
+
+  private int leafCounter;
+
+  // random binary tree, about a third of the leaves have the pattern HD
+  private String randomNewick(Random rnd, int leaves) {
+    if (leaves == 1) {
+      return "L" + (leafCounter++) + ":0.1";
+    }
+    int left = 1 + rnd.nextInt(leaves - 1);
+    return "(" + randomNewick(rnd, left) + "," + randomNewick(rnd, leaves - left)
+        + "):0.1";
+  }
+
+  private Tree randomTree(Random rnd, int key, int leaves) {
+    leafCounter = 0;
+    String newick = "(" + randomNewick(rnd, leaves) + ");";
+    Tree tree = new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+    tree.setKey(key);
+    for (int i = 0; i < leaves; i++) {
+      FastaItem item = new FastaItem(">L" + i, "L" + i, "0");
+      item.addSeqRow(rnd.nextInt(3) == 0 ? "AHDA" : "AAAA");
+      item.setIndex(i);
+      tree.getNodeByName("L" + i).setSequence(item);
+    }
+    return tree;
+  }
+
+  // every candidate subtree scored, sorted like the collector does
+  private List<ScoredSubtree> bruteForce(List<Tree> trees, TopKSearch.Score score,
+      int minLeaves, SequencePattern pattern) {
+    List<ScoredSubtree> all = new ArrayList<ScoredSubtree>();
+    for (Tree tree : trees) {
+      TopKSearch.Background bg = new TopKSearch.Background(
+          tree.getRoot().getLeafNum(),
+          tree.getRoot().getLeafNumWithPattern(pattern),
+          EnrichmentTest.HYPERGEOMETRIC);
+      for (TreeNode node : tree.nodes) {
+        if (node.getLeafNum() < minLeaves) {
+          continue;
+        }
+        double s = score.score(node.getLeafNumWithPattern(pattern),
+            node.getLeafNum(), bg);
+        TreeNode parent = node.parent();
+        if (parent != null && parent.getLeafNum() >= minLeaves) {
+          double parentScore = score.score(
+              parent.getLeafNumWithPattern(pattern), parent.getLeafNum(), bg);
+          if (s <= parentScore) {
+            continue;
+          }
+        }
+        all.add(new ScoredSubtree(tree, node, s, pattern));
+      }
+    }
+    Collections.sort(all);
+    return all;
+  }
+
+  @Test
+  public void testAgainstBruteForce() {
+    Random rnd = new Random(21);
+    SequencePattern pattern = LiteralPattern.forLiteral("HD");
+    for (TopKSearch.Score score : TopKSearch.Score.values()) {
+      for (int round = 0; round < 20; round++) {
+        List<Tree> trees = new ArrayList<Tree>();
+        for (int t = 0; t < 3; t++) {
+          trees.add(randomTree(rnd, t, 2 + rnd.nextInt(40)));
+        }
+        int k = 1 + rnd.nextInt(6);
+        int minLeaves = 1 + rnd.nextInt(4);
+        Configuration conf = new PropertiesConfiguration();
+        conf.addProperty("minLeafNum", minLeaves);
+        conf.addProperty("topK", k);
+        conf.addProperty("topKScore", score.name().toLowerCase());
+        TopKSearch ts = new TopKSearch();
+        ts.setConfig(conf);
+        ts.setPattern(pattern);
+        for (Tree tree : trees) {
+          ts.findTopSubtrees(tree);
+        }
+        List<ScoredSubtree> results = ts.getCollector().getResults();
+        List<ScoredSubtree> expected = bruteForce(trees, score, minLeaves, pattern);
+        assertEquals(Math.min(k, expected.size()), results.size());
+        for (int i = 0; i < results.size(); i++) {
+          assertEquals(expected.get(i).getScore(), results.get(i).getScore(), 1e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCollector() {
+    TopKCollector collector = new TopKCollector(2);
+    Tree tree = randomTree(new Random(1), 0, 4);
+    SequencePattern pattern = LiteralPattern.forLiteral("HD");
+    assertEquals(Double.NEGATIVE_INFINITY, collector.getThreshold(), 0);
+    assertTrue(collector.offer(new ScoredSubtree(tree, tree.getRoot(), 0.5, pattern)));
+    assertTrue(collector.offer(new ScoredSubtree(tree, tree.getRoot(), 0.7, pattern)));
+    assertEquals(0.5, collector.getThreshold(), 0);
+    assertFalse(collector.offer(new ScoredSubtree(tree, tree.getRoot(), 0.1, pattern)));
+    assertTrue(collector.offer(new ScoredSubtree(tree, tree.getRoot(), 0.9, pattern)));
+    assertEquals(0.7, collector.getThreshold(), 0);
+    assertEquals(0.9, collector.getResults().get(0).getScore(), 0);
+  }
+
+}
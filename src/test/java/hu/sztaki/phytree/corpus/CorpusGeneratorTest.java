@@ -0,0 +1,128 @@
+package hu.sztaki.phytree.corpus;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.fileops.FileNumber;
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.TreeParser;
+import hu.sztaki.phytree.io.FastaReader;
+import hu.sztaki.phytree.tree.Tree;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CorpusGeneratorTest {
+
+  private static File tempDir() throws IOException {
+    File dir = File.createTempFile("corpus", "");
+    dir.delete();
+    dir.mkdir();
+    return dir;
+  }
+
+  private static List<FastaItem> readFasta(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      FastaReader reader = new FastaReader(in);
+      List<FastaItem> ret = new ArrayList<FastaItem>();
+      FastaItem item = reader.getNextFastaItem();
+      while (item != null) {
+        ret.add(item);
+        item = reader.getNextFastaItem();
+      }
+      return ret;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Tree readTree(File file) throws IOException {
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    try {
+      return new TreeParser(br).tokenize();
+    } finally {
+      br.close();
+    }
+  }
+
+  @Test
+  public void testShapes() throws IOException {
+    File dir = tempDir();
+    try {
+      int cluster = 1;
+      for (CorpusGenerator.Shape shape : CorpusGenerator.Shape.values()) {
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setShape(shape);
+        generator.setSeqLength(20, 40);
+        generator.writeCluster(cluster, 300, dir, dir);
+        File treeFile = new File(dir, CorpusGenerator.treeFileName(cluster));
+        File fastaFile =
+            new File(dir, CorpusGenerator.fastaFileName(cluster));
+        assertEquals(cluster, new FileNumber(treeFile.getPath()).getNumber());
+        assertEquals(cluster, new FileNumber(fastaFile.getPath()).getNumber());
+        Tree tree = readTree(treeFile);
+        assertEquals(300, tree.getLeafCount());
+        List<FastaItem> items = readFasta(fastaFile);
+        assertEquals(300, items.size());
+        for (FastaItem item : items) {
+          // every header is the name of a leaf
+          String name = item.getHeaderRow().substring(1).trim();
+          assertNotNull(name, tree.getNodeByName(name));
+          String[] parts = name.split("\\|");
+          String[] range = parts[1].split("-");
+          assertEquals(item.getSequenceLength(), Integer.parseInt(range[1])
+              - Integer.parseInt(range[0]) + 1);
+        }
+        if (shape == CorpusGenerator.Shape.STAR) {
+          assertEquals(300, tree.getRoot().numberChildren());
+        }
+        cluster++;
+      }
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testMotifRate() throws IOException {
+    File dir = tempDir();
+    try {
+      CorpusGenerator generator = new CorpusGenerator();
+      generator.setMotif("HD", 0.25);
+      generator.writeCluster(4, 2000, dir, dir);
+      int found = 0;
+      for (FastaItem item : readFasta(
+          new File(dir, CorpusGenerator.fastaFileName(4)))) {
+        if (item.getSequenceString().contains("HD")) {
+          found++;
+        }
+      }
+      assertEquals(generator.getPlantedCount(), found);
+      assertEquals(500, found, 60);
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testFormatLength() {
+    assertEquals("0.000010", CorpusGenerator.formatLength(0.00001));
+    assertEquals("2.500000", CorpusGenerator.formatLength(2.5));
+    assertEquals("0.000000", CorpusGenerator.formatLength(0));
+  }
+
+}
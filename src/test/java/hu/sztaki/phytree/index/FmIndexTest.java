@@ -0,0 +1,183 @@
+package hu.sztaki.phytree.index;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FmIndexTest {
+
+  private static final String ALPHABET = "ACDEH";
+
+  private List<FastaItem> items;
+
+  private String randomSequence(Random rnd, int len) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < len; i++) {
+      sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  private List<FastaItem> randomItems(Random rnd, int num, int maxLen) {
+    List<FastaItem> list = new ArrayList<FastaItem>();
+    for (int i = 0; i < num; i++) {
+      FastaItem item = new FastaItem(">S" + i + "|0-10|a", "S" + i, "0-10");
+      item.addSeqRow(randomSequence(rnd, rnd.nextInt(maxLen)));
+      item.setIndex(i);
+      list.add(item);
+    }
+    return list;
+  }
+
+  @Before
+  public void setUp() {
+    items = randomItems(new Random(8), 40, 50);
+  }
+
+  private BitSet bruteForce(String literal) {
+    BitSet expected = new BitSet();
+    for (int i = 0; i < items.size(); i++) {
+      if (items.get(i).getSequenceString().contains(literal)) {
+        expected.set(i);
+      }
+    }
+    return expected;
+  }
+
+  private void checkSuffixArray(final byte[] text, int sigma) {
+    Integer[] expected = new Integer[text.length];
+    for (int i = 0; i < text.length; i++) {
+      expected[i] = i;
+    }
+    Arrays.sort(expected, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        for (int i = a, j = b; ; i++, j++) {
+          if (text[i] != text[j]) {
+            return text[i] - text[j];
+          }
+        }
+      }
+    });
+    int[] sa = FmIndex.suffixArray(text, sigma);
+    for (int i = 0; i < text.length; i++) {
+      assertEquals(expected[i].intValue(), sa[i]);
+    }
+  }
+
+  @Test
+  public void testSuffixArray() {
+    Random rnd = new Random(1);
+    for (int round = 0; round < 200; round++) {
+      byte[] text = new byte[1 + rnd.nextInt(50)];
+      for (int i = 0; i < text.length - 1; i++) {
+        text[i] = (byte) (1 + rnd.nextInt(3));
+      }
+      checkSuffixArray(text, 4);
+    }
+    // repeats, sorted recursively on several levels
+    for (int period = 1; period <= 7; period++) {
+      byte[] text = new byte[1000 + period];
+      for (int i = 0; i < text.length - 1; i++) {
+        int mark = i % (3 * period) == 0 ? 1 : 0;
+        text[i] = (byte) (1 + (i % period) % 2 + mark);
+      }
+      checkSuffixArray(text, 4);
+    }
+  }
+
+  @Test
+  public void testAgainstBruteForce() {
+    FmIndex index = FmIndex.build(items);
+    Random rnd = new Random(9);
+    for (int round = 0; round < 500; round++) {
+      String literal = randomSequence(rnd, rnd.nextInt(10));
+      assertEquals(literal, bruteForce(literal), index.getItems(literal));
+    }
+    assertTrue(index.getItems("W").isEmpty());
+    assertEquals(0, index.count("W"));
+
+    List<FastaItem> two = new ArrayList<FastaItem>();
+    FastaItem a = new FastaItem(">A|0-1|a", "A", "0-1");
+    a.addSeqRow("HDHDH");
+    a.setIndex(0);
+    FastaItem b = new FastaItem(">B|0-1|a", "B", "0-1");
+    b.addSeqRow("DHD");
+    b.setIndex(1);
+    two.add(a);
+    two.add(b);
+    FmIndex small = FmIndex.build(two);
+    assertEquals(3, small.count("HD"));
+    assertEquals(3, small.count("DH"));
+    assertEquals(1, small.count("HDHDH"));
+    // not across the boundary of the two sequences
+    assertEquals(0, small.count("HDHDHD"));
+  }
+
+  @Test
+  public void testPrepare() {
+    FmIndex index = FmIndex.build(items);
+    SequencePattern literal = LiteralPattern.forLiteral("HDA");
+    SequencePattern prepared = index.prepare(literal);
+    assertTrue(prepared instanceof LeafSetPattern);
+    assertEquals(literal.getKey(), prepared.getKey());
+    for (FastaItem item : items) {
+      assertEquals(literal.matches(item), prepared.matches(item));
+    }
+  }
+
+  @Test
+  public void testMemory() {
+    List<FastaItem> big = randomItems(new Random(2), 2000, 400);
+    long residues = 0;
+    for (FastaItem item : big) {
+      residues += item.getSequenceLength();
+    }
+    FmIndex index = FmIndex.build(big);
+    assertTrue(index.getMemoryBytes() < 2 * residues);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    File dir = File.createTempFile("fmindex", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      File fasta = new File(dir, "cluster1.fasta");
+      FileOutputStream out = new FileOutputStream(fasta);
+      out.write(">S0|0-10|a\nACDE\n".getBytes());
+      out.close();
+
+      FmIndex built = FmIndex.forFastaFile(fasta, items, dir);
+      assertTrue(new File(dir, "cluster1.fasta.fm.idx").exists());
+      FmIndex loaded = FmIndex.forFastaFile(fasta, items, dir);
+      assertEquals(built.count("HD"), loaded.count("HD"));
+      assertEquals(bruteForce("CDEH"), loaded.getItems("CDEH"));
+      long stamp = fasta.lastModified() * 31 + fasta.length();
+      File indexFile = new File(dir, "cluster1.fasta.fm.idx");
+      assertNull(FmIndex.read(indexFile, items, stamp + 1));
+      assertNull(FmIndex.read(indexFile, items.subList(0, 3), stamp));
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+package hu.sztaki.phytree.index;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+import hu.sztaki.phytree.pattern.SequencePattern;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class KmerIndexTest {
+
+  private static final String ALPHABET = "ACDEH";
+
+  private List<FastaItem> items;
+
+  private String randomSequence(Random rnd, int len) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < len; i++) {
+      sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  @Before
+  public void setUp() {
+    Random rnd = new Random(3);
+    items = new ArrayList<FastaItem>();
+    for (int i = 0; i < 50; i++) {
+      FastaItem item = new FastaItem(">S" + i + "|0-10|a", "S" + i, "0-10");
+      item.addSeqRow(randomSequence(rnd, rnd.nextInt(30)));
+      item.addSeqRow(randomSequence(rnd, rnd.nextInt(30)));
+      item.setIndex(i);
+      items.add(item);
+    }
+  }
+
+  private BitSet bruteForce(String literal) {
+    BitSet expected = new BitSet();
+    for (int i = 0; i < items.size(); i++) {
+      if (items.get(i).getSequenceString().contains(literal)) {
+        expected.set(i);
+      }
+    }
+    return expected;
+  }
+
+  @Test
+  public void testAgainstBruteForce() {
+    KmerIndex index = KmerIndex.build(items, 3);
+    Random rnd = new Random(4);
+    for (int round = 0; round < 500; round++) {
+      String literal = randomSequence(rnd, rnd.nextInt(8));
+      assertEquals(literal, bruteForce(literal), index.getItems(literal));
+    }
+    assertTrue(index.getItems("W").isEmpty());
+  }
+
+  @Test
+  public void testPrepare() {
+    KmerIndex index = KmerIndex.build(items, 4);
+    SequencePattern literal = LiteralPattern.forLiteral("HDA");
+    SequencePattern prepared = index.prepare(literal);
+    assertTrue(prepared instanceof LeafSetPattern);
+    assertEquals(literal.getKey(), prepared.getKey());
+    for (FastaItem item : items) {
+      assertEquals(literal.matches(item), prepared.matches(item));
+    }
+    // items of other files are matched by the pattern
+    FastaItem other = new FastaItem(">X|0-1|a", "X", "0-1");
+    other.addSeqRow("WHDAW");
+    assertTrue(prepared.matches(other));
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    File dir = File.createTempFile("kmerindex", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      File fasta = new File(dir, "cluster1.fasta");
+      FileOutputStream out = new FileOutputStream(fasta);
+      out.write(">S0|0-10|a\nACDE\n".getBytes());
+      out.close();
+
+      KmerIndex built = KmerIndex.forFastaFile(fasta, items, 3, dir);
+      File indexFile = new File(dir, "cluster1.fasta.k3.idx");
+      assertTrue(indexFile.exists());
+      KmerIndex loaded = KmerIndex.forFastaFile(fasta, items, 3, dir);
+      assertEquals(built.getKmerCount(), loaded.getKmerCount());
+      assertEquals(built.getItems("HDE"), loaded.getItems("HDE"));
+      assertEquals(bruteForce("CDEH"), loaded.getItems("CDEH"));
+
+      // saved for another k or another number of items
+      long stamp = fasta.lastModified() * 31 + fasta.length();
+      assertNull(KmerIndex.read(indexFile, items, 4, stamp));
+      assertNull(KmerIndex.read(indexFile, items.subList(0, 10), 3, stamp));
+      assertNull(KmerIndex.read(indexFile, items, 3, stamp + 1));
+      assertNotNull(KmerIndex.read(indexFile, items, 3, stamp));
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+package hu.sztaki.phytree.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NewickEventParserTest {
+
+  // the events as text, with the ranges of the nodes
+  private static class Recorder implements NewickHandler {
+    final String newick;
+    final List<String> events = new ArrayList<String>();
+    final List<Long> opens = new ArrayList<Long>();
+
+    Recorder(String newick) {
+      this.newick = newick;
+    }
+
+    @Override
+    public void openClade(long offset) {
+      events.add("(");
+      opens.add(offset);
+    }
+
+    @Override
+    public void leaf(String name, float length, long start, long end) {
+      events.add(name + ":" + length + "="
+          + newick.substring((int) start, (int) end));
+    }
+
+    @Override
+    public void closeClade(String name, float length, long end) {
+      long start = opens.remove(opens.size() - 1);
+      events.add(")" + name + ":" + length + "="
+          + newick.substring((int) start, (int) end));
+    }
+  }
+
+  private List<String> parse(String newick) throws IOException {
+    Recorder recorder = new Recorder(newick);
+    assertTrue(new NewickEventParser(new StringReader(newick))
+        .parse(recorder));
+    return recorder.events;
+  }
+
+  @Test
+  public void testEvents() throws IOException {
+    List<String> events = parse("((A:0.1,B:0.2)X:0.5,C);");
+    assertEquals(7, events.size());
+    assertEquals("(", events.get(0));
+    assertEquals("(", events.get(1));
+    assertEquals("A:0.1=A:0.1", events.get(2));
+    assertEquals("B:0.2=B:0.2", events.get(3));
+    assertEquals(")X:0.5=(A:0.1,B:0.2)X:0.5", events.get(4));
+    assertEquals("C:0.0=C", events.get(5));
+    assertEquals("):0.0=((A:0.1,B:0.2)X:0.5,C)", events.get(6));
+  }
+
+  @Test
+  public void testSyntax() throws IOException {
+    List<String> events = parse(" ( \"A B\" [a comment] : 1 , ,(:2) ) ;");
+    assertEquals(7, events.size());
+    assertEquals("A B:1.0=\"A B\" [a comment] : 1", events.get(1));
+    assertEquals(":0.0=", events.get(2));
+    assertEquals(":2.0=:2", events.get(4));
+  }
+
+  @Test
+  public void testSeveralTrees() throws IOException {
+    String newicks = "(A,B);\n(C,(D,E));\n";
+    NewickEventParser parser = new NewickEventParser(
+        new StringReader(newicks));
+    Recorder recorder = new Recorder(newicks);
+    assertTrue(parser.parse(recorder));
+    assertTrue(parser.parse(recorder));
+    // offsets go on in the second tree
+    assertEquals("):0.0=(C,(D,E))", recorder.events.get(
+        recorder.events.size() - 1));
+    assertFalse(parser.parse(recorder));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnbalanced() throws IOException {
+    parse("((A,B);");
+  }
+
+}
@@ -0,0 +1,90 @@
+package hu.sztaki.phytree.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+
+  private ExecutorService pool;
+
+  @Before
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(3);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    InputStream in = new GZIPInputStream(
+        new ByteArrayInputStream(compressed));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testMultiMemberOutput() throws IOException {
+    Random rnd = new Random(11);
+    byte[] data = new byte[ParallelGzipOutputStream.BLOCK_SIZE
+        * (ParallelGzipOutputStream.MAX_PENDING_BLOCKS + 5) + 777];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ("ACDEFGHIKLMNPQRSTVWY\n".charAt(rnd.nextInt(21)));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, pool);
+    int written = 0;
+    while (written < data.length) {
+      int n = Math.min(data.length - written, 1 + rnd.nextInt(50000));
+      out.write(data, written, n);
+      written += n;
+      if (written < data.length) {
+        out.write(data[written++]);
+      }
+    }
+    out.close();
+    assertEquals(bytes.size(), out.getCompressedBytes());
+    assertTrue(bytes.size() < data.length);
+    assertTrue(Arrays.equals(data, gunzip(bytes.toByteArray())));
+  }
+
+  @Test
+  public void testEndBlockAndEmpty() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, pool);
+    out.close();
+    assertEquals(0, gunzip(bytes.toByteArray()).length);
+
+    bytes = new ByteArrayOutputStream();
+    out = new ParallelGzipOutputStream(bytes, pool);
+    out.write("(A,B);".getBytes("UTF-8"));
+    out.endBlock();
+    out.endBlock();
+    out.write("\n(C,D);".getBytes("UTF-8"));
+    out.flush();
+    out.close();
+    assertEquals("(A,B);\n(C,D);",
+        new String(gunzip(bytes.toByteArray()), "UTF-8"));
+  }
+
+}
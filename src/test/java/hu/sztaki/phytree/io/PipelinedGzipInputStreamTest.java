@@ -0,0 +1,129 @@
+package hu.sztaki.phytree.io;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.fileops.FileNumber;
+import hu.sztaki.phytree.FastaItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class PipelinedGzipInputStreamTest {
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(data);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testReadsWhatWasCompressed() throws IOException {
+    Random rnd = new Random(7);
+    // more than the ring holds, and not a multiple of the buffer size
+    byte[] data = new byte[PipelinedGzipInputStream.BUFFER_SIZE
+        * (PipelinedGzipInputStream.RING_SIZE * 3) + 12345];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ("ACGT\n".charAt(rnd.nextInt(5)));
+    }
+    InputStream in = new PipelinedGzipInputStream(
+        new ByteArrayInputStream(gzip(data)));
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int n;
+    while ((n = in.read(buffer, 0, 1 + rnd.nextInt(buffer.length))) != -1) {
+      read.write(buffer, 0, n);
+      int b = in.read();
+      if (b != -1) {
+        read.write(b);
+      }
+    }
+    assertEquals(-1, in.read());
+    in.close();
+    assertTrue(Arrays.equals(data, read.toByteArray()));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    InputStream in = new PipelinedGzipInputStream(
+        new ByteArrayInputStream(gzip(new byte[0])));
+    assertEquals(-1, in.read());
+    in.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotGzip() throws IOException {
+    new PipelinedGzipInputStream(new ByteArrayInputStream(
+        ">seq\nACGT\n".getBytes()));
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    byte[] data = new byte[PipelinedGzipInputStream.BUFFER_SIZE * 4];
+    new Random(1).nextBytes(data);
+    byte[] compressed = gzip(data);
+    InputStream in = new PipelinedGzipInputStream(new ByteArrayInputStream(
+        Arrays.copyOf(compressed, compressed.length / 2)));
+    try {
+      while (in.read() != -1) {
+      }
+      fail("a truncated file should not be read to its end");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testCloseBeforeTheEnd() throws IOException {
+    byte[] data = new byte[PipelinedGzipInputStream.BUFFER_SIZE
+        * PipelinedGzipInputStream.RING_SIZE * 4];
+    InputStream in = new PipelinedGzipInputStream(
+        new ByteArrayInputStream(gzip(data)));
+    assertEquals(0, in.read());
+    in.close();
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testCompressedFastaFile() throws IOException {
+    File dir = File.createTempFile("gzip", "");
+    dir.delete();
+    dir.mkdir();
+    File file = new File(dir, "cluster_12.fasta.gz");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(gzip(">A|1-10|x\nACGT\nAC\n>B|2-3|y\nGG\n".getBytes()));
+      out.close();
+      assertTrue(InputFiles.isCompressed(file));
+      assertTrue(InputFiles.uncompressedName(file.getName())
+          .endsWith(".fasta"));
+      assertEquals("tree_3.nwk", InputFiles.uncompressedName("tree_3.nwk"));
+      // the cluster number is the last number of the name, not of ".gz"
+      assertEquals(3, new FileNumber("dir/tree_3.nwk.gz").getNumber());
+      InputStream in = InputFiles.open(file);
+      FastaReader reader = new FastaReader(in);
+      FastaItem item = reader.getNextFastaItem();
+      assertEquals(">A|1-10|x", item.getHeaderRow());
+      assertEquals("ACGTAC", item.getSequenceString());
+      assertEquals("GG", reader.getNextFastaItem().getSequenceString());
+      assertNull(reader.getNextFastaItem());
+      in.close();
+    } finally {
+      file.delete();
+      dir.delete();
+    }
+  }
+
+}
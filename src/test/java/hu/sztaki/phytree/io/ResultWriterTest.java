@@ -0,0 +1,187 @@
+package hu.sztaki.phytree.io;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.pattern.LiteralPattern;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultWriterTest {
+
+  private File outDir;
+  private List<FastaItem> fastaList;
+
+  @Before
+  public void setUp() throws IOException {
+    outDir = File.createTempFile("resultwriter", "");
+    outDir.delete();
+    FastaItem fastaItem1 = new FastaItem(">sp|B23456|something1", "B23456", "1");
+    fastaItem1.addSeqRow("AAAA");
+    FastaItem fastaItem2 = new FastaItem(">sp|A23456|something2", "A23456", "0");
+    fastaItem2.addSeqRow("AHDA");
+    fastaList = new ArrayList<FastaItem>();
+    fastaList.add(fastaItem1);
+    fastaList.add(fastaItem2);
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = outDir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    outDir.delete();
+  }
+
+  private String readFile(File f) throws IOException {
+    InputStream is = new FileInputStream(f);
+    byte[] content = new byte[(int) f.length()];
+    int read = 0;
+    while (read < content.length) {
+      read += is.read(content, read, content.length - read);
+    }
+    is.close();
+    return new String(content, "UTF-8");
+  }
+
+  @Test
+  public void testAsyncWrite() throws IOException {
+    ResultWriter writer = new ResultWriter(true, 2, 4, true);
+    writer.start();
+    for (int i = 0; i < 10; i++) {
+      writer.submit(new ResultDescriptor(outDir.getPath(), "sub1tree" + i,
+          "(A:0.1,B:0.2);", fastaList, LiteralPattern.forLiteral("HD")));
+    }
+    writer.close();
+    assertEquals(10, writer.getResultsWritten());
+    assertTrue(writer.getMaxQueueDepth() <= 2);
+    assertTrue(writer.getBatchesWritten() <= 10);
+    assertEquals("(A:0.1,B:0.2);", readFile(new File(outDir, "sub1tree9.nwk")));
+    String expected = ">sp|A23456|something2|1\nAHDA\n"
+        + ">sp|B23456|something1|0\nAAAA\n";
+    assertEquals(expected, readFile(new File(outDir, "sub1tree0.fasta")));
+  }
+
+  private String readGzipFile(File f) throws IOException {
+    InputStream is = new GZIPInputStream(new FileInputStream(f));
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = is.read(buffer)) != -1) {
+      content.write(buffer, 0, n);
+    }
+    is.close();
+    return new String(content.toByteArray(), "UTF-8");
+  }
+
+  @Test
+  public void testCompressedWrite() throws IOException {
+    ResultWriter writer = new ResultWriter(true, 2, 4, true);
+    writer.setCompression(3);
+    for (int i = 0; i < 10; i++) {
+      writer.submit(new ResultDescriptor(outDir.getPath(), "sub3tree" + i,
+          "(A:0.1,B:0.2);", fastaList, LiteralPattern.forLiteral("HD")));
+    }
+    writer.close();
+    assertEquals(10, writer.getResultsWritten());
+    assertFalse(new File(outDir, "sub3tree9.nwk").exists());
+    assertEquals("(A:0.1,B:0.2);",
+        readGzipFile(new File(outDir, "sub3tree9.nwk.gz")));
+    String expected = ">sp|A23456|something2|1\nAHDA\n"
+        + ">sp|B23456|something1|0\nAAAA\n";
+    assertEquals(expected,
+        readGzipFile(new File(outDir, "sub3tree0.fasta.gz")));
+  }
+
+  @Test
+  public void testLeafWithoutSequence() throws IOException {
+    fastaList.add(null);
+    ResultWriter writer = new ResultWriter(true, 2, 4, false);
+    writer.submit(new ResultDescriptor(outDir.getPath(), "sub4tree0",
+        "(A:0.1,B:0.2,C:0.3);", fastaList, LiteralPattern.forLiteral("HD")));
+    writer.close();
+    String expected = ">sp|A23456|something2|1\nAHDA\n"
+        + ">sp|B23456|something1|0\nAAAA\n";
+    assertEquals(expected, readFile(new File(outDir, "sub4tree0.fasta")));
+  }
+
+  @Test(timeout = 10000)
+  public void testWriterErrorDoesNotBlock() {
+    ResultWriter writer = new ResultWriter(true, 1, 1, false);
+    try {
+      // no newick: fails on the writer thread
+      for (int i = 0; i < 10; i++) {
+        writer.submit(new ResultDescriptor(outDir.getPath(), "sub5tree" + i,
+            null, fastaList, LiteralPattern.forLiteral("HD")));
+      }
+      writer.close();
+      fail("the error of the writer thread should be rethrown");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof NullPointerException);
+    }
+    try {
+      // stops the writer thread if submit gave up first
+      writer.close();
+    } catch (IOException e) {
+      // the same error again
+    }
+  }
+
+  @Test
+  public void testNewickRange() throws IOException {
+    outDir.mkdirs();
+    File treeFile = new File(outDir, "tree.nwk");
+    FileOutputStream os = new FileOutputStream(treeFile);
+    os.write("((A:0.1,B:0.2):0.5,C:0.3);".getBytes("UTF-8"));
+    os.close();
+    ResultWriter writer = new ResultWriter(false, 1, 1, false);
+    writer.submit(new ResultDescriptor(outDir.getPath(), "sub6tree0",
+        treeFile, 1, 18, fastaList, LiteralPattern.forLiteral("HD")));
+    writer.close();
+    assertEquals("((A:0.1,B:0.2):0.5);",
+        readFile(new File(outDir, "sub6tree0.nwk")));
+    assertEquals(20, writer.getBytesWritten()
+        - new File(outDir, "sub6tree0.fasta").length());
+    writer = new ResultWriter(true, 1, 1, false);
+    writer.setCompression(2);
+    writer.submit(new ResultDescriptor(outDir.getPath(), "sub6tree1",
+        treeFile, 1, 18, fastaList, LiteralPattern.forLiteral("HD")));
+    writer.close();
+    assertEquals("((A:0.1,B:0.2):0.5);",
+        readGzipFile(new File(outDir, "sub6tree1.nwk.gz")));
+    writer = new ResultWriter(false, 1, 1, false);
+    try {
+      writer.submit(new ResultDescriptor(outDir.getPath(), "sub6tree2",
+          treeFile, 1, 1000, fastaList, LiteralPattern.forLiteral("HD")));
+      fail("a range past the end of the file should be rejected");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSyncWrite() throws IOException {
+    ResultWriter writer = new ResultWriter(false, 1, 1, false);
+    writer.submit(new ResultDescriptor(outDir.getPath(), "sub2tree0",
+        "(A:0.1);", fastaList, LiteralPattern.forLiteral("HD")));
+    assertEquals(1, writer.getResultsWritten());
+    assertEquals("(A:0.1);", readFile(new File(outDir, "sub2tree0.nwk")));
+    writer.close();
+  }
+
+}
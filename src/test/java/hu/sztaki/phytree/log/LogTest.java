@@ -0,0 +1,100 @@
+package hu.sztaki.phytree.log;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LogTest {
+
+  // appends to a buffer, so the test can see what was logged
+  private static class BufferAppender implements Appender {
+    final StringBuilder lines = new StringBuilder();
+
+    @Override
+    public void append(Level level, String line) {
+      lines.append(line).append('\n');
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @After
+  public void tearDown() {
+    Log.setLevel(Level.INFO);
+    Log.close();
+  }
+
+  @Test
+  public void testLevels() {
+    BufferAppender buffer = new BufferAppender();
+    Log.setAppender(buffer);
+    Log.setLevel(Level.WARN);
+    Logger log = Log.getLogger(LogTest.class);
+    assertEquals("LogTest", log.getName());
+    assertFalse(log.isInfoEnabled());
+    log.info("not shown");
+    log.debug("not shown");
+    log.warn("shown");
+    log.error("also shown");
+    assertEquals("Warning: shown\nError: also shown\n",
+        buffer.lines.toString());
+    Log.setLevel(Level.OFF);
+    log.error("nothing");
+    assertFalse(log.isEnabled(Level.OFF));
+    assertEquals(Level.DEBUG, Level.fromName(" debug"));
+  }
+
+  @Test
+  public void testWarningSummary() {
+    BufferAppender buffer = new BufferAppender();
+    Log.setAppender(buffer);
+    WarningSummary summary = new WarningSummary(
+        Log.getLogger(LogTest.class), "no node", 2);
+    for (int i = 0; i < 5; i++) {
+      summary.add("s" + i);
+    }
+    assertEquals(5, summary.getCount());
+    summary.report("tree 3");
+    assertEquals("Warning: no node: s0\nWarning: no node: s1\n"
+        + "Warning: no node: 3 more in tree 3 (5 in all)\n",
+        buffer.lines.toString());
+    assertEquals(0, summary.getCount());
+    // nothing left out, nothing to report
+    summary.add("s5");
+    summary.report("tree 4");
+    assertTrue(buffer.lines.toString().endsWith("no node: s5\n"));
+  }
+
+  @Test
+  public void testAsyncAppender() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    AsyncAppender appender = new AsyncAppender(new PrintStream(out, true),
+        new PrintStream(err, true), 4, 3);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      appender.append(Level.INFO, "line " + i);
+      expected.append("line " + i).append('\n');
+    }
+    appender.append(Level.WARN, "Warning: w");
+    appender.flush();
+    assertEquals(expected.toString(), out.toString());
+    assertEquals("Warning: w\n", err.toString());
+    appender.append(Level.INFO, "last");
+    appender.close();
+    assertTrue(out.toString().endsWith("line 99\nlast\n"));
+    // closed twice is the same as once
+    appender.close();
+  }
+
+}
@@ -0,0 +1,105 @@
+package hu.sztaki.phytree.memory;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.TreeParser;
+import hu.sztaki.phytree.tree.Tree;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TreeFootprintTest {
+
+  private Tree tree(String newick, boolean withSequences) {
+    Tree tree = new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+    tree.setKey(7);
+    if (withSequences) {
+      for (int i = 0; i < 3; i++) {
+        FastaItem item = new FastaItem(">L" + i, "L" + i, "0");
+        item.addSeqRow("ACDEFGHIKL");
+        tree.getNodeByName("L" + i).setSequence(item);
+      }
+    }
+    return tree;
+  }
+
+  @Test
+  public void testObjectSizes() {
+    assertEquals(16, ObjectSizes.align(13));
+    assertEquals(16, ObjectSizes.align(16));
+    assertEquals(0, ObjectSizes.stringSize(null));
+    // 24 for the String, 16 + 5 bytes aligned to 24 for its array
+    assertEquals(48, ObjectSizes.stringSize("ACGTA"));
+    assertEquals(24, ObjectSizes.intArraySize(2));
+    assertEquals(0, ObjectSizes.boxedIntegerSize(5));
+    assertEquals(16, ObjectSizes.boxedIntegerSize(1000));
+    List<String> list = new ArrayList<String>();
+    long empty = ObjectSizes.arrayListSize(list);
+    list.add("a");
+    assertTrue(ObjectSizes.arrayListSize(list) > empty);
+    assertTrue(ObjectSizes.hashMapSize(100) > ObjectSizes.hashMapSize(10));
+  }
+
+  @Test
+  public void testEstimate() {
+    Tree bare = tree("((L0:1,L1:1):1,L2:1);", false);
+    TreeFootprint f = TreeFootprint.estimate(bare);
+    assertEquals(1, f.getTreeCount());
+    assertEquals(bare.nodes.size(), f.getNodeCount());
+    assertEquals(3, f.getLeafCount());
+    assertTrue(f.getNodeBytes() >= bare.nodes.size()
+        * ObjectSizes.shallowSize(hu.sztaki.phytree.tree.TreeNode.class));
+    assertTrue(f.getNameBytes() >= 3 * ObjectSizes.stringSize("L0"));
+    assertEquals(0, f.getSequenceBytes());
+    assertEquals(0, f.getArenaBytes());
+    assertEquals(f.getNodeBytes() + f.getChildListBytes()
+        + f.getPatternCacheBytes() + f.getNameBytes() + f.getSequenceBytes()
+        + f.getNodesByNameBytes(), f.getHeapBytes());
+
+    TreeFootprint withSequences =
+        TreeFootprint.estimate(tree("((L0:1,L1:1):1,L2:1);", true));
+    assertTrue(withSequences.getSequenceBytes()
+        >= 3 * ObjectSizes.stringSize("ACDEFGHIKL"));
+    assertTrue(withSequences.getHeapBytes() > f.getHeapBytes());
+
+    f.add(withSequences);
+    assertEquals(2, f.getTreeCount());
+    assertEquals(6, f.getLeafCount());
+    assertTrue(f.getHeapBytesPerNode() > 0);
+  }
+
+  @Test
+  public void testLimit() {
+    Tree tree = tree("((L0:1,L1:1):1,L2:1);", true);
+    FootprintAccounting unlimited = new FootprintAccounting(0);
+    long bytes = unlimited.account(tree).getHeapBytes();
+    unlimited.account(tree);
+    assertEquals(2 * bytes, unlimited.getTotals().getHeapBytes());
+    new FootprintAccounting(bytes).account(tree);
+    try {
+      new FootprintAccounting(bytes - 1).account(tree);
+      fail("a tree over the limit should not be accepted");
+    } catch (TreeTooLargeException e) {
+      assertTrue(e.getMessage().contains("Tree 7"));
+    }
+  }
+
+  @Test
+  public void testParseBytes() {
+    assertEquals(1000, FootprintAccounting.parseBytes("1000"));
+    assertEquals(512 * 1024, FootprintAccounting.parseBytes("512k"));
+    assertEquals(3L * 1024 * 1024, FootprintAccounting.parseBytes("3M"));
+    assertEquals(2L << 30, FootprintAccounting.parseBytes(" 2g "));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseBadBytes() {
+    FootprintAccounting.parseBytes("lots");
+  }
+}
@@ -0,0 +1,61 @@
+package hu.sztaki.phytree.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StageMetricsTest {
+
+  @Test
+  public void testHistogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.getPercentile(0.5));
+    assertEquals(0, LatencyHistogram.bucket(0));
+    assertEquals(1, LatencyHistogram.bucket(1));
+    assertEquals(10, LatencyHistogram.bucket(1000));
+    assertEquals(1023, LatencyHistogram.upperBound(10));
+    for (int i = 0; i < 98; i++) {
+      h.record(1000);
+    }
+    h.record(1000000);
+    h.record(5000000);
+    assertEquals(100, h.getCount());
+    assertEquals(5000000, h.getMax());
+    // the upper bound of the bucket of 1000 ns
+    assertEquals(1023, h.getPercentile(0.5));
+    assertEquals(1023, h.getPercentile(0.98));
+    assertEquals((1 << 20) - 1, h.getPercentile(0.99));
+    // never more than the largest recorded
+    assertEquals(5000000, h.getPercentile(1.0));
+  }
+
+  @Test
+  public void testTimers() {
+    StageMetrics metrics = new StageMetrics();
+    metrics.start(Stage.PARSE, 1).end(100, 7, 4, 0);
+    metrics.start(Stage.PARSE, 2).end(50, 3, 2, 0);
+    metrics.start(Stage.SEARCH, 1).end(0, 7, 4, 2);
+    assertEquals(2, metrics.getCount(Stage.PARSE));
+    assertEquals(150, metrics.getBytes(Stage.PARSE));
+    assertEquals(10, metrics.getNodes(Stage.PARSE));
+    assertEquals(6, metrics.getLeaves(Stage.PARSE));
+    assertEquals(2, metrics.getResults(Stage.SEARCH));
+    assertEquals(0, metrics.getCount(Stage.WRITE));
+    assertTrue(metrics.getNanos(Stage.PARSE) >= 0);
+
+    String summary = metrics.getSummary();
+    assertTrue(summary.contains("parse: 2 x"));
+    assertTrue(summary.contains("150 bytes"));
+    assertFalse(summary.contains("write:"));
+
+    String json = metrics.toJson();
+    assertTrue(json.startsWith("{"));
+    assertTrue(json.trim().endsWith("}"));
+    // every stage is in the report, even the ones that did not run
+    for (Stage stage : Stage.values()) {
+      assertTrue(json.contains("\"stage\": \"" + stage.getLabel() + "\""));
+    }
+    assertTrue(json.contains("\"count\": 2, \"totalNanos\""));
+  }
+
+}
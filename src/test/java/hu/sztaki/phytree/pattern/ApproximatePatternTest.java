@@ -0,0 +1,120 @@
+package hu.sztaki.phytree.pattern;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ApproximatePatternTest {
+
+  private static final String ALPHABET = "ACDEH";
+
+  private String randomSequence(Random rnd, int len) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < len; i++) {
+      sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  private boolean matches(SequencePattern p, String seq) {
+    ByteBuffer buf = PatternScanner.wrap(seq.getBytes());
+    return p.matches(buf, 0, seq.length());
+  }
+
+  private boolean bruteForceHamming(String text, String pattern, int k) {
+    for (int i = 0; i + pattern.length() <= text.length(); i++) {
+      int diff = 0;
+      for (int j = 0; j < pattern.length(); j++) {
+        if (text.charAt(i + j) != pattern.charAt(j)) {
+          diff++;
+        }
+      }
+      if (diff <= k) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // smallest edit distance of the pattern to any substring of the text
+  private boolean bruteForceEdit(String text, String pattern, int k) {
+    int m = pattern.length();
+    int[] column = new int[m + 1];
+    for (int i = 0; i <= m; i++) {
+      column[i] = i;
+    }
+    if (column[m] <= k) {
+      return true;
+    }
+    for (int j = 0; j < text.length(); j++) {
+      int diagonal = column[0];
+      column[0] = 0;
+      for (int i = 1; i <= m; i++) {
+        int up = column[i];
+        int cost = pattern.charAt(i - 1) == text.charAt(j) ? 0 : 1;
+        column[i] = Math.min(diagonal + cost, Math.min(up, column[i - 1]) + 1);
+        diagonal = up;
+      }
+      if (column[m] <= k) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testSimple() {
+    ApproximatePattern hamming = new ApproximatePattern("HDHDH", 1,
+        ApproximatePattern.Mode.HAMMING);
+    assertTrue(matches(hamming, "TTHDHDHTT"));
+    assertTrue(matches(hamming, "TTHDADHTT"));
+    assertFalse(matches(hamming, "TTHDAAHTT"));
+    assertFalse(matches(hamming, "TTHDDHTT"));
+    ApproximatePattern edit = new ApproximatePattern("HDHDH", 1,
+        ApproximatePattern.Mode.EDIT);
+    assertTrue(matches(edit, "TTHDDHTT"));
+    assertTrue(matches(edit, "TTHDHADHTT"));
+    assertFalse(matches(edit, "TTHDAAHTT"));
+  }
+
+  @Test
+  public void testAgainstBruteForce() {
+    Random rnd = new Random(11);
+    for (int round = 0; round < 3000; round++) {
+      String text = randomSequence(rnd, rnd.nextInt(60));
+      String pattern = randomSequence(rnd, 1 + rnd.nextInt(10));
+      int k = rnd.nextInt(4);
+      ApproximatePattern hamming = new ApproximatePattern(pattern, k,
+          ApproximatePattern.Mode.HAMMING);
+      ApproximatePattern edit = new ApproximatePattern(pattern, k,
+          ApproximatePattern.Mode.EDIT);
+      String msg = pattern + " k=" + k + " in " + text;
+      assertEquals(msg, bruteForceHamming(text, pattern, k), matches(hamming, text));
+      assertEquals(msg, bruteForceEdit(text, pattern, k), matches(edit, text));
+    }
+  }
+
+  @Test
+  public void testLongPattern() {
+    Random rnd = new Random(5);
+    String pattern = randomSequence(rnd, 64);
+    String text = randomSequence(rnd, 100) + pattern.substring(0, 30) + "A"
+        + pattern.substring(31) + randomSequence(rnd, 100);
+    assertTrue(matches(new ApproximatePattern(pattern, 1,
+        ApproximatePattern.Mode.HAMMING), text));
+    assertTrue(matches(new ApproximatePattern(pattern, 1,
+        ApproximatePattern.Mode.EDIT), text));
+    assertFalse(matches(new ApproximatePattern(pattern, 0,
+        ApproximatePattern.Mode.HAMMING), text));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLong() {
+    new ApproximatePattern(randomSequence(new Random(1), 65), 1,
+        ApproximatePattern.Mode.HAMMING);
+  }
+
+}
@@ -0,0 +1,99 @@
+package hu.sztaki.phytree.pattern;
+
+import static org.junit.Assert.*;
+
+import hu.sztaki.phytree.FastaItem;
+import hu.sztaki.phytree.TreeParser;
+import hu.sztaki.phytree.index.KmerIndex;
+import hu.sztaki.phytree.index.LeafSetPattern;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpressionPatternTest {
+
+  private boolean matches(SequencePattern p, String seq) {
+    ByteBuffer buf = PatternScanner.wrap(seq.getBytes());
+    return p.matches(buf, 0, seq.length());
+  }
+
+  @Test
+  public void testMatches() {
+    ExpressionPattern p = ExpressionPattern.parse("HD AND NOT (DE OR KK)");
+    assertEquals(3, p.getAtoms().size());
+    assertTrue(matches(p, "AAHDAA"));
+    assertFalse(matches(p, "AAHDAKK"));
+    assertFalse(matches(p, "DEAAHD"));
+    assertFalse(matches(p, "AAAA"));
+    ExpressionPattern q = ExpressionPattern.parse(
+        "prosite(C-x(2)-C) & !\"AND\" | KK");
+    assertTrue(matches(q, "ACAACA"));
+    assertFalse(matches(q, "ACAACAND"));
+    assertTrue(matches(q, "ANDKK"));
+    // AND binds stronger than OR
+    assertEquals(ExpressionPattern.parse("A OR B AND C").getKey(),
+        ExpressionPattern.parse("A | (B & C)").getKey());
+    // a literal starting with a keyword
+    assertTrue(matches(ExpressionPattern.parse("NOTCH"), "ANOTCHA"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnbalanced() {
+    ExpressionPattern.parse("HD AND (DE OR KK");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingOperand() {
+    ExpressionPattern.parse("HD AND");
+  }
+
+  private Tree buildTree(String[] sequences) {
+    StringBuilder newick = new StringBuilder("(");
+    for (int i = 0; i < sequences.length; i++) {
+      newick.append(i > 0 ? "," : "").append("L" + i + ":0.1");
+    }
+    newick.append(");");
+    Tree tree = new TreeParser(new BufferedReader(
+        new StringReader(newick.toString()))).tokenize();
+    for (int i = 0; i < sequences.length; i++) {
+      FastaItem item = new FastaItem(">L" + i, "L" + i, "0");
+      item.addSeqRow(sequences[i]);
+      item.setIndex(i);
+      tree.getNodeByName("L" + i).setSequence(item);
+    }
+    return tree;
+  }
+
+  @Test
+  public void testPrepare() {
+    String[] sequences = {"HDAA", "HDKK", "DEHD", "AAAA", "KKDE", "HHDD"};
+    ExpressionPattern p = ExpressionPattern.parse("HD AND NOT (DE OR KK)");
+    Tree tree = buildTree(sequences);
+    SequencePattern prepared = p.prepare(tree);
+    assertTrue(prepared instanceof LeafSetPattern);
+    assertEquals(p.getKey(), prepared.getKey());
+    assertEquals(2, ((LeafSetPattern) prepared).getItems().cardinality());
+    assertEquals(2, tree.getRoot().getLeafNumWithPattern(prepared));
+
+    // atoms are taken from the index of the tree
+    List<FastaItem> items = new ArrayList<FastaItem>();
+    for (int i = 0; i < sequences.length; i++) {
+      items.add(tree.getNodeByName("L" + i).getSequence());
+    }
+    tree.setSequenceIndex(KmerIndex.build(items, 2));
+    prepared = p.prepare(tree);
+    for (TreeNode node : tree.nodes) {
+      if (node.isLeaf()) {
+        assertEquals(node.seqMatches(p), node.seqMatches(prepared));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+package hu.sztaki.phytree.pattern;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class MotifPatternTest {
+
+  private boolean matches(SequencePattern p, String seq) {
+    ByteBuffer buf = PatternScanner.wrap(seq.getBytes());
+    return p.matches(buf, 0, seq.length());
+  }
+
+  @Test
+  public void testSimpleMotif() {
+    MotifPattern p = new MotifPattern("H-x(2)-[DE]-x-H");
+    assertTrue(p.isDeterministic());
+    assertTrue(matches(p, "AAHAADAHAA"));
+    assertTrue(matches(p, "HKKEQH"));
+    assertFalse(matches(p, "HKKAQH"));
+    assertFalse(matches(p, "HKEQH"));
+    assertTrue(matches(p, "hkkeqh"));
+  }
+
+  @Test
+  public void testAnchorsAndRanges() {
+    MotifPattern start = new MotifPattern("<M-{P}-x(1,3)-[ST].");
+    assertTrue(matches(start, "MAAS"));
+    assertTrue(matches(start, "MAAAAT"));
+    assertFalse(matches(start, "MPAAS"));
+    assertFalse(matches(start, "AMAAS"));
+    MotifPattern end = new MotifPattern("G-x(0,2)-K>");
+    assertTrue(matches(end, "AAGK"));
+    assertTrue(matches(end, "AGAAK"));
+    assertFalse(matches(end, "AGAAKA"));
+    assertFalse(matches(end, "AGAAAK"));
+  }
+
+  private static final String ALPHABET = "ADEGHKST";
+
+  private String randomSequence(Random rnd, int len) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < len; i++) {
+      sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testAgainstRegex() {
+    String[] motifs = {"H-x(2)-[DE]-x-H", "<G-x(0,3)-{HK}", "[ST]-x(2,5)-[DE]>",
+        "A-A-x-A", "x(3)", "<x(2)-G>", "K-{D}(2)-x(1,2)-E"};
+    String[] regexes = {"H.{2}[DE].H", "^G.{0,3}[^HK]", "[ST].{2,5}[DE]$",
+        "AA.A", ".{3}", "^.{2}G$", "K[^D]{2}.{1,2}E"};
+    Random rnd = new Random(7);
+    for (int i = 0; i < motifs.length; i++) {
+      MotifPattern dfa = new MotifPattern(motifs[i]);
+      // a single state is not enough for any of them, forces the fallback
+      MotifPattern nfa = new MotifPattern(motifs[i], 1);
+      assertTrue(dfa.isDeterministic());
+      assertFalse(nfa.isDeterministic());
+      Pattern regex = Pattern.compile(regexes[i]);
+      for (int round = 0; round < 500; round++) {
+        String seq = randomSequence(rnd, rnd.nextInt(20));
+        boolean expected = regex.matcher(seq).find();
+        assertEquals(motifs[i] + " on " + seq, expected, matches(dfa, seq));
+        assertEquals(motifs[i] + " on " + seq, expected, matches(nfa, seq));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMotif() {
+    new MotifPattern("H-x(2-[DE]");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidResidue() {
+    new MotifPattern("H-1-D");
+  }
+
+}
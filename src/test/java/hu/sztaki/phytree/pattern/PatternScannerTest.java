@@ -0,0 +1,61 @@
+package hu.sztaki.phytree.pattern;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PatternScannerTest {
+
+  private static final String ALPHABET = "ACDEH";
+
+  private String randomSequence(Random rnd, int len) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < len; i++) {
+      sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testSimple() {
+    PatternScanner scanner = new PatternScanner("HD".getBytes());
+    ByteBuffer buf = PatternScanner.wrap("TRHHHHTTTRRTDDHDHDHD".getBytes());
+    assertEquals(14, scanner.indexOf(buf, 0, 20));
+    assertEquals(16, scanner.indexOf(buf, 15, 20));
+    assertEquals(-1, scanner.indexOf(buf, 0, 15));
+    assertTrue(new PatternScanner("".getBytes()).contains(buf, 3, 3));
+    assertFalse(new PatternScanner("TRHHHHTTTRRTDDHDHDHDA".getBytes()).contains(buf, 0, 20));
+  }
+
+  @Test
+  public void testAgainstStringIndexOf() {
+    Random rnd = new Random(42);
+    for (int round = 0; round < 2000; round++) {
+      String text = randomSequence(rnd, rnd.nextInt(80));
+      String pattern = randomSequence(rnd, 1 + rnd.nextInt(6));
+      int from = text.length() == 0 ? 0 : rnd.nextInt(text.length());
+      PatternScanner scanner = new PatternScanner(pattern.getBytes());
+
+      int expected = text.indexOf(pattern, from);
+      ByteBuffer heap = PatternScanner.wrap(text.getBytes());
+      assertEquals(expected, scanner.indexOf(heap, from, text.length()));
+
+      // direct buffer with the text in the middle
+      ByteBuffer direct = ByteBuffer.allocateDirect(text.length() + 20);
+      direct.order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < text.length(); i++) {
+        direct.put(10 + i, (byte) text.charAt(i));
+      }
+      int found = scanner.indexOf(direct, 10 + from, 10 + text.length());
+      assertEquals(expected, found == -1 ? -1 : found - 10);
+
+      ByteBuffer bigEndian = ByteBuffer.wrap(text.getBytes());
+      assertEquals(expected, scanner.indexOf(bigEndian, from, text.length()));
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package hu.sztaki.phytree.stats;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import org.junit.Test;
+
+public class EnrichmentTestTest {
+
+  private BigInteger choose(int n, int k) {
+    BigInteger r = BigInteger.ONE;
+    for (int i = 0; i < k; i++) {
+      r = r.multiply(BigInteger.valueOf(n - i)).divide(BigInteger.valueOf(i + 1));
+    }
+    return r;
+  }
+
+  private double exactHypergeometric(int k, int n, int K, int N) {
+    BigInteger sum = BigInteger.ZERO;
+    for (int i = k; i <= Math.min(n, K); i++) {
+      if (n - i <= N - K) {
+        sum = sum.add(choose(K, i).multiply(choose(N - K, n - i)));
+      }
+    }
+    return new BigDecimal(sum).divide(new BigDecimal(choose(N, n)),
+        MathContext.DECIMAL64).doubleValue();
+  }
+
+  private double exactBinomial(int k, int n, int K, int N) {
+    double p = 1.0 * K / N;
+    double sum = 0;
+    for (int i = k; i <= n; i++) {
+      sum += choose(n, i).doubleValue() * Math.pow(p, i) * Math.pow(1 - p, n - i);
+    }
+    return sum;
+  }
+
+  @Test
+  public void testAgainstExact() {
+    int[][] cases = {{3, 5, 10, 40}, {0, 5, 10, 40}, {5, 5, 10, 40},
+        {7, 10, 30, 100}, {2, 10, 30, 100}, {20, 25, 40, 60}, {1, 1, 1, 1},
+        {12, 30, 12, 200}, {4, 20, 5, 30}, {6, 10, 80, 100},
+        {540, 600, 900, 1000}, {75, 100, 810, 1000}, {1, 40, 3, 50}};
+    for (int[] c : cases) {
+      double hyper = exactHypergeometric(c[0], c[1], c[2], c[3]);
+      assertEquals(hyper, EnrichmentTest.HYPERGEOMETRIC.pValue(c[0], c[1], c[2], c[3]),
+          hyper * 1e-9 + 1e-15);
+      double bin = exactBinomial(c[0], c[1], c[2], c[3]);
+      assertEquals(bin, EnrichmentTest.BINOMIAL.pValue(c[0], c[1], c[2], c[3]),
+          bin * 1e-9 + 1e-15);
+    }
+  }
+
+  @Test
+  public void testTinyPValues() {
+    // 700 of 700 leaves in a tree of 100000 with 10% pattern leaves
+    double s = EnrichmentTest.HYPERGEOMETRIC.significance(700, 700, 10000, 100000);
+    assertTrue(s > 690 && s < 710);
+    s = EnrichmentTest.BINOMIAL.significance(700, 700, 10000, 100000);
+    assertEquals(700, s, 1e-6);
+    // far below the expected count
+    assertEquals(1.0, EnrichmentTest.HYPERGEOMETRIC.pValue(10, 5000, 2500, 10000), 1e-9);
+    assertEquals(1.0, EnrichmentTest.BINOMIAL.pValue(10, 5000, 2500, 10000), 1e-9);
+  }
+
+  @Test
+  public void testLogFactorialTable() {
+    LogFactorialTable table = new LogFactorialTable(4);
+    assertEquals(0, table.logFactorial(0), 0);
+    assertEquals(Math.log(120), table.logFactorial(5), 1e-12);
+    assertTrue(table.size() >= 6);
+    assertEquals(Math.log(3628800), table.logFactorial(10), 1e-12);
+    assertEquals(Math.log(252), table.logChoose(10, 5), 1e-12);
+  }
+
+}
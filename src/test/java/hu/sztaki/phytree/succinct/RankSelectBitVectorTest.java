@@ -0,0 +1,58 @@
+package hu.sztaki.phytree.succinct;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RankSelectBitVectorTest {
+
+  private void checkAgainstBitSet(BitSet bits, int size) {
+    RankSelectBitVector vector = new RankSelectBitVector(bits.toLongArray(),
+        size);
+    assertEquals(size, vector.size());
+    assertEquals(bits.cardinality(), vector.ones());
+    int rank = 0;
+    for (int i = 0; i <= size; i++) {
+      assertEquals(rank, vector.rank1(i));
+      assertEquals(i - rank, vector.rank0(i));
+      if (i < size) {
+        assertEquals(bits.get(i), vector.get(i));
+        if (bits.get(i)) {
+          assertEquals(i, vector.select1(rank));
+          rank++;
+        }
+      }
+    }
+    assertEquals(-1, vector.select1(rank));
+  }
+
+  @Test
+  public void testRandom() {
+    Random rnd = new Random(5);
+    for (int round = 0; round < 20; round++) {
+      int size = rnd.nextInt(5000);
+      // dense and sparse vectors
+      int density = 1 + rnd.nextInt(50);
+      BitSet bits = new BitSet(size);
+      for (int i = 0; i < size; i++) {
+        if (rnd.nextInt(density) == 0) {
+          bits.set(i);
+        }
+      }
+      checkAgainstBitSet(bits, size);
+    }
+  }
+
+  @Test
+  public void testEdges() {
+    checkAgainstBitSet(new BitSet(), 0);
+    BitSet all = new BitSet();
+    all.set(0, 1024);
+    checkAgainstBitSet(all, 1024);
+    checkAgainstBitSet(new BitSet(), 700);
+  }
+
+}
@@ -0,0 +1,113 @@
+package hu.sztaki.phytree.succinct;
+
+import static org.junit.Assert.*;
+import hu.sztaki.phytree.TreeParser;
+import hu.sztaki.phytree.tree.Tree;
+import hu.sztaki.phytree.tree.TreeNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SuccinctTreeTest {
+
+  private int nodeCounter;
+
+  private String randomNewick(Random rnd, int leaves, boolean caterpillar) {
+    String label = ":" + rnd.nextInt(100) / 100.0;
+    if (leaves == 1) {
+      return "L" + (nodeCounter++) + label;
+    }
+    StringBuilder sb = new StringBuilder("(");
+    if (caterpillar) {
+      sb.append(randomNewick(rnd, 1, true)).append(",")
+          .append(randomNewick(rnd, leaves - 1, true));
+    } else {
+      int parts = leaves >= 3 && rnd.nextBoolean() ? 3 : 2;
+      int left = leaves;
+      for (int i = 0; i < parts; i++) {
+        int size = i == parts - 1 ? left
+            : 1 + rnd.nextInt(left - (parts - i - 1));
+        sb.append(i > 0 ? "," : "").append(randomNewick(rnd, size, false));
+        left -= size;
+      }
+    }
+    return sb.append(")I").append(nodeCounter++).append(label).toString();
+  }
+
+  private void checkAgainstTree(String newick) throws IOException {
+    Tree tree = new TreeParser(new BufferedReader(new StringReader(newick)))
+        .tokenize();
+    SuccinctTree succinct = SuccinctTree.read(new StringReader(newick));
+    List<TreeNode> nodes = tree.nodes;
+    assertEquals(nodes.size(), succinct.getNodeCount());
+    assertEquals(tree.getRoot().getLeafNum(), succinct.getLeafCount());
+    int leafRank = 0;
+    for (TreeNode node : nodes) {
+      int v = node.getKey();
+      assertEquals(node.isLeaf(), succinct.isLeaf(v));
+      assertEquals(node.getName(), succinct.getName(v));
+      assertEquals(node.getDistFromParent(), succinct.getDistFromParent(v),
+          0.0);
+      assertEquals(node.parent() == null ? -1 : node.parent().getKey(),
+          succinct.parent(v));
+      assertEquals(node.isLeaf() ? -1 : node.getChildren().get(0).getKey(),
+          succinct.firstChild(v));
+      int sibling = -1;
+      if (node.parent() != null) {
+        List<TreeNode> siblings = node.parent().getChildren();
+        int i = siblings.indexOf(node);
+        sibling = i + 1 < siblings.size() ? siblings.get(i + 1).getKey() : -1;
+      }
+      assertEquals(sibling, succinct.nextSibling(v));
+      assertEquals(node.getLeafNum(), succinct.getLeafNum(v));
+      assertEquals(node.depth, succinct.getDepth(v));
+      assertEquals(node.getSubTreeHeight(), succinct.getSubTreeHeight(v));
+      assertEquals(leafRank, succinct.getLeafRank(v));
+      if (node.isLeaf()) {
+        assertEquals(v, succinct.getLeaf(leafRank));
+        leafRank++;
+      }
+    }
+    assertEquals(tree.getRoot().getNewickSubtree(false),
+        succinct.getNewick(succinct.getRoot(), null));
+  }
+
+  @Test
+  public void testAgainstTreeParser() throws IOException {
+    Random rnd = new Random(3);
+    for (int round = 0; round < 20; round++) {
+      nodeCounter = 0;
+      checkAgainstTree(randomNewick(rnd, 1 + rnd.nextInt(1500), false) + ";");
+    }
+    // deep enough for matching parentheses many blocks apart
+    nodeCounter = 0;
+    checkAgainstTree(randomNewick(rnd, 700, true) + ";");
+  }
+
+  @Test
+  public void testSyntax() throws IOException {
+    SuccinctTree tree = SuccinctTree.read(new StringReader(
+        "(A:0.1, \"B C\" [comment]:2,(,)X):0.5;"));
+    assertEquals(6, tree.getNodeCount());
+    assertEquals(4, tree.getLeafCount());
+    assertEquals("B C", tree.getName(2));
+    assertEquals(2.0f, tree.getDistFromParent(2), 0.0);
+    assertEquals(0.5f, tree.getDistFromParent(0), 0.0);
+    assertEquals("X", tree.getName(3));
+    assertEquals("", tree.getName(4));
+    assertEquals(3, tree.parent(5));
+    assertEquals(3, tree.getSubtreeSize(3));
+    assertEquals(3, tree.getSubTreeHeight(0));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnbalanced() throws IOException {
+    SuccinctTree.read(new StringReader("((A,B);"));
+  }
+
+}
@@ -0,0 +1,125 @@
+package hu.sztaki.phytree.tree;
+
+import static org.junit.Assert.*;
+import hu.sztaki.phytree.TreeParser;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LcaIndexTest {
+
+  private int leafCounter;
+
+  private String randomNewick(Random rnd, int leaves) {
+    if (leaves == 1) {
+      return "L" + (leafCounter++) + ":" + randomLength(rnd);
+    }
+    // 2 or 3 children
+    int parts = leaves >= 3 && rnd.nextBoolean() ? 3 : 2;
+    StringBuilder sb = new StringBuilder("(");
+    int left = leaves;
+    for (int i = 0; i < parts; i++) {
+      int size = i == parts - 1 ? left : 1 + rnd.nextInt(left - (parts - i - 1));
+      sb.append(i > 0 ? "," : "").append(randomNewick(rnd, size));
+      left -= size;
+    }
+    return sb.append("):").append(randomLength(rnd)).toString();
+  }
+
+  private String randomLength(Random rnd) {
+    return String.valueOf(rnd.nextInt(100) / 100.0);
+  }
+
+  private double naiveDistance(TreeNode a, TreeNode b) {
+    TreeNode lca = naiveLca(a, b);
+    double distance = 0;
+    for (TreeNode n = a; n != lca; n = n.parent()) {
+      distance += n.getDistFromParent();
+    }
+    for (TreeNode n = b; n != lca; n = n.parent()) {
+      distance += n.getDistFromParent();
+    }
+    return distance;
+  }
+
+  private TreeNode naiveLca(TreeNode a, TreeNode b) {
+    Set<TreeNode> ancestors = new HashSet<TreeNode>();
+    for (TreeNode n = a; n != null; n = n.parent()) {
+      ancestors.add(n);
+    }
+    for (TreeNode n = b; n != null; n = n.parent()) {
+      if (ancestors.contains(n)) {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testAgainstNaive() {
+    Random rnd = new Random(13);
+    for (int round = 0; round < 30; round++) {
+      leafCounter = 0;
+      String newick = "(" + randomNewick(rnd, 1 + rnd.nextInt(60)) + ");";
+      Tree tree = new TreeParser(new BufferedReader(new StringReader(newick)))
+          .tokenize();
+      LcaIndex index = tree.getLcaIndex();
+      List<TreeNode> nodes = tree.nodes;
+      for (int q = 0; q < 200; q++) {
+        TreeNode a = nodes.get(rnd.nextInt(nodes.size()));
+        TreeNode b = nodes.get(rnd.nextInt(nodes.size()));
+        assertSame(naiveLca(a, b), index.lca(a, b));
+      }
+      List<TreeNode> set = new ArrayList<TreeNode>();
+      TreeNode expected = null;
+      for (int i = 0; i < 5; i++) {
+        TreeNode n = nodes.get(rnd.nextInt(nodes.size()));
+        set.add(n);
+        expected = expected == null ? n : naiveLca(expected, n);
+      }
+      assertSame(expected, index.lca(set));
+    }
+  }
+
+  @Test
+  public void testDistancesAgainstNaive() {
+    Random rnd = new Random(17);
+    for (int round = 0; round < 20; round++) {
+      leafCounter = 0;
+      String newick = "(" + randomNewick(rnd, 1 + rnd.nextInt(40)) + ");";
+      Tree tree = new TreeParser(new BufferedReader(new StringReader(newick)))
+          .tokenize();
+      LcaIndex index = tree.getLcaIndex();
+      List<TreeNode> nodes = tree.nodes;
+      for (int q = 0; q < 100; q++) {
+        TreeNode a = nodes.get(rnd.nextInt(nodes.size()));
+        TreeNode b = nodes.get(rnd.nextInt(nodes.size()));
+        assertEquals(naiveDistance(a, b), index.distance(a, b), 1e-6);
+      }
+      for (TreeNode clade : nodes) {
+        List<TreeNode> leaves = tree.getLeaves(clade);
+        double depth = 0;
+        double sum = 0;
+        double diameter = 0;
+        for (TreeNode leaf : leaves) {
+          depth = Math.max(depth, naiveDistance(clade, leaf));
+          sum += naiveDistance(clade, leaf);
+          for (TreeNode other : leaves) {
+            diameter = Math.max(diameter, naiveDistance(leaf, other));
+          }
+        }
+        assertEquals(depth, clade.getCladeDepth(), 1e-6);
+        assertEquals(sum / leaves.size(), clade.getMeanCladeDepth(), 1e-6);
+        assertEquals(diameter, clade.getCladeDiameter(), 1e-6);
+      }
+    }
+  }
+
+}